@@ -0,0 +1,253 @@
+package nablarch.common.mail;
+
+import java.util.regex.Pattern;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
+import nablarch.core.util.annotation.Published;
+
+/**
+ * SMTPサーバの応答時間と一時エラー(4xx)の発生率に応じて、同時に送信するメールの数の上限を調整するクラス。
+ * <p/>
+ * 上限はAIMD(加算増加・乗算減少)で調整する。
+ * 送信結果を一定件数(ウィンドウ)ごとに評価し、平均応答時間が閾値以内かつ一時エラーの発生率が閾値以下の場合は上限を1加算する。
+ * それ以外の場合は上限に減少率を乗じて減らす。
+ * 一時エラーの発生件数がウィンドウの途中で閾値を超えた場合は、ウィンドウの終了を待たずに上限を減らす。
+ * <p/>
+ * 現在の上限は{@link #getLimit()}で取得できる。
+ */
+@Published(tag = "architect")
+public class AdaptiveConcurrencyLimiter {
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(AdaptiveConcurrencyLimiter.class);
+
+    /** SMTPの一時エラーを表す応答 */
+    private static final Pattern TRANSIENT_RESPONSE = Pattern.compile("^4\\d\\d[ -].*", Pattern.DOTALL);
+
+    /** 上限の初期値 */
+    private int initialLimit = 10;
+
+    /** 上限の最小値 */
+    private int minLimit = 1;
+
+    /** 上限の最大値 */
+    private int maxLimit = 100;
+
+    /** 送信結果を評価する件数 */
+    private int windowSize = 10;
+
+    /** 平均応答時間の閾値(ミリ秒) */
+    private long latencyThresholdMillis = 3000L;
+
+    /** 一時エラーの発生率の閾値 */
+    private double throttledRateThreshold = 0.05;
+
+    /** 上限を減らす際の減少率 */
+    private double backoffRatio = 0.5;
+
+    /** 現在の上限(未初期化の場合は0) */
+    private int limit;
+
+    /** 送信中の件数 */
+    private int inFlightCount;
+
+    /** ウィンドウ内の送信結果の件数 */
+    private int sampleCount;
+
+    /** ウィンドウ内の一時エラーの件数 */
+    private int throttledCount;
+
+    /** ウィンドウ内の応答時間の合計(ミリ秒) */
+    private long latencySumMillis;
+
+    /**
+     * 上限の初期値を設定する。
+     * <p/>
+     * デフォルトは10。
+     *
+     * @param initialLimit 上限の初期値
+     */
+    public void setInitialLimit(int initialLimit) {
+        this.initialLimit = initialLimit;
+    }
+
+    /**
+     * 上限の最小値を設定する。
+     * <p/>
+     * デフォルトは1。
+     *
+     * @param minLimit 上限の最小値
+     */
+    public void setMinLimit(int minLimit) {
+        this.minLimit = minLimit;
+    }
+
+    /**
+     * 上限の最大値を設定する。
+     * <p/>
+     * デフォルトは100。
+     *
+     * @param maxLimit 上限の最大値
+     */
+    public void setMaxLimit(int maxLimit) {
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * 送信結果を評価する件数を設定する。
+     * <p/>
+     * デフォルトは10。
+     *
+     * @param windowSize 送信結果を評価する件数
+     */
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * 平均応答時間の閾値(ミリ秒)を設定する。
+     * <p/>
+     * デフォルトは3秒。
+     *
+     * @param latencyThresholdMillis 平均応答時間の閾値(ミリ秒)
+     */
+    public void setLatencyThresholdMillis(long latencyThresholdMillis) {
+        this.latencyThresholdMillis = latencyThresholdMillis;
+    }
+
+    /**
+     * 一時エラーの発生率の閾値を設定する。
+     * <p/>
+     * デフォルトは0.05(5%)。
+     *
+     * @param throttledRateThreshold 一時エラーの発生率の閾値
+     */
+    public void setThrottledRateThreshold(double throttledRateThreshold) {
+        this.throttledRateThreshold = throttledRateThreshold;
+    }
+
+    /**
+     * 上限を減らす際の減少率を設定する。
+     * <p/>
+     * デフォルトは0.5。
+     *
+     * @param backoffRatio 上限を減らす際の減少率
+     */
+    public void setBackoffRatio(double backoffRatio) {
+        this.backoffRatio = backoffRatio;
+    }
+
+    /**
+     * 送信を開始する。送信中の件数が上限に達している場合は、空きができるまで待機する。
+     *
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (inFlightCount >= currentLimit()) {
+            wait();
+        }
+        inFlightCount++;
+    }
+
+    /**
+     * 送信の終了と送信結果を記録する。
+     *
+     * @param latencyMillis 送信にかかった時間(ミリ秒)
+     * @param e 送信時の例外(送信に成功した場合は{@code null})
+     */
+    public synchronized void release(long latencyMillis, MessagingException e) {
+        inFlightCount--;
+        sampleCount++;
+        latencySumMillis += latencyMillis;
+        if (e != null && isThrottled(e)) {
+            throttledCount++;
+        }
+
+        if (throttledCount > windowSize * throttledRateThreshold) {
+            decrease();
+        } else if (sampleCount >= windowSize) {
+            if (latencySumMillis / sampleCount > latencyThresholdMillis) {
+                decrease();
+            } else {
+                limit = Math.min(maxLimit, currentLimit() + 1);
+                resetWindow();
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * 送信時の例外がSMTPサーバの一時エラー(4xx)によるものか否かを判定する。
+     * <p/>
+     * 宛先が未送信のまま残された{@link SendFailedException}、または4xxの応答をメッセージに持つ例外を一時エラーとする。
+     *
+     * @param e 送信時の例外
+     * @return 一時エラーの場合は{@code true}
+     */
+    protected boolean isThrottled(MessagingException e) {
+        if (e instanceof SendFailedException) {
+            final Address[] validUnsent = ((SendFailedException) e).getValidUnsentAddresses();
+            if (validUnsent != null && validUnsent.length > 0) {
+                return true;
+            }
+        }
+        final String message = e.getMessage();
+        return message != null && TRANSIENT_RESPONSE.matcher(message).matches();
+    }
+
+    /**
+     * 上限を減少率に応じて減らす。
+     */
+    private void decrease() {
+        final int previous = currentLimit();
+        limit = Math.max(minLimit, (int) (previous * backoffRatio));
+        LOGGER.logInfo(String.format(
+                "concurrency limit decreased. limit=[%d -> %d] samples=[%d] throttled=[%d] average latency=[%dms]",
+                previous, limit, sampleCount, throttledCount, latencySumMillis / sampleCount));
+        resetWindow();
+    }
+
+    /**
+     * ウィンドウ内の送信結果をクリアする。
+     */
+    private void resetWindow() {
+        sampleCount = 0;
+        throttledCount = 0;
+        latencySumMillis = 0L;
+    }
+
+    /**
+     * 現在の上限を取得する。未初期化の場合は初期値で初期化する。
+     *
+     * @return 現在の上限
+     */
+    private int currentLimit() {
+        if (limit == 0) {
+            limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        }
+        return limit;
+    }
+
+    /**
+     * 現在の上限を取得する。
+     *
+     * @return 現在の上限
+     */
+    public synchronized int getLimit() {
+        return currentLimit();
+    }
+
+    /**
+     * 送信中の件数を取得する。
+     *
+     * @return 送信中の件数
+     */
+    public synchronized int getInFlightCount() {
+        return inFlightCount;
+    }
+}
@@ -0,0 +1,207 @@
+package nablarch.common.mail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.activation.DataHandler;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeUtility;
+import javax.mail.internet.PreencodedMimeBodyPart;
+import javax.mail.util.ByteArrayDataSource;
+
+import nablarch.core.util.annotation.Published;
+
+/**
+ * エンコード済みの添付ファイルのデータをキャッシュするクラス。
+ * <p/>
+ * 同一の添付ファイルを持つメールを送信する度に、添付ファイルのエンコードが行われることを防ぐ。
+ * 添付ファイルのデータをメールデータ共有テーブルで管理している場合は、データの取得も行わない。
+ * <p/>
+ * キャッシュのキーは以下のとおり。
+ * <ul>
+ * <li>メールデータ共有テーブルで管理している場合：ハッシュ値、ファイル名及びContent-Type</li>
+ * <li>上記以外の場合：データから算出したチェックサム(SHA-256)、データサイズ、ファイル名及びContent-Type</li>
+ * </ul>
+ * キャッシュの件数またはエンコード済みデータの合計サイズが上限を超えた場合は、最も長く参照されていないデータから破棄する。
+ */
+@Published(tag = "architect")
+public class AttachedFilePartCache {
+
+    /** キャッシュの最大件数 */
+    private int maxEntries = 100;
+
+    /** キャッシュするエンコード済みデータの合計サイズの上限(バイト) */
+    private long maxTotalSize = 16L * 1024 * 1024;
+
+    /** キャッシュしているエンコード済みデータの合計サイズ(バイト) */
+    private long totalSize;
+
+    /** キャッシュ(参照順) */
+    private final Map<String, EncodedData> cache = new LinkedHashMap<String, EncodedData>(16, 0.75f, true);
+
+    /**
+     * キャッシュの最大件数を設定する。
+     * <p/>
+     * デフォルトは100件。
+     *
+     * @param maxEntries キャッシュの最大件数
+     */
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * キャッシュするエンコード済みデータの合計サイズの上限(バイト)を設定する。
+     * <p/>
+     * デフォルトは16MB。上限を超えるサイズの添付ファイルはキャッシュしない。
+     *
+     * @param maxTotalSize キャッシュするエンコード済みデータの合計サイズの上限
+     */
+    public void setMaxTotalSize(long maxTotalSize) {
+        this.maxTotalSize = maxTotalSize;
+    }
+
+    /**
+     * 添付ファイルのボディパートを生成する。
+     * <p/>
+     * キャッシュにエンコード済みのデータが存在する場合はそれを使用し、
+     * 存在しない場合は添付ファイルのデータをエンコードしてキャッシュに格納する。
+     *
+     * @param attachedFile 添付ファイル
+     * @return 添付ファイルのボディパート
+     * @throws MessagingException ボディパートの生成に失敗した場合
+     */
+    public MimeBodyPart createBodyPart(MailAttachedFileTable.MailAttachedFile attachedFile) throws MessagingException {
+        final String hash = attachedFile.getFileHash();
+        final byte[] data = hash == null ? attachedFile.getFile() : null;
+        final String key = (hash != null ? hash : MailBlobTable.computeHash(data) + '\n' + data.length)
+                + '\n' + attachedFile.getContextType() + '\n' + attachedFile.getFileName();
+
+        EncodedData encodedData = get(key);
+        if (encodedData == null) {
+            encodedData = encode(data != null ? data : attachedFile.getFile(), attachedFile.getContextType());
+            put(key, encodedData);
+        }
+        return createBodyPart(attachedFile, encodedData);
+    }
+
+    /**
+     * キャッシュからエンコード済みのデータを取得する。
+     *
+     * @param key キー
+     * @return エンコード済みのデータ(存在しない場合は{@code null})
+     */
+    private synchronized EncodedData get(String key) {
+        return cache.get(key);
+    }
+
+    /**
+     * エンコード済みのデータをキャッシュに格納する。
+     * <p/>
+     * 格納後に上限を超えた場合は、最も長く参照されていないデータから破棄する。
+     *
+     * @param key キー
+     * @param encodedData エンコード済みのデータ
+     */
+    private synchronized void put(String key, EncodedData encodedData) {
+        if (encodedData.data.length > maxTotalSize) {
+            return;
+        }
+        final EncodedData old = cache.put(key, encodedData);
+        if (old != null) {
+            totalSize -= old.data.length;
+        }
+        totalSize += encodedData.data.length;
+
+        final Iterator<EncodedData> eldest = cache.values().iterator();
+        while (cache.size() > maxEntries || totalSize > maxTotalSize) {
+            totalSize -= eldest.next().data.length;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * キャッシュしている件数を取得する。
+     *
+     * @return キャッシュしている件数
+     */
+    public synchronized int getEntryCount() {
+        return cache.size();
+    }
+
+    /**
+     * キャッシュしているエンコード済みデータの合計サイズ(バイト)を取得する。
+     *
+     * @return キャッシュしているエンコード済みデータの合計サイズ
+     */
+    public synchronized long getTotalSize() {
+        return totalSize;
+    }
+
+    /**
+     * エンコード済みのデータからボディパートを生成する。
+     *
+     * @param attachedFile 添付ファイル
+     * @param encodedData エンコード済みのデータ
+     * @return ボディパート
+     * @throws MessagingException ボディパートの生成に失敗した場合
+     */
+    private static MimeBodyPart createBodyPart(MailAttachedFileTable.MailAttachedFile attachedFile,
+            EncodedData encodedData) throws MessagingException {
+        final MimeBodyPart part = new PreencodedMimeBodyPart(encodedData.encoding);
+        part.setDataHandler(new DataHandler(new ByteArrayDataSource(encodedData.data, attachedFile.getContextType())));
+        part.setFileName(attachedFile.getFileName());
+        return part;
+    }
+
+    /**
+     * データをエンコードする。
+     * <p/>
+     * エンコード方式は、JavaMailがデータの内容を元に選択する方式と同じものを使用する。
+     *
+     * @param data データ
+     * @param contentType Content-Type
+     * @return エンコード済みのデータ
+     * @throws MessagingException エンコードに失敗した場合
+     */
+    private static EncodedData encode(byte[] data, String contentType) throws MessagingException {
+        final String encoding = MimeUtility.getEncoding(new ByteArrayDataSource(data, contentType));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4 / 3 + 4);
+        try {
+            final OutputStream encoder = MimeUtility.encode(out, encoding);
+            encoder.write(data);
+            encoder.close();
+        } catch (IOException e) {
+            throw new MessagingException("failed to encode attached file.", e);
+        }
+        return new EncodedData(encoding, out.toByteArray());
+    }
+
+    /**
+     * エンコード済みのデータ。
+     */
+    private static final class EncodedData {
+
+        /** エンコード方式 */
+        private final String encoding;
+
+        /** エンコード済みのデータ */
+        private final byte[] data;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param encoding エンコード方式
+         * @param data エンコード済みのデータ
+         */
+        private EncodedData(String encoding, byte[] data) {
+            this.encoding = encoding;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,439 @@
+package nablarch.common.mail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
+import nablarch.core.repository.disposal.Disposable;
+import nablarch.core.repository.initialization.Initializable;
+import nablarch.core.util.annotation.Published;
+
+/**
+ * メールをまとめて送信する{@link MailTransport}の抽象クラス。
+ * <p/>
+ * {@link #send}で受け付けたメールを送信先ごと({@link #getBatchKey(Session)})にまとめ、
+ * 件数が{@link #setBatchSize(int)}に達した時点、または最初のメールを受け付けてから
+ * {@link #setMaxDelayMillis(long)}が経過した時点で、{@link #deliver(List)}を呼び出して送信する。
+ * {@link #deliver(List)}は送信用のスレッドで実行し、同時に実行する数は{@link #setMaxConcurrentBatches(int)}で制限する。
+ * <p/>
+ * 受け付けてから送信結果を通知するまでのメールの件数が{@link #setMaxPendingMessages(int)}に達した場合は、
+ * いずれかのメールの送信結果が通知されるまで{@link #send}の呼び出し元を待機させる。
+ * <p/>
+ * サブクラスは{@link #deliver(List)}で、まとめたメールごとに{@link BatchEntry#succeeded()}または
+ * {@link BatchEntry#failed(MessagingException)}を呼び出して送信結果を通知する。
+ * 送信結果を通知しなかったメールは送信失敗として通知する。
+ * <p/>
+ * 本クラスは初期化時にスレッドを起動するため、初期化対象のリストに登録する必要がある。
+ */
+@Published(tag = "architect")
+public abstract class BatchingMailTransport implements MailTransport, Initializable, Disposable {
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(BatchingMailTransport.class);
+
+    /** 1回の送信でまとめる件数の上限 */
+    private int batchSize = 100;
+
+    /** メールを受け付けてから送信するまでの最大の待ち時間(ミリ秒) */
+    private long maxDelayMillis = 100L;
+
+    /** 同時に実行する送信の数の上限 */
+    private int maxConcurrentBatches = 4;
+
+    /** 送信結果を通知していないメールの件数の上限 */
+    private int maxPendingMessages = 1000;
+
+    /** 送信結果を通知していないメールの件数を制限するセマフォ */
+    private Semaphore pendingPermits;
+
+    /** 送信先ごとの送信待ちのメール */
+    private final Map<String, PendingBatch> pendingBatches = new HashMap<String, PendingBatch>();
+
+    /** 送信を実行するスレッドプール */
+    private ExecutorService deliveryExecutor;
+
+    /** 送信待ちのメールを定期的に送信するスレッド */
+    private ScheduledExecutorService flushExecutor;
+
+    /**
+     * 1回の送信でまとめる件数の上限を設定する。
+     * <p/>
+     * デフォルトは100。
+     *
+     * @param batchSize 1回の送信でまとめる件数の上限
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * メールを受け付けてから送信するまでの最大の待ち時間(ミリ秒)を設定する。
+     * <p/>
+     * デフォルトは100ミリ秒。
+     *
+     * @param maxDelayMillis 最大の待ち時間(ミリ秒)
+     */
+    public void setMaxDelayMillis(long maxDelayMillis) {
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * 同時に実行する送信の数の上限を設定する。
+     * <p/>
+     * デフォルトは4。
+     *
+     * @param maxConcurrentBatches 同時に実行する送信の数の上限
+     */
+    public void setMaxConcurrentBatches(int maxConcurrentBatches) {
+        this.maxConcurrentBatches = maxConcurrentBatches;
+    }
+
+    /**
+     * 送信結果を通知していないメールの件数の上限を設定する。
+     * <p/>
+     * デフォルトは1000。
+     *
+     * @param maxPendingMessages 送信結果を通知していないメールの件数の上限
+     */
+    public void setMaxPendingMessages(int maxPendingMessages) {
+        this.maxPendingMessages = maxPendingMessages;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * 送信用のスレッドと、送信待ちのメールを定期的に送信するスレッドを起動する。
+     */
+    @Override
+    public void initialize() {
+        pendingPermits = new Semaphore(maxPendingMessages);
+        final String name = getClass().getSimpleName();
+        deliveryExecutor = Executors.newFixedThreadPool(maxConcurrentBatches, new DaemonThreadFactory(name));
+        flushExecutor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory(name + "-flush"));
+        final long interval = Math.max(1L, maxDelayMillis / 2);
+        flushExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush(false);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * スレッドを停止する。送信待ちのメールは送信失敗として通知する。
+     */
+    @Override
+    public void dispose() {
+        if (flushExecutor == null) {
+            return;
+        }
+        flushExecutor.shutdownNow();
+        deliveryExecutor.shutdownNow();
+        final List<PendingBatch> batches;
+        synchronized (pendingBatches) {
+            batches = new ArrayList<PendingBatch>(pendingBatches.values());
+            pendingBatches.clear();
+        }
+        for (PendingBatch batch : batches) {
+            failAll(batch.entries, new MessagingException("mail transport was disposed."));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * 送信結果を通知していないメールの件数が上限に達している場合は、空きができるまで待機する。
+     */
+    @Override
+    public void send(Session session, MimeMessage message, MailTransportCallback callback) {
+        try {
+            pendingPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            callback.onFailure(new MessagingException("interrupted while waiting for a batch slot.", e));
+            return;
+        }
+        final BatchEntry entry = new BatchEntry(session, message, callback);
+        final String key = getBatchKey(session);
+        List<BatchEntry> full = null;
+        synchronized (pendingBatches) {
+            PendingBatch batch = pendingBatches.get(key);
+            if (batch == null) {
+                batch = new PendingBatch(System.nanoTime());
+                pendingBatches.put(key, batch);
+            }
+            batch.entries.add(entry);
+            if (batch.entries.size() >= batchSize) {
+                pendingBatches.remove(key);
+                full = batch.entries;
+            }
+        }
+        if (full != null) {
+            submit(full);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * 送信待ちのメールを直ちに送信してから待機する。
+     */
+    @Override
+    public void waitForCompletion() throws InterruptedException {
+        flush(true);
+        pendingPermits.acquire(maxPendingMessages);
+        pendingPermits.release(maxPendingMessages);
+    }
+
+    /**
+     * 送信結果を通知していないメールの件数を取得する。
+     *
+     * @return 送信結果を通知していないメールの件数
+     */
+    public int getPendingCount() {
+        return maxPendingMessages - pendingPermits.availablePermits();
+    }
+
+    /**
+     * まとめて送信するメールを区別するキーを取得する。
+     * <p/>
+     * キーが等しいメールを1回の送信にまとめる。
+     * デフォルトでは、メールセッションのSMTPサーバのホスト名、ポート番号及び差し戻し先メールアドレスをキーとする。
+     *
+     * @param session メールセッション
+     * @return まとめて送信するメールを区別するキー
+     */
+    protected String getBatchKey(Session session) {
+        return session.getProperty("mail.smtp.host") + ':' + session.getProperty("mail.smtp.port")
+                + ':' + session.getProperty("mail.smtp.from");
+    }
+
+    /**
+     * まとめたメールを送信する。
+     * <p/>
+     * 送信用のスレッドで呼び出される。メールごとに送信結果を通知すること。
+     * 本メソッドから例外が送出された場合は、送信結果を通知していないメールを送信失敗として通知する。
+     *
+     * @param batch まとめたメール(全て{@link #getBatchKey(Session)}が等しい)
+     */
+    protected abstract void deliver(List<BatchEntry> batch);
+
+    /**
+     * 送信待ちのメールを送信する。
+     *
+     * @param all 待ち時間に関係なく全て送信する場合は{@code true}
+     */
+    private void flush(boolean all) {
+        final long now = System.nanoTime();
+        final List<List<BatchEntry>> ready = new ArrayList<List<BatchEntry>>();
+        synchronized (pendingBatches) {
+            final Iterator<PendingBatch> it = pendingBatches.values().iterator();
+            while (it.hasNext()) {
+                final PendingBatch batch = it.next();
+                if (all || now - batch.createdAt >= TimeUnit.MILLISECONDS.toNanos(maxDelayMillis)) {
+                    it.remove();
+                    ready.add(batch.entries);
+                }
+            }
+        }
+        for (List<BatchEntry> entries : ready) {
+            submit(entries);
+        }
+    }
+
+    /**
+     * まとめたメールの送信を送信用のスレッドに依頼する。
+     *
+     * @param entries まとめたメール
+     */
+    private void submit(final List<BatchEntry> entries) {
+        try {
+            deliveryExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        deliver(Collections.unmodifiableList(entries));
+                    } catch (RuntimeException e) {
+                        LOGGER.logWarn("failed to deliver a batch of mails.", e);
+                        failAll(entries, new MessagingException("failed to deliver a batch of mails.", e));
+                        return;
+                    }
+                    failAll(entries, new MessagingException("no delivery result was reported."));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            failAll(entries, new MessagingException("batch delivery was rejected.", e));
+        }
+    }
+
+    /**
+     * 送信結果を通知していないメールを送信失敗として通知する。
+     *
+     * @param entries メール
+     * @param e 送信失敗の原因
+     */
+    private static void failAll(List<BatchEntry> entries, MessagingException e) {
+        for (BatchEntry entry : entries) {
+            entry.failed(e);
+        }
+    }
+
+    /**
+     * まとめて送信する1通のメール。
+     */
+    public final class BatchEntry {
+
+        /** メールセッション */
+        private final Session session;
+
+        /** 送信するメッセージ */
+        private final MimeMessage message;
+
+        /** 送信結果の通知先 */
+        private final MailTransportCallback callback;
+
+        /** 送信結果を通知済みか否か */
+        private final AtomicBoolean completed = new AtomicBoolean();
+
+        /**
+         * コンストラクタ。
+         *
+         * @param session メールセッション
+         * @param message 送信するメッセージ
+         * @param callback 送信結果の通知先
+         */
+        private BatchEntry(Session session, MimeMessage message, MailTransportCallback callback) {
+            this.session = session;
+            this.message = message;
+            this.callback = callback;
+        }
+
+        /**
+         * メールセッションを取得する。
+         *
+         * @return メールセッション
+         */
+        public Session getSession() {
+            return session;
+        }
+
+        /**
+         * 送信するメッセージを取得する。
+         *
+         * @return 送信するメッセージ
+         */
+        public MimeMessage getMessage() {
+            return message;
+        }
+
+        /**
+         * 送信結果を通知済みか否かを判定する。
+         *
+         * @return 通知済みの場合は{@code true}
+         */
+        public boolean isCompleted() {
+            return completed.get();
+        }
+
+        /**
+         * 送信が完了したことを通知する。通知済みの場合は何もしない。
+         */
+        public void succeeded() {
+            if (completed.compareAndSet(false, true)) {
+                try {
+                    callback.onSuccess();
+                } catch (RuntimeException e) {
+                    LOGGER.logWarn("failed to notify the result of sending a mail.", e);
+                } finally {
+                    pendingPermits.release();
+                }
+            }
+        }
+
+        /**
+         * 送信が失敗したことを通知する。通知済みの場合は何もしない。
+         *
+         * @param e 送信失敗の原因
+         */
+        public void failed(MessagingException e) {
+            if (completed.compareAndSet(false, true)) {
+                try {
+                    callback.onFailure(e);
+                } catch (RuntimeException re) {
+                    LOGGER.logWarn("failed to notify the result of sending a mail.", re);
+                } finally {
+                    pendingPermits.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * 送信待ちのメール。
+     */
+    private static final class PendingBatch {
+
+        /** 最初のメールを受け付けた時刻(ナノ秒) */
+        private final long createdAt;
+
+        /** メール */
+        private final List<BatchEntry> entries = new ArrayList<BatchEntry>();
+
+        /**
+         * コンストラクタ。
+         *
+         * @param createdAt 最初のメールを受け付けた時刻(ナノ秒)
+         */
+        private PendingBatch(long createdAt) {
+            this.createdAt = createdAt;
+        }
+    }
+
+    /**
+     * デーモンスレッドを生成する{@link ThreadFactory}。
+     */
+    private static final class DaemonThreadFactory implements ThreadFactory {
+
+        /** スレッド名の接頭辞 */
+        private final String prefix;
+
+        /** スレッドの連番 */
+        private final AtomicInteger count = new AtomicInteger();
+
+        /**
+         * コンストラクタ。
+         *
+         * @param prefix スレッド名の接頭辞
+         */
+        private DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, prefix + '-' + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package nablarch.common.mail;
+
+import java.util.Collections;
+import java.util.Iterator;
+
+import nablarch.core.db.statement.SqlResultSet;
+import nablarch.core.db.statement.SqlRow;
+import nablarch.fw.DataReader;
+import nablarch.fw.ExecutionContext;
+
+/**
+ * 未送信のメール送信要求を{@link MailRequestTable#claimAndFetch(String, String, String)}により
+ * 一定件数ずつ取得しながら読み込むリーダ。
+ * <p/>
+ * 前回取得した最大のメールリクエストIDより後を取得するため、送信しなかったためにプロセスIDを解除したメール送信要求を
+ * 同じ実行の中で繰り返し取得することはない。
+ * 取得した件数が1回に取得する最大件数に満たなかった場合に、未送信のメール送信要求をすべて読み込んだものとする。
+ */
+final class ClaimingMailRequestReader implements DataReader<SqlRow> {
+
+    /** メール送信要求管理テーブルのスキーマ情報 */
+    private final MailRequestTable mailRequestTable;
+
+    /** メール送信パターンID */
+    private final String mailSendPatternId;
+
+    /** メール送信バッチのプロセスID */
+    private final String sendProcessId;
+
+    /** 取得済みで読み込んでいないレコード */
+    private Iterator<SqlRow> records = Collections.<SqlRow>emptyList().iterator();
+
+    /** 前回取得した最大のメールリクエストID */
+    private String lastMailRequestId;
+
+    /** 未送信のメール送信要求をすべて取得したか否か */
+    private boolean exhausted;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param mailRequestTable メール送信要求管理テーブルのスキーマ情報
+     * @param mailSendPatternId メール送信パターンID
+     * @param sendProcessId メール送信バッチのプロセスID
+     */
+    ClaimingMailRequestReader(MailRequestTable mailRequestTable, String mailSendPatternId, String sendProcessId) {
+        this.mailRequestTable = mailRequestTable;
+        this.mailSendPatternId = mailSendPatternId;
+        this.sendProcessId = sendProcessId;
+    }
+
+    @Override
+    public synchronized SqlRow read(ExecutionContext ctx) {
+        return hasNext(ctx) ? records.next() : null;
+    }
+
+    @Override
+    public synchronized boolean hasNext(ExecutionContext ctx) {
+        if (records.hasNext()) {
+            return true;
+        }
+        if (exhausted) {
+            return false;
+        }
+        final SqlResultSet claimed = mailRequestTable.claimAndFetch(
+                mailSendPatternId, sendProcessId, lastMailRequestId);
+        for (SqlRow record : claimed) {
+            final String mailRequestId = record.getString(MailRequestTable.MAIL_REQUEST_ID_ALIAS);
+            if (lastMailRequestId == null || mailRequestId.compareTo(lastMailRequestId) > 0) {
+                lastMailRequestId = mailRequestId;
+            }
+        }
+        exhausted = claimed.size() < mailRequestTable.getClaimBatchSize();
+        records = claimed.iterator();
+        return records.hasNext();
+    }
+
+    @Override
+    public synchronized void close(ExecutionContext ctx) {
+        records = Collections.<SqlRow>emptyList().iterator();
+        exhausted = true;
+    }
+}
@@ -0,0 +1,128 @@
+package nablarch.common.mail;
+
+import nablarch.core.util.annotation.Published;
+
+/**
+ * 宛先のドメインごとの送信の上限を保持するデータオブジェクト。
+ * <p/>
+ * 同時に送信する件数の上限と、期間あたりに送信できる件数の上限を設定する。
+ * いずれも0以下の場合は制限しない。
+ */
+@Published(tag = "architect")
+public class DomainLimit {
+
+    /** 宛先のドメイン */
+    private String domain;
+
+    /** 同時に送信する件数の上限 */
+    private int maxConcurrency;
+
+    /** 期間あたりに送信できる件数 */
+    private long permits;
+
+    /** 期間(ミリ秒) */
+    private long periodMillis = 1000L;
+
+    /** 一度に送信できる件数 */
+    private long burst;
+
+    /**
+     * 宛先のドメインを取得する。
+     *
+     * @return 宛先のドメイン
+     */
+    public String getDomain() {
+        return domain;
+    }
+
+    /**
+     * 宛先のドメインを設定する。
+     * <p/>
+     * 大文字と小文字は区別しない。
+     *
+     * @param domain 宛先のドメイン
+     */
+    public void setDomain(String domain) {
+        this.domain = domain;
+    }
+
+    /**
+     * 同時に送信する件数の上限を取得する。
+     *
+     * @return 同時に送信する件数の上限
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * 同時に送信する件数の上限を設定する。
+     * <p/>
+     * デフォルトは0(制限しない)。
+     *
+     * @param maxConcurrency 同時に送信する件数の上限
+     */
+    public void setMaxConcurrency(int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * 期間あたりに送信できる件数を取得する。
+     *
+     * @return 期間あたりに送信できる件数
+     */
+    public long getPermits() {
+        return permits;
+    }
+
+    /**
+     * 期間あたりに送信できる件数を設定する。
+     * <p/>
+     * デフォルトは0(制限しない)。
+     *
+     * @param permits 期間あたりに送信できる件数
+     */
+    public void setPermits(long permits) {
+        this.permits = permits;
+    }
+
+    /**
+     * 期間(ミリ秒)を取得する。
+     *
+     * @return 期間(ミリ秒)
+     */
+    public long getPeriodMillis() {
+        return periodMillis;
+    }
+
+    /**
+     * 期間(ミリ秒)を設定する。
+     * <p/>
+     * デフォルトは1秒。
+     *
+     * @param periodMillis 期間(ミリ秒)
+     */
+    public void setPeriodMillis(long periodMillis) {
+        this.periodMillis = periodMillis;
+    }
+
+    /**
+     * 一度に送信できる件数を取得する。
+     *
+     * @return 一度に送信できる件数
+     */
+    public long getBurst() {
+        return burst;
+    }
+
+    /**
+     * 一度に送信できる件数(バースト)を設定する。
+     * <p/>
+     * 設定しない場合は、期間あたりに送信できる件数となる。
+     *
+     * @param burst 一度に送信できる件数
+     */
+    public void setBurst(long burst) {
+        this.burst = burst;
+    }
+}
@@ -0,0 +1,78 @@
+package nablarch.common.mail;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * DATAコマンドで送信するデータを出力するストリーム。
+ * <p/>
+ * 改行をCRLFに統一し、行頭のピリオドを二重化する。
+ */
+class DotStuffingOutputStream extends FilterOutputStream {
+
+    /** 直前に出力したバイト */
+    private int previous = '\n';
+
+    /** 行頭か否か */
+    private boolean atLineStart = true;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param out 出力先
+     */
+    DotStuffingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (b == '\r') {
+            newLine();
+        } else if (b == '\n') {
+            if (previous != '\r') {
+                newLine();
+            }
+        } else {
+            if (atLineStart && b == '.') {
+                out.write('.');
+            }
+            out.write(b);
+            atLineStart = false;
+        }
+        previous = b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            write(b[i]);
+        }
+    }
+
+    /**
+     * 改行を出力する。
+     *
+     * @throws IOException 出力に失敗した場合
+     */
+    private void newLine() throws IOException {
+        out.write('\r');
+        out.write('\n');
+        atLineStart = true;
+    }
+
+    /**
+     * データの終端を出力する。
+     *
+     * @throws IOException 出力に失敗した場合
+     */
+    void finish() throws IOException {
+        if (!atLineStart) {
+            newLine();
+        }
+        out.write('.');
+        out.write('\r');
+        out.write('\n');
+    }
+}
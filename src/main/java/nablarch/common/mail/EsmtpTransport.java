@@ -0,0 +1,1160 @@
+package nablarch.common.mail;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.mail.Address;
+import javax.mail.AuthenticationFailedException;
+import javax.mail.BodyPart;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Multipart;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.URLName;
+import javax.mail.event.TransportEvent;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimePart;
+import javax.mail.internet.MimeUtility;
+import javax.mail.internet.PreencodedMimeBodyPart;
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import nablarch.core.util.annotation.Published;
+
+/**
+ * ESMTPの拡張機能を使用してメールを送信する{@link Transport}の実装クラス。
+ * <p/>
+ * 接続時にSMTPサーバが広告する拡張機能を検出し、以下の拡張機能が使用可能な場合はそれを使用する。
+ * 拡張機能が使用できない場合は、通常のSMTPの手順で送信する。
+ * <ul>
+ * <li>8BITMIME：{@code mail.smtp.allow8bitmime}が{@code true}の場合、
+ *     quoted-printableまたはbase64でエンコードされたテキストのパートを8bitのまま送信する。</li>
+ * <li>BINARYMIME及びCHUNKING：{@code mail.smtp.allowbinarymime}が{@code true}の場合、
+ *     base64でエンコードされたテキスト以外のパートをバイナリのまま、BDATコマンドで分割して送信する。</li>
+ * <li>PIPELINING：MAIL FROMコマンドと宛先ごとのRCPT TOコマンドをまとめて送信し、応答をまとめて読み込む。</li>
+ * </ul>
+ * 本クラスは以下のセッションプロパティを使用する。
+ * <ul>
+ * <li>mail.smtp.connectiontimeout：接続タイムアウト(ミリ秒)</li>
+ * <li>mail.smtp.timeout：読み込みタイムアウト(ミリ秒)</li>
+ * <li>mail.smtp.from：エンベロープの送信者(指定がない場合はFromヘッダのアドレス)</li>
+ * <li>mail.smtp.localhost：EHLOコマンドで通知するホスト名</li>
+ * <li>mail.smtp.localaddress：接続に使用するローカルアドレス</li>
+ * <li>mail.smtp.localport：接続に使用するローカルポート</li>
+ * <li>mail.smtp.auth：認証を行うか否か</li>
+ * <li>mail.smtp.auth.mechanisms：認証に使用するメカニズム(空白区切りで優先する順に指定、デフォルトは"LOGIN PLAIN")。
+ *     サーバがEHLOコマンドの応答で広告したメカニズムのうち、最初に一致したものを使用する。
+ *     LOGINとPLAINのみに対応する。</li>
+ * <li>mail.smtp.auth.login.disable：LOGINによる認証を使用しないか否か</li>
+ * <li>mail.smtp.auth.plain.disable：PLAINによる認証を使用しないか否か</li>
+ * <li>mail.smtp.ssl.enable：接続時からSSL/TLSで通信するか否か(デフォルトのポート番号は465)</li>
+ * <li>mail.smtp.ssl.checkserveridentity：サーバ証明書のホスト名を検証するか否か(デフォルトはtrue)</li>
+ * <li>mail.smtp.ssl.protocols：SSL/TLSの通信で有効にするプロトコル(空白区切り)</li>
+ * <li>mail.smtp.ssl.ciphersuites：SSL/TLSの通信で有効にする暗号スイート(空白区切り)</li>
+ * <li>mail.smtp.starttls.enable：STARTTLSが使用可能な場合に、TLSで通信するか否か</li>
+ * <li>mail.smtp.starttls.required：STARTTLSによるTLSの通信を必須とするか否か(STARTTLSが使用できない場合は接続に失敗する)</li>
+ * <li>mail.smtp.sendpartial：無効な宛先が含まれる場合に、有効な宛先にのみ送信するか否か</li>
+ * <li>mail.smtp.pipelining：PIPELININGが使用可能な場合に、エンベロープのコマンドをまとめて送信するか否か(デフォルトはtrue)</li>
+ * <li>mail.smtp.chunksize：BDATコマンドで送信する1チャンクのサイズ(バイト、デフォルトは1MB)</li>
+ * </ul>
+ * SSL/TLSの通信には、JVMのデフォルトのソケットファクトリとトラストストアを使用する。
+ * 以下のセッションプロパティには対応していないため、設定されている場合は接続せずに例外を送出する。
+ * <ul>
+ * <li>mail.smtp.ssl.trust</li>
+ * <li>mail.smtp.ssl.socketFactory、mail.smtp.ssl.socketFactory.class、mail.smtp.ssl.socketFactory.port</li>
+ * <li>mail.smtp.socketFactory、mail.smtp.socketFactory.class、mail.smtp.socketFactory.fallback、
+ *     mail.smtp.socketFactory.port</li>
+ * </ul>
+ * {@link MailSessionConfig#setTransportClassName(String)}に本クラスを設定することで使用できる。
+ */
+@Published(tag = "architect")
+public class EsmtpTransport extends Transport {
+
+    /** プロトコル名 */
+    private static final String PROTOCOL = "smtp";
+
+    /** SMTPのデフォルトポート */
+    private static final int DEFAULT_PORT = 25;
+
+    /** SSLで接続する場合のSMTPのデフォルトポート */
+    private static final int DEFAULT_SSL_PORT = 465;
+
+    /** BDATコマンドで送信する1チャンクのデフォルトサイズ */
+    private static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    /** 8bitで送信可能な1行の最大長(CRLFを除く) */
+    private static final int MAX_LINE_LENGTH = 998;
+
+    /** 改行 */
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    /** 認証に使用するメカニズムのデフォルト(優先する順) */
+    private static final String DEFAULT_AUTH_MECHANISMS = "LOGIN PLAIN";
+
+    /** 対応していないセッションプロパティ(mail.smtp.を除いたもの) */
+    private static final String[] UNSUPPORTED_PROPERTIES = {
+            "ssl.trust",
+            "ssl.socketFactory", "ssl.socketFactory.class", "ssl.socketFactory.port",
+            "socketFactory", "socketFactory.class", "socketFactory.fallback", "socketFactory.port"
+    };
+
+    /** 空白の区切り */
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    /** サブジェクトの別名のうち、DNS名を表す種別 */
+    private static final int SUBJECT_ALT_NAME_DNS = 2;
+
+    /** サブジェクトの別名のうち、IPアドレスを表す種別 */
+    private static final int SUBJECT_ALT_NAME_IP = 7;
+
+    /** IPv4アドレスの形式 */
+    private static final Pattern IPV4_ADDRESS = Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}");
+
+    /** ソケット */
+    private Socket socket;
+
+    /** サーバからの入力ストリーム */
+    private InputStream in;
+
+    /** サーバへの出力ストリーム */
+    private OutputStream out;
+
+    /** サーバが広告した拡張機能(キーワードを大文字にしたものとパラメータ) */
+    private final Map<String, String> extensions = new HashMap<String, String>();
+
+    /** 最後に受信した応答 */
+    private String lastServerResponse;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param session セッション
+     * @param urlname 接続先
+     */
+    public EsmtpTransport(Session session, URLName urlname) {
+        super(session, urlname);
+    }
+
+    @Override
+    protected synchronized boolean protocolConnect(String host, int port, String user, String password)
+            throws MessagingException {
+        final boolean auth = getBooleanProperty("auth", false);
+        if (auth && (user == null || password == null)) {
+            return false;
+        }
+        checkUnsupportedProperties();
+        final boolean ssl = getBooleanProperty("ssl.enable", false);
+        final int connectPort = port == -1 ? getIntProperty("port", ssl ? DEFAULT_SSL_PORT : DEFAULT_PORT) : port;
+        try {
+            if (ssl) {
+                final SSLSocket sslSocket = (SSLSocket) getSslSocketFactory().createSocket();
+                configureSslSocket(sslSocket);
+                openSocket(sslSocket, host, connectPort);
+                sslSocket.startHandshake();
+                checkServerIdentity(sslSocket, host);
+            } else {
+                openSocket(new Socket(), host, connectPort);
+            }
+            final int greeting = readServerResponse();
+            if (greeting != 220) {
+                closeSocket();
+                throw new MessagingException("could not connect to SMTP host: " + host + ", port: " + connectPort
+                        + ", response: " + lastServerResponse);
+            }
+            hello();
+
+            final boolean startTlsRequired = getBooleanProperty("starttls.required", false);
+            if (!ssl && (startTlsRequired || getBooleanProperty("starttls.enable", false))) {
+                if (supportsExtension("STARTTLS")) {
+                    startTls(host, connectPort);
+                    hello();
+                } else if (startTlsRequired) {
+                    throw new MessagingException("STARTTLS is required but host does not support STARTTLS. host: "
+                            + host + ", port: " + connectPort);
+                }
+            }
+            if (auth) {
+                authenticate(user, password);
+            }
+            return true;
+        } catch (MessagingException e) {
+            closeSocket();
+            throw e;
+        } catch (IOException e) {
+            closeSocket();
+            throw new MessagingException("could not connect to SMTP host: " + host + ", port: " + connectPort, e);
+        }
+    }
+
+    /**
+     * 対応していないセッションプロパティが設定されていないことを検証する。
+     *
+     * @throws MessagingException 対応していないセッションプロパティが設定されている場合
+     */
+    private void checkUnsupportedProperties() throws MessagingException {
+        for (String name : UNSUPPORTED_PROPERTIES) {
+            final String key = "mail." + PROTOCOL + '.' + name;
+            if (session.getProperties().get(key) != null) {
+                throw new MessagingException(key + " is not supported by " + EsmtpTransport.class.getName()
+                        + ". remove the property to use the default SSL socket factory and trust store.");
+            }
+        }
+    }
+
+    /**
+     * ソケットを接続し、入出力ストリームを準備する。
+     * <p/>
+     * {@code mail.smtp.localaddress}または{@code mail.smtp.localport}が設定されている場合は、
+     * 接続前にソケットをそのアドレスとポートにバインドする。
+     *
+     * @param newSocket 接続するソケット
+     * @param host ホスト名
+     * @param port ポート番号
+     * @throws IOException 接続に失敗した場合
+     */
+    private void openSocket(Socket newSocket, String host, int port) throws IOException {
+        socket = newSocket;
+        final String localAddress = session.getProperty("mail." + PROTOCOL + ".localaddress");
+        final int localPort = getIntProperty("localport", 0);
+        if (localAddress != null || localPort > 0) {
+            socket.bind(localAddress != null
+                    ? new InetSocketAddress(localAddress, localPort)
+                    : new InetSocketAddress(localPort));
+        }
+        socket.connect(new InetSocketAddress(host, port), getIntProperty("connectiontimeout", 0));
+        socket.setSoTimeout(getIntProperty("timeout", 0));
+        in = new BufferedInputStream(socket.getInputStream());
+        out = new BufferedOutputStream(socket.getOutputStream());
+    }
+
+    /**
+     * STARTTLSコマンドでTLSの通信に切り替える。
+     *
+     * @param host ホスト名
+     * @param port ポート番号
+     * @throws IOException 入出力に失敗した場合
+     * @throws MessagingException STARTTLSコマンドが失敗した場合
+     */
+    private void startTls(String host, int port) throws IOException, MessagingException {
+        simpleCommand("STARTTLS", 220);
+        final SSLSocket sslSocket = (SSLSocket) getSslSocketFactory().createSocket(socket, host, port, true);
+        configureSslSocket(sslSocket);
+        sslSocket.startHandshake();
+        checkServerIdentity(sslSocket, host);
+        socket = sslSocket;
+        in = new BufferedInputStream(socket.getInputStream());
+        out = new BufferedOutputStream(socket.getOutputStream());
+    }
+
+    /**
+     * TLSの通信に使用するソケットファクトリを取得する。
+     *
+     * @return ソケットファクトリ
+     */
+    SSLSocketFactory getSslSocketFactory() {
+        return (SSLSocketFactory) SSLSocketFactory.getDefault();
+    }
+
+    /**
+     * ハンドシェイクの前に、TLSのソケットを設定する。
+     * <p/>
+     * {@code mail.smtp.ssl.protocols}及び{@code mail.smtp.ssl.ciphersuites}が設定されている場合は、
+     * 有効にするプロトコル及び暗号スイートを設定する。
+     *
+     * @param sslSocket TLSのソケット
+     */
+    void configureSslSocket(SSLSocket sslSocket) {
+        final String protocols = session.getProperty("mail." + PROTOCOL + ".ssl.protocols");
+        if (protocols != null) {
+            sslSocket.setEnabledProtocols(WHITESPACE.split(protocols.trim()));
+        }
+        final String cipherSuites = session.getProperty("mail." + PROTOCOL + ".ssl.ciphersuites");
+        if (cipherSuites != null) {
+            sslSocket.setEnabledCipherSuites(WHITESPACE.split(cipherSuites.trim()));
+        }
+    }
+
+    /**
+     * ハンドシェイクの後に、サーバ証明書のホスト名が接続先のホスト名と一致することを検証する。
+     * <p/>
+     * {@code mail.smtp.ssl.checkserveridentity}に{@code false}が設定されている場合は検証しない。
+     *
+     * @param sslSocket ハンドシェイクが完了したTLSのソケット
+     * @param host 接続先のホスト名
+     * @throws IOException サーバ証明書を取得できない場合
+     * @throws MessagingException サーバ証明書のホスト名が接続先のホスト名と一致しない場合
+     */
+    private void checkServerIdentity(SSLSocket sslSocket, String host) throws IOException, MessagingException {
+        if (!getBooleanProperty("ssl.checkserveridentity", true)) {
+            return;
+        }
+        final Certificate[] certificates = sslSocket.getSession().getPeerCertificates();
+        if (certificates.length == 0 || !(certificates[0] instanceof X509Certificate)
+                || !matchesHostName((X509Certificate) certificates[0], host)) {
+            throw new MessagingException("server certificate does not match the SMTP host: " + host);
+        }
+    }
+
+    /**
+     * サーバ証明書がホスト名と一致するか否か。
+     * <p/>
+     * RFC 6125に従い、サブジェクトの別名(DNS名またはIPアドレス)と比較する。
+     * DNS名の別名がない場合は、サブジェクトの最も詳細なCNと比較する。
+     * DNS名は左端のラベルのみワイルドカード({@code *})を使用できる。
+     *
+     * @param certificate サーバ証明書
+     * @param host ホスト名
+     * @return 一致する場合は{@code true}
+     */
+    static boolean matchesHostName(X509Certificate certificate, String host) {
+        final String hostName = host.toLowerCase(Locale.ENGLISH);
+        final boolean ipAddress = isIpAddress(hostName);
+        final Collection<List<?>> altNames;
+        try {
+            altNames = certificate.getSubjectAlternativeNames();
+        } catch (CertificateParsingException e) {
+            return false;
+        }
+        boolean hasDnsName = false;
+        if (altNames != null) {
+            for (List<?> altName : altNames) {
+                final int type = (Integer) altName.get(0);
+                if (type == SUBJECT_ALT_NAME_DNS) {
+                    hasDnsName = true;
+                    if (!ipAddress && matchesDnsName(hostName, (String) altName.get(1))) {
+                        return true;
+                    }
+                } else if (type == SUBJECT_ALT_NAME_IP) {
+                    if (ipAddress && matchesIpAddress(hostName, (String) altName.get(1))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        if (ipAddress || hasDnsName) {
+            return false;
+        }
+        final String commonName = findCommonName(certificate);
+        return commonName != null && matchesDnsName(hostName, commonName);
+    }
+
+    /**
+     * ホスト名がIPアドレスか否か。
+     *
+     * @param host ホスト名(小文字)
+     * @return IPアドレスの場合は{@code true}
+     */
+    private static boolean isIpAddress(String host) {
+        return host.indexOf(':') != -1 || IPV4_ADDRESS.matcher(host).matches();
+    }
+
+    /**
+     * IPアドレスが一致するか否か。
+     *
+     * @param host ホスト名(IPアドレス)
+     * @param pattern サーバ証明書のIPアドレス
+     * @return 一致する場合は{@code true}
+     */
+    private static boolean matchesIpAddress(String host, String pattern) {
+        try {
+            // いずれもIPアドレスのため、名前解決は行われない。
+            return InetAddress.getByName(host).equals(InetAddress.getByName(pattern));
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    /**
+     * DNS名が一致するか否か。
+     *
+     * @param host ホスト名(小文字)
+     * @param pattern サーバ証明書のDNS名
+     * @return 一致する場合は{@code true}
+     */
+    private static boolean matchesDnsName(String host, String pattern) {
+        final String name = pattern.toLowerCase(Locale.ENGLISH);
+        if (!name.startsWith("*.")) {
+            return host.equals(name);
+        }
+        // ワイルドカードは1つのラベルのみに一致し、ドメインには2つ以上のラベルが必要。
+        final String domain = name.substring(1);
+        final int dot = host.indexOf('.');
+        return domain.indexOf('.', 1) != -1 && dot > 0 && host.substring(dot).equals(domain);
+    }
+
+    /**
+     * サーバ証明書のサブジェクトから、最も詳細なCNを取得する。
+     *
+     * @param certificate サーバ証明書
+     * @return CN(存在しない場合は{@code null})
+     */
+    private static String findCommonName(X509Certificate certificate) {
+        try {
+            final List<Rdn> rdns = new LdapName(certificate.getSubjectX500Principal().getName()).getRdns();
+            // RDNは最も上位のものから順に格納されているため、末尾から探す。
+            for (int i = rdns.size() - 1; i >= 0; i--) {
+                if (rdns.get(i).getType().equalsIgnoreCase("CN")) {
+                    return rdns.get(i).getValue().toString();
+                }
+            }
+        } catch (InvalidNameException e) {
+            return null;
+        }
+        return null;
+    }
+
+    /**
+     * EHLOコマンドを送信し、サーバが広告する拡張機能を取得する。
+     * <p/>
+     * EHLOコマンドが失敗した場合はHELOコマンドを送信する。
+     *
+     * @throws IOException 入出力に失敗した場合
+     * @throws MessagingException HELOコマンドも失敗した場合
+     */
+    private void hello() throws IOException, MessagingException {
+        extensions.clear();
+        final String localHost = getLocalHost();
+        sendCommand("EHLO " + localHost);
+        if (readServerResponse() != 250) {
+            simpleCommand("HELO " + localHost, 250);
+            return;
+        }
+        final String[] lines = lastServerResponse.split("\r\n");
+        for (int i = 1; i < lines.length; i++) {
+            if (lines[i].length() <= 4) {
+                continue;
+            }
+            final String line = lines[i].substring(4);
+            final int space = line.indexOf(' ');
+            final String keyword = space == -1 ? line : line.substring(0, space);
+            final String parameter = space == -1 ? "" : line.substring(space + 1);
+            extensions.put(keyword.toUpperCase(Locale.ENGLISH), parameter);
+        }
+    }
+
+    /**
+     * AUTHコマンドで認証を行う。
+     * <p/>
+     * {@code mail.smtp.auth.mechanisms}に指定されたメカニズムのうち、
+     * サーバがEHLOコマンドの応答で広告した最初のものを使用する。
+     *
+     * @param user ユーザ名
+     * @param password パスワード
+     * @throws IOException 入出力に失敗した場合
+     * @throws MessagingException 使用できるメカニズムがない場合、または認証に失敗した場合
+     */
+    private void authenticate(String user, String password) throws IOException, MessagingException {
+        final String mechanism = selectAuthMechanism();
+        if (mechanism == null) {
+            throw new MessagingException("no authentication mechanism is supported by both client and server."
+                    + " server mechanisms: [" + (supportsExtension("AUTH") ? extensions.get("AUTH") : "") + ']');
+        }
+        int code;
+        if (mechanism.equals("LOGIN")) {
+            sendCommand("AUTH LOGIN");
+            code = readServerResponse();
+            if (code == 334) {
+                sendCommand(encodeBase64(user.getBytes("UTF-8")));
+                code = readServerResponse();
+            }
+            if (code == 334) {
+                sendCommand(encodeBase64(password.getBytes("UTF-8")));
+                code = readServerResponse();
+            }
+        } else {
+            final ByteArrayOutputStream credential = new ByteArrayOutputStream();
+            credential.write(0);
+            credential.write(user.getBytes("UTF-8"));
+            credential.write(0);
+            credential.write(password.getBytes("UTF-8"));
+            sendCommand("AUTH PLAIN " + encodeBase64(credential.toByteArray()));
+            code = readServerResponse();
+        }
+        if (code != 235) {
+            throw new AuthenticationFailedException(lastServerResponse);
+        }
+    }
+
+    /**
+     * 認証に使用するメカニズムを選択する。
+     *
+     * @return メカニズム(使用できるメカニズムがない場合は{@code null})
+     */
+    private String selectAuthMechanism() {
+        if (!supportsExtension("AUTH")) {
+            return null;
+        }
+        final List<String> serverMechanisms = Arrays.asList(
+                WHITESPACE.split(extensions.get("AUTH").trim().toUpperCase(Locale.ENGLISH)));
+        String mechanisms = session.getProperty("mail." + PROTOCOL + ".auth.mechanisms");
+        if (mechanisms == null) {
+            mechanisms = DEFAULT_AUTH_MECHANISMS;
+        }
+        for (String mechanism : WHITESPACE.split(mechanisms.trim().toUpperCase(Locale.ENGLISH))) {
+            if ((mechanism.equals("LOGIN") || mechanism.equals("PLAIN"))
+                    && !getBooleanProperty("auth." + mechanism.toLowerCase(Locale.ENGLISH) + ".disable", false)
+                    && serverMechanisms.contains(mechanism)) {
+                return mechanism;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * データを改行を含まないbase64でエンコードする。
+     *
+     * @param data データ
+     * @return エンコードした文字列
+     * @throws IOException エンコードに失敗した場合
+     * @throws MessagingException エンコーダの取得に失敗した場合
+     */
+    private static String encodeBase64(byte[] data) throws IOException, MessagingException {
+        final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        final OutputStream encoder = MimeUtility.encode(encoded, "base64");
+        encoder.write(data);
+        encoder.close();
+        return new String(encoded.toByteArray(), "US-ASCII").replace("\r\n", "");
+    }
+
+    /**
+     * サーバが指定された拡張機能を広告しているか否か。
+     *
+     * @param extension 拡張機能のキーワード
+     * @return 広告している場合は{@code true}
+     */
+    public boolean supportsExtension(String extension) {
+        return extensions.containsKey(extension.toUpperCase(Locale.ENGLISH));
+    }
+
+    @Override
+    public synchronized void sendMessage(Message message, Address[] addresses) throws MessagingException {
+        if (!(message instanceof MimeMessage)) {
+            throw new MessagingException("SMTP can only send RFC822 messages");
+        }
+        if (addresses == null || addresses.length == 0) {
+            throw new SendFailedException("No recipient addresses");
+        }
+        final MimeMessage mimeMessage = (MimeMessage) message;
+
+        final boolean binary = getBooleanProperty("allowbinarymime", false)
+                && supportsExtension("BINARYMIME") && supportsExtension("CHUNKING");
+        final boolean eightBit = binary || (getBooleanProperty("allow8bitmime", false) && supportsExtension("8BITMIME"));
+
+        String bodyType = null;
+        try {
+            if (eightBit && convertTransferEncoding(mimeMessage, binary)) {
+                bodyType = binary ? "BINARYMIME" : "8BITMIME";
+            }
+        } catch (IOException e) {
+            throw new MessagingException("failed to read message content.", e);
+        }
+
+        final List<Address> accepted = new ArrayList<Address>();
+        final List<Address> validSent = new ArrayList<Address>();
+        final List<Address> validUnsent = new ArrayList<Address>();
+        final List<Address> invalid = new ArrayList<Address>();
+        try {
+            final int[] codes;
+            try {
+                codes = sendEnvelope(mimeMessage, bodyType, addresses);
+            } catch (SmtpCommandException e) {
+                validUnsent.addAll(Arrays.asList(addresses));
+                throw e;
+            }
+            for (int i = 0; i < addresses.length; i++) {
+                if (codes[i] == 250 || codes[i] == 251) {
+                    accepted.add(addresses[i]);
+                } else if (codes[i] >= 500) {
+                    invalid.add(addresses[i]);
+                } else {
+                    validUnsent.add(addresses[i]);
+                }
+            }
+            if (accepted.isEmpty()
+                    || (accepted.size() < addresses.length && !getBooleanProperty("sendpartial", false))) {
+                validUnsent.addAll(0, accepted);
+                throw new SmtpCommandException("Invalid Addresses");
+            }
+            try {
+                if (binary && bodyType != null) {
+                    sendBdat(mimeMessage);
+                } else {
+                    sendData(mimeMessage);
+                }
+            } catch (SmtpCommandException e) {
+                validUnsent.addAll(0, accepted);
+                throw e;
+            } catch (IOException e) {
+                validUnsent.addAll(0, accepted);
+                throw e;
+            }
+            validSent.addAll(accepted);
+        } catch (SmtpCommandException e) {
+            resetQuietly();
+            throw createSendFailedException(e.getMessage(), e, mimeMessage, validSent, validUnsent, invalid);
+        } catch (IOException e) {
+            closeSocket();
+            throw createSendFailedException("failed to send a mail: " + e.getMessage(), e, mimeMessage,
+                    validSent, validUnsent, invalid);
+        }
+
+        notifyTransportListeners(TransportEvent.MESSAGE_DELIVERED, toArray(validSent), toArray(validUnsent),
+                toArray(invalid), mimeMessage);
+        if (!invalid.isEmpty() || !validUnsent.isEmpty()) {
+            throw new SendFailedException("Invalid Addresses", null, toArray(validSent), toArray(validUnsent),
+                    toArray(invalid));
+        }
+    }
+
+    /**
+     * 送信失敗を表す例外を生成し、送信失敗を通知する。
+     *
+     * @param message 例外メッセージ
+     * @param cause 起因例外
+     * @param mimeMessage 送信対象のメッセージ
+     * @param validSent 送信済みの有効なアドレス
+     * @param validUnsent 未送信の有効なアドレス
+     * @param invalid 無効なアドレス
+     * @return 送信失敗を表す例外
+     */
+    private SendFailedException createSendFailedException(String message, Exception cause, MimeMessage mimeMessage,
+            List<Address> validSent, List<Address> validUnsent, List<Address> invalid) {
+        notifyTransportListeners(TransportEvent.MESSAGE_NOT_DELIVERED, toArray(validSent), toArray(validUnsent),
+                toArray(invalid), mimeMessage);
+        return new SendFailedException(message, cause, toArray(validSent), toArray(validUnsent), toArray(invalid));
+    }
+
+    /**
+     * エンベロープ(MAIL FROMコマンド及び宛先ごとのRCPT TOコマンド)を送信する。
+     * <p/>
+     * サーバがPIPELININGを広告している場合は、全てのコマンドをまとめて送信してから応答を読み込む。
+     * ただし、{@code mail.smtp.pipelining}に{@code false}が設定されている場合は、コマンドごとに応答を待つ。
+     *
+     * @param message 送信対象のメッセージ
+     * @param bodyType BODYパラメータに指定する値(指定しない場合は{@code null})
+     * @param addresses 宛先
+     * @return 宛先ごとのRCPT TOコマンドの応答コード
+     * @throws IOException 入出力に失敗した場合
+     * @throws SmtpCommandException MAIL FROMコマンドが失敗した場合
+     * @throws MessagingException 送信者の取得に失敗した場合
+     */
+    private int[] sendEnvelope(MimeMessage message, String bodyType, Address[] addresses)
+            throws IOException, MessagingException {
+        final int[] codes = new int[addresses.length];
+        if (!getBooleanProperty("pipelining", true) || !supportsExtension("PIPELINING")) {
+            simpleCommand(mailFromCommand(message, bodyType), 250);
+            for (int i = 0; i < addresses.length; i++) {
+                sendCommand(rcptToCommand(addresses[i]));
+                codes[i] = readServerResponse();
+            }
+            return codes;
+        }
+
+        writeCommand(mailFromCommand(message, bodyType));
+        for (Address address : addresses) {
+            writeCommand(rcptToCommand(address));
+        }
+        out.flush();
+
+        final int mailFromCode = readServerResponse();
+        final String mailFromResponse = lastServerResponse;
+        for (int i = 0; i < addresses.length; i++) {
+            codes[i] = readServerResponse();
+        }
+        if (mailFromCode != 250) {
+            throw new SmtpCommandException(mailFromResponse);
+        }
+        return codes;
+    }
+
+    /**
+     * MAIL FROMコマンドを組み立てる。
+     *
+     * @param message 送信対象のメッセージ
+     * @param bodyType BODYパラメータに指定する値(指定しない場合は{@code null})
+     * @return MAIL FROMコマンド
+     * @throws MessagingException 送信者の取得に失敗した場合
+     */
+    private String mailFromCommand(MimeMessage message, String bodyType) throws MessagingException {
+        String from = session.getProperty("mail.smtp.from");
+        if (from == null) {
+            final Address[] fromAddresses = message.getFrom();
+            from = fromAddresses != null && fromAddresses.length > 0
+                    ? ((InternetAddress) fromAddresses[0]).getAddress()
+                    : InternetAddress.getLocalAddress(session).getAddress();
+        }
+        String command = "MAIL FROM:<" + from + '>';
+        if (bodyType != null) {
+            command += " BODY=" + bodyType;
+        }
+        return command;
+    }
+
+    /**
+     * RCPT TOコマンドを組み立てる。
+     *
+     * @param address 宛先
+     * @return RCPT TOコマンド
+     */
+    private static String rcptToCommand(Address address) {
+        return "RCPT TO:<" + ((InternetAddress) address).getAddress() + '>';
+    }
+
+    /**
+     * DATAコマンドでメッセージを送信する。
+     *
+     * @param message 送信対象のメッセージ
+     * @throws IOException 入出力に失敗した場合
+     * @throws MessagingException メッセージの出力に失敗した場合
+     */
+    private void sendData(MimeMessage message) throws IOException, MessagingException {
+        simpleCommand("DATA", 354);
+        final DotStuffingOutputStream data = new DotStuffingOutputStream(out);
+        message.writeTo(data);
+        data.finish();
+        out.flush();
+        expectServerResponse(250);
+    }
+
+    /**
+     * BDATコマンドでメッセージを分割して送信する。
+     *
+     * @param message 送信対象のメッセージ
+     * @throws IOException 入出力に失敗した場合
+     * @throws MessagingException メッセージの出力に失敗した場合
+     */
+    private void sendBdat(MimeMessage message) throws IOException, MessagingException {
+        final ChunkingOutputStream data = new ChunkingOutputStream(getIntProperty("chunksize", DEFAULT_CHUNK_SIZE));
+        message.writeTo(data);
+        data.finish();
+    }
+
+    /**
+     * 8BITMIMEまたはBINARYMIMEで送信できるように、各パートのContent-Transfer-Encodingを変更する。
+     * <p/>
+     * テキストのパートは、内容が8bitの制約(行の長さ及びNUL文字を含まないこと)を満たす場合に8bitに変更する。
+     * BINARYMIMEで送信する場合は、テキスト以外のパートをbinaryに変更する。
+     * エンコード済みのデータを保持するパート({@link PreencodedMimeBodyPart})は変更しない。
+     *
+     * @param part パート
+     * @param binary BINARYMIMEで送信する場合は{@code true}
+     * @return Content-Transfer-Encodingを変更したパートが存在する場合は{@code true}
+     * @throws IOException 入出力に失敗した場合
+     * @throws MessagingException パートの操作に失敗した場合
+     */
+    private boolean convertTransferEncoding(MimePart part, boolean binary) throws IOException, MessagingException {
+        if (part.isMimeType("multipart/*")) {
+            final Multipart multipart = (Multipart) part.getContent();
+            boolean changed = false;
+            for (int i = 0; i < multipart.getCount(); i++) {
+                final BodyPart bodyPart = multipart.getBodyPart(i);
+                if (bodyPart instanceof MimePart) {
+                    changed |= convertTransferEncoding((MimePart) bodyPart, binary);
+                }
+            }
+            return changed;
+        }
+        if (part instanceof PreencodedMimeBodyPart) {
+            return false;
+        }
+        final String encoding = part.getEncoding();
+        if (!"quoted-printable".equalsIgnoreCase(encoding) && !"base64".equalsIgnoreCase(encoding)) {
+            return false;
+        }
+        if (part.isMimeType("text/*")) {
+            if (is8BitSafe(part.getInputStream(), binary)) {
+                part.setHeader("Content-Transfer-Encoding", "8bit");
+                return true;
+            }
+            return false;
+        }
+        if (binary) {
+            part.setHeader("Content-Transfer-Encoding", "binary");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * データが8bitで送信可能か否か。
+     * <p/>
+     * BDATコマンドで送信する場合は改行コードの変換が行われないため、CRLF以外の改行を含むデータも送信不可とする。
+     *
+     * @param data データ
+     * @param strictLineBreak CRLF以外の改行を許容しない場合は{@code true}
+     * @return 8bitで送信可能な場合は{@code true}
+     * @throws IOException データの読み込みに失敗した場合
+     */
+    private static boolean is8BitSafe(InputStream data, boolean strictLineBreak) throws IOException {
+        try {
+            int lineLength = 0;
+            int previous = -1;
+            int b;
+            while ((b = data.read()) != -1) {
+                if (b == 0) {
+                    return false;
+                }
+                if (b == '\n') {
+                    if (strictLineBreak && previous != '\r') {
+                        return false;
+                    }
+                    lineLength = 0;
+                } else if (b != '\r') {
+                    if (strictLineBreak && previous == '\r') {
+                        return false;
+                    }
+                    if (++lineLength > MAX_LINE_LENGTH) {
+                        return false;
+                    }
+                }
+                previous = b;
+            }
+            return !(strictLineBreak && previous == '\r');
+        } finally {
+            data.close();
+        }
+    }
+
+    /**
+     * コマンドを送信し、期待する応答コードであることを確認する。
+     *
+     * @param command コマンド
+     * @param expected 期待する応答コード
+     * @throws IOException 入出力に失敗した場合
+     * @throws SmtpCommandException 期待する応答コードでなかった場合
+     */
+    private void simpleCommand(String command, int expected) throws IOException, SmtpCommandException {
+        sendCommand(command);
+        expectServerResponse(expected);
+    }
+
+    /**
+     * 応答を読み込み、期待する応答コードであることを確認する。
+     *
+     * @param expected 期待する応答コード
+     * @throws IOException 入出力に失敗した場合
+     * @throws SmtpCommandException 期待する応答コードでなかった場合
+     */
+    private void expectServerResponse(int expected) throws IOException, SmtpCommandException {
+        final int code = readServerResponse();
+        if (code != expected) {
+            throw new SmtpCommandException(lastServerResponse);
+        }
+    }
+
+    /**
+     * コマンドを送信する。
+     *
+     * @param command コマンド
+     * @throws IOException 入出力に失敗した場合
+     */
+    private void sendCommand(String command) throws IOException {
+        writeCommand(command);
+        out.flush();
+    }
+
+    /**
+     * コマンドを出力ストリームに書き込む。サーバへの送信は行わない。
+     *
+     * @param command コマンド
+     * @throws IOException 入出力に失敗した場合
+     */
+    private void writeCommand(String command) throws IOException {
+        out.write(command.getBytes("US-ASCII"));
+        out.write(CRLF);
+    }
+
+    /**
+     * 応答を読み込む。
+     * <p/>
+     * 複数行の応答の場合は、最終行まで読み込む。
+     *
+     * @return 応答コード(応答が不正な場合は-1)
+     * @throws IOException 入出力に失敗した場合
+     */
+    private int readServerResponse() throws IOException {
+        final StringBuilder response = new StringBuilder();
+        String line;
+        do {
+            line = readLine();
+            if (line == null) {
+                throw new IOException("connection closed by SMTP server");
+            }
+            if (response.length() > 0) {
+                response.append("\r\n");
+            }
+            response.append(line);
+        } while (line.length() > 3 && line.charAt(3) == '-');
+
+        lastServerResponse = response.toString();
+        try {
+            return Integer.parseInt(line.substring(0, Math.min(3, line.length())));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 1行を読み込む。
+     *
+     * @return 読み込んだ行(改行を除く。ストリームの終端の場合は{@code null})
+     * @throws IOException 入出力に失敗した場合
+     */
+    private String readLine() throws IOException {
+        final StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                final int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) b);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    /**
+     * 最後に受信した応答を取得する。
+     *
+     * @return 最後に受信した応答
+     */
+    public String getLastServerResponse() {
+        return lastServerResponse;
+    }
+
+    /**
+     * RSETコマンドを送信する。失敗した場合は接続を閉じる。
+     */
+    private void resetQuietly() {
+        try {
+            simpleCommand("RSET", 250);
+        } catch (Exception e) {
+            closeSocket();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws MessagingException {
+        if (socket != null) {
+            try {
+                sendCommand("QUIT");
+                readServerResponse();
+            } catch (IOException ignored) {
+                // 切断するため、QUITの失敗は無視する。
+            } finally {
+                closeSocket();
+            }
+        }
+        super.close();
+    }
+
+    @Override
+    public synchronized boolean isConnected() {
+        return socket != null && super.isConnected();
+    }
+
+    /**
+     * ソケットを閉じる。
+     */
+    private void closeSocket() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // 切断時の例外は無視する。
+            }
+        }
+        socket = null;
+        in = null;
+        out = null;
+    }
+
+    /**
+     * EHLOコマンドで通知するホスト名を取得する。
+     *
+     * @return ホスト名
+     */
+    private String getLocalHost() {
+        final String localHost = session.getProperty("mail.smtp.localhost");
+        if (localHost != null) {
+            return localHost;
+        }
+        try {
+            return InetAddress.getLocalHost().getCanonicalHostName();
+        } catch (UnknownHostException e) {
+            return "localhost";
+        }
+    }
+
+    /**
+     * 真偽値のセッションプロパティを取得する。
+     *
+     * @param name プロパティ名(mail.smtp.を除いたもの)
+     * @param defaultValue デフォルト値
+     * @return プロパティの値
+     */
+    private boolean getBooleanProperty(String name, boolean defaultValue) {
+        final String value = session.getProperty("mail." + PROTOCOL + '.' + name);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    /**
+     * 整数のセッションプロパティを取得する。
+     *
+     * @param name プロパティ名(mail.smtp.を除いたもの)
+     * @param defaultValue デフォルト値
+     * @return プロパティの値
+     */
+    private int getIntProperty(String name, int defaultValue) {
+        final String value = session.getProperty("mail." + PROTOCOL + '.' + name);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    /**
+     * アドレスのリストを配列に変換する。
+     *
+     * @param addresses アドレスのリスト
+     * @return アドレスの配列(リストが空の場合は{@code null})
+     */
+    private static Address[] toArray(List<Address> addresses) {
+        return addresses.isEmpty() ? null : addresses.toArray(new Address[addresses.size()]);
+    }
+
+    /**
+     * SMTPコマンドが期待しない応答を返したことを示す例外。
+     */
+    private static final class SmtpCommandException extends MessagingException {
+
+        /**
+         * コンストラクタ。
+         *
+         * @param serverResponse サーバの応答
+         */
+        private SmtpCommandException(String serverResponse) {
+            super(serverResponse);
+        }
+    }
+
+    /**
+     * BDATコマンドで送信するデータを出力するストリーム。
+     * <p/>
+     * チャンクサイズ分のデータが溜まる度に、BDATコマンドで送信する。
+     */
+    private final class ChunkingOutputStream extends OutputStream {
+
+        /** チャンクのバッファ */
+        private final byte[] buffer;
+
+        /** バッファ内のデータ長 */
+        private int count;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param chunkSize チャンクサイズ
+         */
+        private ChunkingOutputStream(int chunkSize) {
+            buffer = new byte[chunkSize];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                sendChunk(false);
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int offset = off;
+            int remaining = len;
+            while (remaining > 0) {
+                if (count == buffer.length) {
+                    sendChunk(false);
+                }
+                final int length = Math.min(remaining, buffer.length - count);
+                System.arraycopy(b, offset, buffer, count, length);
+                count += length;
+                offset += length;
+                remaining -= length;
+            }
+        }
+
+        /**
+         * バッファ内のデータをBDATコマンドで送信する。
+         *
+         * @param last 最後のチャンクの場合は{@code true}
+         * @throws IOException 入出力に失敗した場合
+         */
+        private void sendChunk(boolean last) throws IOException {
+            out.write(("BDAT " + count + (last ? " LAST" : "")).getBytes("US-ASCII"));
+            out.write(CRLF);
+            out.write(buffer, 0, count);
+            out.flush();
+            count = 0;
+            if (readServerResponse() != 250) {
+                throw new ChunkRejectedException(lastServerResponse);
+            }
+        }
+
+        /**
+         * 残りのデータを最後のチャンクとして送信する。
+         *
+         * @throws SmtpCommandException チャンクの送信が拒否された場合
+         * @throws IOException 入出力に失敗した場合
+         */
+        private void finish() throws IOException, SmtpCommandException {
+            try {
+                sendChunk(true);
+            } catch (ChunkRejectedException e) {
+                throw new SmtpCommandException(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * BDATコマンドでのチャンクの送信が拒否されたことを示す例外。
+     * <p/>
+     * {@link Message#writeTo(OutputStream)}の中で発生するため、{@link IOException}として送出する。
+     */
+    private static final class ChunkRejectedException extends IOException {
+
+        /**
+         * コンストラクタ。
+         *
+         * @param serverResponse サーバの応答
+         */
+        private ChunkRejectedException(String serverResponse) {
+            super(serverResponse);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package nablarch.common.mail;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
+import nablarch.core.util.annotation.Published;
+
+/**
+ * メールの送信を{@link Executor}のタスクとして実行する{@link MailTransport}の実装クラス。
+ * <p/>
+ * メール1通ごとに1タスクで{@link Transport#send(javax.mail.Message)}を実行するため、
+ * {@link MailSender}を処理するスレッドはSMTPサーバの応答を待たずに次のメール送信要求の処理に進むことができる。
+ * <p/>
+ * 同時に実行するタスク数はスレッド数ではなくセマフォで制限する。
+ * 送信結果の通知(送信失敗時の送信ステータスの更新を含む)はタスク内で行うため、
+ * この上限は送信結果の通知で使用するデータベース接続の数の上限にもなる。
+ * 上限に達した場合は、いずれかのタスクが完了するまで{@link #send}の呼び出し元を待機させる。
+ * <p/>
+ * {@link Executor}を設定しない場合は、タスクごとに新しいデーモンスレッドを生成して実行する。
+ * 仮想スレッドを使用可能な環境では、タスクごとに仮想スレッドを生成する{@link Executor}を設定することで、
+ * 軽量なスレッドでメールを送信できる。
+ */
+@Published(tag = "architect")
+public class ExecutorMailTransport implements MailTransport {
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(ExecutorMailTransport.class);
+
+    /** 同時に実行するタスク数の上限 */
+    private int maxConcurrency = 10;
+
+    /** タスクを実行する{@link Executor} */
+    private Executor executor;
+
+    /** 同時に実行するタスク数を制限するセマフォ */
+    private Semaphore permits;
+
+    /**
+     * 同時に実行するタスク数の上限を設定する。
+     * <p/>
+     * デフォルトは10。
+     *
+     * @param maxConcurrency 同時に実行するタスク数の上限
+     */
+    public void setMaxConcurrency(int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * タスクを実行する{@link Executor}を設定する。
+     * <p/>
+     * 設定しない場合は、タスクごとに新しいデーモンスレッドを生成して実行する。
+     *
+     * @param executor タスクを実行する{@link Executor}
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * 同時に実行するタスク数が上限に達している場合は、空きができるまで待機する。
+     */
+    @Override
+    public void send(final Session session, final MimeMessage message, final MailTransportCallback callback) {
+        final Semaphore semaphore = getPermits();
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            callback.onFailure(new MessagingException("interrupted while waiting for a send task.", e));
+            return;
+        }
+
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                MessagingException failure = null;
+                try {
+                    Transport.send(message);
+                } catch (MessagingException e) {
+                    failure = e;
+                } catch (RuntimeException e) {
+                    failure = new MessagingException("failed to send a mail.", e);
+                }
+                try {
+                    if (failure == null) {
+                        callback.onSuccess();
+                    } else {
+                        callback.onFailure(failure);
+                    }
+                } catch (RuntimeException e) {
+                    LOGGER.logWarn("failed to notify the result of sending a mail.", e);
+                } finally {
+                    semaphore.release();
+                }
+            }
+        };
+        try {
+            if (executor != null) {
+                executor.execute(task);
+            } else {
+                final Thread thread = new Thread(task, "ExecutorMailTransport");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        } catch (RejectedExecutionException e) {
+            semaphore.release();
+            callback.onFailure(new MessagingException("send task was rejected.", e));
+        }
+    }
+
+    @Override
+    public void waitForCompletion() throws InterruptedException {
+        final Semaphore semaphore = getPermits();
+        semaphore.acquire(maxConcurrency);
+        semaphore.release(maxConcurrency);
+    }
+
+    /**
+     * 実行中のタスク数を取得する。
+     *
+     * @return 実行中のタスク数
+     */
+    public int getActiveCount() {
+        return maxConcurrency - getPermits().availablePermits();
+    }
+
+    /**
+     * 同時に実行するタスク数を制限するセマフォを取得する。
+     *
+     * @return セマフォ
+     */
+    private synchronized Semaphore getPermits() {
+        if (permits == null) {
+            permits = new Semaphore(maxConcurrency);
+        }
+        return permits;
+    }
+}
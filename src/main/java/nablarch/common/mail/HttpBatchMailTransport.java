@@ -0,0 +1,278 @@
+package nablarch.common.mail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeUtility;
+
+import nablarch.core.util.annotation.Published;
+
+/**
+ * まとめたメールをHTTPのAPIで1回のリクエストにより送信する{@link MailTransport}の実装クラス。
+ * <p/>
+ * {@link #setEndpointUrl(String)}で設定したURLに、以下の形式のJSONをPOSTする。
+ * rawにはメッセージ全体(RFC 5322形式)をBase64でエンコードした値を設定する。
+ * <pre>
+ * {"messages":[
+ *   {"returnPath":"差し戻し先メールアドレス","recipients":["宛先",...],"raw":"Base64でエンコードしたメッセージ"},
+ *   ...
+ * ]}
+ * </pre>
+ * 応答のステータスコードが2xxの場合は全てのメールを送信成功として、それ以外の場合は全てのメールを送信失敗として通知する。
+ * メールごとの送信結果を応答に含むAPIを使用する場合は、{@link #handleResponse(List, int, String)}をオーバーライドすること。
+ * <p/>
+ * 認証情報などのリクエストヘッダは{@link #setRequestHeaders(Map)}で設定する。
+ */
+@Published(tag = "architect")
+public class HttpBatchMailTransport extends BatchingMailTransport {
+
+    /** 応答の文字セット */
+    private static final String CHARSET = "UTF-8";
+
+    /** 送信先のURL */
+    private String endpointUrl;
+
+    /** リクエストヘッダ */
+    private Map<String, String> requestHeaders = Collections.emptyMap();
+
+    /** 接続タイムアウト(ミリ秒) */
+    private int connectTimeoutMillis = 10000;
+
+    /** 読み込みタイムアウト(ミリ秒) */
+    private int readTimeoutMillis = 60000;
+
+    /**
+     * 送信先のURLを設定する。
+     *
+     * @param endpointUrl 送信先のURL
+     */
+    public void setEndpointUrl(String endpointUrl) {
+        this.endpointUrl = endpointUrl;
+    }
+
+    /**
+     * リクエストヘッダを設定する。
+     *
+     * @param requestHeaders リクエストヘッダ(キーはヘッダ名)
+     */
+    public void setRequestHeaders(Map<String, String> requestHeaders) {
+        this.requestHeaders = requestHeaders;
+    }
+
+    /**
+     * 接続タイムアウト(ミリ秒)を設定する。
+     * <p/>
+     * デフォルトは10秒。
+     *
+     * @param connectTimeoutMillis 接続タイムアウト(ミリ秒)
+     */
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    /**
+     * 読み込みタイムアウト(ミリ秒)を設定する。
+     * <p/>
+     * デフォルトは60秒。
+     *
+     * @param readTimeoutMillis 読み込みタイムアウト(ミリ秒)
+     */
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * 全てのメールを同じURLに送信するため、送信先にかかわらず1回のリクエストにまとめる。
+     */
+    @Override
+    protected String getBatchKey(Session session) {
+        return endpointUrl;
+    }
+
+    @Override
+    protected void deliver(List<BatchEntry> batch) {
+        final byte[] body;
+        try {
+            body = createRequestBody(batch);
+        } catch (MessagingException e) {
+            for (BatchEntry entry : batch) {
+                entry.failed(e);
+            }
+            return;
+        }
+        final int status;
+        final String response;
+        try {
+            final HttpURLConnection connection = (HttpURLConnection) new URL(endpointUrl).openConnection();
+            connection.setConnectTimeout(connectTimeoutMillis);
+            connection.setReadTimeout(readTimeoutMillis);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.setRequestProperty("Content-Type", "application/json; charset=" + CHARSET);
+            for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+            final OutputStream out = connection.getOutputStream();
+            try {
+                out.write(body);
+            } finally {
+                out.close();
+            }
+            status = connection.getResponseCode();
+            response = read(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+        } catch (IOException e) {
+            final MessagingException me = new MessagingException(
+                    "failed to call mail delivery API. url=[" + endpointUrl + ']', e);
+            for (BatchEntry entry : batch) {
+                entry.failed(me);
+            }
+            return;
+        }
+        handleResponse(batch, status, response);
+    }
+
+    /**
+     * 応答からメールごとの送信結果を通知する。
+     * <p/>
+     * ステータスコードが2xxの場合は全てのメールを送信成功として、それ以外の場合は全てのメールを送信失敗として通知する。
+     *
+     * @param batch まとめたメール
+     * @param status 応答のステータスコード
+     * @param response 応答のボディ
+     */
+    protected void handleResponse(List<BatchEntry> batch, int status, String response) {
+        if (status / 100 == 2) {
+            for (BatchEntry entry : batch) {
+                entry.succeeded();
+            }
+            return;
+        }
+        final MessagingException e = new MessagingException(String.format(
+                "mail delivery API returned an error. url=[%s] status=[%d] response=[%s]",
+                endpointUrl, status, response));
+        for (BatchEntry entry : batch) {
+            entry.failed(e);
+        }
+    }
+
+    /**
+     * リクエストのボディを生成する。
+     *
+     * @param batch まとめたメール
+     * @return リクエストのボディ
+     * @throws MessagingException メッセージの書き出しに失敗した場合
+     */
+    private static byte[] createRequestBody(List<BatchEntry> batch) throws MessagingException {
+        final StringBuilder json = new StringBuilder("{\"messages\":[");
+        for (int i = 0; i < batch.size(); i++) {
+            final BatchEntry entry = batch.get(i);
+            final MimeMessage message = entry.getMessage();
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"returnPath\":");
+            appendString(json, entry.getSession().getProperty("mail.smtp.from"));
+            json.append(",\"recipients\":[");
+            final Address[] recipients = message.getAllRecipients();
+            if (recipients != null) {
+                for (int j = 0; j < recipients.length; j++) {
+                    if (j > 0) {
+                        json.append(',');
+                    }
+                    appendString(json, recipients[j] instanceof InternetAddress
+                            ? ((InternetAddress) recipients[j]).getAddress() : recipients[j].toString());
+                }
+            }
+            json.append("],\"raw\":\"").append(encode(message)).append("\"}");
+        }
+        json.append("]}");
+        try {
+            return json.toString().getBytes(CHARSET);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * メッセージ全体をBase64でエンコードする。
+     *
+     * @param message メッセージ
+     * @return Base64でエンコードした文字列(改行を含まない)
+     * @throws MessagingException メッセージの書き出しに失敗した場合
+     */
+    private static String encode(MimeMessage message) throws MessagingException {
+        final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        try {
+            final OutputStream out = MimeUtility.encode(encoded, "base64");
+            message.writeTo(out);
+            out.close();
+            return encoded.toString("US-ASCII").replace("\r\n", "");
+        } catch (IOException e) {
+            throw new MessagingException("failed to write a message.", e);
+        }
+    }
+
+    /**
+     * 文字列をJSONの文字列として追加する。
+     *
+     * @param json 追加先
+     * @param value 文字列({@code null}の場合はnullとして追加する)
+     */
+    private static void appendString(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * ストリームを文字列として読み込む。
+     *
+     * @param in ストリーム({@code null}の場合は空文字を返す)
+     * @return 読み込んだ文字列
+     * @throws IOException 読み込みに失敗した場合
+     */
+    private static String read(InputStream in) throws IOException {
+        if (in == null) {
+            return "";
+        }
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toString(CHARSET);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package nablarch.common.mail;
+
+import java.util.concurrent.TimeUnit;
+
+import nablarch.core.util.annotation.Published;
+
+/**
+ * 同一JVM内で{@link MailRequester}と{@link MailSender}が動作する場合に使用する{@link MailRequestNotifier}の実装クラス。
+ * <p/>
+ * {@link MailRequester}と{@link MailSender}が同じインスタンスを参照するよう、
+ * システムリポジトリに登録したコンポーネントを{@link MailRequester}に設定すること。
+ * <p/>
+ * 本クラスは通知時点でメール送信要求を登録したトランザクションがコミットされているかを判別できないため、
+ * 通知を受けてから{@link #setCommitWaitMillis(long)}で設定した時間が経過するまでは、
+ * {@link #setRecheckIntervalMillis(long)}で設定した間隔で{@link #awaitRequest()}から復帰し、
+ * コミット後のメール送信要求を読み込めるようにする。
+ */
+@Published(tag = "architect")
+public class InJvmMailRequestNotifier implements MailRequestNotifier {
+
+    /** 通知を待つ最大の時間(ミリ秒) */
+    private long maxWaitMillis = 60000L;
+
+    /** 通知を受けてから、コミットを待って再読み込みを続ける時間(ミリ秒) */
+    private long commitWaitMillis = 1000L;
+
+    /** コミットを待つ間の再読み込みの間隔(ミリ秒) */
+    private long recheckIntervalMillis = 100L;
+
+    /** 通知の世代(通知のたびに増加する) */
+    private long generation;
+
+    /** 再読み込みを続ける期限(ナノ秒) */
+    private long recheckDeadline;
+
+    /** スレッドごとの、最後に受けた通知の世代 */
+    private final ThreadLocal<Long> seenGeneration = new ThreadLocal<Long>();
+
+    /** 直前の読み込み時の未送信のメール送信要求の件数(読み込んでいない場合は-1) */
+    private volatile int lastTargetCount = -1;
+
+    /**
+     * 通知を待つ最大の時間(ミリ秒)を設定する。
+     * <p/>
+     * 通知がない場合でも、この時間が経過すると{@link #awaitRequest()}から復帰する。デフォルトは60秒。
+     *
+     * @param maxWaitMillis 通知を待つ最大の時間(ミリ秒)
+     */
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * 通知を受けてから、コミットを待って再読み込みを続ける時間(ミリ秒)を設定する。
+     * <p/>
+     * メール送信要求を登録するトランザクションの、登録からコミットまでの時間より長く設定すること。デフォルトは1秒。
+     *
+     * @param commitWaitMillis コミットを待って再読み込みを続ける時間(ミリ秒)
+     */
+    public void setCommitWaitMillis(long commitWaitMillis) {
+        this.commitWaitMillis = commitWaitMillis;
+    }
+
+    /**
+     * コミットを待つ間の再読み込みの間隔(ミリ秒)を設定する。
+     * <p/>
+     * デフォルトは100ミリ秒。
+     *
+     * @param recheckIntervalMillis 再読み込みの間隔(ミリ秒)
+     */
+    public void setRecheckIntervalMillis(long recheckIntervalMillis) {
+        this.recheckIntervalMillis = recheckIntervalMillis;
+    }
+
+    @Override
+    public synchronized void notifyRequested(String transactionName) {
+        generation++;
+        recheckDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(commitWaitMillis);
+        notifyAll();
+    }
+
+    @Override
+    public void recordPoll(int targetCount) {
+        lastTargetCount = targetCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * 前回の復帰以降に通知を受けている場合は、直ちに復帰する。
+     * 通知を受けてからコミットを待つ間は、再読み込みの間隔が経過した時点で復帰する。
+     */
+    @Override
+    public synchronized boolean awaitRequest() throws InterruptedException {
+        if (lastTargetCount != 0) {
+            // これから読み込むため、ここまでの通知は受けたものとする。
+            seenGeneration.set(generation);
+            return false;
+        }
+        final Long seen = seenGeneration.get();
+        if (seen == null || seen != generation) {
+            seenGeneration.set(generation);
+            return seen != null;
+        }
+        final long now = System.nanoTime();
+        if (now - recheckDeadline < 0) {
+            TimeUnit.MILLISECONDS.timedWait(this, recheckIntervalMillis);
+            seenGeneration.set(generation);
+            return true;
+        }
+        final long deadline = now + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        while (seen == generation) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        seenGeneration.set(generation);
+        return true;
+    }
+}
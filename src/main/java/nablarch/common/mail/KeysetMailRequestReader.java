@@ -0,0 +1,83 @@
+package nablarch.common.mail;
+
+import java.util.Collections;
+import java.util.Iterator;
+
+import nablarch.core.db.statement.SqlResultSet;
+import nablarch.core.db.statement.SqlRow;
+import nablarch.fw.DataReader;
+import nablarch.fw.ExecutionContext;
+
+/**
+ * 未送信のメール送信要求を{@link MailRequestTable#findUnsentPage(String, String, String)}により
+ * メールリクエストIDの順に一定件数ずつ読み込むリーダ。
+ * <p/>
+ * 前回読み込んだ最後のメールリクエストIDより後のデータを読み込むため、読み込み開始後に登録されたメール送信要求も読み込む。
+ * マルチプロセス用の設定がされている場合は、読み込みごとに前回読み込んだ最後のメールリクエストIDより後の
+ * 未送信のメール送信要求に、1回の件数までメール送信バッチのプロセスIDを設定する。
+ * 送信を見送ってプロセスIDを解除したメール送信要求は再び設定しないため、後続のメール送信バッチで処理される。
+ * <p/>
+ * 読み込んだ件数が1回の件数に満たなかった場合に、未送信のメール送信要求をすべて読み込んだものとする。
+ */
+final class KeysetMailRequestReader implements DataReader<SqlRow> {
+
+    /** メール送信要求管理テーブルのスキーマ情報 */
+    private final MailRequestTable mailRequestTable;
+
+    /** メール送信パターンID */
+    private final String mailSendPatternId;
+
+    /** メール送信バッチのプロセスID */
+    private final String sendProcessId;
+
+    /** 読み込み済みで返していないレコード */
+    private Iterator<SqlRow> records = Collections.<SqlRow>emptyList().iterator();
+
+    /** 前回読み込んだ最後のメールリクエストID */
+    private String lastMailRequestId;
+
+    /** 未送信のメール送信要求をすべて読み込んだか否か */
+    private boolean exhausted;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param mailRequestTable メール送信要求管理テーブルのスキーマ情報
+     * @param mailSendPatternId メール送信パターンID
+     * @param sendProcessId メール送信バッチのプロセスID
+     */
+    KeysetMailRequestReader(MailRequestTable mailRequestTable, String mailSendPatternId, String sendProcessId) {
+        this.mailRequestTable = mailRequestTable;
+        this.mailSendPatternId = mailSendPatternId;
+        this.sendProcessId = sendProcessId;
+    }
+
+    @Override
+    public synchronized SqlRow read(ExecutionContext ctx) {
+        return hasNext(ctx) ? records.next() : null;
+    }
+
+    @Override
+    public synchronized boolean hasNext(ExecutionContext ctx) {
+        if (records.hasNext()) {
+            return true;
+        }
+        if (exhausted) {
+            return false;
+        }
+        mailRequestTable.updateSendProcessId(mailSendPatternId, sendProcessId, lastMailRequestId);
+        final SqlResultSet page = mailRequestTable.findUnsentPage(mailSendPatternId, sendProcessId, lastMailRequestId);
+        exhausted = page.size() < mailRequestTable.getReaderPageSize();
+        if (!page.isEmpty()) {
+            lastMailRequestId = page.get(page.size() - 1).getString(MailRequestTable.MAIL_REQUEST_ID_ALIAS);
+        }
+        records = page.iterator();
+        return records.hasNext();
+    }
+
+    @Override
+    public synchronized void close(ExecutionContext ctx) {
+        records = Collections.<SqlRow>emptyList().iterator();
+        exhausted = true;
+    }
+}
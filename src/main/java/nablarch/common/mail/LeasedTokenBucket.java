@@ -0,0 +1,73 @@
+package nablarch.common.mail;
+
+/**
+ * 送信レート管理テーブルから払い出した送信枠による送信レートの制限。
+ * <p/>
+ * 送信枠を一定件数まとめて払い出し、払い出した件数を使い切るまではデータベースにアクセスしない。
+ * 払い出した送信枠は払い出した期間内のみ有効とし、期間が終了した場合は残りを破棄する。
+ */
+final class LeasedTokenBucket {
+
+    /** 送信レート管理テーブル */
+    private final MailRateLimitTable table;
+
+    /** 上限のキー */
+    private final String limitKey;
+
+    /** 送信レートの上限 */
+    private final RateLimit rateLimit;
+
+    /** 一度に払い出す件数 */
+    private final int leaseSize;
+
+    /** 払い出した送信枠の残りの件数 */
+    private int tokens;
+
+    /** 払い出した送信枠の有効期限(エポックからのミリ秒) */
+    private long windowEnd;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param table 送信レート管理テーブル
+     * @param limitKey 上限のキー
+     * @param rateLimit 送信レートの上限
+     * @param leaseSize 一度に払い出す件数
+     */
+    LeasedTokenBucket(MailRateLimitTable table, String limitKey, RateLimit rateLimit, int leaseSize) {
+        if (rateLimit.getPermits() <= 0 || rateLimit.getPeriodMillis() <= 0) {
+            throw new IllegalArgumentException(String.format(
+                    "permits and periodMillis must be positive. target=[%s] permits=[%d] periodMillis=[%d]",
+                    rateLimit.getTarget(), rateLimit.getPermits(), rateLimit.getPeriodMillis()));
+        }
+        this.table = table;
+        this.limitKey = limitKey;
+        this.rateLimit = rateLimit;
+        this.leaseSize = leaseSize;
+    }
+
+    /**
+     * 送信枠を1件取得する。
+     * <p/>
+     * 払い出した送信枠が残っていない場合は、送信レート管理テーブルから払い出す。
+     * 現在の期間に払い出せる送信枠がない場合は取得せず、次の期間が始まるまでの待機時間を返す。
+     *
+     * @param now 現在時刻(エポックからのミリ秒)
+     * @return 取得できた場合は0、取得できなかった場合は再試行するまでの待機時間(ミリ秒)
+     */
+    synchronized long tryAcquire(long now) {
+        if (tokens > 0 && now < windowEnd) {
+            tokens--;
+            return 0L;
+        }
+        final MailRateLimitTable.Lease lease = table.lease(
+                limitKey, rateLimit.getPermits(), rateLimit.getPeriodMillis(), leaseSize, now);
+        windowEnd = lease.getWindowEnd();
+        if (lease.getGrantedCount() > 0) {
+            tokens = lease.getGrantedCount() - 1;
+            return 0L;
+        }
+        tokens = 0;
+        return Math.max(1L, windowEnd - now);
+    }
+}
@@ -0,0 +1,279 @@
+package nablarch.common.mail;
+
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nablarch.core.date.SystemTimeUtil;
+import nablarch.core.db.statement.SqlResultSet;
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
+import nablarch.core.repository.SystemRepository;
+import nablarch.core.util.annotation.Published;
+import nablarch.fw.DataReader;
+import nablarch.fw.ExecutionContext;
+import nablarch.fw.Result;
+import nablarch.fw.action.BatchAction;
+
+/**
+ * 送信が完了したメール送信要求を履歴テーブルに移動するバッチアクション。
+ * <p/>
+ * システムリポジトリに"mailHistoryTable"という名前で登録した{@link MailHistoryTable}の設定に従い、
+ * 送信済み、送信失敗及び有効期限切れのメール送信要求を、送信先及び添付ファイルとともに一定件数ずつ履歴テーブルに移動する。
+ * これにより、メール送信要求管理テーブル、メール送信先管理テーブル及び添付ファイル管理テーブルには未送信のメール送信要求のみが残る。
+ * 移動の後、保持期間が設定されている場合は、保持期間を経過したメール送信要求を履歴テーブルから一定件数ずつ削除する。
+ * <p/>
+ * 移動及び削除は{@link #handle(Chunk, ExecutionContext)}の1回の呼び出しごとに行う。
+ * 1回の移動または削除ごとにコミットするため、トランザクションループ制御ハンドラのコミット間隔には1を設定すること。
+ * <p/>
+ * {@link MailSender}と同時に実行する場合は、{@link MailConfig#setStatusSending(String)}で送信中のステータスを設定すること。
+ * 送信中のメール送信要求は移動対象とならないため、{@link MailSender}が送信結果を反映した後に移動する。
+ * 送信中のステータスを使用しない場合は、送信前に送信済みに更新されたメール送信要求を移動してしまうため、
+ * {@link MailHistoryTable#setConcurrentWithMailSender(boolean)}に{@code false}を設定し、
+ * {@link MailSender}が停止している間に実行すること。
+ */
+public class MailArchiver extends BatchAction<MailArchiver.Chunk> {
+
+    /** システムリポジトリ用のキー定数 */
+    private static final String SYSTEM_REPOSITORY_KEY_MAIL_CONFIG = "mailConfig";
+
+    /** システムリポジトリ用のキー定数 */
+    private static final String SYSTEM_REPOSITORY_KEY_MAIL_HISTORY_TABLE = "mailHistoryTable";
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(MailArchiver.class);
+
+    /** 履歴テーブルに移動したメール送信要求の件数 */
+    private final AtomicInteger archivedCount = new AtomicInteger();
+
+    /** 履歴テーブルから削除したメール送信要求の件数 */
+    private final AtomicInteger purgedCount = new AtomicInteger();
+
+    /**
+     * コンストラクタ。
+     */
+    @Published(tag = "architect")
+    public MailArchiver() {
+        // Do nothing
+    }
+
+    /**
+     * メール送信要求を履歴テーブルに移動する、または履歴テーブルから削除する。
+     *
+     * @param data 入力データ（移動または削除する範囲）
+     * @param context 実行コンテキスト
+     * @return 処理結果
+     */
+    @Override
+    public Result handle(Chunk data, ExecutionContext context) {
+        final MailHistoryTable mailHistoryTable = getMailHistoryTable();
+        if (data.isPurge()) {
+            purgedCount.addAndGet(mailHistoryTable.purge(
+                    data.getThreshold(), data.getFirstMailRequestId(), data.getLastMailRequestId()));
+        } else {
+            final MailConfig mailConfig = SystemRepository.get(SYSTEM_REPOSITORY_KEY_MAIL_CONFIG);
+            archivedCount.addAndGet(mailHistoryTable.archive(
+                    mailConfig, data.getFirstMailRequestId(), data.getLastMailRequestId()));
+        }
+        return new Result.Success();
+    }
+
+    /**
+     * 移動または削除する範囲を一定件数ずつ読み込むリーダを生成する。
+     *
+     * @param ctx 実行コンテキスト
+     * @return リーダオブジェクト
+     * @throws IllegalStateException {@link MailSender}と同時に移動する設定で、送信中のステータスが設定されていない場合
+     */
+    @Override
+    public DataReader<Chunk> createReader(ExecutionContext ctx) {
+        final MailHistoryTable mailHistoryTable = getMailHistoryTable();
+        final MailConfig mailConfig = SystemRepository.get(SYSTEM_REPOSITORY_KEY_MAIL_CONFIG);
+        if (mailHistoryTable.isConcurrentWithMailSender() && mailConfig.getStatusSending() == null) {
+            throw new IllegalStateException("statusSending of mailConfig must be set to archive mail requests"
+                    + " concurrently with MailSender. set concurrentWithMailSender of mailHistoryTable to false"
+                    + " if MailSender is stopped while archiving.");
+        }
+        Timestamp threshold = null;
+        if (mailHistoryTable.getRetentionDays() >= 0) {
+            threshold = new Timestamp(SystemTimeUtil.getTimestamp().getTime()
+                    - TimeUnit.DAYS.toMillis(mailHistoryTable.getRetentionDays()));
+        }
+        return new ChunkReader(mailHistoryTable, mailConfig, threshold);
+    }
+
+    /**
+     * 移動及び削除した件数をログに出力する。
+     *
+     * @param result 本バッチの処理結果
+     * @param context 実行コンテキスト
+     */
+    @Override
+    protected void terminate(Result result, ExecutionContext context) {
+        LOGGER.logInfo("archived mail requests. archived=[" + archivedCount.get()
+                + "] purged=[" + purgedCount.get() + ']');
+    }
+
+    /**
+     * 履歴テーブルのスキーマ情報を取得する。
+     *
+     * @return 履歴テーブルのスキーマ情報
+     * @throws IllegalStateException システムリポジトリに登録されていない場合
+     */
+    private static MailHistoryTable getMailHistoryTable() {
+        final MailHistoryTable mailHistoryTable = SystemRepository.get(SYSTEM_REPOSITORY_KEY_MAIL_HISTORY_TABLE);
+        if (mailHistoryTable == null) {
+            throw new IllegalStateException("component was not found in the system repository. name=["
+                    + SYSTEM_REPOSITORY_KEY_MAIL_HISTORY_TABLE + ']');
+        }
+        return mailHistoryTable;
+    }
+
+    /**
+     * 移動または削除するメール送信要求の範囲。
+     * <p/>
+     * 範囲はメールリクエストIDの先頭と最後で表す。
+     */
+    @Published(tag = "architect")
+    public static final class Chunk {
+
+        /** 範囲の先頭のメールリクエストID */
+        private final String firstMailRequestId;
+
+        /** 範囲の最後のメールリクエストID */
+        private final String lastMailRequestId;
+
+        /** 削除の対象とする要求日時の基準(移動の場合は{@code null}) */
+        private final Timestamp threshold;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param firstMailRequestId 範囲の先頭のメールリクエストID
+         * @param lastMailRequestId 範囲の最後のメールリクエストID
+         * @param threshold 削除の対象とする要求日時の基準(移動の場合は{@code null})
+         */
+        Chunk(String firstMailRequestId, String lastMailRequestId, Timestamp threshold) {
+            this.firstMailRequestId = firstMailRequestId;
+            this.lastMailRequestId = lastMailRequestId;
+            this.threshold = threshold;
+        }
+
+        /**
+         * 範囲の先頭のメールリクエストIDを取得する。
+         *
+         * @return 範囲の先頭のメールリクエストID
+         */
+        public String getFirstMailRequestId() {
+            return firstMailRequestId;
+        }
+
+        /**
+         * 範囲の最後のメールリクエストIDを取得する。
+         *
+         * @return 範囲の最後のメールリクエストID
+         */
+        public String getLastMailRequestId() {
+            return lastMailRequestId;
+        }
+
+        /**
+         * 削除の対象とする要求日時の基準を取得する。
+         *
+         * @return 要求日時がこの日時より前のメール送信要求を削除する(移動の場合は{@code null})
+         */
+        public Timestamp getThreshold() {
+            return threshold;
+        }
+
+        /**
+         * 履歴テーブルからの削除か否か。
+         *
+         * @return 削除の場合は{@code true}、移動の場合は{@code false}
+         */
+        public boolean isPurge() {
+            return threshold != null;
+        }
+    }
+
+    /**
+     * 移動する範囲を読み込んだ後、削除する範囲を読み込むリーダ。
+     * <p/>
+     * 前回読み込んだ範囲の最後のメールリクエストIDより後を読み込むため、移動または削除できなかった範囲を繰り返し読み込むことはない。
+     */
+    private static final class ChunkReader implements DataReader<Chunk> {
+
+        /** 履歴テーブルのスキーマ情報 */
+        private final MailHistoryTable mailHistoryTable;
+
+        /** メール送信設定 */
+        private final MailConfig mailConfig;
+
+        /** 削除の対象とする要求日時の基準(削除しない場合は{@code null}) */
+        private final Timestamp threshold;
+
+        /** 読み込み済みで返していない範囲 */
+        private Chunk next;
+
+        /** 前回読み込んだ範囲の最後のメールリクエストID */
+        private String lastMailRequestId;
+
+        /** 削除する範囲を読み込んでいるか否か */
+        private boolean purging;
+
+        /** すべての範囲を読み込んだか否か */
+        private boolean exhausted;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param mailHistoryTable 履歴テーブルのスキーマ情報
+         * @param mailConfig メール送信設定
+         * @param threshold 削除の対象とする要求日時の基準(削除しない場合は{@code null})
+         */
+        ChunkReader(MailHistoryTable mailHistoryTable, MailConfig mailConfig, Timestamp threshold) {
+            this.mailHistoryTable = mailHistoryTable;
+            this.mailConfig = mailConfig;
+            this.threshold = threshold;
+        }
+
+        @Override
+        public synchronized Chunk read(ExecutionContext ctx) {
+            if (!hasNext(ctx)) {
+                return null;
+            }
+            final Chunk chunk = next;
+            next = null;
+            return chunk;
+        }
+
+        @Override
+        public synchronized boolean hasNext(ExecutionContext ctx) {
+            while (next == null && !exhausted) {
+                final SqlResultSet ids = purging
+                        ? mailHistoryTable.findExpiredChunk(threshold, lastMailRequestId)
+                        : mailHistoryTable.findCompletedChunk(mailConfig, lastMailRequestId);
+                if (!ids.isEmpty()) {
+                    final String first = ids.get(0).getString(MailHistoryTable.MAIL_REQUEST_ID_ALIAS);
+                    lastMailRequestId = ids.get(ids.size() - 1).getString(MailHistoryTable.MAIL_REQUEST_ID_ALIAS);
+                    next = new Chunk(first, lastMailRequestId, purging ? threshold : null);
+                }
+                if (ids.size() < mailHistoryTable.getChunkSize()) {
+                    if (purging || threshold == null) {
+                        exhausted = true;
+                    } else {
+                        purging = true;
+                        lastMailRequestId = null;
+                    }
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public synchronized void close(ExecutionContext ctx) {
+            next = null;
+            exhausted = true;
+        }
+    }
+}
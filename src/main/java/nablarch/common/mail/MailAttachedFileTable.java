@@ -1,5 +1,6 @@
 package nablarch.common.mail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -13,6 +14,7 @@ import nablarch.core.db.statement.SqlPStatement;
 import nablarch.core.db.statement.SqlRow;
 import nablarch.core.repository.initialization.Initializable;
 import nablarch.core.util.FileUtil;
+import nablarch.core.util.StringUtil;
 import nablarch.core.util.annotation.Published;
 
 /**
@@ -41,6 +43,12 @@ public class MailAttachedFileTable implements Initializable {
     /** ファイルデータのカラム名 */
     private String fileColumnName;
 
+    /** ファイルデータのハッシュ値のカラム名 */
+    private String fileHashColumnName;
+
+    /** メールデータ共有テーブルのスキーマ情報 */
+    private MailBlobTable mailBlobTable;
+
     /** 添付ファイルを登録するSQL */
     private String insertSql;
 
@@ -101,6 +109,27 @@ public class MailAttachedFileTable implements Initializable {
         this.fileColumnName = fileColumnName;
     }
 
+    /**
+     * 添付ファイル管理テーブルの添付ファイルのハッシュ値カラムの名前を設定する。
+     * <p/>
+     * 本カラムと{@link #setMailBlobTable(MailBlobTable)}を設定した場合、
+     * 添付ファイルのデータはメールデータ共有テーブルに登録し、本テーブルにはハッシュ値のみを保持する。
+     *
+     * @param fileHashColumnName 添付ファイル管理テーブルの添付ファイルのハッシュ値カラムの名前
+     */
+    public void setFileHashColumnName(String fileHashColumnName) {
+        this.fileHashColumnName = fileHashColumnName;
+    }
+
+    /**
+     * メールデータ共有テーブルのスキーマ情報を設定する。
+     *
+     * @param mailBlobTable メールデータ共有テーブルのスキーマ情報
+     */
+    public void setMailBlobTable(MailBlobTable mailBlobTable) {
+        this.mailBlobTable = mailBlobTable;
+    }
+
     /**
      * 添付ファイル管理テーブルに添付ファイルの情報を登録する。
      *
@@ -109,7 +138,7 @@ public class MailAttachedFileTable implements Initializable {
      */
     public void insert(String mailRequestId, MailContext context) {
         AppDbConnection connection = DbConnectionContext.getConnection();
-        executeInsertSQL(mailRequestId, context, connection);
+        executeInsertSQL(mailRequestId, context, connection, null);
     }
 
     /**
@@ -121,7 +150,7 @@ public class MailAttachedFileTable implements Initializable {
      */
     public void insert(String mailRequestId, MailContext context, String transactionName) {
         AppDbConnection connection = DbConnectionContext.getConnection(transactionName);
-        executeInsertSQL(mailRequestId, context, connection);
+        executeInsertSQL(mailRequestId, context, connection, transactionName);
     }
 
     /**
@@ -129,8 +158,10 @@ public class MailAttachedFileTable implements Initializable {
      * @param mailRequestId メールリクエストID
      * @param context 添付ファイルの情報
      * @param connection コネクション
+     * @param transactionName トランザクション名(デフォルトのトランザクションを使用する場合は{@code null})
      */
-    private void executeInsertSQL(String mailRequestId, MailContext context, AppDbConnection connection) {
+    private void executeInsertSQL(String mailRequestId, MailContext context, AppDbConnection connection,
+            String transactionName) {
         int serialNo = 1;
         SqlPStatement statement = connection.prepareStatement(insertSql);
         statement.setString(1, mailRequestId);
@@ -139,6 +170,17 @@ public class MailAttachedFileTable implements Initializable {
             statement.setString(3, attachedFile.getName());
             statement.setString(4, attachedFile.getContentType());
 
+            if (isSharedFileData()) {
+                final byte[] data = readFile(attachedFile);
+                final String hash = transactionName == null
+                        ? mailBlobTable.register(data)
+                        : mailBlobTable.register(data, transactionName);
+                statement.setString(5, hash);
+                statement.executeUpdate();
+                serialNo++;
+                continue;
+            }
+
             InputStream stream = null;
             try {
                 stream = new FileInputStream(attachedFile.getFile());
@@ -154,6 +196,92 @@ public class MailAttachedFileTable implements Initializable {
         }
     }
 
+    /**
+     * 添付ファイルを読み込む。
+     *
+     * @param attachedFile 添付ファイル
+     * @return 添付ファイルのデータ
+     */
+    private static byte[] readFile(AttachedFile attachedFile) {
+        InputStream stream = null;
+        try {
+            stream = new FileInputStream(attachedFile.getFile());
+            final ByteArrayOutputStream out = new ByteArrayOutputStream((int) attachedFile.getFile().length());
+            final byte[] buffer = new byte[8192];
+            int length;
+            while ((length = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(
+                    "an error occurred while reading file:", e);
+        } finally {
+            FileUtil.closeQuietly(stream);
+        }
+    }
+
+    /**
+     * 添付ファイルのデータをメールデータ共有テーブルで管理するか否か。
+     *
+     * @return メールデータ共有テーブルで管理する場合は{@code true}
+     */
+    private boolean isSharedFileData() {
+        return mailBlobTable != null && StringUtil.hasValue(fileHashColumnName);
+    }
+
+    /**
+     * 添付ファイル管理テーブルの名前を取得する。
+     *
+     * @return 添付ファイル管理テーブルの名前
+     */
+    String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * メールリクエストIDカラムの名前を取得する。
+     *
+     * @return メールリクエストIDカラムの名前
+     */
+    String getMailRequestIdColumnName() {
+        return mailRequestIdColumnName;
+    }
+
+    /**
+     * 本スキーマ情報に設定されたカラムの名前を取得する。
+     *
+     * @return カラムの名前(設定されていないカラムは含まない)
+     */
+    List<String> getColumnNames() {
+        final List<String> columnNames = new ArrayList<String>();
+        for (String columnName : new String[] {mailRequestIdColumnName, serialNumberColumnName, fileNameColumnName,
+                contentTypeColumnName, fileColumnName, fileHashColumnName}) {
+            if (StringUtil.hasValue(columnName)) {
+                columnNames.add(columnName);
+            }
+        }
+        return columnNames;
+    }
+
+    /**
+     * ファイルデータのハッシュ値カラムの名前を取得する。
+     *
+     * @return ファイルデータのハッシュ値カラムの名前(メールデータ共有テーブルで管理しない場合は{@code null})
+     */
+    String getFileHashColumnName() {
+        return isSharedFileData() ? fileHashColumnName : null;
+    }
+
+    /**
+     * 添付ファイルのデータを管理するメールデータ共有テーブルのスキーマ情報を取得する。
+     *
+     * @return メールデータ共有テーブルのスキーマ情報(メールデータ共有テーブルで管理しない場合は{@code null})
+     */
+    MailBlobTable getMailBlobTable() {
+        return isSharedFileData() ? mailBlobTable : null;
+    }
+
     /**
      * 添付ファイルデータを取得する。
      *
@@ -169,7 +297,7 @@ public class MailAttachedFileTable implements Initializable {
         ResultSetIterator sqlRows = statement.executeQuery();
         List<MailAttachedFileTable.MailAttachedFile> result = new ArrayList<MailAttachedFileTable.MailAttachedFile>();
         for (SqlRow record : sqlRows) {
-            result.add(new MailAttachedFileTable.MailAttachedFile(record));
+            result.add(new MailAttachedFileTable.MailAttachedFile(record, isSharedFileData() ? mailBlobTable : null));
         }
         return result;
     }
@@ -184,21 +312,23 @@ public class MailAttachedFileTable implements Initializable {
      * <li>添付ファイル管理へレコードを追加するINSERT文</li>
      * <li>添付ファイル管理からメールリクエストIDを元にレコードを取得するSELECT文(連番の昇順でソート)</li>
      * </ul>
+     * メールデータ共有テーブルを使用する場合は、ファイルデータのカラムの代わりにハッシュ値のカラムを使用する。
      */
     public void initialize() {
+        final String dataColumnName = isSharedFileData() ? fileHashColumnName : fileColumnName;
         insertSql = "INSERT INTO " + tableName + " ( "
                 + mailRequestIdColumnName + ", "
                 + serialNumberColumnName + ", "
                 + fileNameColumnName + ", "
                 + contentTypeColumnName + ", "
-                + fileColumnName
+                + dataColumnName
                 + ") VALUES (?,?,?,?,?)";
 
         findSql = "SELECT "
                 + serialNumberColumnName + " SERIAL_NUMBER, "
                 + fileNameColumnName + " FILE_NAME, "
                 + contentTypeColumnName + " CONTENT_TYPE, "
-                + fileColumnName + " FILE_DATA "
+                + dataColumnName + (isSharedFileData() ? " FILE_HASH " : " FILE_DATA ")
                 + "FROM " + tableName
                 + " WHERE "
                 + mailRequestIdColumnName + " = ? "
@@ -216,13 +346,29 @@ public class MailAttachedFileTable implements Initializable {
         /** 添付ファイル管理の1レコード分の情報を保持するオブジェクト */
         private final SqlRow record;
 
+        /** ファイルのデータを取得するメールデータ共有テーブル */
+        private final MailBlobTable mailBlobTable;
+
         /**
          * 添付ファイル管理の1レコード文の情報を保持するインスタンスを生成する。
          *
          * @param record 1レコードを表すレコード
          */
         public MailAttachedFile(SqlRow record) {
+            this(record, null);
+        }
+
+        /**
+         * 添付ファイル管理の1レコード文の情報を保持するインスタンスを生成する。
+         * <p/>
+         * メールデータ共有テーブルが指定された場合、ファイルのデータはハッシュ値を元に共有テーブルから取得する。
+         *
+         * @param record 1レコードを表すレコード
+         * @param mailBlobTable メールデータ共有テーブル(ファイルのデータをレコードに保持する場合は{@code null})
+         */
+        public MailAttachedFile(SqlRow record, MailBlobTable mailBlobTable) {
             this.record = record;
+            this.mailBlobTable = mailBlobTable;
         }
 
         /**
@@ -252,12 +398,24 @@ public class MailAttachedFileTable implements Initializable {
             return record.getString("CONTENT_TYPE");
         }
 
+        /**
+         * ファイルのデータのハッシュ値を取得する。
+         *
+         * @return ファイルのデータのハッシュ値(メールデータ共有テーブルを使用しない場合は{@code null})
+         */
+        public String getFileHash() {
+            return mailBlobTable != null ? record.getString("FILE_HASH") : null;
+        }
+
         /**
          * ファイルのデータを取得する。
          *
          * @return ファイルのデータ
          */
         public byte[] getFile() {
+            if (mailBlobTable != null) {
+                return mailBlobTable.find(getFileHash());
+            }
             return record.getBytes("FILE_DATA");
         }
     }
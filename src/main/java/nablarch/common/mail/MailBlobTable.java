@@ -0,0 +1,290 @@
+package nablarch.common.mail;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import nablarch.core.db.connection.AppDbConnection;
+import nablarch.core.db.connection.DbConnectionContext;
+import nablarch.core.db.statement.SqlPStatement;
+import nablarch.core.db.statement.SqlResultSet;
+import nablarch.core.db.statement.exception.DuplicateStatementException;
+import nablarch.core.db.transaction.SimpleDbTransactionExecutor;
+import nablarch.core.db.transaction.SimpleDbTransactionManager;
+import nablarch.core.repository.initialization.Initializable;
+import nablarch.core.util.annotation.Published;
+
+/**
+ * メールデータ共有テーブルのスキーマ情報を保持するデータオブジェクト。
+ * <p/>
+ * 添付ファイルやメール本文のデータを、内容のハッシュ値(SHA-256)をキーとして1レコードだけ保持する。
+ * 同一内容のデータが複数のメール送信要求から登録された場合は、参照数のみを加算する。
+ * <p/>
+ * 未登録のデータは、{@link #setTransactionManager(SimpleDbTransactionManager)}で設定したトランザクションで
+ * 参照数0として登録した後、呼び出し元のトランザクションで参照数を加算する。
+ * 同一内容のデータを複数のトランザクションが同時に登録しようとした場合でも、一意制約違反は別のトランザクションで発生するため、
+ * 呼び出し元のトランザクションは継続できる(PostgreSQLのように、エラー後のSQLを受け付けないデータベースでも使用できる)。
+ * 呼び出し元のトランザクションがロールバックされた場合、登録したデータは参照数0のまま残り、
+ * 同一内容のデータが再び登録された場合に使用される。
+ */
+@Published(tag = "architect")
+public class MailBlobTable implements Initializable {
+
+    /** ハッシュ値の算出アルゴリズム */
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    /** 登録を試みる最大回数 */
+    private static final int MAX_REGISTER_ATTEMPTS = 3;
+
+    /** テーブル名 */
+    private String tableName;
+
+    /** ハッシュ値のカラム名 */
+    private String hashColumnName;
+
+    /** データのカラム名 */
+    private String dataColumnName;
+
+    /** 参照数のカラム名 */
+    private String referenceCountColumnName;
+
+    /** 未登録のデータを登録するトランザクション */
+    private SimpleDbTransactionManager transactionManager;
+
+    /** データを登録するSQL */
+    private String insertSql;
+
+    /** 参照数を加算するSQL */
+    private String incrementSql;
+
+    /** 参照数を減算するSQL */
+    private String decrementSql;
+
+    /** 参照されなくなったデータを削除するSQL */
+    private String deleteSql;
+
+    /** データを取得するSQL */
+    private String findSql;
+
+    /**
+     * メールデータ共有テーブルの名前を設定する。
+     *
+     * @param tableName メールデータ共有テーブルの名前
+     */
+    public void setTableName(String tableName) {
+        this.tableName = tableName;
+    }
+
+    /**
+     * メールデータ共有テーブルのハッシュ値カラムの名前を設定する。
+     *
+     * @param hashColumnName メールデータ共有テーブルのハッシュ値カラムの名前
+     */
+    public void setHashColumnName(String hashColumnName) {
+        this.hashColumnName = hashColumnName;
+    }
+
+    /**
+     * メールデータ共有テーブルのデータカラムの名前を設定する。
+     *
+     * @param dataColumnName メールデータ共有テーブルのデータカラムの名前
+     */
+    public void setDataColumnName(String dataColumnName) {
+        this.dataColumnName = dataColumnName;
+    }
+
+    /**
+     * メールデータ共有テーブルの参照数カラムの名前を設定する。
+     *
+     * @param referenceCountColumnName メールデータ共有テーブルの参照数カラムの名前
+     */
+    public void setReferenceCountColumnName(String referenceCountColumnName) {
+        this.referenceCountColumnName = referenceCountColumnName;
+    }
+
+    /**
+     * 未登録のデータを登録するトランザクションを設定する。
+     * <p/>
+     * 登録は呼び出し元のトランザクションとは別にコミットされるため、呼び出し元とは異なるトランザクションを設定すること。
+     *
+     * @param transactionManager 未登録のデータを登録するトランザクション
+     */
+    public void setTransactionManager(SimpleDbTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    /**
+     * データを登録する。
+     * <p/>
+     * 同一内容のデータが既に登録されている場合は、参照数を加算する。
+     *
+     * @param data 登録するデータ
+     * @return 登録したデータのハッシュ値
+     */
+    public String register(byte[] data) {
+        return executeRegister(data, DbConnectionContext.getConnection());
+    }
+
+    /**
+     * 指定されたトランザクション名を用いてデータを登録する。
+     * <p/>
+     * 同一内容のデータが既に登録されている場合は、参照数を加算する。
+     *
+     * @param data 登録するデータ
+     * @param transactionName トランザクション名
+     * @return 登録したデータのハッシュ値
+     */
+    public String register(byte[] data, String transactionName) {
+        return executeRegister(data, DbConnectionContext.getConnection(transactionName));
+    }
+
+    /**
+     * データを登録する。
+     *
+     * @param data 登録するデータ
+     * @param connection コネクション
+     * @return 登録したデータのハッシュ値
+     */
+    private String executeRegister(byte[] data, AppDbConnection connection) {
+        final String hash = computeHash(data);
+        // 参照数0のデータを登録してから加算するまでの間に、他のトランザクションの解放により削除された場合は登録し直す。
+        for (int i = 0; i < MAX_REGISTER_ATTEMPTS; i++) {
+            if (increment(hash, connection)) {
+                return hash;
+            }
+            insertUnreferenced(hash, data);
+        }
+        throw new IllegalStateException(String.format("failed to register mail data. hash=[%s]", hash));
+    }
+
+    /**
+     * 呼び出し元とは別のトランザクションで、参照数0のデータを登録する。
+     * <p/>
+     * 他のトランザクションで同一データが先に登録された場合は、何もしない。
+     *
+     * @param hash ハッシュ値
+     * @param data データ
+     */
+    private void insertUnreferenced(final String hash, final byte[] data) {
+        try {
+            new SimpleDbTransactionExecutor<Void>(transactionManager) {
+                @Override
+                public Void execute(AppDbConnection connection) {
+                    SqlPStatement statement = connection.prepareStatement(insertSql);
+                    statement.setString(1, hash);
+                    statement.setBytes(2, data);
+                    statement.executeUpdate();
+                    return null;
+                }
+            }.doTransaction();
+        } catch (DuplicateStatementException ignored) {
+            // 他のトランザクションで同一データが先に登録された場合は、登録済みのデータの参照数を加算する。
+        }
+    }
+
+    /**
+     * 参照数を加算する。
+     *
+     * @param hash ハッシュ値
+     * @param connection コネクション
+     * @return 対象のデータが存在した場合は{@code true}
+     */
+    private boolean increment(String hash, AppDbConnection connection) {
+        SqlPStatement statement = connection.prepareStatement(incrementSql);
+        statement.setString(1, hash);
+        return statement.executeUpdate() > 0;
+    }
+
+    /**
+     * データの参照を解放する。
+     * <p/>
+     * 参照数を減算し、どこからも参照されなくなったデータを削除する。
+     *
+     * @param hash ハッシュ値
+     */
+    public void release(String hash) {
+        AppDbConnection connection = DbConnectionContext.getConnection();
+        SqlPStatement decrement = connection.prepareStatement(decrementSql);
+        decrement.setString(1, hash);
+        decrement.executeUpdate();
+
+        SqlPStatement delete = connection.prepareStatement(deleteSql);
+        delete.setString(1, hash);
+        delete.executeUpdate();
+    }
+
+    /**
+     * ハッシュ値に紐付くデータを取得する。
+     *
+     * @param hash ハッシュ値
+     * @return データ
+     * @throws IllegalStateException ハッシュ値に紐付くデータが存在しない場合
+     */
+    public byte[] find(String hash) {
+        AppDbConnection connection = DbConnectionContext.getConnection();
+        SqlPStatement statement = connection.prepareStatement(findSql);
+        statement.setString(1, hash);
+        SqlResultSet rs = statement.retrieve();
+        if (rs.isEmpty()) {
+            throw new IllegalStateException(String.format("mail data was not found. hash=[%s]", hash));
+        }
+        return rs.get(0).getBytes("DATA");
+    }
+
+    /**
+     * データのハッシュ値を算出する。
+     *
+     * @param data データ
+     * @return ハッシュ値(16進数表記の文字列)
+     */
+    static String computeHash(byte[] data) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        final byte[] hash = digest.digest(data);
+        final StringBuilder sb = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * 本クラスで使用するSQL文を各セッターで設定されたテーブル名及びカラム名から構築する。
+     *
+     * @throws IllegalStateException 未登録のデータを登録するトランザクションが設定されていない場合
+     */
+    public void initialize() {
+        if (transactionManager == null) {
+            throw new IllegalStateException("transactionManager must be set.");
+        }
+        insertSql = "INSERT INTO " + tableName + " ( "
+                + hashColumnName + ", "
+                + dataColumnName + ", "
+                + referenceCountColumnName
+                + ") VALUES (?,?,0)";
+
+        incrementSql = "UPDATE " + tableName
+                + " SET " + referenceCountColumnName + " = " + referenceCountColumnName + " + 1"
+                + " WHERE " + hashColumnName + " = ?";
+
+        decrementSql = "UPDATE " + tableName
+                + " SET " + referenceCountColumnName + " = " + referenceCountColumnName + " - 1"
+                + " WHERE " + hashColumnName + " = ?";
+
+        deleteSql = "DELETE FROM " + tableName
+                + " WHERE " + hashColumnName + " = ?"
+                + " AND " + referenceCountColumnName + " <= 0";
+
+        findSql = "SELECT "
+                + dataColumnName + " DATA "
+                + "FROM " + tableName
+                + " WHERE "
+                + hashColumnName + " = ?";
+    }
+}
@@ -0,0 +1,178 @@
+package nablarch.common.mail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
+import nablarch.core.util.annotation.Published;
+
+/**
+ * SMTPサーバごとに送信の可否を判定するサーキットブレーカー。
+ * <p/>
+ * SMTPサーバへの送信が連続して失敗した回数が閾値に達した場合は、そのSMTPサーバへの送信を停止する(オープン状態)。
+ * オープン状態では{@link MailSender}はメール送信要求を未送信のまま残し、送信失敗として扱わない。
+ * <p/>
+ * オープン状態になってから試行間隔が経過すると、1件だけ送信を試行する(ハーフオープン状態)。
+ * 試行が成功した場合は送信を再開し(クローズ状態)、失敗した場合は再びオープン状態にする。
+ * <p/>
+ * 宛先の拒否({@link javax.mail.SendFailedException})はSMTPサーバが応答しているため、失敗として数えない。
+ */
+@Published(tag = "architect")
+public class MailCircuitBreaker {
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(MailCircuitBreaker.class);
+
+    /**
+     * サーキットブレーカーの状態。
+     */
+    public enum State {
+        /** 送信可能 */
+        CLOSED,
+        /** 送信停止中 */
+        OPEN,
+        /** 送信を試行中 */
+        HALF_OPEN
+    }
+
+    /** オープン状態にする連続失敗回数 */
+    private int failureThreshold = 5;
+
+    /** オープン状態になってから送信を試行するまでの間隔(ミリ秒) */
+    private long retryIntervalMillis = 30000L;
+
+    /** SMTPサーバごとの状態 */
+    private final Map<String, HostState> hostStates = new HashMap<String, HostState>();
+
+    /**
+     * オープン状態にする連続失敗回数を設定する。
+     * <p/>
+     * デフォルトは5回。
+     *
+     * @param failureThreshold オープン状態にする連続失敗回数
+     */
+    public void setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+    }
+
+    /**
+     * オープン状態になってから送信を試行するまでの間隔(ミリ秒)を設定する。
+     * <p/>
+     * デフォルトは30秒。
+     *
+     * @param retryIntervalMillis 送信を試行するまでの間隔(ミリ秒)
+     */
+    public void setRetryIntervalMillis(long retryIntervalMillis) {
+        this.retryIntervalMillis = retryIntervalMillis;
+    }
+
+    /**
+     * SMTPサーバへの送信が可能か否かを判定する。
+     * <p/>
+     * オープン状態で試行間隔が経過している場合は、ハーフオープン状態に遷移して{@code true}を返す。
+     * ハーフオープン状態では、試行の結果が記録されるか、再び試行間隔が経過するまで{@code false}を返す。
+     *
+     * @param host SMTPサーバのホスト名
+     * @return 送信可能な場合は{@code true}
+     */
+    public synchronized boolean allowRequest(String host) {
+        final HostState state = getHostState(host);
+        if (state.state == State.CLOSED) {
+            return true;
+        }
+        // 試行したメールの送信結果が記録されない場合(メッセージの作成に失敗した場合など)に備え、
+        // ハーフオープン状態でも試行間隔が経過した場合は再度試行する。
+        final long now = currentTimeMillis();
+        if (now - state.openedAt >= retryIntervalMillis) {
+            state.state = State.HALF_OPEN;
+            state.openedAt = now;
+            LOGGER.logInfo(String.format("circuit half-opened, trying to send a mail. host=[%s]", host));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * SMTPサーバへの送信が成功したことを記録する。
+     *
+     * @param host SMTPサーバのホスト名
+     */
+    public synchronized void recordSuccess(String host) {
+        final HostState state = getHostState(host);
+        if (state.state != State.CLOSED) {
+            LOGGER.logInfo(String.format("circuit closed, resume sending mails. host=[%s]", host));
+        }
+        state.state = State.CLOSED;
+        state.consecutiveFailures = 0;
+    }
+
+    /**
+     * SMTPサーバへの送信が失敗したことを記録する。
+     * <p/>
+     * 連続失敗回数が閾値に達した場合、またはハーフオープン状態での試行が失敗した場合はオープン状態にする。
+     *
+     * @param host SMTPサーバのホスト名
+     */
+    public synchronized void recordFailure(String host) {
+        final HostState state = getHostState(host);
+        state.consecutiveFailures++;
+        if (state.state == State.HALF_OPEN
+                || (state.state == State.CLOSED && state.consecutiveFailures >= failureThreshold)) {
+            state.state = State.OPEN;
+            state.openedAt = currentTimeMillis();
+            LOGGER.logWarn(String.format(
+                    "circuit opened, stop sending mails. host=[%s] consecutive failures=[%d] retry interval=[%dms]",
+                    host, state.consecutiveFailures, retryIntervalMillis));
+        }
+    }
+
+    /**
+     * SMTPサーバのサーキットブレーカーの状態を取得する。
+     *
+     * @param host SMTPサーバのホスト名
+     * @return 状態
+     */
+    public synchronized State getState(String host) {
+        return getHostState(host).state;
+    }
+
+    /**
+     * SMTPサーバの状態を取得する。存在しない場合は、クローズ状態で生成する。
+     *
+     * @param host SMTPサーバのホスト名
+     * @return SMTPサーバの状態
+     */
+    private HostState getHostState(String host) {
+        HostState state = hostStates.get(host);
+        if (state == null) {
+            state = new HostState();
+            hostStates.put(host, state);
+        }
+        return state;
+    }
+
+    /**
+     * 現在時刻(ミリ秒)を取得する。
+     *
+     * @return 現在時刻(ミリ秒)
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * SMTPサーバごとの状態。
+     */
+    private static final class HostState {
+
+        /** 状態 */
+        private State state = State.CLOSED;
+
+        /** 連続失敗回数 */
+        private int consecutiveFailures;
+
+        /** オープン状態またはハーフオープン状態になった時刻 */
+        private long openedAt;
+    }
+}
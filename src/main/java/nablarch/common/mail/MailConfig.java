@@ -26,10 +26,17 @@ public class MailConfig {
     private String statusSent = "1";
     /** メール送信ステータス（送信失敗） */
     private String statusFailure = "2";
+    /** メール送信ステータス（送信中） */
+    private String statusSending;
+    /** メール送信ステータス（有効期限切れ） */
+    private String statusExpired = "9";
 
     /** メール送信要求件数出力時のメッセージID */
     private String mailRequestCountMessageId;
 
+    /** 読み込み前にメール送信要求の件数を取得するか否か */
+    private boolean countUnsentRequests = true;
+
     /** メール送信成功時のメッセージID */
     private String sendSuccessMessageId;
 
@@ -172,6 +179,59 @@ public class MailConfig {
         this.statusFailure = statusFailure;
     }
 
+    /**
+     * メール送信ステータス（送信中）のコード値を取得する。
+     * 
+     * @return メール送信ステータス（送信中）のコード値(送信中のステータスを使用しない場合は{@code null})
+     */
+    public String getStatusSending() {
+        return statusSending;
+    }
+
+    /**
+     * メール送信ステータス（送信中）のコード値を設定する。
+     * 
+     * <pre>
+     * 設定した場合、メール送信バッチは送信前にステータスを送信済みではなく送信中に更新し、
+     * 送信に成功した後に送信済みに更新する。送信中に更新する際は、送信日時に送信を開始した日時を設定する。
+     * プロセスが送信中に停止した場合に送信中のまま残ったメール送信要求は、{@link MailSendingRecovery}により回復する。
+     * 
+     * 他のステータスと異なるコード値を設定すること。デフォルトは{@code null}(送信中のステータスを使用しない)。
+     * </pre>
+     * 
+     * @param statusSending
+     *            メール送信ステータス（送信中）のコード値
+     */
+    public void setStatusSending(String statusSending) {
+        this.statusSending = statusSending;
+    }
+
+    /**
+     * メール送信ステータス（有効期限切れ）のコード値を取得する。
+     * 
+     * @return メール送信ステータス（有効期限切れ）のコード値
+     */
+    public String getStatusExpired() {
+        return statusExpired;
+    }
+
+    /**
+     * メール送信ステータス（有効期限切れ）のコード値を設定する。
+     * 
+     * <pre>
+     * メール送信要求管理テーブルに有効期限のカラムを設定した場合に、
+     * 有効期限を過ぎたため送信しなかったメール送信要求のステータスとして使用する。
+     * 
+     * 他のステータスと異なるコード値を設定すること。デフォルトは"9"。
+     * </pre>
+     * 
+     * @param statusExpired
+     *            メール送信ステータス（有効期限切れ）のコード値
+     */
+    public void setStatusExpired(String statusExpired) {
+        this.statusExpired = statusExpired;
+    }
+
     /**
      * 送信失敗時の障害コードを取得する。
      * 
@@ -235,6 +295,33 @@ public class MailConfig {
         this.mailRequestCountMessageId = mailRequestCountMessageId;
     }
 
+    /**
+     * 読み込み前にメール送信要求の件数を取得するか否かを取得する。
+     *
+     * @return 読み込み前に件数を取得する場合は{@code true}
+     */
+    public boolean isCountUnsentRequests() {
+        return countUnsentRequests;
+    }
+
+    /**
+     * 読み込み前にメール送信要求の件数を取得するか否かを設定する。
+     *
+     * <pre>
+     * {@code false}を設定した場合、メール送信バッチは読み込み前に件数(COUNT(*))を取得せず、
+     * 未送信のメール送信要求が1件でも存在するかのみを確認する。存在しない場合は読み込みを行わない。
+     * メール送信要求件数出力時のメッセージには、読み込みを終えた時点で実際に読み込んだ件数を渡す。
+     * 未送信のメール送信要求が大量に滞留する場合に、読み込みごとの件数取得の負荷を削減できる。
+     *
+     * デフォルトは{@code true}。
+     * </pre>
+     *
+     * @param countUnsentRequests 読み込み前に件数を取得する場合は{@code true}
+     */
+    public void setCountUnsentRequests(boolean countUnsentRequests) {
+        this.countUnsentRequests = countUnsentRequests;
+    }
+
     /**
      * 送信失敗時の障害コードを設定する。
      * 
@@ -1,6 +1,7 @@
 package nablarch.common.mail;
 
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
@@ -54,6 +55,12 @@ public abstract class MailContext {
     /** メール送信パターンID */
     private String mailSendPatternId;
 
+    /** ルーティングキー */
+    private String routingKey;
+
+    /** 有効期限 */
+    private Date expireDateTime;
+
     /**
      * メール送信要求をバリデーションする。<br/>
      * バリデーション内容は以下の2つ。下記以外は業務アプリにてバリデーション済みの前提。<br/>
@@ -317,5 +324,50 @@ public abstract class MailContext {
     public void setMailSendPatternId(String mailSendPatternId) {
         this.mailSendPatternId = mailSendPatternId;
     }
-}
 
+    /**
+     * ルーティングキーを取得する。
+     *
+     * @return ルーティングキー
+     */
+    @Published(tag = "architect")
+    public String getRoutingKey() {
+        return routingKey;
+    }
+
+    /**
+     * ルーティングキーを設定する。
+     * <p/>
+     * {@link SmtpRelayRouter}で送信経路を選択するための任意の値を設定する。
+     * メール送信要求管理テーブルにルーティングキーのカラムを設定した場合のみ登録される。
+     *
+     * @param routingKey ルーティングキー
+     */
+    @Published
+    public void setRoutingKey(String routingKey) {
+        this.routingKey = routingKey;
+    }
+
+    /**
+     * 有効期限を取得する。
+     *
+     * @return 有効期限
+     */
+    @Published(tag = "architect")
+    public Date getExpireDateTime() {
+        return expireDateTime;
+    }
+
+    /**
+     * 有効期限を設定する。
+     * <p/>
+     * 有効期限を過ぎたメール送信要求は送信されない。ワンタイムパスワードなど、送信が遅れると価値のないメールに設定する。
+     * メール送信要求管理テーブルに有効期限のカラムを設定した場合のみ登録される。
+     *
+     * @param expireDateTime 有効期限
+     */
+    @Published
+    public void setExpireDateTime(Date expireDateTime) {
+        this.expireDateTime = expireDateTime;
+    }
+}
@@ -0,0 +1,203 @@
+package nablarch.common.mail;
+
+import java.util.Map;
+
+import nablarch.core.db.statement.SqlRow;
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
+import nablarch.core.util.annotation.Published;
+
+/**
+ * 未送信のメール送信要求を読み込む際のフェッチサイズを、読み込んだレコードの大きさと処理の速さに応じて調整するクラス。
+ * <p/>
+ * フェッチサイズは以下のうち小さい方を、最小値と最大値の範囲に収めた値とする。
+ * <ul>
+ * <li>1回のフェッチで取得するデータ量が{@link #setTargetFetchBytes(long)}となる件数</li>
+ * <li>1回のフェッチで取得したレコードを{@link #setMaxBufferMillis(long)}以内に処理できる件数</li>
+ * </ul>
+ * これにより、小さなメールが大量に滞留する場合はフェッチ回数を減らし、大きなメール本文を含む場合はメモリの使用量を抑える。
+ * <p/>
+ * システムリポジトリに"mailFetchSizeTuner"という名前で登録した場合、{@link MailRequestTable}は読み込みに使用する
+ * ステートメントに本クラスが決定したフェッチサイズを設定し、{@link MailSender}は処理したレコードを本クラスに記録する。
+ * 決定したフェッチサイズが変わった場合は、INFOレベルでログに出力する。
+ */
+@Published(tag = "architect")
+public class MailFetchSizeTuner {
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(MailFetchSizeTuner.class);
+
+    /** 平均値の算出に使用する直近の値の重み */
+    private static final double SMOOTHING_FACTOR = 0.1;
+
+    /** 文字列、バイト配列以外の値の大きさの見積もり(バイト) */
+    private static final int OTHER_VALUE_BYTES = 16;
+
+    /** フェッチサイズの最小値 */
+    private int minFetchSize = 10;
+
+    /** フェッチサイズの最大値 */
+    private int maxFetchSize = 1000;
+
+    /** 記録がない場合のフェッチサイズ */
+    private int initialFetchSize = 100;
+
+    /** 1回のフェッチで取得するデータ量の目標値(バイト) */
+    private long targetFetchBytes = 1024L * 1024L;
+
+    /** 1回のフェッチで取得したレコードを処理し終えるまでの時間の上限(ミリ秒) */
+    private long maxBufferMillis = 10000L;
+
+    /** 1レコードの大きさの平均(バイト。記録がない場合は0) */
+    private double averageRowBytes;
+
+    /** レコードを処理する間隔の平均(ミリ秒。記録がない場合は0) */
+    private double averageIntervalMillis;
+
+    /** 直前にレコードを記録した時刻(ミリ秒。記録がない場合は-1) */
+    private long lastRecordedMillis = -1L;
+
+    /** 直前に決定したフェッチサイズ(決定していない場合は0) */
+    private int effectiveFetchSize;
+
+    /**
+     * フェッチサイズの最小値を設定する。
+     * <p/>
+     * デフォルトは10。
+     *
+     * @param minFetchSize フェッチサイズの最小値
+     */
+    public void setMinFetchSize(int minFetchSize) {
+        this.minFetchSize = minFetchSize;
+    }
+
+    /**
+     * フェッチサイズの最大値を設定する。
+     * <p/>
+     * デフォルトは1000。
+     *
+     * @param maxFetchSize フェッチサイズの最大値
+     */
+    public void setMaxFetchSize(int maxFetchSize) {
+        this.maxFetchSize = maxFetchSize;
+    }
+
+    /**
+     * 記録がない場合のフェッチサイズを設定する。
+     * <p/>
+     * デフォルトは100。
+     *
+     * @param initialFetchSize 記録がない場合のフェッチサイズ
+     */
+    public void setInitialFetchSize(int initialFetchSize) {
+        this.initialFetchSize = initialFetchSize;
+    }
+
+    /**
+     * 1回のフェッチで取得するデータ量の目標値(バイト)を設定する。
+     * <p/>
+     * デフォルトは1MB。
+     *
+     * @param targetFetchBytes 1回のフェッチで取得するデータ量の目標値(バイト)
+     */
+    public void setTargetFetchBytes(long targetFetchBytes) {
+        this.targetFetchBytes = targetFetchBytes;
+    }
+
+    /**
+     * 1回のフェッチで取得したレコードを処理し終えるまでの時間の上限(ミリ秒)を設定する。
+     * <p/>
+     * 記録の間隔がこの時間を超えた場合は、処理が中断していたものとして処理の速さの算出に含めない。
+     * デフォルトは10秒。
+     *
+     * @param maxBufferMillis 1回のフェッチで取得したレコードを処理し終えるまでの時間の上限(ミリ秒)
+     */
+    public void setMaxBufferMillis(long maxBufferMillis) {
+        this.maxBufferMillis = maxBufferMillis;
+    }
+
+    /**
+     * 処理したレコードを記録する。
+     *
+     * @param row 処理したレコード
+     */
+    public synchronized void recordRow(SqlRow row) {
+        final long rowBytes = estimateBytes(row);
+        averageRowBytes = averageRowBytes == 0
+                ? rowBytes : averageRowBytes + SMOOTHING_FACTOR * (rowBytes - averageRowBytes);
+
+        final long now = currentTimeMillis();
+        if (lastRecordedMillis >= 0) {
+            final long interval = now - lastRecordedMillis;
+            if (interval <= maxBufferMillis) {
+                averageIntervalMillis = averageIntervalMillis == 0
+                        ? interval : averageIntervalMillis + SMOOTHING_FACTOR * (interval - averageIntervalMillis);
+            }
+        }
+        lastRecordedMillis = now;
+    }
+
+    /**
+     * 記録に基づいてフェッチサイズを決定する。
+     * <p/>
+     * 決定したフェッチサイズが前回と異なる場合は、ログに出力する。
+     *
+     * @return フェッチサイズ
+     */
+    public synchronized int nextFetchSize() {
+        long fetchSize = initialFetchSize;
+        if (averageRowBytes > 0) {
+            fetchSize = (long) (targetFetchBytes / averageRowBytes);
+            if (averageIntervalMillis > 0) {
+                fetchSize = Math.min(fetchSize, (long) (maxBufferMillis / averageIntervalMillis));
+            }
+        }
+        final int next = (int) Math.max(minFetchSize, Math.min(maxFetchSize, fetchSize));
+        if (next != effectiveFetchSize) {
+            LOGGER.logInfo(String.format(
+                    "mail request fetch size changed. fetchSize=[%d] averageRowBytes=[%d] averageIntervalMillis=[%.1f]",
+                    next, (long) averageRowBytes, averageIntervalMillis));
+            effectiveFetchSize = next;
+        }
+        return next;
+    }
+
+    /**
+     * 直前に決定したフェッチサイズを取得する。
+     *
+     * @return 直前に決定したフェッチサイズ(決定していない場合は0)
+     */
+    public synchronized int getEffectiveFetchSize() {
+        return effectiveFetchSize;
+    }
+
+    /**
+     * 現在時刻(ミリ秒)を取得する。
+     *
+     * @return 現在時刻(ミリ秒)
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * レコードの大きさ(バイト)を見積もる。
+     *
+     * @param row レコード
+     * @return レコードの大きさ(バイト)
+     */
+    private static long estimateBytes(SqlRow row) {
+        long bytes = 0;
+        for (Map.Entry<String, Object> column : row.entrySet()) {
+            final Object value = column.getValue();
+            if (value instanceof CharSequence) {
+                bytes += ((CharSequence) value).length() * 2L;
+            } else if (value instanceof byte[]) {
+                bytes += ((byte[]) value).length;
+            } else {
+                bytes += OTHER_VALUE_BYTES;
+            }
+        }
+        return Math.max(1L, bytes);
+    }
+}
@@ -0,0 +1,467 @@
+package nablarch.common.mail;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import nablarch.core.db.connection.AppDbConnection;
+import nablarch.core.db.connection.DbConnectionContext;
+import nablarch.core.db.statement.SqlPStatement;
+import nablarch.core.db.statement.SqlResultSet;
+import nablarch.core.db.statement.SqlRow;
+import nablarch.core.repository.initialization.Initializable;
+import nablarch.core.util.annotation.Published;
+
+/**
+ * 送信が完了したメール送信要求を保持する履歴テーブルのスキーマ情報を保持するデータオブジェクト。
+ * <p/>
+ * 履歴テーブルは、メール送信要求管理テーブル、メール送信先管理テーブル及び添付ファイル管理テーブルごとに用意する。
+ * 各履歴テーブルには、対応するテーブルのスキーマ情報に設定したカラムと同じ名前のカラムを定義すること。
+ * 移動するのはスキーマ情報に設定したカラムのみであり、それ以外のカラムは履歴テーブルに複写しない。
+ * <p/>
+ * 送信済み、送信失敗及び有効期限切れのメール送信要求を、メールリクエストIDの順に{@link #setChunkSize(int)}件ずつ
+ * 送信先及び添付ファイルとともに履歴テーブルに移動する。
+ * 履歴テーブルに移動したメール送信要求は、{@link #setRetentionDays(int)}を設定した場合、要求日時から
+ * 保持期間を経過した後に削除する。
+ * <p/>
+ * 移動及び削除は{@link MailArchiver}が行う。
+ * {@link MailSender}と同時に移動する場合の条件は、{@link #setConcurrentWithMailSender(boolean)}を参照。
+ */
+@Published(tag = "architect")
+public class MailHistoryTable implements Initializable {
+
+    /** メールリクエストIDの別名 */
+    static final String MAIL_REQUEST_ID_ALIAS = MailRequestTable.MAIL_REQUEST_ID_ALIAS;
+
+    /** ハッシュ値の別名 */
+    private static final String HASH_ALIAS = "HASH";
+
+    /** メール送信要求管理テーブルのスキーマ情報 */
+    private MailRequestTable mailRequestTable;
+
+    /** メール送信先管理テーブルのスキーマ情報 */
+    private MailRecipientTable mailRecipientTable;
+
+    /** 添付ファイル管理テーブルのスキーマ情報 */
+    private MailAttachedFileTable mailAttachedFileTable;
+
+    /** メール送信要求の履歴テーブルの名前 */
+    private String requestTableName;
+
+    /** メール送信先の履歴テーブルの名前 */
+    private String recipientTableName;
+
+    /** 添付ファイルの履歴テーブルの名前 */
+    private String attachedFileTableName;
+
+    /** 1回に移動または削除する件数 */
+    private int chunkSize = 100;
+
+    /** 履歴テーブルに保持する日数(削除しない場合は-1) */
+    private int retentionDays = -1;
+
+    /** メール送信バッチと同時に移動するか否か */
+    private boolean concurrentWithMailSender = true;
+
+    /** 移動対象の先頭のメールリクエストIDを取得するSQL */
+    private String findCompletedSql;
+
+    /** 移動対象の前回取得した最後より後のメールリクエストIDを取得するSQL */
+    private String findCompletedAfterSql;
+
+    /** 移動を行うSQL(実行順) */
+    private List<String> archiveSqls;
+
+    /** 削除対象の先頭のメールリクエストIDを取得するSQL */
+    private String findExpiredSql;
+
+    /** 削除対象の前回取得した最後より後のメールリクエストIDを取得するSQL */
+    private String findExpiredAfterSql;
+
+    /** 削除するメール送信要求が参照するメール本文のハッシュ値を取得するSQL(メールデータ共有テーブルを使用しない場合は{@code null}) */
+    private String findMailBodyHashSql;
+
+    /** 削除するメール送信要求が参照する添付ファイルのハッシュ値を取得するSQL(メールデータ共有テーブルを使用しない場合は{@code null}) */
+    private String findFileHashSql;
+
+    /** 削除を行うSQL(実行順) */
+    private List<String> purgeSqls;
+
+    /**
+     * メール送信要求管理テーブルのスキーマ情報を設定する。
+     *
+     * @param mailRequestTable メール送信要求管理テーブルのスキーマ情報
+     */
+    public void setMailRequestTable(MailRequestTable mailRequestTable) {
+        this.mailRequestTable = mailRequestTable;
+    }
+
+    /**
+     * メール送信先管理テーブルのスキーマ情報を設定する。
+     *
+     * @param mailRecipientTable メール送信先管理テーブルのスキーマ情報
+     */
+    public void setMailRecipientTable(MailRecipientTable mailRecipientTable) {
+        this.mailRecipientTable = mailRecipientTable;
+    }
+
+    /**
+     * 添付ファイル管理テーブルのスキーマ情報を設定する。
+     *
+     * @param mailAttachedFileTable 添付ファイル管理テーブルのスキーマ情報
+     */
+    public void setMailAttachedFileTable(MailAttachedFileTable mailAttachedFileTable) {
+        this.mailAttachedFileTable = mailAttachedFileTable;
+    }
+
+    /**
+     * メール送信要求の履歴テーブルの名前を設定する。
+     *
+     * @param requestTableName メール送信要求の履歴テーブルの名前
+     */
+    public void setRequestTableName(String requestTableName) {
+        this.requestTableName = requestTableName;
+    }
+
+    /**
+     * メール送信先の履歴テーブルの名前を設定する。
+     *
+     * @param recipientTableName メール送信先の履歴テーブルの名前
+     */
+    public void setRecipientTableName(String recipientTableName) {
+        this.recipientTableName = recipientTableName;
+    }
+
+    /**
+     * 添付ファイルの履歴テーブルの名前を設定する。
+     *
+     * @param attachedFileTableName 添付ファイルの履歴テーブルの名前
+     */
+    public void setAttachedFileTableName(String attachedFileTableName) {
+        this.attachedFileTableName = attachedFileTableName;
+    }
+
+    /**
+     * 1回に移動または削除するメール送信要求の最大件数を設定する。
+     * <p/>
+     * 1回の移動または削除は1つのトランザクションで行うため、ロックの保持時間及びUNDOの量は本件数に比例する。
+     * デフォルトは100。
+     *
+     * @param chunkSize 1回に移動または削除する最大件数
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be greater than 0. chunkSize=[" + chunkSize + ']');
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * 1回に移動または削除するメール送信要求の最大件数を取得する。
+     *
+     * @return 1回に移動または削除する最大件数
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * 履歴テーブルにメール送信要求を保持する日数を設定する。
+     * <p/>
+     * 要求日時から本日数を経過したメール送信要求を履歴テーブルから削除する。
+     * デフォルトは-1(削除しない)。
+     *
+     * @param retentionDays 履歴テーブルに保持する日数(削除しない場合は-1)
+     */
+    public void setRetentionDays(int retentionDays) {
+        if (retentionDays < -1) {
+            throw new IllegalArgumentException("retentionDays must be -1 or greater. retentionDays=["
+                    + retentionDays + ']');
+        }
+        this.retentionDays = retentionDays;
+    }
+
+    /**
+     * 履歴テーブルにメール送信要求を保持する日数を取得する。
+     *
+     * @return 履歴テーブルに保持する日数(削除しない場合は-1)
+     */
+    public int getRetentionDays() {
+        return retentionDays;
+    }
+
+    /**
+     * メール送信バッチ({@link MailSender})と同時に移動するか否かを設定する。
+     * <p/>
+     * 送信中のステータス({@link MailConfig#setStatusSending(String)})を使用しない場合、
+     * メール送信バッチは送信前にステータスを送信済みに更新するため、送信中のメール送信要求が移動対象となる。
+     * この場合、移動した後の送信失敗は、ステータスに反映されない。
+     * このため、{@code true}の場合に送信中のステータスが設定されていなければ、{@link MailArchiver}は移動を開始せずに例外を送出する。
+     * 送信中のステータスを使用しない場合は、メール送信バッチが停止している間に、本プロパティに{@code false}を設定して移動すること。
+     * <p/>
+     * デフォルトは{@code true}。
+     *
+     * @param concurrentWithMailSender メール送信バッチと同時に移動する場合は{@code true}
+     */
+    public void setConcurrentWithMailSender(boolean concurrentWithMailSender) {
+        this.concurrentWithMailSender = concurrentWithMailSender;
+    }
+
+    /**
+     * メール送信バッチと同時に移動するか否かを取得する。
+     *
+     * @return メール送信バッチと同時に移動する場合は{@code true}
+     */
+    public boolean isConcurrentWithMailSender() {
+        return concurrentWithMailSender;
+    }
+
+    /**
+     * 移動対象のメール送信要求のメールリクエストIDを、メールリクエストIDの昇順に最大{@link #getChunkSize()}件取得する。
+     * <p/>
+     * 送信済み、送信失敗及び有効期限切れのメール送信要求を移動対象とする。
+     *
+     * @param mailConfig メール送信設定
+     * @param lastMailRequestId 前回取得した最後のメールリクエストID(最初の取得の場合は{@code null})
+     * @return 移動対象のメールリクエストID
+     */
+    public SqlResultSet findCompletedChunk(MailConfig mailConfig, String lastMailRequestId) {
+        final AppDbConnection connection = DbConnectionContext.getConnection();
+        final SqlPStatement statement = connection.prepareStatement(
+                lastMailRequestId == null ? findCompletedSql : findCompletedAfterSql);
+        int paramPosition = bindCompletedStatus(statement, 1, mailConfig);
+        if (lastMailRequestId != null) {
+            statement.setString(paramPosition, lastMailRequestId);
+        }
+        return statement.retrieve(1, chunkSize);
+    }
+
+    /**
+     * メールリクエストIDが範囲内の移動対象のメール送信要求を、送信先及び添付ファイルとともに履歴テーブルに移動する。
+     * <p/>
+     * 範囲内であっても、移動対象でないメール送信要求は移動しない。
+     *
+     * @param mailConfig メール送信設定
+     * @param firstMailRequestId 範囲の先頭のメールリクエストID
+     * @param lastMailRequestId 範囲の最後のメールリクエストID
+     * @return 移動したメール送信要求の件数
+     */
+    public int archive(MailConfig mailConfig, String firstMailRequestId, String lastMailRequestId) {
+        final AppDbConnection connection = DbConnectionContext.getConnection();
+        int count = 0;
+        for (int i = 0; i < archiveSqls.size(); i++) {
+            final SqlPStatement statement = connection.prepareStatement(archiveSqls.get(i));
+            statement.setString(1, firstMailRequestId);
+            statement.setString(2, lastMailRequestId);
+            if (i == 0) {
+                bindCompletedStatus(statement, 3, mailConfig);
+                count = statement.executeUpdate();
+            } else {
+                statement.executeUpdate();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 保持期間を経過したメール送信要求のメールリクエストIDを、メールリクエストIDの昇順に最大{@link #getChunkSize()}件取得する。
+     *
+     * @param threshold 要求日時がこの日時より前のメール送信要求を対象とする
+     * @param lastMailRequestId 前回取得した最後のメールリクエストID(最初の取得の場合は{@code null})
+     * @return 保持期間を経過したメールリクエストID
+     */
+    public SqlResultSet findExpiredChunk(Timestamp threshold, String lastMailRequestId) {
+        final AppDbConnection connection = DbConnectionContext.getConnection();
+        final SqlPStatement statement = connection.prepareStatement(
+                lastMailRequestId == null ? findExpiredSql : findExpiredAfterSql);
+        statement.setTimestamp(1, threshold);
+        if (lastMailRequestId != null) {
+            statement.setString(2, lastMailRequestId);
+        }
+        return statement.retrieve(1, chunkSize);
+    }
+
+    /**
+     * メールリクエストIDが範囲内で保持期間を経過したメール送信要求を、送信先及び添付ファイルとともに履歴テーブルから削除する。
+     * <p/>
+     * メール本文または添付ファイルをメールデータ共有テーブルで管理している場合は、削除するデータの参照を解放する。
+     *
+     * @param threshold 要求日時がこの日時より前のメール送信要求を対象とする
+     * @param firstMailRequestId 範囲の先頭のメールリクエストID
+     * @param lastMailRequestId 範囲の最後のメールリクエストID
+     * @return 削除したメール送信要求の件数
+     */
+    public int purge(Timestamp threshold, String firstMailRequestId, String lastMailRequestId) {
+        final AppDbConnection connection = DbConnectionContext.getConnection();
+        if (findFileHashSql != null) {
+            releaseAll(connection, findFileHashSql, mailAttachedFileTable.getMailBlobTable(),
+                    threshold, firstMailRequestId, lastMailRequestId);
+        }
+        if (findMailBodyHashSql != null) {
+            releaseAll(connection, findMailBodyHashSql, mailRequestTable.getMailBlobTable(),
+                    threshold, firstMailRequestId, lastMailRequestId);
+        }
+        int count = 0;
+        for (String sql : purgeSqls) {
+            final SqlPStatement statement = connection.prepareStatement(sql);
+            statement.setString(1, firstMailRequestId);
+            statement.setString(2, lastMailRequestId);
+            statement.setTimestamp(3, threshold);
+            count = statement.executeUpdate();
+        }
+        return count;
+    }
+
+    /**
+     * 削除するメール送信要求が参照するデータの参照を解放する。
+     *
+     * @param connection コネクション
+     * @param sql ハッシュ値を取得するSQL
+     * @param mailBlobTable メールデータ共有テーブルのスキーマ情報
+     * @param threshold 要求日時がこの日時より前のメール送信要求を対象とする
+     * @param firstMailRequestId 範囲の先頭のメールリクエストID
+     * @param lastMailRequestId 範囲の最後のメールリクエストID
+     */
+    private static void releaseAll(AppDbConnection connection, String sql, MailBlobTable mailBlobTable,
+            Timestamp threshold, String firstMailRequestId, String lastMailRequestId) {
+        final SqlPStatement statement = connection.prepareStatement(sql);
+        statement.setString(1, firstMailRequestId);
+        statement.setString(2, lastMailRequestId);
+        statement.setTimestamp(3, threshold);
+        for (SqlRow row : statement.retrieve()) {
+            mailBlobTable.release(row.getString(HASH_ALIAS));
+        }
+    }
+
+    /**
+     * 移動対象のステータスをバインドする。
+     *
+     * @param statement ステートメント
+     * @param paramPosition 最初にバインドする位置
+     * @param mailConfig メール送信設定
+     * @return 次にバインドする位置
+     */
+    private static int bindCompletedStatus(SqlPStatement statement, int paramPosition, MailConfig mailConfig) {
+        statement.setString(paramPosition, mailConfig.getStatusSent());
+        statement.setString(paramPosition + 1, mailConfig.getStatusFailure());
+        statement.setString(paramPosition + 2, mailConfig.getStatusExpired());
+        return paramPosition + 3;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * 本クラスで使用するSQL文を、各セッターで設定されたテーブル名及び各テーブルのスキーマ情報のカラム名から構築する。
+     * <p/>
+     * 移動は、メール送信要求を履歴テーブルに複写した後、複写したメール送信要求の送信先及び添付ファイルを複写し、
+     * 複写したものを元のテーブルから削除する順に行う。
+     * 複写したメール送信要求のみを削除するため、移動中にステータスが変わったメール送信要求を失うことはない。
+     */
+    public void initialize() {
+        final String requestId = mailRequestTable.getMailRequestIdColumnName();
+        final String status = mailRequestTable.getStatusColumnName();
+        final String requestDateTime = mailRequestTable.getRequestDateTimeColumnName();
+        final String recipientRequestId = mailRecipientTable.getMailRequestIdColumnName();
+        final String attachedFileRequestId = mailAttachedFileTable.getMailRequestIdColumnName();
+
+        final String completed = status + " IN (?, ?, ?)";
+        findCompletedSql = "SELECT " + requestId + ' ' + MAIL_REQUEST_ID_ALIAS
+                + " FROM " + mailRequestTable.getTableName()
+                + " WHERE " + completed
+                + " ORDER BY " + requestId;
+        findCompletedAfterSql = "SELECT " + requestId + ' ' + MAIL_REQUEST_ID_ALIAS
+                + " FROM " + mailRequestTable.getTableName()
+                + " WHERE " + completed
+                + " AND " + requestId + " > ?"
+                + " ORDER BY " + requestId;
+
+        final String range = requestId + " >= ? AND " + requestId + " <= ?";
+        final String archived = "SELECT " + requestId + " FROM " + requestTableName + " WHERE " + range;
+        archiveSqls = new ArrayList<String>();
+        final String requestColumns = join(mailRequestTable.getColumnNames());
+        final String recipientColumns = join(mailRecipientTable.getColumnNames());
+        final String attachedFileColumns = join(mailAttachedFileTable.getColumnNames());
+        archiveSqls.add("INSERT INTO " + requestTableName + " (" + requestColumns + ')'
+                + " SELECT " + requestColumns + " FROM " + mailRequestTable.getTableName()
+                + " WHERE " + range + " AND " + completed);
+        archiveSqls.add("INSERT INTO " + recipientTableName + " (" + recipientColumns + ')'
+                + " SELECT " + recipientColumns + " FROM " + mailRecipientTable.getTableName()
+                + " WHERE " + recipientRequestId + " IN (" + archived + ')');
+        archiveSqls.add("INSERT INTO " + attachedFileTableName + " (" + attachedFileColumns + ')'
+                + " SELECT " + attachedFileColumns + " FROM " + mailAttachedFileTable.getTableName()
+                + " WHERE " + attachedFileRequestId + " IN (" + archived + ')');
+        archiveSqls.add("DELETE FROM " + mailAttachedFileTable.getTableName()
+                + " WHERE " + attachedFileRequestId + " IN (" + archived + ')');
+        archiveSqls.add("DELETE FROM " + mailRecipientTable.getTableName()
+                + " WHERE " + recipientRequestId + " IN (" + archived + ')');
+        archiveSqls.add("DELETE FROM " + mailRequestTable.getTableName()
+                + " WHERE " + requestId + " IN (" + archived + ')');
+
+        final String expired = requestDateTime + " < ?";
+        findExpiredSql = "SELECT " + requestId + ' ' + MAIL_REQUEST_ID_ALIAS
+                + " FROM " + requestTableName
+                + " WHERE " + expired
+                + " ORDER BY " + requestId;
+        findExpiredAfterSql = "SELECT " + requestId + ' ' + MAIL_REQUEST_ID_ALIAS
+                + " FROM " + requestTableName
+                + " WHERE " + expired
+                + " AND " + requestId + " > ?"
+                + " ORDER BY " + requestId;
+
+        final String purged = "SELECT " + requestId + " FROM " + requestTableName
+                + " WHERE " + range + " AND " + expired;
+        final String mailBodyHash = mailRequestTable.getMailBodyHashColumnName();
+        findMailBodyHashSql = mailBodyHash == null ? null
+                : "SELECT " + mailBodyHash + ' ' + HASH_ALIAS
+                + " FROM " + requestTableName
+                + " WHERE " + range + " AND " + expired
+                + " AND " + mailBodyHash + " IS NOT NULL";
+        final String fileHash = mailAttachedFileTable.getFileHashColumnName();
+        findFileHashSql = fileHash == null ? null
+                : "SELECT " + fileHash + ' ' + HASH_ALIAS
+                + " FROM " + attachedFileTableName
+                + " WHERE " + attachedFileRequestId + " IN (" + purged + ')';
+        purgeSqls = new ArrayList<String>();
+        purgeSqls.add("DELETE FROM " + attachedFileTableName
+                + " WHERE " + attachedFileRequestId + " IN (" + purged + ')');
+        purgeSqls.add("DELETE FROM " + recipientTableName
+                + " WHERE " + recipientRequestId + " IN (" + purged + ')');
+        purgeSqls.add("DELETE FROM " + requestTableName
+                + " WHERE " + range + " AND " + expired);
+    }
+
+    /**
+     * カラムの名前をカンマ区切りで連結する。
+     *
+     * @param columnNames カラムの名前
+     * @return 連結したカラムの名前
+     */
+    private static String join(List<String> columnNames) {
+        final StringBuilder joined = new StringBuilder();
+        for (String columnName : columnNames) {
+            if (joined.length() > 0) {
+                joined.append(", ");
+            }
+            joined.append(columnName);
+        }
+        return joined.toString();
+    }
+
+    /**
+     * 移動を行うSQLを実行順に取得する。
+     *
+     * @return 移動を行うSQL
+     */
+    List<String> getArchiveSqls() {
+        return archiveSqls;
+    }
+
+    /**
+     * 削除を行うSQLを実行順に取得する。
+     *
+     * @return 削除を行うSQL
+     */
+    List<String> getPurgeSqls() {
+        return purgeSqls;
+    }
+}
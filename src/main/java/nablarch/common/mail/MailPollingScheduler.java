@@ -0,0 +1,108 @@
+package nablarch.common.mail;
+
+import java.util.concurrent.TimeUnit;
+
+import nablarch.core.util.annotation.Published;
+
+/**
+ * 常駐起動した{@link MailSender}が未送信のメール送信要求を読み込む間隔を、直前の読み込み結果に応じて調整するクラス。
+ * <p/>
+ * 直前の読み込みで未送信のメール送信要求があった場合は、間隔を最小値にする。
+ * なかった場合は、間隔に{@link #setBackoffMultiplier(double)}を乗じて最大値まで広げる。
+ * これにより、送信が続く間は送信までの遅延を抑え、未送信のメール送信要求がない間はデータベースへの問い合わせを減らす。
+ * <p/>
+ * システムリポジトリに"mailPollingScheduler"という名前で登録した場合、{@link MailSender}は読み込みの前に
+ * 本クラスが決定した間隔だけ待機する。
+ * この場合、常駐起動の間隔(ProcessResidentHandlerのdataWatchInterval)は最小値以下の短い値を設定すること。
+ * <p/>
+ * システムリポジトリに{@link MailRequestNotifier}が登録されている場合は、そちらを優先し、本クラスは使用しない。
+ */
+@Published(tag = "architect")
+public class MailPollingScheduler {
+
+    /** 間隔の最小値(ミリ秒) */
+    private long minIntervalMillis = 100L;
+
+    /** 間隔の最大値(ミリ秒) */
+    private long maxIntervalMillis = 30000L;
+
+    /** 未送信のメール送信要求がなかった場合に間隔に乗じる値 */
+    private double backoffMultiplier = 2.0;
+
+    /** 現在の間隔(ミリ秒。読み込んでいない場合は-1) */
+    private long currentIntervalMillis = -1L;
+
+    /**
+     * 間隔の最小値(ミリ秒)を設定する。
+     * <p/>
+     * デフォルトは100ミリ秒。
+     *
+     * @param minIntervalMillis 間隔の最小値(ミリ秒)
+     */
+    public void setMinIntervalMillis(long minIntervalMillis) {
+        this.minIntervalMillis = minIntervalMillis;
+    }
+
+    /**
+     * 間隔の最大値(ミリ秒)を設定する。
+     * <p/>
+     * デフォルトは30秒。
+     *
+     * @param maxIntervalMillis 間隔の最大値(ミリ秒)
+     */
+    public void setMaxIntervalMillis(long maxIntervalMillis) {
+        this.maxIntervalMillis = maxIntervalMillis;
+    }
+
+    /**
+     * 未送信のメール送信要求がなかった場合に間隔に乗じる値を設定する。
+     * <p/>
+     * 1より大きい値を設定すること。デフォルトは2。
+     *
+     * @param backoffMultiplier 間隔に乗じる値
+     */
+    public void setBackoffMultiplier(double backoffMultiplier) {
+        if (backoffMultiplier <= 1.0) {
+            throw new IllegalArgumentException("backoffMultiplier must be greater than 1. backoffMultiplier=["
+                    + backoffMultiplier + ']');
+        }
+        this.backoffMultiplier = backoffMultiplier;
+    }
+
+    /**
+     * 次の読み込みまで待機する。
+     * <p/>
+     * 最初の読み込みの前は待機しない。
+     *
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    public void awaitNextPoll() throws InterruptedException {
+        final long interval = getIntervalMillis();
+        if (interval > 0) {
+            TimeUnit.MILLISECONDS.sleep(interval);
+        }
+    }
+
+    /**
+     * 読み込み結果を記録し、次の読み込みまでの間隔を決定する。
+     *
+     * @param targetCount 未送信のメール送信要求の件数
+     */
+    public synchronized void recordPoll(int targetCount) {
+        if (targetCount > 0 || currentIntervalMillis < 0) {
+            currentIntervalMillis = minIntervalMillis;
+        } else {
+            final long next = (long) Math.ceil(Math.max(currentIntervalMillis, 1L) * backoffMultiplier);
+            currentIntervalMillis = Math.max(minIntervalMillis, Math.min(maxIntervalMillis, next));
+        }
+    }
+
+    /**
+     * 次の読み込みまでの間隔(ミリ秒)を取得する。
+     *
+     * @return 次の読み込みまでの間隔(ミリ秒。読み込んでいない場合は0)
+     */
+    public synchronized long getIntervalMillis() {
+        return Math.max(0L, currentIntervalMillis);
+    }
+}
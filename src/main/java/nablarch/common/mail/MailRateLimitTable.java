@@ -0,0 +1,237 @@
+package nablarch.common.mail;
+
+import nablarch.core.db.connection.AppDbConnection;
+import nablarch.core.db.statement.SqlPStatement;
+import nablarch.core.db.statement.SqlResultSet;
+import nablarch.core.db.statement.SqlRow;
+import nablarch.core.db.statement.exception.DuplicateStatementException;
+import nablarch.core.db.transaction.SimpleDbTransactionExecutor;
+import nablarch.core.db.transaction.SimpleDbTransactionManager;
+import nablarch.core.repository.SystemRepository;
+import nablarch.core.repository.initialization.Initializable;
+import nablarch.core.util.annotation.Published;
+
+/**
+ * 送信レート管理テーブルのスキーマ情報を保持するデータオブジェクト。
+ * <p/>
+ * 複数のメール送信バッチで共有する送信レートの上限ごとに1レコードを持ち、
+ * 現在の期間(ウィンドウ)の開始時刻と、その期間に払い出した件数を管理する。
+ * 各メール送信バッチは、送信の都度ではなく一定件数(リース)ごとに本テーブルから送信枠を払い出す。
+ * <p/>
+ * 更新は楽観ロック(更新前の値を条件とした更新)で行い、行ロックは取得しない。
+ * 更新はシステムリポジトリに"mailRateLimitTransaction"という名前で登録された
+ * {@link SimpleDbTransactionManager}を使用し、別トランザクションで実行する。
+ * <p/>
+ * 期間の開始時刻はエポックからのミリ秒で保持するため、各メール送信バッチのサーバの時刻は同期されている必要がある。
+ */
+@Published(tag = "architect")
+public class MailRateLimitTable implements Initializable {
+
+    /** 楽観ロックの競合時に払い出しを再試行する回数 */
+    private static final int MAX_RETRY = 10;
+
+    /** テーブル名 */
+    private String tableName;
+
+    /** 上限のキーのカラム名 */
+    private String limitKeyColumnName;
+
+    /** 期間の開始時刻のカラム名 */
+    private String windowStartColumnName;
+
+    /** 払い出した件数のカラム名 */
+    private String usedCountColumnName;
+
+    /** レコードを取得するSQL */
+    private String findSql;
+
+    /** レコードを登録するSQL */
+    private String insertSql;
+
+    /** 払い出した件数を更新するSQL */
+    private String updateSql;
+
+    /**
+     * 送信レート管理テーブルの名前を設定する。
+     *
+     * @param tableName 送信レート管理テーブルの名前
+     */
+    public void setTableName(String tableName) {
+        this.tableName = tableName;
+    }
+
+    /**
+     * 上限のキーのカラム名を設定する。
+     *
+     * @param limitKeyColumnName 上限のキーのカラム名
+     */
+    public void setLimitKeyColumnName(String limitKeyColumnName) {
+        this.limitKeyColumnName = limitKeyColumnName;
+    }
+
+    /**
+     * 期間の開始時刻(エポックからのミリ秒)のカラム名を設定する。
+     *
+     * @param windowStartColumnName 期間の開始時刻のカラム名
+     */
+    public void setWindowStartColumnName(String windowStartColumnName) {
+        this.windowStartColumnName = windowStartColumnName;
+    }
+
+    /**
+     * 払い出した件数のカラム名を設定する。
+     *
+     * @param usedCountColumnName 払い出した件数のカラム名
+     */
+    public void setUsedCountColumnName(String usedCountColumnName) {
+        this.usedCountColumnName = usedCountColumnName;
+    }
+
+    /**
+     * 送信枠を払い出す。
+     * <p/>
+     * 現在の期間に払い出せる件数が残っている場合は、要求した件数を上限として払い出す。
+     * 残っていない場合は、払い出した件数が0件のリースを返す。
+     *
+     * @param limitKey 上限のキー
+     * @param permits 期間あたりに送信できる件数
+     * @param periodMillis 期間(ミリ秒)
+     * @param requestCount 払い出しを要求する件数
+     * @param now 現在時刻(エポックからのミリ秒)
+     * @return 払い出した送信枠
+     */
+    public Lease lease(final String limitKey, final long permits, final long periodMillis,
+            final int requestCount, final long now) {
+        final SimpleDbTransactionManager transaction = SystemRepository.get("mailRateLimitTransaction");
+        return new SimpleDbTransactionExecutor<Lease>(transaction) {
+            @Override
+            public Lease execute(AppDbConnection connection) {
+                for (int i = 0; i < MAX_RETRY; i++) {
+                    final SqlRow row = find(connection, limitKey, now);
+                    final long windowStart = row.getLong("WINDOW_START");
+                    final long usedCount = row.getLong("USED_COUNT");
+
+                    long newWindowStart = windowStart;
+                    long available = permits - usedCount;
+                    if (now >= windowStart + periodMillis) {
+                        // 期間が終了している場合は、現在時刻を含む期間に切り替える。
+                        newWindowStart = windowStart + (now - windowStart) / periodMillis * periodMillis;
+                        available = permits;
+                    }
+                    final long windowEnd = newWindowStart + periodMillis;
+                    if (available <= 0) {
+                        return new Lease(0, windowEnd);
+                    }
+                    final int granted = (int) Math.min(requestCount, available);
+                    final SqlPStatement update = connection.prepareStatement(updateSql);
+                    update.setLong(1, newWindowStart);
+                    update.setLong(2, newWindowStart == windowStart ? usedCount + granted : granted);
+                    update.setString(3, limitKey);
+                    update.setLong(4, windowStart);
+                    update.setLong(5, usedCount);
+                    if (update.executeUpdate() == 1) {
+                        return new Lease(granted, windowEnd);
+                    }
+                }
+                throw new IllegalStateException(String.format(
+                        "failed to lease send permits because of contention. limitKey=[%s]", limitKey));
+            }
+        }.doTransaction();
+    }
+
+    /**
+     * 上限のキーに紐付くレコードを取得する。存在しない場合は登録してから取得する。
+     *
+     * @param connection データベース接続
+     * @param limitKey 上限のキー
+     * @param now 現在時刻(エポックからのミリ秒)
+     * @return レコード
+     */
+    private SqlRow find(AppDbConnection connection, String limitKey, long now) {
+        final SqlPStatement select = connection.prepareStatement(findSql);
+        select.setString(1, limitKey);
+        SqlResultSet rs = select.retrieve();
+        if (!rs.isEmpty()) {
+            return rs.get(0);
+        }
+        try {
+            final SqlPStatement insert = connection.prepareStatement(insertSql);
+            insert.setString(1, limitKey);
+            insert.setLong(2, now);
+            insert.executeUpdate();
+        } catch (DuplicateStatementException ignored) {
+            // 他のメール送信バッチが登録済みのため、登録されたレコードを使用する。
+        }
+        rs = select.retrieve();
+        return rs.get(0);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * 本クラスで使用するSQL文を各セッターで設定されたテーブル名及びカラム名から構築する。
+     */
+    public void initialize() {
+        findSql = "SELECT "
+                + windowStartColumnName + " WINDOW_START, "
+                + usedCountColumnName + " USED_COUNT "
+                + "FROM " + tableName
+                + " WHERE " + limitKeyColumnName + " = ?";
+
+        insertSql = "INSERT INTO " + tableName + " ( "
+                + limitKeyColumnName + ", "
+                + windowStartColumnName + ", "
+                + usedCountColumnName
+                + ") VALUES (?,?,0)";
+
+        updateSql = "UPDATE " + tableName
+                + " SET " + windowStartColumnName + " = ?, "
+                + usedCountColumnName + " = ?"
+                + " WHERE " + limitKeyColumnName + " = ?"
+                + " AND " + windowStartColumnName + " = ?"
+                + " AND " + usedCountColumnName + " = ?";
+    }
+
+    /**
+     * 払い出した送信枠を保持するクラス。
+     */
+    public static class Lease {
+
+        /** 払い出した件数 */
+        private final int grantedCount;
+
+        /** 送信枠の有効期限(エポックからのミリ秒) */
+        private final long windowEnd;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param grantedCount 払い出した件数
+         * @param windowEnd 送信枠の有効期限(エポックからのミリ秒)
+         */
+        public Lease(int grantedCount, long windowEnd) {
+            this.grantedCount = grantedCount;
+            this.windowEnd = windowEnd;
+        }
+
+        /**
+         * 払い出した件数を取得する。
+         *
+         * @return 払い出した件数
+         */
+        public int getGrantedCount() {
+            return grantedCount;
+        }
+
+        /**
+         * 送信枠の有効期限(エポックからのミリ秒)を取得する。
+         * <p/>
+         * 払い出した件数が0件の場合は、次に払い出しが可能になる時刻となる。
+         *
+         * @return 送信枠の有効期限
+         */
+        public long getWindowEnd() {
+            return windowEnd;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package nablarch.common.mail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nablarch.core.util.annotation.Published;
+
+/**
+ * SMTPサーバごと及びメール送信パターンごとに、メールの送信レートを制限するクラス。
+ * <p/>
+ * 上限ごとにトークンバケットを持ち、送信前に送信対象に該当する全てのバケットからトークンを1つずつ予約する。
+ * トークンが不足している場合は、補充されるまでの時間だけスレッドを休止させる(ビジーウェイトは行わない)。
+ * <p/>
+ * {@link RateLimit#setClusterWide(boolean)}に{@code true}を設定した上限は、
+ * {@link #setMailRateLimitTable(MailRateLimitTable)}で設定した送信レート管理テーブルを使用して、
+ * 全てのメール送信バッチで共有する。送信枠は{@link #setLeaseSize(int)}で設定した件数ごとに払い出すため、
+ * 送信の都度データベースを更新することはない。
+ * <p/>
+ * 待機した時間の合計は{@link #getThrottledMillis()}で取得できる。
+ */
+@Published(tag = "architect")
+public class MailRateLimiter {
+
+    /** SMTPサーバごとの上限 */
+    private List<RateLimit> hostRateLimits = Collections.emptyList();
+
+    /** メール送信パターンごとの上限 */
+    private List<RateLimit> mailSendPatternRateLimits = Collections.emptyList();
+
+    /** 送信レート管理テーブル */
+    private MailRateLimitTable mailRateLimitTable;
+
+    /** 送信レート管理テーブルから一度に払い出す件数 */
+    private int leaseSize = 10;
+
+    /** SMTPサーバごとのトークンバケット */
+    private Map<String, Buckets> hostBuckets;
+
+    /** メール送信パターンごとのトークンバケット */
+    private Map<String, Buckets> mailSendPatternBuckets;
+
+    /** 待機した時間の合計(ナノ秒) */
+    private final AtomicLong throttledNanos = new AtomicLong();
+
+    /**
+     * SMTPサーバごとの上限を設定する。
+     * <p/>
+     * {@link RateLimit#setTarget(String)}にはSMTPサーバのホスト名を設定する。
+     *
+     * @param hostRateLimits SMTPサーバごとの上限
+     */
+    public void setHostRateLimits(List<RateLimit> hostRateLimits) {
+        this.hostRateLimits = hostRateLimits;
+    }
+
+    /**
+     * メール送信パターンごとの上限を設定する。
+     * <p/>
+     * {@link RateLimit#setTarget(String)}にはメール送信パターンIDを設定する。
+     *
+     * @param mailSendPatternRateLimits メール送信パターンごとの上限
+     */
+    public void setMailSendPatternRateLimits(List<RateLimit> mailSendPatternRateLimits) {
+        this.mailSendPatternRateLimits = mailSendPatternRateLimits;
+    }
+
+    /**
+     * 送信レート管理テーブルを設定する。
+     * <p/>
+     * 複数のメール送信バッチで共有する上限を設定した場合は必須となる。
+     *
+     * @param mailRateLimitTable 送信レート管理テーブル
+     */
+    public void setMailRateLimitTable(MailRateLimitTable mailRateLimitTable) {
+        this.mailRateLimitTable = mailRateLimitTable;
+    }
+
+    /**
+     * 送信レート管理テーブルから一度に払い出す件数を設定する。
+     * <p/>
+     * 大きくするほどデータベースの更新回数は減るが、払い出したまま期間内に使用されない送信枠が増える。
+     * <p/>
+     * デフォルトは10。
+     *
+     * @param leaseSize 一度に払い出す件数
+     */
+    public void setLeaseSize(int leaseSize) {
+        this.leaseSize = leaseSize;
+    }
+
+    /**
+     * メールの送信が上限を超えない時刻まで待機する。
+     *
+     * @param host SMTPサーバのホスト名
+     * @param mailSendPatternId メール送信パターンID(メール送信パターンを使用しない場合は{@code null})
+     * @return 待機した時間(ミリ秒)
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    public long acquire(String host, String mailSendPatternId) throws InterruptedException {
+        final Buckets hostTarget = getHostBuckets().get(host);
+        final Buckets patternTarget = mailSendPatternId != null
+                ? getMailSendPatternBuckets().get(mailSendPatternId) : null;
+
+        final long now = currentTimeNanos();
+        long waitNanos = reserve(hostTarget, now);
+        waitNanos = Math.max(waitNanos, reserve(patternTarget, now));
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        waitNanos += acquireLeased(hostTarget);
+        waitNanos += acquireLeased(patternTarget);
+
+        if (waitNanos > 0) {
+            throttledNanos.addAndGet(waitNanos);
+        }
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos);
+    }
+
+    /**
+     * 待機した時間の合計(ミリ秒)を取得する。
+     *
+     * @return 待機した時間の合計(ミリ秒)
+     */
+    public long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledNanos.get());
+    }
+
+    /**
+     * 全てのトークンバケットからトークンを予約する。
+     *
+     * @param buckets トークンバケット(上限が設定されていない場合は{@code null})
+     * @param now 現在時刻(ナノ秒)
+     * @return 全ての予約が使用可能になるまでの待機時間(ナノ秒)
+     */
+    private static long reserve(Buckets buckets, long now) {
+        long waitNanos = 0L;
+        if (buckets != null) {
+            for (TokenBucket bucket : buckets.local) {
+                waitNanos = Math.max(waitNanos, bucket.reserve(now));
+            }
+        }
+        return waitNanos;
+    }
+
+    /**
+     * 複数のメール送信バッチで共有する全ての上限から送信枠を取得する。
+     * 取得できない場合は、次の期間が始まるまで待機してから再試行する。
+     *
+     * @param buckets トークンバケット(上限が設定されていない場合は{@code null})
+     * @return 待機した時間(ナノ秒)
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    private long acquireLeased(Buckets buckets) throws InterruptedException {
+        long waitNanos = 0L;
+        if (buckets != null) {
+            for (LeasedTokenBucket bucket : buckets.leased) {
+                long waitMillis;
+                while ((waitMillis = bucket.tryAcquire(currentTimeMillis())) > 0) {
+                    TimeUnit.MILLISECONDS.sleep(waitMillis);
+                    waitNanos += TimeUnit.MILLISECONDS.toNanos(waitMillis);
+                }
+            }
+        }
+        return waitNanos;
+    }
+
+    /**
+     * SMTPサーバごとのトークンバケットを取得する。
+     *
+     * @return SMTPサーバごとのトークンバケット
+     */
+    private synchronized Map<String, Buckets> getHostBuckets() {
+        if (hostBuckets == null) {
+            hostBuckets = createBuckets("host", hostRateLimits);
+        }
+        return hostBuckets;
+    }
+
+    /**
+     * メール送信パターンごとのトークンバケットを取得する。
+     *
+     * @return メール送信パターンごとのトークンバケット
+     */
+    private synchronized Map<String, Buckets> getMailSendPatternBuckets() {
+        if (mailSendPatternBuckets == null) {
+            mailSendPatternBuckets = createBuckets("pattern", mailSendPatternRateLimits);
+        }
+        return mailSendPatternBuckets;
+    }
+
+    /**
+     * 上限を対象ごとにまとめたトークンバケットを生成する。
+     *
+     * @param kind 対象の種類(送信レート管理テーブルのキーに使用する)
+     * @param rateLimits 上限
+     * @return 対象ごとのトークンバケット
+     */
+    private Map<String, Buckets> createBuckets(String kind, List<RateLimit> rateLimits) {
+        final long now = currentTimeNanos();
+        final Map<String, Buckets> buckets = new HashMap<String, Buckets>();
+        for (RateLimit rateLimit : rateLimits) {
+            Buckets target = buckets.get(rateLimit.getTarget());
+            if (target == null) {
+                target = new Buckets();
+                buckets.put(rateLimit.getTarget(), target);
+            }
+            if (rateLimit.isClusterWide()) {
+                if (mailRateLimitTable == null) {
+                    throw new IllegalStateException(String.format(
+                            "mailRateLimitTable must be set to use a cluster wide rate limit. target=[%s]",
+                            rateLimit.getTarget()));
+                }
+                final String limitKey = kind + ':' + rateLimit.getTarget() + ':' + rateLimit.getPeriodMillis();
+                target.leased.add(new LeasedTokenBucket(mailRateLimitTable, limitKey, rateLimit, leaseSize));
+            } else {
+                target.local.add(new TokenBucket(rateLimit, now));
+            }
+        }
+        return buckets;
+    }
+
+    /**
+     * 現在時刻(ナノ秒)を取得する。
+     *
+     * @return 現在時刻(ナノ秒)
+     */
+    protected long currentTimeNanos() {
+        return System.nanoTime();
+    }
+
+    /**
+     * 現在時刻(エポックからのミリ秒)を取得する。
+     * <p/>
+     * 複数のメール送信バッチで共有する上限の期間の判定に使用する。
+     *
+     * @return 現在時刻(エポックからのミリ秒)
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * 1つの対象に設定されたトークンバケット。
+     */
+    private static final class Buckets {
+
+        /** メール送信バッチごとのトークンバケット */
+        private final List<TokenBucket> local = new ArrayList<TokenBucket>();
+
+        /** 複数のメール送信バッチで共有するトークンバケット */
+        private final List<LeasedTokenBucket> leased = new ArrayList<LeasedTokenBucket>();
+    }
+}
@@ -1,6 +1,7 @@
 package nablarch.common.mail;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import nablarch.core.db.connection.AppDbConnection;
@@ -94,6 +95,25 @@ public class MailRecipientTable implements Initializable {
         this.mailAddressColumnName = mailAddressColumnName;
     }
 
+    /**
+     * メール送信先テーブルのメールリクエストIDカラムの名前を取得する。
+     *
+     * @return メール送信先テーブルのメールリクエストIDカラムの名前
+     */
+    String getMailRequestIdColumnName() {
+        return mailRequestIdColumnName;
+    }
+
+    /**
+     * メール送信先テーブルのカラムの名前を取得する。
+     *
+     * @return カラムの名前
+     */
+    List<String> getColumnNames() {
+        return Arrays.asList(mailRequestIdColumnName, serialNumberColumnName, recipientTypeColumnName,
+                mailAddressColumnName);
+    }
+
     /**
      * 送信先テーブルに送信先情報のデータを追加する。
      *
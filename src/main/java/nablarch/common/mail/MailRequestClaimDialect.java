@@ -0,0 +1,31 @@
+package nablarch.common.mail;
+
+import java.util.Map;
+
+import nablarch.core.util.annotation.Published;
+
+/**
+ * 未送信のメール送信要求の取得(メール送信バッチのプロセスIDの更新)と読み込みを1つのSQLで行うための、
+ * データベースごとのSQLを生成するインタフェース。
+ * <p/>
+ * 生成するSQLのバインド変数は、先頭がメール送信バッチのプロセスID、以降が抽出条件のバインド変数とすること。
+ *
+ * @see MailRequestTable#setMailRequestClaimDialect(MailRequestClaimDialect)
+ */
+@Published(tag = "architect")
+public interface MailRequestClaimDialect {
+
+    /**
+     * 未送信のメール送信要求を取得し、取得したレコードを返すSQLを生成する。
+     *
+     * @param tableName メール送信要求管理テーブルの名前
+     * @param mailRequestIdColumnName メールリクエストIDカラムの名前
+     * @param sendProcessIdColumnName メール送信バッチのプロセスIDカラムの名前
+     * @param condition 未送信のメール送信要求の抽出条件(メール送信バッチのプロセスIDの条件は含まない)
+     * @param columns 読み込むカラム(キーは別名、値はカラムの名前)
+     * @param limit 1回に取得する最大件数
+     * @return 生成したSQL
+     */
+    String createClaimAndFetchSql(String tableName, String mailRequestIdColumnName, String sendProcessIdColumnName,
+            String condition, Map<String, String> columns, int limit);
+}
@@ -0,0 +1,50 @@
+package nablarch.common.mail;
+
+import nablarch.core.util.annotation.Published;
+
+/**
+ * メール送信要求の登録を、常駐起動した{@link MailSender}に通知するインタフェース。
+ * <p/>
+ * {@link MailRequester}に設定した場合、メール送信要求を登録したトランザクション内で{@link #notifyRequested(String)}を呼び出す。
+ * システムリポジトリに"mailRequestNotifier"という名前で登録した場合、{@link MailSender}は読み込みのたびに
+ * {@link #recordPoll(int)}で読み込み結果を記録し、次の読み込みの前に{@link #awaitRequest()}を呼び出す。
+ * 直前の読み込みで未送信のメール送信要求がなかった場合、{@link #awaitRequest()}は通知を待ってから復帰する。
+ * これにより、未送信のメール送信要求がない間の読み込み(件数の取得を含む)を抑止しつつ、
+ * 登録されたメール送信要求を直ちに送信できる。
+ * <p/>
+ * 通知の取りこぼしに備えて、{@link #awaitRequest()}は通知がない場合でも一定時間で復帰すること。
+ * <p/>
+ * 常駐起動した{@link MailSender}は読み込みごとに生成されるため、直前の読み込み結果は本インタフェースの実装が保持すること。
+ */
+@Published(tag = "architect")
+public interface MailRequestNotifier {
+
+    /**
+     * メール送信要求が登録されたことを通知する。
+     * <p/>
+     * メール送信要求を登録したトランザクションのコミット前に呼び出される。
+     * データベースの通知機能を使用する実装では、このトランザクションで通知を発行することで、
+     * コミットされた場合にのみ通知が配信されるようにすること。
+     *
+     * @param transactionName メール送信要求の登録に使用したトランザクション名(デフォルトのトランザクションの場合は{@code null})
+     */
+    void notifyRequested(String transactionName);
+
+    /**
+     * 未送信のメール送信要求の読み込み結果を記録する。
+     *
+     * @param targetCount 未送信のメール送信要求の件数
+     */
+    void recordPoll(int targetCount);
+
+    /**
+     * メール送信要求が登録されたことの通知を待つ。
+     * <p/>
+     * {@link #recordPoll(int)}で記録した直前の読み込み結果が0件でない場合(記録していない場合を含む)は、
+     * 待機せずに{@code false}を返すこと。
+     *
+     * @return 通知を受けた場合は{@code true}、通知を受けずに待ち時間が経過した場合は{@code false}
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    boolean awaitRequest() throws InterruptedException;
+}
@@ -1,8 +1,16 @@
 package nablarch.common.mail;
 
+import java.nio.charset.Charset;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import nablarch.core.date.SystemTimeUtil;
 import nablarch.core.db.connection.AppDbConnection;
 import nablarch.core.db.connection.DbConnectionContext;
+import nablarch.core.db.statement.ResultSetIterator;
 import nablarch.core.db.statement.SqlPStatement;
 import nablarch.core.db.statement.SqlResultSet;
 import nablarch.core.db.statement.SqlRow;
@@ -42,6 +50,15 @@ public class MailRequestTable implements Initializable {
     /** SQLリテラル */
     private static final String VALUES = " VALUES ";
 
+    /** メールリクエストIDの別名 */
+    static final String MAIL_REQUEST_ID_ALIAS = "MAIL_REQUEST_ID";
+
+    /** フェッチサイズを調整するオブジェクトのシステムリポジトリ用のキー */
+    private static final String SYSTEM_REPOSITORY_KEY_MAIL_FETCH_SIZE_TUNER = "mailFetchSizeTuner";
+
+    /** メールデータ共有テーブルにメール本文を登録する際の文字セット */
+    private static final Charset MAIL_BODY_CHARSET = Charset.forName("UTF-8");
+
 
     /** テーブル名 */
     private String tableName;
@@ -82,12 +99,42 @@ public class MailRequestTable implements Initializable {
     /** メール送信バッチのプロセスIDのカラム名 */
     private String sendProcessIdColumnName;
 
+    /** メール本文のハッシュ値のカラム名 */
+    private String mailBodyHashColumnName;
+
+    /** ルーティングキーのカラム名 */
+    private String routingKeyColumnName;
+
+    /** 有効期限のカラム名 */
+    private String expireDateTimeColumnName;
+
+    /** メールデータ共有テーブルのスキーマ情報 */
+    private MailBlobTable mailBlobTable;
+
+    /** メール本文を送信時に取得するか否か */
+    private boolean lazyMailBodyLoading;
+
+    /** 未送信のメール送信要求の取得と読み込みを1つのSQLで行うためのSQLを生成するオブジェクト */
+    private MailRequestClaimDialect mailRequestClaimDialect;
+
+    /** 未送信のメール送信要求を1回に取得する最大件数 */
+    private int claimBatchSize = 100;
+
+    /** 未送信のメール送信要求を分割して読み込む際の1回の件数(分割しない場合は0) */
+    private int readerPageSize;
+
+    /** 送信中から送信済みへのステータスの更新をまとめて行う件数 */
+    private int sentStatusBatchSize = 1;
+
     /** メール送信要求を登録するSQL */
     private String insertSql;
 
     /** 未送信のメール送信要求の件数を取得するSQL */
     private String countUnsentSql;
 
+    /** 未送信のメール送信要求の存在を確認するSQL */
+    private String existsUnsentSql;
+
     /** 未送信のメール送信要求を取得するSQL */
     private String selectUnsentSql;
 
@@ -100,6 +147,51 @@ public class MailRequestTable implements Initializable {
     /** メール送信バッチのプロセスIDを更新するSQL */
     private String updateSendProcessIdSql;
 
+    /** 未送信のメール送信要求のうち、メール送信バッチのプロセスIDを設定する範囲を取得するSQL */
+    private String selectUnclaimedSql;
+
+    /** 指定したメールリクエストIDより後の未送信のメール送信要求のうち、メール送信バッチのプロセスIDを設定する範囲を取得するSQL */
+    private String selectUnclaimedAfterSql;
+
+    /** 指定したメールリクエストID以前のメール送信バッチのプロセスIDを更新するSQL */
+    private String updateSendProcessIdUpToSql;
+
+    /** 指定した範囲のメールリクエストIDのメール送信バッチのプロセスIDを更新するSQL */
+    private String updateSendProcessIdBetweenSql;
+
+    /** メール送信バッチのプロセスIDを解除するSQL */
+    private String releaseSendProcessIdSql;
+
+    /** 未送信のメール送信要求を取得し、取得したレコードを返すSQL */
+    private String claimAndFetchSql;
+
+    /** 指定したメールリクエストIDより後の未送信のメール送信要求を取得し、取得したレコードを返すSQL */
+    private String claimAndFetchAfterSql;
+
+    /** メール本文を取得するSQL */
+    private String findMailBodySql;
+
+    /** 指定したメールリクエストIDより後の未送信のメール送信要求を取得するSQL */
+    private String selectUnsentAfterSql;
+
+    /** 送信中のステータスを送信済みに更新するSQL */
+    private String updateSentStatusSql;
+
+    /** 有効期限を過ぎた未送信のメール送信要求のステータスを更新するSQL */
+    private String updateExpiredStatusSql;
+
+    /** 指定したメール送信要求のステータスを有効期限切れに更新するSQL */
+    private String updateExpiredStatusByIdSql;
+
+    /** 送信中のまま残ったメール送信要求のステータスを未送信に戻すSQL */
+    private String updateStaleSendingToUnsentSql;
+
+    /** 送信中のまま残ったメール送信要求のステータスを送信済みに更新するSQL */
+    private String updateStaleSendingToSentSql;
+
+    /** 送信中のまま残ったメール送信要求のステータスを未送信及び送信済み以外に更新するSQL */
+    private String updateStaleSendingSql;
+
     /** メール関連のコード値を保持するデータオブジェクト */
     private MailConfig mailConfig;
 
@@ -220,6 +312,165 @@ public class MailRequestTable implements Initializable {
         this.sendProcessIdColumnName = sendProcessIdColumnName;
     }
 
+    /**
+     * メール送信要求管理テーブルのメール本文のハッシュ値カラムの名前を設定する。
+     * <p/>
+     * 本カラムと{@link #setMailBlobTable(MailBlobTable)}を設定した場合、
+     * メール本文はメールデータ共有テーブルに登録し、本テーブルにはハッシュ値のみを保持する。
+     *
+     * @param mailBodyHashColumnName メール送信要求管理テーブルのメール本文のハッシュ値カラムの名前
+     */
+    public void setMailBodyHashColumnName(String mailBodyHashColumnName) {
+        this.mailBodyHashColumnName = mailBodyHashColumnName;
+    }
+
+    /**
+     * メール送信要求管理テーブルのルーティングキーカラムの名前を設定する。
+     * <p/>
+     * 本カラムを設定した場合、{@link MailContext#setRoutingKey(String)}で指定した値を登録し、
+     * {@link SmtpRelayRouter}による送信経路の選択に使用する。
+     *
+     * @param routingKeyColumnName メール送信要求管理テーブルのルーティングキーカラムの名前
+     */
+    public void setRoutingKeyColumnName(String routingKeyColumnName) {
+        this.routingKeyColumnName = routingKeyColumnName;
+    }
+
+    /**
+     * メール送信要求管理テーブルの有効期限カラムの名前を設定する。
+     * <p/>
+     * 本カラムを設定した場合、{@link MailContext#setExpireDateTime(java.util.Date)}で指定した日時を登録する。
+     * 有効期限を過ぎた未送信のメール送信要求は読み込みの対象外とし、送信せずにステータスを
+     * {@link MailConfig#getStatusExpired()}に更新する。
+     * 読み込みの条件はステータスの条件に有効期限の条件を加えたものとなるため、ステータスのカラムを含むインデックスがあれば
+     * 全件を走査することはない。
+     *
+     * @param expireDateTimeColumnName メール送信要求管理テーブルの有効期限カラムの名前
+     */
+    public void setExpireDateTimeColumnName(String expireDateTimeColumnName) {
+        this.expireDateTimeColumnName = expireDateTimeColumnName;
+    }
+
+    /**
+     * メールデータ共有テーブルのスキーマ情報を設定する。
+     *
+     * @param mailBlobTable メールデータ共有テーブルのスキーマ情報
+     */
+    public void setMailBlobTable(MailBlobTable mailBlobTable) {
+        this.mailBlobTable = mailBlobTable;
+    }
+
+    /**
+     * メール本文を送信時に取得するか否かを設定する。
+     * <p/>
+     * {@code true}を設定した場合、未送信のメール送信要求の読み込み時にはメール本文を取得せず、
+     * メールメッセージの生成時にメールリクエストIDを条件に1件ずつ取得する。
+     * 読み込みのカーソルが保持するデータ量と転送量を削減できるため、メール本文が大きい場合に有効である。
+     * <p/>
+     * メール本文をメールデータ共有テーブルで管理する場合は、読み込み時にはハッシュ値のみを取得するため、本設定は使用しない。
+     * デフォルトは{@code false}。
+     *
+     * @param lazyMailBodyLoading メール本文を送信時に取得する場合は{@code true}
+     */
+    public void setLazyMailBodyLoading(boolean lazyMailBodyLoading) {
+        this.lazyMailBodyLoading = lazyMailBodyLoading;
+    }
+
+    /**
+     * 未送信のメール送信要求の取得と読み込みを1つのSQLで行うためのSQLを生成するオブジェクトを設定する。
+     * <p/>
+     * マルチプロセス用の設定(メール送信バッチのプロセスIDカラム)と合わせて設定した場合、
+     * メール送信バッチはプロセスIDの更新と未送信のメール送信要求の読み込みを別々に行わず、
+     * {@link #claimAndFetch(String, String, String)}により{@link #setClaimBatchSize(int)}件ずつ取得しながら読み込む。
+     *
+     * @param mailRequestClaimDialect 未送信のメール送信要求の取得と読み込みを1つのSQLで行うためのSQLを生成するオブジェクト
+     */
+    public void setMailRequestClaimDialect(MailRequestClaimDialect mailRequestClaimDialect) {
+        this.mailRequestClaimDialect = mailRequestClaimDialect;
+    }
+
+    /**
+     * 未送信のメール送信要求を1回に取得する最大件数を設定する。
+     * <p/>
+     * {@link #setMailRequestClaimDialect(MailRequestClaimDialect)}を設定した場合のみ使用する。デフォルトは100件。
+     *
+     * @param claimBatchSize 未送信のメール送信要求を1回に取得する最大件数
+     */
+    public void setClaimBatchSize(int claimBatchSize) {
+        if (claimBatchSize <= 0) {
+            throw new IllegalArgumentException("claimBatchSize must be greater than 0. claimBatchSize=["
+                    + claimBatchSize + ']');
+        }
+        this.claimBatchSize = claimBatchSize;
+    }
+
+    /**
+     * 未送信のメール送信要求を1回に取得する最大件数を取得する。
+     *
+     * @return 未送信のメール送信要求を1回に取得する最大件数
+     */
+    public int getClaimBatchSize() {
+        return claimBatchSize;
+    }
+
+    /**
+     * 未送信のメール送信要求を分割して読み込む際の1回の件数を設定する。
+     * <p/>
+     * 1以上の値を設定した場合、メール送信バッチは1つのカーソルで全件を読み込まず、
+     * {@link #findUnsentPage(String, String, String)}によりメールリクエストIDの順に本件数ずつ読み込む。
+     * 読み込みごとにカーソルを閉じるため、データベースが保持するカーソルの資源を解放でき、
+     * 読み込み開始後に登録されたメール送信要求も同じ読み込みの中で処理できる。
+     * <p/>
+     * デフォルトは0(分割しない)。
+     *
+     * @param readerPageSize 1回に読み込む件数
+     */
+    public void setReaderPageSize(int readerPageSize) {
+        if (readerPageSize < 0) {
+            throw new IllegalArgumentException("readerPageSize must not be negative. readerPageSize=["
+                    + readerPageSize + ']');
+        }
+        this.readerPageSize = readerPageSize;
+    }
+
+    /**
+     * 未送信のメール送信要求を分割して読み込む際の1回の件数を取得する。
+     *
+     * @return 1回に読み込む件数(分割しない場合は0)
+     */
+    public int getReaderPageSize() {
+        return readerPageSize;
+    }
+
+    /**
+     * 送信中から送信済みへのステータスの更新をまとめて行う件数を設定する。
+     * <p/>
+     * {@link MailConfig#setStatusSending(String)}を設定した場合のみ使用する。
+     * 2以上を設定した場合、送信に成功したメール送信要求のステータスは本件数ごとにバッチ更新でまとめて更新する。
+     * 更新前にプロセスが停止した場合、送信に成功したメール送信要求が送信中のまま残るため、
+     * {@link MailSendingRecovery}の回復方法と合わせて設定すること。
+     * <p/>
+     * デフォルトは1(送信ごとに更新する)。
+     *
+     * @param sentStatusBatchSize 送信中から送信済みへのステータスの更新をまとめて行う件数
+     */
+    public void setSentStatusBatchSize(int sentStatusBatchSize) {
+        if (sentStatusBatchSize <= 0) {
+            throw new IllegalArgumentException("sentStatusBatchSize must be greater than 0. sentStatusBatchSize=["
+                    + sentStatusBatchSize + ']');
+        }
+        this.sentStatusBatchSize = sentStatusBatchSize;
+    }
+
+    /**
+     * 送信中から送信済みへのステータスの更新をまとめて行う件数を取得する。
+     *
+     * @return 送信中から送信済みへのステータスの更新をまとめて行う件数
+     */
+    public int getSentStatusBatchSize() {
+        return sentStatusBatchSize;
+    }
+
     /**
      * メール関連のコード値を保持するデータオブジェクトを設定する。
      *
@@ -237,7 +488,7 @@ public class MailRequestTable implements Initializable {
      */
     public void insert(String mailRequestId, MailContext context) {
         AppDbConnection connection = DbConnectionContext.getConnection();
-        executeInsertSQL(mailRequestId, context, mailConfig, connection);
+        executeInsertSQL(mailRequestId, context, mailConfig, connection, null);
     }
 
     /**
@@ -249,7 +500,7 @@ public class MailRequestTable implements Initializable {
      */
     public void insert(String mailRequestId, MailContext context, String transactionName) {
         AppDbConnection connection = DbConnectionContext.getConnection(transactionName);
-        executeInsertSQL(mailRequestId, context, mailConfig, connection);
+        executeInsertSQL(mailRequestId, context, mailConfig, connection, transactionName);
     }
 
     /**
@@ -258,21 +509,37 @@ public class MailRequestTable implements Initializable {
      * @param context メール送信先情報を持つオブジェクト
      * @param mailConfig メールの設定情報を持つオブジェクト
      * @param connection コネクション
+     * @param transactionName トランザクション名(デフォルトのトランザクションを使用する場合は{@code null})
      */
     private void executeInsertSQL(String mailRequestId, MailContext context, MailConfig mailConfig,
-                                  AppDbConnection connection) {
+                                  AppDbConnection connection, String transactionName) {
         SqlPStatement statement = connection.prepareStatement(insertSql);
         statement.setString(1, mailRequestId);
         statement.setString(2, context.getSubject());
         statement.setString(3, context.getFrom());
         statement.setString(4, context.getReplyTo());
         statement.setString(5, context.getReturnPath());
-        statement.setString(6, context.getMailBody());
+        if (isSharedMailBody()) {
+            final byte[] mailBody = StringUtil.getBytes(context.getMailBody(), MAIL_BODY_CHARSET);
+            statement.setString(6, transactionName == null
+                    ? mailBlobTable.register(mailBody)
+                    : mailBlobTable.register(mailBody, transactionName));
+        } else {
+            statement.setString(6, context.getMailBody());
+        }
         statement.setString(7, context.getCharset());
         statement.setString(8, mailConfig.getStatusUnsent());
         statement.setTimestamp(9, SystemTimeUtil.getTimestamp());
+        int index = 10;
         if (StringUtil.hasValue(mailSendPatternIdColumnName)) {
-            statement.setString(10, context.getMailSendPatternId());
+            statement.setString(index++, context.getMailSendPatternId());
+        }
+        if (StringUtil.hasValue(routingKeyColumnName)) {
+            statement.setString(index++, context.getRoutingKey());
+        }
+        if (StringUtil.hasValue(expireDateTimeColumnName)) {
+            statement.setTimestamp(index, context.getExpireDateTime() == null
+                    ? null : new Timestamp(context.getExpireDateTime().getTime()));
         }
         statement.executeUpdate();
     }
@@ -291,14 +558,27 @@ public class MailRequestTable implements Initializable {
     public int getTargetCount(String mailRequestPatternId) {
         AppDbConnection connection = DbConnectionContext.getConnection();
         SqlPStatement statement = connection.prepareStatement(countUnsentSql);
-        statement.setString(1, mailConfig.getStatusUnsent());
-        if (StringUtil.hasValue(mailRequestPatternId)) {
-            statement.setString(2, mailRequestPatternId);
-        }
+        bindUnsentCondition(statement, 1, mailRequestPatternId);
         SqlResultSet rs = statement.retrieve();
         return rs.get(0).getBigDecimal("COUNT").intValue();
     }
 
+    /**
+     * 処理対象のデータが存在するか否かを判定する。
+     * <p/>
+     * {@link #getTargetCount(String)}と同じ条件で、1件のみを取得して判定する。
+     * 全件を数えないため、未送信のメール送信要求が大量に存在する場合でも負荷が小さい。
+     *
+     * @param mailRequestPatternId 処理対象のメール送信パターンID
+     * @return 処理対象のデータが存在する場合は{@code true}
+     */
+    public boolean hasTarget(String mailRequestPatternId) {
+        AppDbConnection connection = DbConnectionContext.getConnection();
+        SqlPStatement statement = connection.prepareStatement(existsUnsentSql);
+        bindUnsentCondition(statement, 1, mailRequestPatternId);
+        return !statement.retrieve(1, 1).isEmpty();
+    }
+
     /**
      * 処理対象データを取得する{@link SqlPStatement}を生成する。
      *
@@ -319,11 +599,8 @@ public class MailRequestTable implements Initializable {
     public SqlPStatement createReaderStatement(String mailSendPatternId, String sendProcessId) {
         AppDbConnection connection = DbConnectionContext.getConnection();
         SqlPStatement statement = connection.prepareStatement(selectUnsentSql);
-        int paramPosition = 1;
-        statement.setString(paramPosition++, mailConfig.getStatusUnsent());
-        if (StringUtil.hasValue(mailSendPatternId)) {
-            statement.setString(paramPosition++, mailSendPatternId);
-        }
+        applyFetchSize(statement);
+        int paramPosition = bindUnsentCondition(statement, 1, mailSendPatternId);
         if (StringUtil.hasValue(sendProcessIdColumnName)) {
             if (StringUtil.hasValue(sendProcessId)) {
                 statement.setString(paramPosition, sendProcessId);
@@ -334,6 +611,145 @@ public class MailRequestTable implements Initializable {
         return statement;
     }
 
+    /**
+     * メールリクエストIDに紐付くメール本文を取得する。
+     *
+     * @param mailRequestId メールリクエストID
+     * @return メール本文
+     * @throws IllegalStateException メールリクエストIDに紐付くメール送信要求が存在しない場合
+     */
+    public String findMailBody(String mailRequestId) {
+        AppDbConnection connection = DbConnectionContext.getConnection();
+        SqlPStatement statement = connection.prepareStatement(findMailBodySql);
+        statement.setString(1, mailRequestId);
+        SqlResultSet rs = statement.retrieve();
+        if (rs.isEmpty()) {
+            throw new IllegalStateException(String.format("mail request was not found. mailRequestId=[%s]",
+                    mailRequestId));
+        }
+        return rs.get(0).getString("MAIL_BODY");
+    }
+
+    /**
+     * 未送信のメール送信要求の取得と読み込みを1つのSQLで行うか否か。
+     *
+     * @return マルチプロセス用の設定がされ、{@link MailRequestClaimDialect}が設定されている場合は{@code true}
+     */
+    public boolean isClaimAndFetchEnabled() {
+        return mailRequestClaimDialect != null && StringUtil.hasValue(sendProcessIdColumnName);
+    }
+
+    /**
+     * 指定したメールリクエストIDより後の未送信のメール送信要求にメール送信バッチのプロセスIDを設定し、
+     * 設定したレコードを取得する。<p/>
+     * 1回に取得する件数は{@link #setClaimBatchSize(int)}で設定した件数までとし、メールリクエストIDの小さいものから順に、
+     * 別トランザクションで取得する。
+     * <p/>
+     * 送信しなかったためにプロセスIDを解除したメール送信要求を同じ実行の中で繰り返し取得しないよう、
+     * 呼び出し元は前回取得した最大のメールリクエストIDを指定すること。
+     * <p/>
+     * 取得したレコードは{@link #createReaderStatement(String, String)}で読み込むレコードと同じ形式となる。
+     *
+     * @param mailSendPatternId メール送信パターンID
+     * @param sendProcessId 設定するメール送信バッチのプロセスID
+     * @param lastMailRequestId 前回取得した最大のメールリクエストID(最初に取得する場合は{@code null})
+     * @return 取得したレコード(未送信のメール送信要求が存在しない場合は空)
+     */
+    public SqlResultSet claimAndFetch(final String mailSendPatternId, final String sendProcessId,
+            final String lastMailRequestId) {
+        if (!isClaimAndFetchEnabled()) {
+            throw new IllegalStateException(
+                    "mailRequestClaimDialect and sendProcessIdColumnName must be set to claim mail requests.");
+        }
+        final SimpleDbTransactionManager manager = SystemRepository.get("mailMultiProcessTransaction");
+        return new SimpleDbTransactionExecutor<SqlResultSet>(manager) {
+            @Override
+            public SqlResultSet execute(AppDbConnection appDbConnection) {
+                final SqlPStatement statement = appDbConnection.prepareStatement(
+                        lastMailRequestId == null ? claimAndFetchSql : claimAndFetchAfterSql);
+                applyFetchSize(statement);
+                statement.setString(1, sendProcessId);
+                final int paramPosition = bindUnsentCondition(statement, 2, mailSendPatternId);
+                if (lastMailRequestId != null) {
+                    statement.setString(paramPosition, lastMailRequestId);
+                }
+                final ResultSetIterator rs = statement.executeQuery();
+                try {
+                    return new SqlResultSet(rs, 1, 0);
+                } finally {
+                    rs.close();
+                }
+            }
+        }.doTransaction();
+    }
+
+    /**
+     * 指定したメールリクエストIDより後の未送信のメール送信要求を、メールリクエストIDの順に取得する。
+     * <p/>
+     * 1回に取得する件数は{@link #setReaderPageSize(int)}で設定した件数までとする。
+     * 取得したレコードは{@link #createReaderStatement(String, String)}で読み込むレコードと同じ形式となる。
+     *
+     * @param mailSendPatternId メール送信パターンID
+     * @param sendProcessId メール送信バッチのプロセスID
+     * @param lastMailRequestId 前回取得した最後のメールリクエストID(最初に取得する場合は{@code null})
+     * @return 取得したレコード(未送信のメール送信要求が存在しない場合は空)
+     */
+    public SqlResultSet findUnsentPage(String mailSendPatternId, String sendProcessId, String lastMailRequestId) {
+        if (readerPageSize <= 0) {
+            throw new IllegalStateException("readerPageSize must be set to read mail requests by page.");
+        }
+        AppDbConnection connection = DbConnectionContext.getConnection();
+        SqlPStatement statement = connection.prepareStatement(
+                lastMailRequestId == null ? selectUnsentSql : selectUnsentAfterSql);
+        applyFetchSize(statement);
+        int paramPosition = bindUnsentCondition(statement, 1, mailSendPatternId);
+        if (StringUtil.hasValue(sendProcessIdColumnName)) {
+            if (StringUtil.hasValue(sendProcessId)) {
+                statement.setString(paramPosition++, sendProcessId);
+            } else {
+                throw new IllegalArgumentException("sendProcessId must not be null if you use in multi process.");
+            }
+        }
+        if (lastMailRequestId != null) {
+            statement.setString(paramPosition, lastMailRequestId);
+        }
+        return statement.retrieve(1, readerPageSize);
+    }
+
+    /**
+     * 未処理データの抽出条件のバインド変数を設定する。
+     *
+     * @param statement ステートメント
+     * @param position 最初のバインド変数の位置
+     * @param mailSendPatternId メール送信パターンID
+     * @return 次のバインド変数の位置
+     */
+    private int bindUnsentCondition(SqlPStatement statement, int position, String mailSendPatternId) {
+        int paramPosition = position;
+        statement.setString(paramPosition++, mailConfig.getStatusUnsent());
+        if (StringUtil.hasValue(mailSendPatternId)) {
+            statement.setString(paramPosition++, mailSendPatternId);
+        }
+        if (StringUtil.hasValue(expireDateTimeColumnName)) {
+            statement.setTimestamp(paramPosition++, SystemTimeUtil.getTimestamp());
+        }
+        return paramPosition;
+    }
+
+    /**
+     * 未送信のメール送信要求を読み込むステートメントにフェッチサイズを設定する。
+     * <p/>
+     * システムリポジトリに{@link MailFetchSizeTuner}が登録されていない場合は何もしない。
+     *
+     * @param statement 未送信のメール送信要求を読み込むステートメント
+     */
+    private static void applyFetchSize(SqlPStatement statement) {
+        final MailFetchSizeTuner tuner = SystemRepository.get(SYSTEM_REPOSITORY_KEY_MAIL_FETCH_SIZE_TUNER);
+        if (tuner != null) {
+            statement.setFetchSize(tuner.nextFetchSize());
+        }
+    }
+
     /**
      * ステータスを更新する。
      * <p/>
@@ -374,13 +790,136 @@ public class MailRequestTable implements Initializable {
                 final SqlPStatement statement = connection.prepareStatement(updateFailureStatusSql);
                 statement.setString(1, status);
                 statement.setString(2, mailRequestId);
-                statement.setString(3, mailConfig.getStatusSent());
+                statement.setString(3, getInFlightStatus());
+                statement.executeUpdate();
+                return null;
+            }
+        }.doTransaction();
+    }
+
+    /**
+     * 送信中のステータスを送信済みに更新する。
+     * <p/>
+     * 指定された全てのメールリクエストIDに紐付くレコードを、1回のバッチ更新により別トランザクションで更新する。
+     * 送信日時には更新時の日時を設定する。
+     *
+     * @param mailRequestIds メールリクエストID
+     */
+    public void updateSentStatus(final List<String> mailRequestIds) {
+        if (mailRequestIds.isEmpty()) {
+            return;
+        }
+        final SimpleDbTransactionManager transaction = SystemRepository.get("statusUpdateTransaction");
+        new SimpleDbTransactionExecutor<Void>(transaction) {
+            @Override
+            public Void execute(final AppDbConnection connection) {
+                final SqlPStatement statement = connection.prepareStatement(updateSentStatusSql);
+                final Timestamp now = SystemTimeUtil.getTimestamp();
+                for (String mailRequestId : mailRequestIds) {
+                    statement.setString(1, mailConfig.getStatusSent());
+                    statement.setTimestamp(2, now);
+                    statement.setString(3, mailRequestId);
+                    statement.setString(4, mailConfig.getStatusSending());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                return null;
+            }
+        }.doTransaction();
+    }
+
+    /**
+     * 送信を開始した日時が指定日時より前の送信中のメール送信要求のステータスを更新する。
+     * <p/>
+     * 未送信に更新する場合はメール送信バッチのプロセスIDを解除し、送信済み以外に更新する場合は送信日時を解除する。
+     * 別トランザクションで実行する。
+     *
+     * @param status 更新後のステータス
+     * @param startedBefore 送信を開始した日時の上限(この日時より前に送信を開始したメール送信要求を更新する)
+     * @return 更新した件数
+     */
+    public int updateStaleSendingStatus(final String status, final Timestamp startedBefore) {
+        final String updateSql;
+        if (status.equals(mailConfig.getStatusUnsent())) {
+            updateSql = updateStaleSendingToUnsentSql;
+        } else if (status.equals(mailConfig.getStatusSent())) {
+            updateSql = updateStaleSendingToSentSql;
+        } else {
+            updateSql = updateStaleSendingSql;
+        }
+        final SimpleDbTransactionManager transaction = SystemRepository.get("statusUpdateTransaction");
+        return new SimpleDbTransactionExecutor<Integer>(transaction) {
+            @Override
+            public Integer execute(final AppDbConnection connection) {
+                final SqlPStatement statement = connection.prepareStatement(updateSql);
+                statement.setString(1, status);
+                statement.setString(2, mailConfig.getStatusSending());
+                statement.setTimestamp(3, startedBefore);
+                return statement.executeUpdate();
+            }
+        }.doTransaction();
+    }
+
+    /**
+     * 有効期限を過ぎた未送信のメール送信要求のステータスを有効期限切れに更新する。<p/>
+     * 有効期限のカラムが設定されている場合のみ更新し、別トランザクションで実行する。
+     *
+     * @param mailSendPatternId メール送信パターンID
+     * @return 更新した件数
+     */
+    public int updateExpiredStatus(final String mailSendPatternId) {
+        if (!StringUtil.hasValue(expireDateTimeColumnName)) {
+            return 0;
+        }
+        final SimpleDbTransactionManager transaction = SystemRepository.get("statusUpdateTransaction");
+        return new SimpleDbTransactionExecutor<Integer>(transaction) {
+            @Override
+            public Integer execute(final AppDbConnection connection) {
+                final SqlPStatement statement = connection.prepareStatement(updateExpiredStatusSql);
+                statement.setString(1, mailConfig.getStatusExpired());
+                statement.setString(2, mailConfig.getStatusUnsent());
+                statement.setTimestamp(3, SystemTimeUtil.getTimestamp());
+                if (StringUtil.hasValue(mailSendPatternId)) {
+                    statement.setString(4, mailSendPatternId);
+                }
+                return statement.executeUpdate();
+            }
+        }.doTransaction();
+    }
+
+    /**
+     * 指定した未送信のメール送信要求のステータスを有効期限切れに更新する。<p/>
+     * 有効期限のカラムが設定されている場合のみ更新し、別トランザクションで実行する。
+     *
+     * @param mailRequestId メールリクエストID
+     */
+    public void updateExpiredStatusById(final String mailRequestId) {
+        if (!StringUtil.hasValue(expireDateTimeColumnName)) {
+            return;
+        }
+        final SimpleDbTransactionManager transaction = SystemRepository.get("statusUpdateTransaction");
+        new SimpleDbTransactionExecutor<Void>(transaction) {
+            @Override
+            public Void execute(final AppDbConnection connection) {
+                final SqlPStatement statement = connection.prepareStatement(updateExpiredStatusByIdSql);
+                statement.setString(1, mailConfig.getStatusExpired());
+                statement.setString(2, mailRequestId);
+                statement.setString(3, mailConfig.getStatusUnsent());
                 statement.executeUpdate();
                 return null;
             }
         }.doTransaction();
     }
 
+    /**
+     * 送信前に更新するステータスを取得する。
+     *
+     * @return 送信中のステータスを使用する場合は送信中、使用しない場合は送信済みのステータス
+     */
+    private String getInFlightStatus() {
+        return mailConfig.getStatusSending() != null ? mailConfig.getStatusSending() : mailConfig.getStatusSent();
+    }
+
     /**
      * メール送信バッチのプロセスIDを更新する。<p/>
      * マルチプロセス用の設定がされている場合のみ更新し、
@@ -408,23 +947,222 @@ public class MailRequestTable implements Initializable {
         }
     }
 
+    /**
+     * 指定したメールリクエストIDより後の未送信のメール送信要求に、メール送信バッチのプロセスIDを更新する。<p/>
+     * マルチプロセス用の設定がされている場合のみ更新し、別トランザクションで実行する。
+     * <p/>
+     * メール送信バッチのプロセスIDが設定されていないメール送信要求のうち、
+     * メールリクエストIDの順に{@link #setReaderPageSize(int)}で設定した件数までを更新する。
+     * 指定したメールリクエストID以前のメール送信要求は更新しないため、
+     * {@link #releaseSendProcessId(String)}で解除したメール送信要求は、後続のメール送信バッチで処理される。
+     *
+     * @param mailSendPatternId メール送信パターンID
+     * @param sendProcessId 更新するメール送信バッチのプロセスID
+     * @param lastMailRequestId 前回取得した最後のメールリクエストID(最初に取得する場合は{@code null})
+     */
+    public void updateSendProcessId(final String mailSendPatternId, final String sendProcessId,
+            final String lastMailRequestId) {
+        if (!StringUtil.hasValue(sendProcessIdColumnName)) {
+            return;
+        }
+        if (readerPageSize <= 0) {
+            throw new IllegalStateException("readerPageSize must be set to read mail requests by page.");
+        }
+        SimpleDbTransactionManager manager = SystemRepository.get("mailMultiProcessTransaction");
+        new SimpleDbTransactionExecutor<Void>(manager) {
+            @Override
+            public Void execute(AppDbConnection appDbConnection) {
+                final SqlPStatement select = appDbConnection.prepareStatement(
+                        lastMailRequestId == null ? selectUnclaimedSql : selectUnclaimedAfterSql);
+                int paramPosition = 1;
+                select.setString(paramPosition++, mailConfig.getStatusUnsent());
+                if (StringUtil.hasValue(mailSendPatternId)) {
+                    select.setString(paramPosition++, mailSendPatternId);
+                }
+                if (lastMailRequestId != null) {
+                    select.setString(paramPosition, lastMailRequestId);
+                }
+                final SqlResultSet unclaimed = select.retrieve(1, readerPageSize);
+                if (unclaimed.isEmpty()) {
+                    return null;
+                }
+
+                final SqlPStatement update = appDbConnection.prepareStatement(
+                        lastMailRequestId == null ? updateSendProcessIdUpToSql : updateSendProcessIdBetweenSql);
+                paramPosition = 1;
+                update.setString(paramPosition++, sendProcessId);
+                update.setString(paramPosition++, mailConfig.getStatusUnsent());
+                if (StringUtil.hasValue(mailSendPatternId)) {
+                    update.setString(paramPosition++, mailSendPatternId);
+                }
+                if (lastMailRequestId != null) {
+                    update.setString(paramPosition++, lastMailRequestId);
+                }
+                update.setString(paramPosition,
+                        unclaimed.get(unclaimed.size() - 1).getString(MAIL_REQUEST_ID_ALIAS));
+                update.executeUpdate();
+                return null;
+            }
+        }.doTransaction();
+    }
+
+    /**
+     * 未送信のメール送信要求に設定されたメール送信バッチのプロセスIDを解除する。<p/>
+     * マルチプロセス用の設定がされている場合のみ更新し、別トランザクションで実行する。
+     * <p/>
+     * 送信を見送ったメール送信要求を、後続のメール送信バッチで再び処理対象とするために使用する。
+     *
+     * @param mailRequestId メールリクエストID
+     */
+    public void releaseSendProcessId(final String mailRequestId) {
+        if (StringUtil.hasValue(sendProcessIdColumnName)) {
+            SimpleDbTransactionManager manager = SystemRepository.get("mailMultiProcessTransaction");
+            new SimpleDbTransactionExecutor<Void>(manager) {
+                @Override
+                public Void execute(AppDbConnection appDbConnection) {
+                    SqlPStatement statement = appDbConnection.prepareStatement(releaseSendProcessIdSql);
+                    statement.setString(1, mailRequestId);
+                    statement.setString(2, mailConfig.getStatusUnsent());
+                    statement.executeUpdate();
+                    return null;
+                }
+            }.doTransaction();
+        }
+    }
+
     /**
      * SQLの取得結果の1レコードをMailRequestTable.MailRequestに変換する。
      * @param data メール送信要求1レコード
      * @return メール送信要求
      */
     public MailRequestTable.MailRequest getMailRequest(SqlRow data) {
-        return new MailRequestTable.MailRequest(data);
+        if (isLazyMailBody()) {
+            return new MailRequestTable.MailRequest(data, null, this);
+        }
+        return new MailRequestTable.MailRequest(data, isSharedMailBody() ? mailBlobTable : null);
+    }
+
+    /**
+     * メール本文を送信時に取得するか否か。
+     *
+     * @return メール本文を送信時に取得する場合は{@code true}
+     */
+    private boolean isLazyMailBody() {
+        return lazyMailBodyLoading && !isSharedMailBody();
+    }
+
+    /**
+     * メール本文をメールデータ共有テーブルで管理するか否か。
+     *
+     * @return メールデータ共有テーブルで管理する場合は{@code true}
+     */
+    private boolean isSharedMailBody() {
+        return mailBlobTable != null && StringUtil.hasValue(mailBodyHashColumnName);
+    }
+
+    /**
+     * メール送信要求管理テーブルの名前を取得する。
+     *
+     * @return メール送信要求管理テーブルの名前
+     */
+    String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * メールリクエストIDカラムの名前を取得する。
+     *
+     * @return メールリクエストIDカラムの名前
+     */
+    String getMailRequestIdColumnName() {
+        return mailRequestIdColumnName;
+    }
+
+    /**
+     * 本スキーマ情報に設定されたカラムの名前を取得する。
+     *
+     * @return カラムの名前(設定されていないカラムは含まない)
+     */
+    List<String> getColumnNames() {
+        final List<String> columnNames = new ArrayList<String>();
+        for (String columnName : new String[] {mailRequestIdColumnName, subjectColumnName, fromColumnName,
+                replyColumnName, returnPathColumnName, mailBodyColumnName, charsetColumnName, statusColumnName,
+                requestDateTimeColumnName, sendDateTimeColumnName, mailSendPatternIdColumnName,
+                sendProcessIdColumnName, mailBodyHashColumnName, routingKeyColumnName, expireDateTimeColumnName}) {
+            if (StringUtil.hasValue(columnName)) {
+                columnNames.add(columnName);
+            }
+        }
+        return columnNames;
+    }
+
+    /**
+     * ステータスカラムの名前を取得する。
+     *
+     * @return ステータスカラムの名前
+     */
+    String getStatusColumnName() {
+        return statusColumnName;
+    }
+
+    /**
+     * 要求日時カラムの名前を取得する。
+     *
+     * @return 要求日時カラムの名前
+     */
+    String getRequestDateTimeColumnName() {
+        return requestDateTimeColumnName;
+    }
+
+    /**
+     * メール本文のハッシュ値カラムの名前を取得する。
+     *
+     * @return メール本文のハッシュ値カラムの名前(メール本文をメールデータ共有テーブルで管理しない場合は{@code null})
+     */
+    String getMailBodyHashColumnName() {
+        return isSharedMailBody() ? mailBodyHashColumnName : null;
+    }
+
+    /**
+     * メール本文を管理するメールデータ共有テーブルのスキーマ情報を取得する。
+     *
+     * @return メールデータ共有テーブルのスキーマ情報(メール本文をメールデータ共有テーブルで管理しない場合は{@code null})
+     */
+    MailBlobTable getMailBlobTable() {
+        return isSharedMailBody() ? mailBlobTable : null;
     }
 
     /** SQLを初期化する。 */
     public void initialize() {
         insertSql = createInsertSql();
         countUnsentSql = createCountUnsentSql();
+        existsUnsentSql = createExistsUnsentSql();
         selectUnsentSql = createSelectUnsentSql();
         updateStatusSql = createUpdateStatus();
         updateFailureStatusSql = createUpdateFailureStatusSql();
         updateSendProcessIdSql = createUpdateSendProcessIdSql();
+        releaseSendProcessIdSql = createReleaseSendProcessIdSql();
+        selectUnclaimedSql = createSelectUnclaimedSql(false);
+        selectUnclaimedAfterSql = createSelectUnclaimedSql(true);
+        updateSendProcessIdUpToSql = createUpdateSendProcessIdSql(false);
+        updateSendProcessIdBetweenSql = createUpdateSendProcessIdSql(true);
+        findMailBodySql = createFindMailBodySql();
+        selectUnsentAfterSql = createSelectUnsentSql(true);
+        updateSentStatusSql = createUpdateStatus();
+        updateStaleSendingToUnsentSql = createUpdateStaleSendingStatusSql(true, true);
+        updateStaleSendingToSentSql = createUpdateStaleSendingStatusSql(false, false);
+        updateStaleSendingSql = createUpdateStaleSendingStatusSql(true, false);
+        if (StringUtil.hasValue(expireDateTimeColumnName)) {
+            updateExpiredStatusSql = createUpdateExpiredStatusSql();
+            updateExpiredStatusByIdSql = createUpdateExpiredStatusByIdSql();
+        }
+        if (isClaimAndFetchEnabled()) {
+            claimAndFetchSql = mailRequestClaimDialect.createClaimAndFetchSql(tableName, mailRequestIdColumnName,
+                    sendProcessIdColumnName, createUnsentCondition(), createSelectColumns(), claimBatchSize);
+            claimAndFetchAfterSql = mailRequestClaimDialect.createClaimAndFetchSql(tableName, mailRequestIdColumnName,
+                    sendProcessIdColumnName, createUnsentCondition() + AND + mailRequestIdColumnName + " > ?",
+                    createSelectColumns(), claimBatchSize);
+        }
     }
 
 
@@ -434,26 +1172,95 @@ public class MailRequestTable implements Initializable {
      * @return 未処理データを取得するためのSQL文
      */
     private String createSelectUnsentSql() {
+        return createSelectUnsentSql(false);
+    }
+
+    /**
+     * 未処理データを取得するためのSELECT文を生成する。
+     *
+     * @param afterKey 指定したメールリクエストIDより後のデータのみを取得する場合は{@code true}
+     * @return 未処理データを取得するためのSQL文
+     */
+    private String createSelectUnsentSql(boolean afterKey) {
+        final StringBuilder columns = new StringBuilder();
+        for (Map.Entry<String, String> column : createSelectColumns().entrySet()) {
+            if (columns.length() > 0) {
+                columns.append(", ");
+            }
+            columns.append(column.getValue()).append(' ').append(column.getKey());
+        }
         String sql = SELECT
-                + mailRequestIdColumnName + " MAIL_REQUEST_ID, "
-                + subjectColumnName + " SUBJECT, "
-                + fromColumnName + " FROM_ADDRESS, "
-                + replyColumnName + " REPLY_ADDRESS, "
-                + returnPathColumnName + " RETURN_PATH, "
-                + mailBodyColumnName + " MAIL_BODY, "
-                + charsetColumnName + " CHARSET "
+                + columns + ' '
                 + FROM + tableName
-                + WHERE + statusColumnName + BIND_PARAMETER;
-        if (StringUtil.hasValue(mailSendPatternIdColumnName)) {
-            sql += AND + mailSendPatternIdColumnName + BIND_PARAMETER;
-        }
+                + WHERE + createUnsentCondition();
         if (StringUtil.hasValue(sendProcessIdColumnName)) {
             sql += AND + sendProcessIdColumnName + BIND_PARAMETER;
         }
+        if (afterKey) {
+            sql += AND + mailRequestIdColumnName + " > ? ";
+        }
         sql += ORDER_BY + mailRequestIdColumnName;
         return sql;
     }
 
+    /**
+     * 未処理データを取得する際に読み込むカラムを生成する。
+     *
+     * @return 読み込むカラム(キーは別名、値はカラムの名前)
+     */
+    private Map<String, String> createSelectColumns() {
+        final Map<String, String> columns = new LinkedHashMap<String, String>();
+        columns.put(MAIL_REQUEST_ID_ALIAS, mailRequestIdColumnName);
+        columns.put("SUBJECT", subjectColumnName);
+        columns.put("FROM_ADDRESS", fromColumnName);
+        columns.put("REPLY_ADDRESS", replyColumnName);
+        columns.put("RETURN_PATH", returnPathColumnName);
+        if (isSharedMailBody()) {
+            columns.put("MAIL_BODY_HASH", mailBodyHashColumnName);
+        } else if (!isLazyMailBody()) {
+            columns.put("MAIL_BODY", mailBodyColumnName);
+        }
+        if (StringUtil.hasValue(routingKeyColumnName)) {
+            columns.put("ROUTING_KEY", routingKeyColumnName);
+        }
+        if (StringUtil.hasValue(expireDateTimeColumnName)) {
+            columns.put("EXPIRE_DATETIME", expireDateTimeColumnName);
+        }
+        columns.put("CHARSET", charsetColumnName);
+        return columns;
+    }
+
+    /**
+     * 未処理データの抽出条件(メール送信バッチのプロセスIDの条件を除く)を生成する。
+     * <p/>
+     * バインド変数はステータス、メール送信パターンID(スキーマ定義に設定されている場合)、
+     * 現在日時(有効期限のカラムが設定されている場合)の順となる。
+     *
+     * @return 未処理データの抽出条件
+     */
+    private String createUnsentCondition() {
+        String condition = statusColumnName + BIND_PARAMETER;
+        if (StringUtil.hasValue(mailSendPatternIdColumnName)) {
+            condition += AND + mailSendPatternIdColumnName + BIND_PARAMETER;
+        }
+        if (StringUtil.hasValue(expireDateTimeColumnName)) {
+            condition += AND + "(" + expireDateTimeColumnName + " IS NULL OR " + expireDateTimeColumnName + " > ?) ";
+        }
+        return condition;
+    }
+
+    /**
+     * メール本文を取得するためのSELECT文を生成する。
+     *
+     * @return 生成したSELECT文
+     */
+    private String createFindMailBodySql() {
+        return SELECT
+                + mailBodyColumnName + " MAIL_BODY "
+                + FROM + tableName
+                + WHERE + mailRequestIdColumnName + BIND_PARAMETER;
+    }
+
     /**
      * 未処理の件数を取得するためのSELECT文を取得する。
      *
@@ -463,10 +1270,23 @@ public class MailRequestTable implements Initializable {
         String sql = SELECT
                 +"COUNT(*) AS COUNT "
                 + FROM + tableName
-                + WHERE + statusColumnName + BIND_PARAMETER;
-        if (StringUtil.hasValue(mailSendPatternIdColumnName)) {
-            sql += AND + mailSendPatternIdColumnName + BIND_PARAMETER;
+                + WHERE + createUnsentCondition();
+        if (StringUtil.hasValue(sendProcessIdColumnName)) {
+            sql += AND + sendProcessIdColumnName + " IS NULL ";
         }
+        return sql;
+    }
+
+    /**
+     * 未処理のデータの存在を確認するためのSELECT文を取得する。
+     *
+     * @return 生成したSELECT文
+     */
+    private String createExistsUnsentSql() {
+        String sql = SELECT
+                + mailRequestIdColumnName + " MAIL_REQUEST_ID "
+                + FROM + tableName
+                + WHERE + createUnsentCondition();
         if (StringUtil.hasValue(sendProcessIdColumnName)) {
             sql += AND + sendProcessIdColumnName + " IS NULL ";
         }
@@ -503,6 +1323,56 @@ public class MailRequestTable implements Initializable {
                 + AND + statusColumnName + BIND_PARAMETER;
     }
 
+    /**
+     * 送信を開始した日時が指定日時より前の送信中のメール送信要求のステータスを更新するSQL文を生成する。
+     *
+     * @param clearSendDateTime 送信日時を解除する場合は{@code true}
+     * @param clearSendProcessId メール送信バッチのプロセスIDを解除する場合は{@code true}
+     *                           (マルチプロセス用の設定がされていない場合は無視する)
+     * @return 送信中のメール送信要求のステータスを更新するSQL文
+     */
+    private String createUpdateStaleSendingStatusSql(boolean clearSendDateTime, boolean clearSendProcessId) {
+        String sql = UPDATE + tableName
+                + SET + statusColumnName + BIND_PARAMETER;
+        if (clearSendDateTime) {
+            sql += ", " + sendDateTimeColumnName + " = NULL ";
+        }
+        if (clearSendProcessId && StringUtil.hasValue(sendProcessIdColumnName)) {
+            sql += ", " + sendProcessIdColumnName + " = NULL ";
+        }
+        return sql
+                + WHERE + statusColumnName + BIND_PARAMETER
+                + AND + sendDateTimeColumnName + " < ? ";
+    }
+
+    /**
+     * 有効期限を過ぎた未送信のメール送信要求のステータスを更新するSQL文を生成する。
+     *
+     * @return 有効期限を過ぎた未送信のメール送信要求のステータスを更新するSQL文
+     */
+    private String createUpdateExpiredStatusSql() {
+        String sql = UPDATE + tableName
+                + SET + statusColumnName + BIND_PARAMETER
+                + WHERE + statusColumnName + BIND_PARAMETER
+                + AND + expireDateTimeColumnName + " <= ? ";
+        if (StringUtil.hasValue(mailSendPatternIdColumnName)) {
+            sql += AND + mailSendPatternIdColumnName + BIND_PARAMETER;
+        }
+        return sql;
+    }
+
+    /**
+     * 指定したメール送信要求のステータスを有効期限切れに更新するSQL文を生成する。
+     *
+     * @return 指定したメール送信要求のステータスを有効期限切れに更新するSQL文
+     */
+    private String createUpdateExpiredStatusByIdSql() {
+        return UPDATE + tableName
+                + SET + statusColumnName + BIND_PARAMETER
+                + WHERE + mailRequestIdColumnName + BIND_PARAMETER
+                + AND + statusColumnName + BIND_PARAMETER;
+    }
+
     /**
      * レコードを登録するためのINSERT文を生成する。
      *
@@ -515,7 +1385,7 @@ public class MailRequestTable implements Initializable {
                 + fromColumnName + ", "
                 + replyColumnName + ", "
                 + returnPathColumnName + ", "
-                + mailBodyColumnName + ", "
+                + (isSharedMailBody() ? mailBodyHashColumnName : mailBodyColumnName) + ", "
                 + charsetColumnName + ", "
                 + statusColumnName + ", "
                 + requestDateTimeColumnName + "";
@@ -525,6 +1395,14 @@ public class MailRequestTable implements Initializable {
             insert += ", " + mailSendPatternIdColumnName;
             values += ",?";
         }
+        if (StringUtil.hasValue(routingKeyColumnName)) {
+            insert += ", " + routingKeyColumnName;
+            values += ",?";
+        }
+        if (StringUtil.hasValue(expireDateTimeColumnName)) {
+            insert += ", " + expireDateTimeColumnName;
+            values += ",?";
+        }
         return insert + ")"+ VALUES +" (" + values + ')';
     }
 
@@ -544,6 +1422,56 @@ public class MailRequestTable implements Initializable {
         return update;
     }
 
+    /**
+     * 未処理データのメール送信バッチのプロセスIDを、指定した範囲のメールリクエストIDについて更新するSQLを生成する。
+     * <p/>
+     * バインド変数は{@link #createUpdateSendProcessIdSql()}のバインド変数に続き、
+     * 範囲の開始(含まない。開始を指定する場合のみ)、範囲の終了(含む)の順となる。
+     *
+     * @param afterKey 範囲の開始を指定する場合は{@code true}
+     * @return 未処理データのメール送信バッチのプロセスIDを更新するSQL
+     */
+    private String createUpdateSendProcessIdSql(boolean afterKey) {
+        String update = createUpdateSendProcessIdSql();
+        if (afterKey) {
+            update += AND + mailRequestIdColumnName + " > ? ";
+        }
+        return update + AND + mailRequestIdColumnName + " <= ? ";
+    }
+
+    /**
+     * メール送信バッチのプロセスIDが設定されていない未処理データのメールリクエストIDを、
+     * メールリクエストIDの順に取得するSQLを生成する。
+     *
+     * @param afterKey 指定したメールリクエストIDより後のデータのみを取得する場合は{@code true}
+     * @return メール送信バッチのプロセスIDが設定されていない未処理データのメールリクエストIDを取得するSQL
+     */
+    private String createSelectUnclaimedSql(boolean afterKey) {
+        String sql = SELECT + mailRequestIdColumnName + ' ' + MAIL_REQUEST_ID_ALIAS + ' '
+                + FROM + tableName
+                + WHERE + statusColumnName + BIND_PARAMETER;
+        if (StringUtil.hasValue(mailSendPatternIdColumnName)) {
+            sql += AND + mailSendPatternIdColumnName + BIND_PARAMETER;
+        }
+        sql += AND + sendProcessIdColumnName + " IS NULL ";
+        if (afterKey) {
+            sql += AND + mailRequestIdColumnName + " > ? ";
+        }
+        return sql + ORDER_BY + mailRequestIdColumnName;
+    }
+
+    /**
+     * 未処理データのメール送信バッチのプロセスIDを解除するSQLを生成する。
+     *
+     * @return 未処理データのメール送信バッチのプロセスIDを解除するSQL
+     */
+    private String createReleaseSendProcessIdSql() {
+        return UPDATE + tableName
+                + SET + sendProcessIdColumnName + " = NULL "
+                + WHERE + mailRequestIdColumnName + BIND_PARAMETER
+                + AND + statusColumnName + BIND_PARAMETER;
+    }
+
     /**
      * メール送信要求の1レコード分の情報を保持するクラス。
      *
@@ -554,13 +1482,49 @@ public class MailRequestTable implements Initializable {
         /** メール送信要求の1レコード分の情報を保持するオブジェクト */
         private final SqlRow record;
 
+        /** メール本文を取得するメールデータ共有テーブル */
+        private final MailBlobTable mailBlobTable;
+
+        /** メール本文を送信時に取得するメール送信要求管理テーブル */
+        private final MailRequestTable mailBodyLoader;
+
+        /** 取得済みのメール本文(取得していない場合は{@code null}) */
+        private String mailBody;
+
         /**
          * メール送信要求の1レコード文の情報を保持するインスタンスを生成する。
          *
          * @param record 1レコードを表すレコード
          */
         public MailRequest(SqlRow record) {
+            this(record, null);
+        }
+
+        /**
+         * メール送信要求の1レコード文の情報を保持するインスタンスを生成する。
+         * <p/>
+         * メールデータ共有テーブルが指定された場合、メール本文はハッシュ値を元に共有テーブルから取得する。
+         *
+         * @param record 1レコードを表すレコード
+         * @param mailBlobTable メールデータ共有テーブル(メール本文をレコードに保持する場合は{@code null})
+         */
+        public MailRequest(SqlRow record, MailBlobTable mailBlobTable) {
+            this(record, mailBlobTable, null);
+        }
+
+        /**
+         * メール送信要求の1レコード文の情報を保持するインスタンスを生成する。
+         * <p/>
+         * メール送信要求管理テーブルが指定された場合、メール本文はメールリクエストIDを元に取得時に読み込む。
+         *
+         * @param record 1レコードを表すレコード
+         * @param mailBlobTable メールデータ共有テーブル(メール本文をレコードに保持する場合は{@code null})
+         * @param mailBodyLoader メール本文を送信時に取得するメール送信要求管理テーブル(使用しない場合は{@code null})
+         */
+        MailRequest(SqlRow record, MailBlobTable mailBlobTable, MailRequestTable mailBodyLoader) {
             this.record = record;
+            this.mailBlobTable = mailBlobTable;
+            this.mailBodyLoader = mailBodyLoader;
         }
 
         /**
@@ -610,10 +1574,31 @@ public class MailRequestTable implements Initializable {
 
         /**
          * メール本文を取得する。
+         * <p/>
+         * メール本文をメールデータ共有テーブルまたはメール送信要求管理テーブルから取得する場合は、
+         * 最初の呼び出しでのみ取得し、以降は取得済みのメール本文を返す。
          *
          * @return メール本文
          */
         public String getMailBody() {
+            if (mailBody == null) {
+                mailBody = loadMailBody();
+            }
+            return mailBody;
+        }
+
+        /**
+         * メール本文を取得する。
+         *
+         * @return メール本文
+         */
+        private String loadMailBody() {
+            if (mailBlobTable != null) {
+                return StringUtil.toString(mailBlobTable.find(record.getString("MAIL_BODY_HASH")), MAIL_BODY_CHARSET);
+            }
+            if (mailBodyLoader != null) {
+                return mailBodyLoader.findMailBody(getMailRequestId());
+            }
             return record.getString("MAIL_BODY");
         }
 
@@ -625,6 +1610,24 @@ public class MailRequestTable implements Initializable {
         public String getCharset() {
             return record.getString("CHARSET");
         }
+
+        /**
+         * ルーティングキーを取得する。
+         *
+         * @return ルーティングキー(ルーティングキーのカラムを使用しない場合は{@code null})
+         */
+        public String getRoutingKey() {
+            return record.containsKey("ROUTING_KEY") ? record.getString("ROUTING_KEY") : null;
+        }
+
+        /**
+         * 有効期限を取得する。
+         *
+         * @return 有効期限(有効期限のカラムを使用しない場合、または有効期限が設定されていない場合は{@code null})
+         */
+        public Timestamp getExpireDateTime() {
+            return record.containsKey("EXPIRE_DATETIME") ? record.getTimestamp("EXPIRE_DATETIME") : null;
+        }
     }
 }
 
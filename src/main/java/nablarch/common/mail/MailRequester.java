@@ -53,6 +53,9 @@ public class MailRequester {
     /** 定型メールの件名と本文を構築するテンプレートエンジン処理クラス */
     private TemplateEngineMailProcessor templateEngineMailProcessor;
 
+    /** メール送信要求の登録を通知するクラス */
+    private MailRequestNotifier mailRequestNotifier;
+
     /** テンプレートエンジンを使用して件名と本文の準備をするクラス */
     private final TemplateEngineContextPreparer templateEngineContextPreparer = new TemplateEngineContextPreparer();
 
@@ -138,6 +141,9 @@ public class MailRequester {
         mailRequestTable.insert(mailRequestId, ctx, transactionName);
         mailRecipientTable.insert(mailRequestId, ctx, mailConfig, transactionName);
         mailAttachedFileTable.insert(mailRequestId, ctx, transactionName);
+        if (mailRequestNotifier != null) {
+            mailRequestNotifier.notifyRequested(transactionName);
+        }
         return mailRequestId;
     }
 
@@ -154,6 +160,9 @@ public class MailRequester {
         mailRequestTable.insert(mailRequestId, ctx);
         mailRecipientTable.insert(mailRequestId, ctx, mailConfig);
         mailAttachedFileTable.insert(mailRequestId, ctx);
+        if (mailRequestNotifier != null) {
+            mailRequestNotifier.notifyRequested(null);
+        }
         return mailRequestId;
     }
 
@@ -229,6 +238,18 @@ public class MailRequester {
         this.mailTransactionManager = mailTransactionManager;
     }
 
+    /**
+     * メール送信要求の登録を通知するクラスを設定する。
+     * <p/>
+     * 設定した場合、メール送信要求を登録したトランザクション内で通知を行う。
+     *
+     * @param mailRequestNotifier
+     *             メール送信要求の登録を通知するクラス
+     */
+    public void setMailRequestNotifier(MailRequestNotifier mailRequestNotifier) {
+        this.mailRequestNotifier = mailRequestNotifier;
+    }
+
     /**
      * 定型メールの件名と本文を構築するテンプレートエンジン処理クラスを設定する。
      * 
@@ -1,14 +1,19 @@
 package nablarch.common.mail;
 
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.activation.DataHandler;
 import javax.activation.DataSource;
 import javax.mail.Address;
 import javax.mail.MessagingException;
+import javax.mail.NoSuchProviderException;
 import javax.mail.SendFailedException;
 import javax.mail.Session;
 import javax.mail.Transport;
@@ -25,6 +30,7 @@ import nablarch.core.log.Logger;
 import nablarch.core.log.LoggerManager;
 import nablarch.core.log.app.FailureLogUtil;
 import nablarch.core.repository.SystemRepository;
+import nablarch.core.util.StringUtil;
 import nablarch.core.util.annotation.Published;
 import nablarch.fw.DataReader;
 import nablarch.fw.ExecutionContext;
@@ -57,9 +63,48 @@ public class MailSender extends BatchAction<SqlRow> {
     /** システムリポジトリ用のキー定数 */
     private static final String SYSTEM_REPOSITORY_KEY_MAIL_REQUEST_TABLE = "mailRequestTable";
 
+    /** システムリポジトリ用のキー定数 */
+    private static final String SYSTEM_REPOSITORY_KEY_ATTACHED_FILE_PART_CACHE = "attachedFilePartCache";
+
+    /** システムリポジトリ用のキー定数 */
+    private static final String SYSTEM_REPOSITORY_KEY_MAIL_TRANSPORT = "mailTransport";
+
+    /** システムリポジトリ用のキー定数 */
+    private static final String SYSTEM_REPOSITORY_KEY_MAIL_CIRCUIT_BREAKER = "mailCircuitBreaker";
+
+    /** システムリポジトリ用のキー定数 */
+    private static final String SYSTEM_REPOSITORY_KEY_MAIL_CONCURRENCY_LIMITER = "mailConcurrencyLimiter";
+
+    /** システムリポジトリ用のキー定数 */
+    private static final String SYSTEM_REPOSITORY_KEY_MAIL_RATE_LIMITER = "mailRateLimiter";
+
+    /** システムリポジトリ用のキー定数 */
+    private static final String SYSTEM_REPOSITORY_KEY_RECIPIENT_DOMAIN_LIMITER = "recipientDomainLimiter";
+
+    /** システムリポジトリ用のキー定数 */
+    private static final String SYSTEM_REPOSITORY_KEY_SMTP_RELAY_SELECTOR = "smtpRelaySelector";
+
+    /** システムリポジトリ用のキー定数 */
+    private static final String SYSTEM_REPOSITORY_KEY_SMTP_RELAY_ROUTER = "smtpRelayRouter";
+
+    /** システムリポジトリ用のキー定数 */
+    private static final String SYSTEM_REPOSITORY_KEY_MAIL_REQUEST_NOTIFIER = "mailRequestNotifier";
+
+    /** システムリポジトリ用のキー定数 */
+    private static final String SYSTEM_REPOSITORY_KEY_MAIL_POLLING_SCHEDULER = "mailPollingScheduler";
+
+    /** システムリポジトリ用のキー定数 */
+    private static final String SYSTEM_REPOSITORY_KEY_MAIL_FETCH_SIZE_TUNER = "mailFetchSizeTuner";
+
+    /** システムリポジトリ用のキー定数 */
+    private static final String SYSTEM_REPOSITORY_KEY_MAIL_SENDING_RECOVERY = "mailSendingRecovery";
+
     /** メール送信バッチを識別するプロセスID */
     private final String processId = UUID.randomUUID().toString();
 
+    /** 送信に成功し、送信済みに更新していないメール送信要求 */
+    private final MailSentStatusBuffer sentStatusBuffer = new MailSentStatusBuffer();
+
     /** ロガー */
     private final Logger LOGGER = LoggerManager.get(MailSender.class);
 
@@ -90,12 +135,61 @@ public class MailSender extends BatchAction<SqlRow> {
 
         String mailRequestId = mailRequest.getMailRequestId();
 
+        final MailFetchSizeTuner fetchSizeTuner = SystemRepository.get(SYSTEM_REPOSITORY_KEY_MAIL_FETCH_SIZE_TUNER);
+        if (fetchSizeTuner != null) {
+            fetchSizeTuner.recordRow(data);
+        }
+
+        // 有効期限を過ぎたメール送信要求は、送信せずに有効期限切れとする。
+        final Timestamp expireDateTime = mailRequest.getExpireDateTime();
+        if (expireDateTime != null && !expireDateTime.after(SystemTimeUtil.getTimestamp())) {
+            mailRequestTable.updateExpiredStatusById(mailRequestId);
+            LOGGER.logInfo(String.format("mail request expired and was not sent. mailRequestId=[%s] expireDateTime=[%s]",
+                    mailRequestId, expireDateTime));
+            return new Result.Success();
+        }
+
+        // 送信経路の選択
+        final SmtpRelayRoute route = findRoute(mailRequest, context);
+        final SmtpRelaySelector relaySelector = route != null && route.getRelaySelector() != null
+                ? route.getRelaySelector()
+                : SystemRepository.<SmtpRelaySelector>get(SYSTEM_REPOSITORY_KEY_SMTP_RELAY_SELECTOR);
+        final MailTransport mailTransport = route != null && route.getMailTransport() != null
+                ? route.getMailTransport()
+                : SystemRepository.<MailTransport>get(SYSTEM_REPOSITORY_KEY_MAIL_TRANSPORT);
+
+        // 送信に使用するSMTPサーバの選択(全てのSMTPサーバが停止している場合は、未送信のまま残す。)
+        final SmtpRelay relay = relaySelector != null ? relaySelector.select() : null;
+        if (relaySelector != null && relay == null) {
+            mailRequestTable.releaseSendProcessId(mailRequestId);
+            return new Result.Success();
+        }
+
         // メールセッションの取得
-        Session session = createMailSession(mailRequest.getReturnPath(), mailSenderConfig);
+        Session session = createMailSession(mailRequest.getReturnPath(), mailSenderConfig, relay);
 
         MailConfig mailConfig = SystemRepository.get(SYSTEM_REPOSITORY_KEY_MAIL_CONFIG);
+
+        // SMTPサーバへの送信が停止されている場合は、未送信のまま残す。
+        final String smtpHost = relay != null ? relay.getHost() : mailSenderConfig.getMailSmtpHost();
+        final MailCircuitBreaker circuitBreaker = SystemRepository.get(SYSTEM_REPOSITORY_KEY_MAIL_CIRCUIT_BREAKER);
+        if (circuitBreaker != null && !circuitBreaker.allowRequest(smtpHost)) {
+            mailRequestTable.releaseSendProcessId(mailRequestId);
+            return new Result.Success();
+        }
+
+        // 宛先のドメインが上限に達している場合は、ステータスを更新せずに未送信のまま残し、後続の読み込みで送信する。
+        final RecipientDomainLimiter domainLimiter = SystemRepository.get(SYSTEM_REPOSITORY_KEY_RECIPIENT_DOMAIN_LIMITER);
+        final Address[] limitedRecipients = domainLimiter != null
+                ? findAllRecipients(mailRequestId, mailRecipientTable, mailConfig) : null;
+        if (domainLimiter != null && !domainLimiter.tryAcquire(limitedRecipients)) {
+            mailRequestTable.releaseSendProcessId(mailRequestId);
+            return new Result.Success();
+        }
+
+        SendAttempt attempt = null;
         try {
-            // 2重送信防止のため、送信ステータスをはじめに送信済みに更新する。
+            // 2重送信防止のため、送信ステータスをはじめに送信済み(送信中のステータスを使用する場合は送信中)に更新する。
             updateToSuccess(data, context);
 
             // 差し戻し先メールアドレスのチェック
@@ -112,7 +206,24 @@ public class MailSender extends BatchAction<SqlRow> {
 
             // 設定の保存とメール送信
             mimeMessage.saveChanges();
-            Transport.send(mimeMessage);
+            attempt = beginSend(smtpHost, relaySelector, relay, limitedRecipients, context);
+            if (mailTransport != null) {
+                // 送信結果は非同期に通知されるため、結果に応じた処理はコールバックで行う。
+                mailTransport.send(session, mimeMessage,
+                        new SendResultCallback(data, context, mailRequest, mailConfig, attempt));
+                return new Result.Success();
+            }
+            try {
+                Transport.send(mimeMessage);
+            } catch (MessagingException e) {
+                recordSendResult(attempt, e);
+                throw e;
+            } catch (RuntimeException e) {
+                recordSendResult(attempt, new MessagingException("failed to send a mail.", e));
+                throw e;
+            }
+            recordSendResult(attempt, null);
+            completeSending(mailRequestId, mailConfig);
             writeLog(mailConfig.getSendSuccessMessageId(), mailRequestId);
         } catch (CreateMailFailedException e) {
             writeCreateMailFailedLog(data, mailRequest, mailConfig, e);
@@ -127,10 +238,245 @@ public class MailSender extends BatchAction<SqlRow> {
             throw e;
         } catch (Exception e) {
             return handleException(data, context, mailRequest, mailConfig, e);
+        } finally {
+            // 送信を開始する前に終了した場合は、宛先のドメインへの送信を終了する。(開始後は送信結果の記録時に終了する。)
+            if (attempt == null && limitedRecipients != null) {
+                domainLimiter.release(limitedRecipients);
+            }
         }
         return new Result.Success();
     }
 
+    /**
+     * メール送信要求の全ての宛先を、送信先管理テーブルから取得する。
+     * <p/>
+     * 宛先のドメインの判定に使用するため、メールアドレスの形式は検証しない。
+     *
+     * @param mailRequestId メールリクエストID
+     * @param mailRecipientTable 送信先管理テーブルのスキーマ情報
+     * @param mailConfig メール設定
+     * @return 宛先
+     */
+    private static Address[] findAllRecipients(String mailRequestId, MailRecipientTable mailRecipientTable,
+            MailConfig mailConfig) {
+        final List<Address> recipients = new ArrayList<Address>();
+        for (String recipientType : new String[] {mailConfig.getRecipientTypeTO(), mailConfig.getRecipientTypeCC(),
+                mailConfig.getRecipientTypeBCC()}) {
+            for (MailRecipientTable.MailRecipient mailRecipient : mailRecipientTable.find(mailRequestId, recipientType)) {
+                final InternetAddress address = new InternetAddress();
+                address.setAddress(mailRecipient.getMailAddress());
+                recipients.add(address);
+            }
+        }
+        return recipients.toArray(new Address[recipients.size()]);
+    }
+
+    /**
+     * {@link MailTransport}から送信結果の通知を受け取り、送信失敗時の処理を行うコールバック。
+     * <p/>
+     * 送信失敗時は、同期的に送信した場合と同じ障害ログを出力し、送信ステータスを送信失敗に更新する。
+     * 送信結果は{@link #handle(SqlRow, ExecutionContext)}の復帰後に通知されるため、リトライは行わない。
+     */
+    private final class SendResultCallback implements MailTransportCallback {
+
+        /** 入力データ（メール送信要求のレコード） */
+        private final SqlRow data;
+
+        /** 実行コンテキスト */
+        private final ExecutionContext context;
+
+        /** メール送信要求 */
+        private final MailRequestTable.MailRequest mailRequest;
+
+        /** メール設定 */
+        private final MailConfig mailConfig;
+
+        /** 送信の情報 */
+        private final SendAttempt attempt;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param data 入力データ（メール送信要求のレコード）
+         * @param context 実行コンテキスト
+         * @param mailRequest メール送信要求
+         * @param mailConfig メール設定
+         * @param attempt 送信の情報
+         */
+        private SendResultCallback(SqlRow data, ExecutionContext context,
+                MailRequestTable.MailRequest mailRequest, MailConfig mailConfig, SendAttempt attempt) {
+            this.data = data;
+            this.context = context;
+            this.mailRequest = mailRequest;
+            this.mailConfig = mailConfig;
+            this.attempt = attempt;
+        }
+
+        @Override
+        public void onSuccess() {
+            recordSendResult(attempt, null);
+            completeSending(mailRequest.getMailRequestId(), mailConfig);
+            writeLog(mailConfig.getSendSuccessMessageId(), mailRequest.getMailRequestId());
+        }
+
+        @Override
+        public void onFailure(MessagingException e) {
+            recordSendResult(attempt, e);
+            if (e instanceof SendFailedException) {
+                writeSendMailFailedLog(data, mailRequest, mailConfig, (SendFailedException) e);
+            } else {
+                FailureLogUtil.logError(e, data, mailConfig.getSendFailureCode(), mailRequest.getMailRequestId());
+            }
+            try {
+                updateToFailed(data, context);
+            } catch (ProcessAbnormalEnd pe) {
+                FailureLogUtil.logFatal(pe, data, mailConfig.getSendFailureCode(), mailRequest.getMailRequestId());
+            }
+        }
+    }
+
+    /**
+     * 1通のメールの送信の情報を保持するクラス。
+     */
+    private static final class SendAttempt {
+
+        /** SMTPサーバのホスト名 */
+        private final String smtpHost;
+
+        /** SMTPサーバを選択した{@link SmtpRelaySelector}(使用しない場合は{@code null}) */
+        private final SmtpRelaySelector relaySelector;
+
+        /** SMTPサーバ({@link SmtpRelaySelector}を使用しない場合は{@code null}) */
+        private final SmtpRelay relay;
+
+        /** 宛先 */
+        private final Address[] recipients;
+
+        /** 送信を開始した時刻(ナノ秒) */
+        private final long startTime;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param smtpHost SMTPサーバのホスト名
+         * @param relaySelector SMTPサーバを選択した{@link SmtpRelaySelector}(使用しない場合は{@code null})
+         * @param relay SMTPサーバ({@link SmtpRelaySelector}を使用しない場合は{@code null})
+         * @param recipients 宛先
+         * @param startTime 送信を開始した時刻(ナノ秒)
+         */
+        private SendAttempt(String smtpHost, SmtpRelaySelector relaySelector, SmtpRelay relay,
+                Address[] recipients, long startTime) {
+            this.smtpHost = smtpHost;
+            this.relaySelector = relaySelector;
+            this.relay = relay;
+            this.recipients = recipients;
+            this.startTime = startTime;
+        }
+    }
+
+    /**
+     * メールの送信を開始する。
+     * <p/>
+     * システムリポジトリに{@link MailRateLimiter}が登録されている場合は、送信レートが上限を超えない時刻まで待機する。
+     * システムリポジトリに{@link AdaptiveConcurrencyLimiter}が登録されている場合は、
+     * 送信中の件数が上限未満になるまで待機する。
+     *
+     * @param smtpHost SMTPサーバのホスト名
+     * @param relaySelector SMTPサーバを選択した{@link SmtpRelaySelector}(使用しない場合は{@code null})
+     * @param relay SMTPサーバ({@link SmtpRelaySelector}を使用しない場合は{@code null})
+     * @param recipients {@link RecipientDomainLimiter}で送信を開始した宛先(使用しない場合は{@code null})
+     * @param context 実行コンテキスト
+     * @return 送信の情報
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    private SendAttempt beginSend(String smtpHost, SmtpRelaySelector relaySelector, SmtpRelay relay,
+            Address[] recipients, ExecutionContext context) throws InterruptedException {
+        final MailRateLimiter rateLimiter = SystemRepository.get(SYSTEM_REPOSITORY_KEY_MAIL_RATE_LIMITER);
+        if (rateLimiter != null) {
+            final String mailSendPatternId = context.getSessionScopedVar("mailSendPatternId");
+            rateLimiter.acquire(smtpHost, mailSendPatternId);
+        }
+        final AdaptiveConcurrencyLimiter limiter = SystemRepository.get(SYSTEM_REPOSITORY_KEY_MAIL_CONCURRENCY_LIMITER);
+        if (limiter != null) {
+            limiter.acquire();
+        }
+        if (relay != null) {
+            relaySelector.begin(relay);
+        }
+        return new SendAttempt(smtpHost, relaySelector, relay, recipients, System.nanoTime());
+    }
+
+    /**
+     * SMTPサーバへの送信結果を記録する。
+     * <p/>
+     * システムリポジトリに{@link MailCircuitBreaker}が登録されている場合は、送信の成否を記録する。
+     * 宛先の拒否({@link SendFailedException})はSMTPサーバが応答しているため、送信成功として記録する。
+     * <p/>
+     * システムリポジトリに{@link AdaptiveConcurrencyLimiter}が登録されている場合は、送信の終了と応答時間を記録する。
+     * システムリポジトリに{@link RecipientDomainLimiter}が登録されている場合は、宛先のドメインへの送信の終了を記録する。
+     * {@link SmtpRelaySelector}でSMTPサーバを選択した場合は、選択したSMTPサーバへの送信結果を記録する。
+     *
+     * @param attempt 送信の情報
+     * @param e 送信時の例外(送信に成功した場合は{@code null})
+     */
+    private void recordSendResult(SendAttempt attempt, MessagingException e) {
+        final String smtpHost = attempt.smtpHost;
+        final RecipientDomainLimiter domainLimiter = SystemRepository.get(SYSTEM_REPOSITORY_KEY_RECIPIENT_DOMAIN_LIMITER);
+        if (domainLimiter != null) {
+            domainLimiter.release(attempt.recipients);
+        }
+        final AdaptiveConcurrencyLimiter limiter = SystemRepository.get(SYSTEM_REPOSITORY_KEY_MAIL_CONCURRENCY_LIMITER);
+        if (limiter != null) {
+            limiter.release(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - attempt.startTime), e);
+        }
+        if (attempt.relay != null) {
+            attempt.relaySelector.recordResult(attempt.relay, e);
+        }
+        final MailCircuitBreaker circuitBreaker = SystemRepository.get(SYSTEM_REPOSITORY_KEY_MAIL_CIRCUIT_BREAKER);
+        if (circuitBreaker == null) {
+            return;
+        }
+        if (e == null || e instanceof SendFailedException) {
+            circuitBreaker.recordSuccess(smtpHost);
+        } else {
+            circuitBreaker.recordFailure(smtpHost);
+        }
+    }
+
+    /**
+     * 送信に成功したメール送信要求のステータスを送信済みに更新する。
+     * <p/>
+     * 送信中のステータスを使用しない場合は、送信前に送信済みに更新しているため何もしない。
+     * 更新は{@link MailRequestTable#getSentStatusBatchSize()}件ごとにまとめて行う。
+     *
+     * @param mailRequestId メールリクエストID
+     * @param mailConfig メール設定
+     */
+    private void completeSending(String mailRequestId, MailConfig mailConfig) {
+        if (mailConfig.getStatusSending() == null) {
+            return;
+        }
+        final MailRequestTable mailRequestTable = SystemRepository.get(SYSTEM_REPOSITORY_KEY_MAIL_REQUEST_TABLE);
+        sentStatusBuffer.add(mailRequestTable, mailRequestId);
+    }
+
+    /**
+     * メール送信要求に一致する送信経路のルールを取得する。
+     *
+     * @param mailRequest メール送信要求
+     * @param context 実行コンテキスト
+     * @return 一致したルール(システムリポジトリに{@link SmtpRelayRouter}が登録されていない場合、
+     *          またはいずれのルールにも一致しない場合は{@code null})
+     */
+    private SmtpRelayRoute findRoute(MailRequestTable.MailRequest mailRequest, ExecutionContext context) {
+        final SmtpRelayRouter router = SystemRepository.get(SYSTEM_REPOSITORY_KEY_SMTP_RELAY_ROUTER);
+        if (router == null) {
+            return null;
+        }
+        final String mailSendPatternId = context.getSessionScopedVar("mailSendPatternId");
+        return router.route(mailRequest, mailSendPatternId);
+    }
+
     /**
      * メール送信時の例外のハンドル処理を行う。
      * <p/>
@@ -337,14 +683,7 @@ public class MailSender extends BatchAction<SqlRow> {
             multipart.addBodyPart(textPart);
 
             for (MailAttachedFileTable.MailAttachedFile attachedFile : attachedFiles) {
-                DataSource dataSource = new ByteArrayDataSource(attachedFile.getFile(),
-                        attachedFile.getContextType());
-
-                DataHandler dataHandler = new DataHandler(dataSource);
-
-                MimeBodyPart filePart = new MimeBodyPart();
-                filePart.setDataHandler(dataHandler);
-                filePart.setFileName(attachedFile.getFileName());
+                MimeBodyPart filePart = createAttachedFilePart(attachedFile);
 
                 multipart.addBodyPart(filePart);
                 mimeMessage.setContent(multipart, attachedFile.getContextType());
@@ -352,23 +691,53 @@ public class MailSender extends BatchAction<SqlRow> {
         }
     }
 
+    /**
+     * 添付ファイルのボディパートを生成する。
+     * <p/>
+     * システムリポジトリに{@link AttachedFilePartCache}が登録されている場合は、
+     * 同一の添付ファイルに対してキャッシュされたエンコード済みのデータを使用する。
+     *
+     * @param attachedFile 添付ファイルの情報
+     * @return 添付ファイルのボディパート
+     * @throws MessagingException ボディパートの生成に失敗した場合
+     */
+    private MimeBodyPart createAttachedFilePart(MailAttachedFileTable.MailAttachedFile attachedFile)
+            throws MessagingException {
+        final AttachedFilePartCache cache = SystemRepository.get(SYSTEM_REPOSITORY_KEY_ATTACHED_FILE_PART_CACHE);
+        if (cache != null) {
+            return cache.createBodyPart(attachedFile);
+        }
+
+        DataSource dataSource = new ByteArrayDataSource(attachedFile.getFile(),
+                attachedFile.getContextType());
+
+        DataHandler dataHandler = new DataHandler(dataSource);
+
+        MimeBodyPart filePart = new MimeBodyPart();
+        filePart.setDataHandler(dataHandler);
+        filePart.setFileName(attachedFile.getFileName());
+        return filePart;
+    }
+
     /**
      * java.mail.Sessionオブジェクトを取得する。<br />
      * メールヘッダのReturn-Pathに設定される mail.smtp.from のみ引数として指定する。<br />
-     * それ以外は、設定ファイルから読み込む。
+     * それ以外は、設定ファイルから読み込む。<br />
+     * SMTPサーバが指定された場合は、SMTPサーバのホスト名とポート番号を設定ファイルの値より優先する。
      *
      * @param returnPath 差し戻し先メールアドレス。
      * @param mailSenderConfig メール送信用設定値
+     * @param relay SMTPサーバ(設定ファイルの値を使用する場合は{@code null})
      * @return メールセッション
      */
     private Session createMailSession(String returnPath,
-            MailSessionConfig mailSenderConfig) {
+            MailSessionConfig mailSenderConfig, SmtpRelay relay) {
         Properties properties = new Properties();
         properties.setProperty("mail.smtp.host",
-                mailSenderConfig.getMailSmtpHost());
+                relay != null ? relay.getHost() : mailSenderConfig.getMailSmtpHost());
         properties.setProperty("mail.host", mailSenderConfig.getMailHost());
         properties.setProperty("mail.smtp.port",
-                mailSenderConfig.getMailSmtpPort());
+                relay != null ? relay.getPort() : mailSenderConfig.getMailSmtpPort());
         properties.setProperty("mail.smtp.connectiontimeout",
                 mailSenderConfig.getMailSmtpConnectionTimeout());
         properties.setProperty("mail.smtp.timeout",
@@ -376,7 +745,20 @@ public class MailSender extends BatchAction<SqlRow> {
         properties.setProperty("mail.smtp.from", returnPath);
 
         properties.putAll(mailSenderConfig.getOption());
-        return Session.getInstance(properties);
+        Session session = Session.getInstance(properties);
+
+        String transportClassName = mailSenderConfig.getTransportClassName();
+        if (StringUtil.hasValue(transportClassName)) {
+            try {
+                // 継承しているTransactionEventCallback.Providerと区別するため、完全修飾名で指定する。
+                session.setProvider(new javax.mail.Provider(
+                        javax.mail.Provider.Type.TRANSPORT, "smtp", transportClassName, "Nablarch", null));
+            } catch (NoSuchProviderException e) {
+                throw new IllegalStateException(
+                        "failed to set transport provider. class=[" + transportClassName + "]", e);
+            }
+        }
+        return session;
 
     }
 
@@ -446,7 +828,27 @@ public class MailSender extends BatchAction<SqlRow> {
         }
     }
 
-    /** {@inheritDoc} メール送信要求を読み込む{@link DatabaseRecordReader}を生成する。 */
+    /**
+     * {@inheritDoc} メール送信要求を読み込む{@link DatabaseRecordReader}を生成する。
+     * <p/>
+     * システムリポジトリに{@link MailRequestNotifier}が登録されている場合は、
+     * 直前の読み込みで未送信のメール送信要求がなかったときに、メール送信要求が登録されるまで待機する。
+     * <p/>
+     * {@link MailRequestNotifier}が登録されておらず、{@link MailPollingScheduler}が登録されている場合は、
+     * 直前の読み込み結果に応じて決定した間隔だけ待機する。
+     * <p/>
+     * 送信中のステータスを使用する場合は、送信済みに更新していないメール送信要求を送信済みに更新する。
+     * システムリポジトリに{@link MailSendingRecovery}が登録されている場合は、送信中のまま残ったメール送信要求を回復する。
+     * メール送信要求管理テーブルに有効期限のカラムが設定されている場合は、有効期限を過ぎた未送信のメール送信要求を
+     * 有効期限切れに更新する。
+     * <p/>
+     * {@link MailConfig#isCountUnsentRequests()}が{@code false}の場合は、件数を取得せずに
+     * 未送信のメール送信要求の存在のみを確認し、存在しない場合はデータを返さないリーダを生成する。
+     * <p/>
+     * {@link MailRequestTable#isClaimAndFetchEnabled()}が{@code true}の場合は、メール送信バッチのプロセスIDの更新と
+     * 読み込みを1つのSQLで一定件数ずつ行うリーダを生成する。
+     * {@link MailRequestTable#getReaderPageSize()}が1以上の場合は、メールリクエストIDの順に一定件数ずつ読み込むリーダを生成する。
+     */
     @Override
     @Published(tag = "architect")
     public DataReader<SqlRow> createReader(ExecutionContext ctx) {
@@ -456,9 +858,48 @@ public class MailSender extends BatchAction<SqlRow> {
 
         final String mailSendPatternId = ctx.getSessionScopedVar("mailSendPatternId");
 
-        int unsentRecordCount = mailRequestTable.getTargetCount(mailSendPatternId);
+        awaitMailRequest();
+
+        sentStatusBuffer.flush(mailRequestTable);
+        final MailSendingRecovery sendingRecovery = SystemRepository.get(SYSTEM_REPOSITORY_KEY_MAIL_SENDING_RECOVERY);
+        if (sendingRecovery != null) {
+            sendingRecovery.recover(mailRequestTable, mailConfig);
+        }
+        final int expiredCount = mailRequestTable.updateExpiredStatus(mailSendPatternId);
+        if (expiredCount > 0) {
+            LOGGER.logInfo(String.format("mail requests expired and were not sent. count=[%d]", expiredCount));
+        }
+
+        final boolean countUnsentRequests = mailConfig.isCountUnsentRequests();
+        final int unsentRecordCount;
+        if (countUnsentRequests) {
+            unsentRecordCount = mailRequestTable.getTargetCount(mailSendPatternId);
+        } else {
+            unsentRecordCount = mailRequestTable.hasTarget(mailSendPatternId) ? 1 : 0;
+        }
+        final MailRequestNotifier notifier = SystemRepository.get(SYSTEM_REPOSITORY_KEY_MAIL_REQUEST_NOTIFIER);
+        if (notifier != null) {
+            notifier.recordPoll(unsentRecordCount);
+        }
+        final MailPollingScheduler pollingScheduler = SystemRepository.get(SYSTEM_REPOSITORY_KEY_MAIL_POLLING_SCHEDULER);
+        if (pollingScheduler != null) {
+            pollingScheduler.recordPoll(unsentRecordCount);
+        }
+
+        if (countUnsentRequests) {
+            writeLog(mailConfig.getMailRequestCountMessageId(), unsentRecordCount);
+        } else if (unsentRecordCount == 0) {
+            return new EmptyReader();
+        }
 
-        writeLog(mailConfig.getMailRequestCountMessageId(), unsentRecordCount);
+        if (mailRequestTable.isClaimAndFetchEnabled()) {
+            final DataReader<SqlRow> reader = new ClaimingMailRequestReader(mailRequestTable, mailSendPatternId, processId);
+            return countUnsentRequests ? reader : new CountingReader(reader, mailConfig);
+        }
+        if (mailRequestTable.getReaderPageSize() > 0) {
+            final DataReader<SqlRow> reader = new KeysetMailRequestReader(mailRequestTable, mailSendPatternId, processId);
+            return countUnsentRequests ? reader : new CountingReader(reader, mailConfig);
+        }
 
         DatabaseRecordReader reader = new DatabaseRecordReader();
         reader.setStatement(mailRequestTable.createReaderStatement(mailSendPatternId, processId));
@@ -470,7 +911,139 @@ public class MailSender extends BatchAction<SqlRow> {
                 mailRequestTable.updateSendProcessId(mailSendPatternId, processId);
             }
         });
-        return reader;
+        return countUnsentRequests ? reader : new CountingReader(reader, mailConfig);
+    }
+
+    /**
+     * 未送信のメール送信要求が存在しない場合に使用する、データを返さないリーダ。
+     */
+    private static final class EmptyReader implements DataReader<SqlRow> {
+
+        @Override
+        public SqlRow read(ExecutionContext ctx) {
+            return null;
+        }
+
+        @Override
+        public boolean hasNext(ExecutionContext ctx) {
+            return false;
+        }
+
+        @Override
+        public void close(ExecutionContext ctx) {
+            // 解放するリソースはない。
+        }
+    }
+
+    /**
+     * 読み込んだメール送信要求の件数を数え、読み込みの終了時にメール送信要求件数出力時のメッセージを出力するリーダ。
+     */
+    private final class CountingReader implements DataReader<SqlRow> {
+
+        /** 読み込みを委譲するリーダ */
+        private final DataReader<SqlRow> delegate;
+
+        /** メール関連のコード値を保持するデータオブジェクト */
+        private final MailConfig mailConfig;
+
+        /** 読み込んだ件数 */
+        private final AtomicInteger readCount = new AtomicInteger();
+
+        /** 件数を出力したか否か */
+        private final AtomicBoolean logged = new AtomicBoolean();
+
+        /**
+         * コンストラクタ。
+         *
+         * @param delegate 読み込みを委譲するリーダ
+         * @param mailConfig メール関連のコード値を保持するデータオブジェクト
+         */
+        private CountingReader(DataReader<SqlRow> delegate, MailConfig mailConfig) {
+            this.delegate = delegate;
+            this.mailConfig = mailConfig;
+        }
+
+        @Override
+        public SqlRow read(ExecutionContext ctx) {
+            final SqlRow row = delegate.read(ctx);
+            if (row != null) {
+                readCount.incrementAndGet();
+            }
+            return row;
+        }
+
+        @Override
+        public boolean hasNext(ExecutionContext ctx) {
+            return delegate.hasNext(ctx);
+        }
+
+        @Override
+        public void close(ExecutionContext ctx) {
+            delegate.close(ctx);
+            if (logged.compareAndSet(false, true)) {
+                writeLog(mailConfig.getMailRequestCountMessageId(), readCount.get());
+            }
+        }
+    }
+
+    /**
+     * 次の読み込みまで待機する。
+     * <p/>
+     * システムリポジトリに{@link MailRequestNotifier}が登録されている場合は、
+     * 直前の読み込みで未送信のメール送信要求がなかったときに、メール送信要求が登録されるまで待機する。
+     * {@link MailRequestNotifier}が登録されていない場合は、
+     * {@link MailPollingScheduler}が決定した間隔だけ待機する。いずれも登録されていない場合は何もしない。
+     */
+    private void awaitMailRequest() {
+        final MailRequestNotifier notifier = SystemRepository.get(SYSTEM_REPOSITORY_KEY_MAIL_REQUEST_NOTIFIER);
+        final MailPollingScheduler pollingScheduler = SystemRepository.get(SYSTEM_REPOSITORY_KEY_MAIL_POLLING_SCHEDULER);
+        try {
+            if (notifier != null) {
+                notifier.awaitRequest();
+            } else if (pollingScheduler != null) {
+                pollingScheduler.awaitNextPoll();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * システムリポジトリに{@link MailTransport}が登録されている場合は、送信中の全てのメールの送信結果が通知されるまで待機する。
+     * {@link SmtpRelayRouter}のルールに設定された{@link MailTransport}についても同様に待機する。
+     * <p/>
+     * 送信中のステータスを使用する場合は、送信済みに更新していないメール送信要求を送信済みに更新する。
+     * <p/>
+     * システムリポジトリに{@link MailRateLimiter}が登録されている場合は、送信レートの制限により待機した時間をログに出力する。
+     */
+    @Override
+    @Published(tag = "architect")
+    protected void terminate(Result result, ExecutionContext context) {
+        final List<MailTransport> mailTransports = new ArrayList<MailTransport>();
+        final MailTransport mailTransport = SystemRepository.get(SYSTEM_REPOSITORY_KEY_MAIL_TRANSPORT);
+        if (mailTransport != null) {
+            mailTransports.add(mailTransport);
+        }
+        final SmtpRelayRouter router = SystemRepository.get(SYSTEM_REPOSITORY_KEY_SMTP_RELAY_ROUTER);
+        if (router != null) {
+            mailTransports.addAll(router.getMailTransports());
+        }
+        try {
+            for (MailTransport transport : mailTransports) {
+                transport.waitForCompletion();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        final MailRequestTable mailRequestTable = SystemRepository.get(SYSTEM_REPOSITORY_KEY_MAIL_REQUEST_TABLE);
+        sentStatusBuffer.flush(mailRequestTable);
+        final MailRateLimiter rateLimiter = SystemRepository.get(SYSTEM_REPOSITORY_KEY_MAIL_RATE_LIMITER);
+        if (rateLimiter != null) {
+            LOGGER.logInfo(String.format("time spent throttled by rate limits. throttled time=[%dms]",
+                    rateLimiter.getThrottledMillis()));
+        }
     }
 
     /**
@@ -502,6 +1075,8 @@ public class MailSender extends BatchAction<SqlRow> {
 
     /**
      * 処理ステータスを正常終了に更新する。
+     * <p/>
+     * {@link MailConfig#getStatusSending()}が設定されている場合は、送信中に更新する。
      *
      * @param data 送信対象データ
      * @param context 実行コンテキスト
@@ -512,6 +1087,8 @@ public class MailSender extends BatchAction<SqlRow> {
         final MailRequestTable.MailRequest mailRequest = mailRequestTable.getMailRequest(data);
         final MailConfig mailConfig = SystemRepository.get(SYSTEM_REPOSITORY_KEY_MAIL_CONFIG);
 
-        mailRequestTable.updateStatus(mailRequest.getMailRequestId(), mailConfig.getStatusSent());
+        final String status = mailConfig.getStatusSending() != null
+                ? mailConfig.getStatusSending() : mailConfig.getStatusSent();
+        mailRequestTable.updateStatus(mailRequest.getMailRequestId(), status);
     }
 }
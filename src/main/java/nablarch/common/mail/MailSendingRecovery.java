@@ -0,0 +1,127 @@
+package nablarch.common.mail;
+
+import java.sql.Timestamp;
+
+import nablarch.core.date.SystemTimeUtil;
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
+import nablarch.core.util.annotation.Published;
+
+/**
+ * 送信中のまま残ったメール送信要求のステータスを回復するクラス。
+ * <p/>
+ * {@link MailConfig#setStatusSending(String)}を設定した場合、メール送信バッチのプロセスが送信中に停止すると、
+ * メール送信要求は送信中のまま残る。本クラスは、送信を開始してから{@link #setStaleMillis(long)}以上経過した
+ * 送信中のメール送信要求を、{@link #setPolicy(String)}で設定した方法で回復する。
+ * <ul>
+ * <li>{@link #RESEND}: 未送信に戻して再び送信する。送信済みのメールが重複して送信される可能性がある。</li>
+ * <li>{@link #FAIL}: 送信失敗とする。送信されていないメールは再送されない。(デフォルト)</li>
+ * <li>{@link #ASSUME_SENT}: 送信済みとする。送信されていないメールは送信済みとして扱われる。</li>
+ * </ul>
+ * <p/>
+ * システムリポジトリに"mailSendingRecovery"という名前で登録した場合、{@link MailSender}は読み込みの前に回復を行う。
+ * 常駐起動の場合は、{@link #setIntervalMillis(long)}の間隔で回復を行う。
+ * <p/>
+ * 送信中の時間が{@link #setStaleMillis(long)}を超えるメールは、送信中であっても回復の対象となるため、
+ * SMTPサーバの応答のタイムアウトより十分に長い時間を設定すること。
+ */
+@Published(tag = "architect")
+public class MailSendingRecovery {
+
+    /** 回復方法: 未送信に戻して再び送信する */
+    public static final String RESEND = "resend";
+
+    /** 回復方法: 送信失敗とする */
+    public static final String FAIL = "fail";
+
+    /** 回復方法: 送信済みとする */
+    public static final String ASSUME_SENT = "assumeSent";
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(MailSendingRecovery.class);
+
+    /** 回復の対象とする、送信を開始してからの経過時間(ミリ秒) */
+    private long staleMillis = 10L * 60L * 1000L;
+
+    /** 回復方法 */
+    private String policy = FAIL;
+
+    /** 回復を行う間隔(ミリ秒) */
+    private long intervalMillis = 60000L;
+
+    /** 前回回復を行った時刻(ミリ秒。回復を行っていない場合は-1) */
+    private long lastRecoveredMillis = -1L;
+
+    /**
+     * 回復の対象とする、送信を開始してからの経過時間(ミリ秒)を設定する。
+     * <p/>
+     * デフォルトは10分。
+     *
+     * @param staleMillis 回復の対象とする、送信を開始してからの経過時間(ミリ秒)
+     */
+    public void setStaleMillis(long staleMillis) {
+        this.staleMillis = staleMillis;
+    }
+
+    /**
+     * 回復方法を設定する。
+     * <p/>
+     * {@link #RESEND}、{@link #FAIL}または{@link #ASSUME_SENT}を設定する。デフォルトは{@link #FAIL}。
+     *
+     * @param policy 回復方法
+     */
+    public void setPolicy(String policy) {
+        if (!RESEND.equals(policy) && !FAIL.equals(policy) && !ASSUME_SENT.equals(policy)) {
+            throw new IllegalArgumentException("invalid policy. policy=[" + policy + ']');
+        }
+        this.policy = policy;
+    }
+
+    /**
+     * 回復を行う間隔(ミリ秒)を設定する。
+     * <p/>
+     * デフォルトは1分。
+     *
+     * @param intervalMillis 回復を行う間隔(ミリ秒)
+     */
+    public void setIntervalMillis(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * 送信中のまま残ったメール送信要求のステータスを回復する。
+     * <p/>
+     * 前回の回復から{@link #setIntervalMillis(long)}が経過していない場合は何もしない。
+     * 回復したメール送信要求がある場合は、件数をWARNレベルでログに出力する。
+     *
+     * @param mailRequestTable メール送信要求管理テーブルのスキーマ情報
+     * @param mailConfig メール関連のコード値を保持するデータオブジェクト
+     * @return 回復した件数
+     */
+    public int recover(MailRequestTable mailRequestTable, MailConfig mailConfig) {
+        if (mailConfig.getStatusSending() == null) {
+            return 0;
+        }
+        final long now = SystemTimeUtil.getDate().getTime();
+        synchronized (this) {
+            if (lastRecoveredMillis >= 0 && now - lastRecoveredMillis < intervalMillis) {
+                return 0;
+            }
+            lastRecoveredMillis = now;
+        }
+        final String status;
+        if (RESEND.equals(policy)) {
+            status = mailConfig.getStatusUnsent();
+        } else if (ASSUME_SENT.equals(policy)) {
+            status = mailConfig.getStatusSent();
+        } else {
+            status = mailConfig.getStatusFailure();
+        }
+        final int count = mailRequestTable.updateStaleSendingStatus(status, new Timestamp(now - staleMillis));
+        if (count > 0) {
+            LOGGER.logWarn(String.format("recovered mail requests left in sending status. policy=[%s] count=[%d]",
+                    policy, count));
+        }
+        return count;
+    }
+}
@@ -0,0 +1,84 @@
+package nablarch.common.mail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
+
+/**
+ * 送信に成功したメール送信要求を保持し、{@link MailRequestTable#getSentStatusBatchSize()}件ごとに
+ * まとめて送信済みに更新するクラス。
+ * <p/>
+ * 更新に失敗した場合は、メール送信要求は送信中のまま残り、{@link MailSendingRecovery}による回復の対象となる。
+ */
+final class MailSentStatusBuffer {
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(MailSentStatusBuffer.class);
+
+    /** 送信済みに更新していないメールリクエストID */
+    private final List<String> pending = new ArrayList<String>();
+
+    /**
+     * 送信に成功したメール送信要求を追加する。
+     * <p/>
+     * 保持する件数がまとめて更新する件数に達した場合は、送信済みに更新する。
+     *
+     * @param mailRequestTable メール送信要求管理テーブルのスキーマ情報
+     * @param mailRequestId メールリクエストID
+     */
+    void add(MailRequestTable mailRequestTable, String mailRequestId) {
+        final List<String> batch;
+        synchronized (this) {
+            pending.add(mailRequestId);
+            if (pending.size() < mailRequestTable.getSentStatusBatchSize()) {
+                return;
+            }
+            batch = drain();
+        }
+        write(mailRequestTable, batch);
+    }
+
+    /**
+     * 保持する全てのメール送信要求を送信済みに更新する。
+     *
+     * @param mailRequestTable メール送信要求管理テーブルのスキーマ情報
+     */
+    void flush(MailRequestTable mailRequestTable) {
+        final List<String> batch;
+        synchronized (this) {
+            batch = drain();
+        }
+        write(mailRequestTable, batch);
+    }
+
+    /**
+     * 保持するメールリクエストIDを取り出す。
+     *
+     * @return 取り出したメールリクエストID
+     */
+    private List<String> drain() {
+        final List<String> batch = new ArrayList<String>(pending);
+        pending.clear();
+        return batch;
+    }
+
+    /**
+     * メール送信要求を送信済みに更新する。
+     *
+     * @param mailRequestTable メール送信要求管理テーブルのスキーマ情報
+     * @param batch メールリクエストID
+     */
+    private static void write(MailRequestTable mailRequestTable, List<String> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            mailRequestTable.updateSentStatus(batch);
+        } catch (RuntimeException e) {
+            LOGGER.logWarn("failed to update status to sent. these mail requests remain in sending status. "
+                    + "mailRequestIds=" + batch, e);
+        }
+    }
+}
@@ -28,6 +28,9 @@ public class MailSessionConfig {
     /** その他javax.mail.Sessionのオプション */
     private Map<String, String> option = new HashMap<String, String>();
 
+    /** SMTPの送信に使用するjavax.mail.Transportの実装クラス名 */
+    private String transportClassName;
+
     /**
      * SMTPサーバー名を取得する。
      * 
@@ -140,4 +143,26 @@ public class MailSessionConfig {
     public void setOption(Map<String, String> option) {
         this.option = option;
     }
+
+    /**
+     * SMTPの送信に使用するjavax.mail.Transportの実装クラス名を取得する。
+     * 
+     * @return javax.mail.Transportの実装クラス名
+     */
+    public String getTransportClassName() {
+        return transportClassName;
+    }
+
+    /**
+     * SMTPの送信に使用するjavax.mail.Transportの実装クラス名を設定する。
+     * <p/>
+     * 設定しない場合は、JavaMailのデフォルトのSMTPプロバイダを使用する。
+     * ESMTPの拡張機能(8BITMIME、BINARYMIME、CHUNKING)を使用する場合は、
+     * {@link EsmtpTransport}を設定する。
+     * 
+     * @param transportClassName javax.mail.Transportの実装クラス名
+     */
+    public void setTransportClassName(String transportClassName) {
+        this.transportClassName = transportClassName;
+    }
 }
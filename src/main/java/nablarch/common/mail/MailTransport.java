@@ -0,0 +1,37 @@
+package nablarch.common.mail;
+
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+import nablarch.core.util.annotation.Published;
+
+/**
+ * {@link MailSender}がメールの送信に使用する送信方式を表すインタフェース。
+ * <p/>
+ * システムリポジトリに"mailTransport"という名前で実装クラスを登録した場合、
+ * {@link MailSender}は{@link javax.mail.Transport#send(javax.mail.Message)}の代わりに本インタフェースを使用してメールを送信する。
+ * <p/>
+ * 送信結果は{@link MailTransportCallback}で通知する。
+ * 通知は、{@link #send(Session, MimeMessage, MailTransportCallback)}の呼び出し元とは別のスレッドから行ってもよい。
+ */
+@Published(tag = "architect")
+public interface MailTransport {
+
+    /**
+     * メールを送信する。
+     * <p/>
+     * 送信が完了または失敗した時点で、コールバックに結果を通知する。
+     *
+     * @param session 送信に使用するメールセッション(SMTPサーバの接続先及び差し戻し先メールアドレスを保持する)
+     * @param message 送信するメッセージ
+     * @param callback 送信結果の通知先
+     */
+    void send(Session session, MimeMessage message, MailTransportCallback callback);
+
+    /**
+     * 送信中の全てのメールについて、送信結果の通知が完了するまで待機する。
+     *
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    void waitForCompletion() throws InterruptedException;
+}
@@ -0,0 +1,26 @@
+package nablarch.common.mail;
+
+import javax.mail.MessagingException;
+
+import nablarch.core.util.annotation.Published;
+
+/**
+ * {@link MailTransport}による送信結果の通知を受け取るインタフェース。
+ */
+@Published(tag = "architect")
+public interface MailTransportCallback {
+
+    /**
+     * 送信が完了したことを通知する。
+     */
+    void onSuccess();
+
+    /**
+     * 送信が失敗したことを通知する。
+     * <p/>
+     * 宛先の一部または全部が拒否された場合は、{@link javax.mail.SendFailedException}が通知される。
+     *
+     * @param e 送信失敗の原因
+     */
+    void onFailure(MessagingException e);
+}
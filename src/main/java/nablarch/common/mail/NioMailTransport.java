@@ -0,0 +1,905 @@
+package nablarch.common.mail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
+import nablarch.core.repository.disposal.Disposable;
+import nablarch.core.repository.initialization.Initializable;
+import nablarch.core.util.annotation.Published;
+
+/**
+ * ノンブロッキングI/Oを使用してSMTPでメールを送信する{@link MailTransport}の実装クラス。
+ * <p/>
+ * 少数のI/Oスレッドで多数のSMTPセッションを多重化するため、
+ * 送信スレッドがSMTPサーバの応答を待つことなく、次のメール送信要求の処理に進むことができる。
+ * 同時に処理するSMTPセッション数が上限に達した場合は、いずれかのセッションが完了するまで{@link #send}の呼び出し元を待機させる。
+ * <p/>
+ * メールは1通ごとに新しい接続で送信する。サーバがPIPELININGを広告している場合は、
+ * MAIL FROMコマンドとRCPT TOコマンドをまとめて送信する。
+ * 接続先、タイムアウト及び差し戻し先メールアドレスは、{@link #send}に渡されたメールセッションのプロパティ
+ * (mail.smtp.host、mail.smtp.port、mail.smtp.connectiontimeout、mail.smtp.timeout、mail.smtp.from、
+ * mail.smtp.localhost、mail.smtp.sendpartial)から取得する。
+ * I/Oスレッドを名前解決で止めないように、接続先のホスト名は{@link #send}の呼び出し元のスレッドで解決する。
+ * <p/>
+ * 本クラスはSTARTTLS及びSMTP認証には対応しない。これらが必要な場合は、本クラスを使用せずに
+ * {@link javax.mail.Transport}で送信すること。
+ * <p/>
+ * 本クラスは初期化時にI/Oスレッドを起動するため、初期化対象のリストに登録する必要がある。
+ */
+@Published(tag = "architect")
+public class NioMailTransport implements MailTransport, Initializable, Disposable {
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(NioMailTransport.class);
+
+    /** SMTPのデフォルトポート */
+    private static final int DEFAULT_PORT = 25;
+
+    /** タイムアウトの確認間隔(ミリ秒) */
+    private static final long SELECT_TIMEOUT = 100L;
+
+    /** I/Oスレッド数 */
+    private int ioThreadCount = 1;
+
+    /** 同時に処理するSMTPセッション数の上限 */
+    private int maxConcurrentSessions = 100;
+
+    /** SMTPセッション数の上限を管理するセマフォ */
+    private Semaphore sessionPermits;
+
+    /** I/Oスレッドで動作するイベントループ */
+    private EventLoop[] eventLoops;
+
+    /** 次にSMTPセッションを割り当てるイベントループ */
+    private final AtomicInteger nextEventLoop = new AtomicInteger();
+
+    /**
+     * I/Oスレッド数を設定する。
+     * <p/>
+     * デフォルトは1。
+     *
+     * @param ioThreadCount I/Oスレッド数
+     */
+    public void setIoThreadCount(int ioThreadCount) {
+        this.ioThreadCount = ioThreadCount;
+    }
+
+    /**
+     * 同時に処理するSMTPセッション数の上限を設定する。
+     * <p/>
+     * デフォルトは100。
+     *
+     * @param maxConcurrentSessions 同時に処理するSMTPセッション数の上限
+     */
+    public void setMaxConcurrentSessions(int maxConcurrentSessions) {
+        this.maxConcurrentSessions = maxConcurrentSessions;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * I/Oスレッドを起動する。
+     */
+    @Override
+    public void initialize() {
+        sessionPermits = new Semaphore(maxConcurrentSessions);
+        eventLoops = new EventLoop[ioThreadCount];
+        for (int i = 0; i < ioThreadCount; i++) {
+            final EventLoop eventLoop;
+            try {
+                eventLoop = new EventLoop();
+            } catch (IOException e) {
+                throw new IllegalStateException("failed to open selector.", e);
+            }
+            final Thread thread = new Thread(eventLoop, "NioMailTransport-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            eventLoops[i] = eventLoop;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * I/Oスレッドを停止する。処理中のSMTPセッションは失敗として通知する。
+     */
+    @Override
+    public void dispose() {
+        if (eventLoops == null) {
+            return;
+        }
+        for (EventLoop eventLoop : eventLoops) {
+            eventLoop.stop();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * メッセージを送信用のデータに変換した後、I/Oスレッドに送信を依頼して即座に復帰する。
+     * 同時に処理するSMTPセッション数が上限に達している場合は、空きができるまで待機する。
+     */
+    @Override
+    public void send(Session session, MimeMessage message, MailTransportCallback callback) {
+        final Delivery delivery;
+        try {
+            delivery = new Delivery(session, message, callback);
+        } catch (MessagingException e) {
+            callback.onFailure(e);
+            return;
+        }
+        try {
+            sessionPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            callback.onFailure(new MessagingException("interrupted while waiting for a SMTP session.", e));
+            return;
+        }
+        eventLoops[(nextEventLoop.getAndIncrement() & Integer.MAX_VALUE) % eventLoops.length].register(delivery);
+    }
+
+    @Override
+    public void waitForCompletion() throws InterruptedException {
+        sessionPermits.acquire(maxConcurrentSessions);
+        sessionPermits.release(maxConcurrentSessions);
+    }
+
+    /**
+     * 処理中のSMTPセッション数を取得する。
+     *
+     * @return 処理中のSMTPセッション数
+     */
+    public int getActiveSessionCount() {
+        return maxConcurrentSessions - sessionPermits.availablePermits();
+    }
+
+    /**
+     * SMTPセッションの状態。
+     */
+    private enum State {
+        /** 接続中 */
+        CONNECT,
+        /** 接続時の応答待ち */
+        GREETING,
+        /** EHLOコマンドの応答待ち */
+        EHLO,
+        /** HELOコマンドの応答待ち */
+        HELO,
+        /** MAIL FROMコマンドの応答待ち */
+        MAIL,
+        /** RCPT TOコマンドの応答待ち */
+        RCPT,
+        /** DATAコマンドの応答待ち */
+        DATA,
+        /** メッセージ送信後の応答待ち */
+        BODY,
+        /** QUITコマンドの応答待ち */
+        QUIT
+    }
+
+    /**
+     * 1通のメールを送信するSMTPセッション。
+     * <p/>
+     * I/Oスレッドからのみ操作される。
+     */
+    private final class Delivery {
+
+        /** 接続先ホスト */
+        private final String host;
+
+        /** 接続先ポート */
+        private final int port;
+
+        /** 接続先アドレス(名前解決済み) */
+        private final InetSocketAddress address;
+
+        /** 接続タイムアウト(ミリ秒、0の場合は無制限) */
+        private final long connectionTimeout;
+
+        /** 応答タイムアウト(ミリ秒、0の場合は無制限) */
+        private final long timeout;
+
+        /** EHLOコマンドで通知するホスト名 */
+        private final String localHost;
+
+        /** MAIL FROMコマンドで通知する送信者 */
+        private final String from;
+
+        /** 宛先 */
+        private final Address[] addresses;
+
+        /** 無効な宛先が含まれる場合に、有効な宛先にのみ送信するか否か */
+        private final boolean sendPartial;
+
+        /** DATAコマンドで送信するデータ(終端を含む) */
+        private final byte[] data;
+
+        /** 送信結果の通知先 */
+        private final MailTransportCallback callback;
+
+        /** 状態 */
+        private State state = State.CONNECT;
+
+        /** チャネル */
+        private SocketChannel channel;
+
+        /** セレクションキー */
+        private SelectionKey key;
+
+        /** 読み込みバッファ */
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(4096);
+
+        /** 読み込み中の行 */
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        /** 読み込み中の応答 */
+        private final StringBuilder response = new StringBuilder();
+
+        /** 送信待ちのデータ */
+        private final Queue<ByteBuffer> writeQueue = new LinkedList<ByteBuffer>();
+
+        /** PIPELININGを使用するか否か */
+        private boolean pipelining;
+
+        /** MAIL FROMコマンドが拒否された場合の応答 */
+        private String mailFromRejected;
+
+        /** 応答を受け取ったRCPT TOコマンドの数 */
+        private int rcptIndex;
+
+        /** 受け付けられた宛先 */
+        private final List<Address> accepted = new ArrayList<Address>();
+
+        /** 一時的に拒否された宛先 */
+        private final List<Address> validUnsent = new ArrayList<Address>();
+
+        /** 無効な宛先 */
+        private final List<Address> invalid = new ArrayList<Address>();
+
+        /** タイムアウトの期限(0の場合は無制限) */
+        private long deadline;
+
+        /** 送信結果を通知済みか否か */
+        private boolean completed;
+
+        /**
+         * コンストラクタ。
+         * <p/>
+         * メッセージを送信用のデータに変換する。
+         *
+         * @param session メールセッション
+         * @param message メッセージ
+         * @param callback 送信結果の通知先
+         * @throws MessagingException メッセージの変換に失敗した場合
+         */
+        private Delivery(Session session, MimeMessage message, MailTransportCallback callback)
+                throws MessagingException {
+            this.callback = callback;
+            host = session.getProperty("mail.smtp.host");
+            port = getInt(session, "mail.smtp.port", DEFAULT_PORT);
+            connectionTimeout = getInt(session, "mail.smtp.connectiontimeout", 0);
+            timeout = getInt(session, "mail.smtp.timeout", 0);
+            if (host == null) {
+                throw new MessagingException("mail.smtp.host must be set.");
+            }
+            try {
+                address = new InetSocketAddress(host, port);
+            } catch (IllegalArgumentException e) {
+                throw new MessagingException("invalid SMTP port: " + port, e);
+            }
+            if (address.isUnresolved()) {
+                throw new MessagingException("unknown SMTP host: " + host);
+            }
+            localHost = getLocalHost(session);
+            sendPartial = Boolean.parseBoolean(session.getProperty("mail.smtp.sendpartial"));
+
+            final String returnPath = session.getProperty("mail.smtp.from");
+            if (returnPath != null) {
+                from = returnPath;
+            } else {
+                final Address[] fromAddresses = message.getFrom();
+                from = fromAddresses != null && fromAddresses.length > 0
+                        ? ((InternetAddress) fromAddresses[0]).getAddress()
+                        : InternetAddress.getLocalAddress(session).getAddress();
+            }
+            addresses = message.getAllRecipients();
+            if (addresses == null || addresses.length == 0) {
+                throw new SendFailedException("No recipient addresses");
+            }
+
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                final DotStuffingOutputStream dataStream = new DotStuffingOutputStream(out);
+                message.writeTo(dataStream);
+                dataStream.finish();
+            } catch (IOException e) {
+                throw new MessagingException("failed to write message.", e);
+            }
+            data = out.toByteArray();
+        }
+
+        /**
+         * 接続を開始する。
+         *
+         * @param selector セレクタ
+         * @throws IOException 接続の開始に失敗した場合
+         */
+        private void open(Selector selector) throws IOException {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            extendDeadline(connectionTimeout);
+            if (channel.connect(address)) {
+                key = channel.register(selector, SelectionKey.OP_READ, this);
+                connected();
+            } else {
+                key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+            }
+        }
+
+        /**
+         * 接続が完了した場合の処理を行う。
+         */
+        private void connected() {
+            state = State.GREETING;
+            extendDeadline(timeout);
+        }
+
+        /**
+         * 選択されたI/O操作を実行する。
+         *
+         * @throws IOException 入出力に失敗した場合
+         */
+        private void handle() throws IOException {
+            if (key.isConnectable()) {
+                channel.finishConnect();
+                key.interestOps(SelectionKey.OP_READ);
+                connected();
+                return;
+            }
+            if (key.isWritable()) {
+                flush();
+            }
+            if (key.isValid() && key.isReadable()) {
+                read();
+            }
+        }
+
+        /**
+         * サーバからの応答を読み込み、完了した応答ごとに処理する。
+         *
+         * @throws IOException 入出力に失敗した場合
+         */
+        private void read() throws IOException {
+            readBuffer.clear();
+            final int length = channel.read(readBuffer);
+            if (length == -1) {
+                throw new IOException("connection closed by SMTP server");
+            }
+            extendDeadline(timeout);
+            readBuffer.flip();
+            while (readBuffer.hasRemaining() && channel.isOpen()) {
+                final byte b = readBuffer.get();
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+                String text = line.toString("ISO-8859-1");
+                line.reset();
+                if (text.endsWith("\r")) {
+                    text = text.substring(0, text.length() - 1);
+                }
+                if (response.length() > 0) {
+                    response.append("\r\n");
+                }
+                response.append(text);
+                if (text.length() > 3 && text.charAt(3) == '-') {
+                    continue;
+                }
+                final String serverResponse = response.toString();
+                response.setLength(0);
+                onResponse(parseCode(text), serverResponse);
+            }
+        }
+
+        /**
+         * 応答に応じて次のコマンドを送信する。
+         *
+         * @param code 応答コード
+         * @param serverResponse 応答
+         * @throws IOException 入出力に失敗した場合
+         */
+        private void onResponse(int code, String serverResponse) throws IOException {
+            switch (state) {
+                case GREETING:
+                    if (code != 220) {
+                        fail(new MessagingException("could not connect to SMTP host: " + host + ", port: " + port
+                                + ", response: " + serverResponse));
+                        return;
+                    }
+                    command("EHLO " + localHost, State.EHLO);
+                    break;
+                case EHLO:
+                    if (code != 250) {
+                        command("HELO " + localHost, State.HELO);
+                        return;
+                    }
+                    pipelining = advertises(serverResponse, "PIPELINING");
+                    startEnvelope();
+                    break;
+                case HELO:
+                    if (code != 250) {
+                        fail(new MessagingException(serverResponse));
+                        return;
+                    }
+                    startEnvelope();
+                    break;
+                case MAIL:
+                    if (code != 250) {
+                        if (!pipelining) {
+                            validUnsent.addAll(Arrays.asList(addresses));
+                            failSend(serverResponse);
+                            return;
+                        }
+                        mailFromRejected = serverResponse;
+                    }
+                    state = State.RCPT;
+                    if (!pipelining) {
+                        write(rcptTo(addresses[0]));
+                    }
+                    break;
+                case RCPT:
+                    onRcptResponse(code);
+                    break;
+                case DATA:
+                    if (code != 354) {
+                        validUnsent.addAll(0, accepted);
+                        failSend(serverResponse);
+                        return;
+                    }
+                    state = State.BODY;
+                    write(data);
+                    break;
+                case BODY:
+                    if (code != 250) {
+                        validUnsent.addAll(0, accepted);
+                        failSend(serverResponse);
+                        return;
+                    }
+                    if (invalid.isEmpty() && validUnsent.isEmpty()) {
+                        complete(null);
+                    } else {
+                        complete(new SendFailedException("Invalid Addresses", null, toArray(accepted),
+                                toArray(validUnsent), toArray(invalid)));
+                    }
+                    command("QUIT", State.QUIT);
+                    break;
+                case QUIT:
+                    close();
+                    break;
+                default:
+                    fail(new MessagingException("unexpected response: " + serverResponse));
+                    break;
+            }
+        }
+
+        /**
+         * RCPT TOコマンドの応答を処理する。
+         *
+         * @param code 応答コード
+         * @throws IOException 入出力に失敗した場合
+         */
+        private void onRcptResponse(int code) throws IOException {
+            final Address address = addresses[rcptIndex++];
+            if (code == 250 || code == 251) {
+                accepted.add(address);
+            } else if (code >= 500) {
+                invalid.add(address);
+            } else {
+                validUnsent.add(address);
+            }
+            if (rcptIndex < addresses.length) {
+                if (!pipelining) {
+                    write(rcptTo(addresses[rcptIndex]));
+                }
+                return;
+            }
+            if (mailFromRejected != null) {
+                validUnsent.clear();
+                invalid.clear();
+                accepted.clear();
+                validUnsent.addAll(Arrays.asList(addresses));
+                failSend(mailFromRejected);
+                return;
+            }
+            if (accepted.isEmpty() || (accepted.size() < addresses.length && !sendPartial)) {
+                validUnsent.addAll(0, accepted);
+                accepted.clear();
+                failSend("Invalid Addresses");
+                return;
+            }
+            command("DATA", State.DATA);
+        }
+
+        /**
+         * エンベロープの送信を開始する。
+         * <p/>
+         * PIPELININGを使用する場合は、MAIL FROMコマンドと全てのRCPT TOコマンドをまとめて送信する。
+         *
+         * @throws IOException 入出力に失敗した場合
+         */
+        private void startEnvelope() throws IOException {
+            final StringBuilder commands = new StringBuilder("MAIL FROM:<").append(from).append(">\r\n");
+            if (pipelining) {
+                for (Address address : addresses) {
+                    commands.append("RCPT TO:<").append(((InternetAddress) address).getAddress()).append(">\r\n");
+                }
+            }
+            state = State.MAIL;
+            write(commands.toString().getBytes("US-ASCII"));
+        }
+
+        /**
+         * コマンドを送信し、状態を遷移する。
+         *
+         * @param command コマンド
+         * @param next 遷移先の状態
+         * @throws IOException 入出力に失敗した場合
+         */
+        private void command(String command, State next) throws IOException {
+            state = next;
+            write((command + "\r\n").getBytes("US-ASCII"));
+        }
+
+        /**
+         * データを送信する。
+         * <p/>
+         * 一度に送信できなかったデータは、書き込み可能になった時点で送信する。
+         *
+         * @param bytes データ
+         * @throws IOException 入出力に失敗した場合
+         */
+        private void write(byte[] bytes) throws IOException {
+            writeQueue.add(ByteBuffer.wrap(bytes));
+            flush();
+        }
+
+        /**
+         * 送信待ちのデータを送信する。
+         *
+         * @throws IOException 入出力に失敗した場合
+         */
+        private void flush() throws IOException {
+            while (!writeQueue.isEmpty()) {
+                final ByteBuffer buffer = writeQueue.peek();
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                writeQueue.remove();
+                extendDeadline(timeout);
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        /**
+         * 宛先の拒否などにより送信が失敗したことを通知し、接続を閉じる。
+         *
+         * @param message 例外メッセージ
+         */
+        private void failSend(String message) {
+            fail(new SendFailedException(message, null, null, toArray(validUnsent), toArray(invalid)));
+        }
+
+        /**
+         * 送信が失敗したことを通知し、接続を閉じる。
+         *
+         * @param e 送信失敗の原因
+         */
+        private void fail(MessagingException e) {
+            complete(e);
+            close();
+        }
+
+        /**
+         * 送信結果を通知する。既に通知済みの場合は何もしない。
+         *
+         * @param e 送信失敗の原因(成功した場合は{@code null})
+         */
+        private void complete(MessagingException e) {
+            if (completed) {
+                return;
+            }
+            completed = true;
+            try {
+                if (e == null) {
+                    callback.onSuccess();
+                } else {
+                    callback.onFailure(e);
+                }
+            } catch (RuntimeException re) {
+                LOGGER.logWarn("failed to notify the result of sending a mail.", re);
+            } finally {
+                sessionPermits.release();
+            }
+        }
+
+        /**
+         * 接続を閉じる。
+         */
+        private void close() {
+            if (key != null) {
+                key.cancel();
+            }
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // 切断時の例外は無視する。
+                }
+            }
+        }
+
+        /**
+         * タイムアウトの期限を延長する。
+         *
+         * @param millis 現在からの猶予(ミリ秒、0の場合は無制限)
+         */
+        private void extendDeadline(long millis) {
+            deadline = millis > 0 ? System.currentTimeMillis() + millis : 0;
+        }
+
+        /**
+         * タイムアウトの期限を過ぎている場合は、送信が失敗したことを通知して接続を閉じる。
+         *
+         * @param now 現在時刻
+         */
+        private void checkTimeout(long now) {
+            if (deadline > 0 && now > deadline) {
+                if (state == State.QUIT) {
+                    close();
+                } else {
+                    fail(new MessagingException("timed out in state " + state + ". host: " + host
+                            + ", port: " + port));
+                }
+            }
+        }
+    }
+
+    /**
+     * I/Oスレッドで動作し、割り当てられたSMTPセッションの入出力を処理するイベントループ。
+     */
+    private final class EventLoop implements Runnable {
+
+        /** セレクタ */
+        private final Selector selector;
+
+        /** 登録待ちのSMTPセッション */
+        private final Queue<Delivery> pending = new ConcurrentLinkedQueue<Delivery>();
+
+        /** 動作中か否か */
+        private volatile boolean running = true;
+
+        /**
+         * コンストラクタ。
+         *
+         * @throws IOException セレクタのオープンに失敗した場合
+         */
+        private EventLoop() throws IOException {
+            selector = Selector.open();
+        }
+
+        /**
+         * SMTPセッションを登録する。
+         *
+         * @param delivery SMTPセッション
+         */
+        private void register(Delivery delivery) {
+            pending.add(delivery);
+            selector.wakeup();
+            if (!running) {
+                abortPending();
+            }
+        }
+
+        /**
+         * イベントループを停止する。
+         */
+        private void stop() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select(SELECT_TIMEOUT);
+                } catch (IOException e) {
+                    LOGGER.logWarn("failed to select channels.", e);
+                    continue;
+                }
+                openPending();
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    final Delivery delivery = (Delivery) key.attachment();
+                    try {
+                        if (key.isValid()) {
+                            delivery.handle();
+                        }
+                    } catch (IOException e) {
+                        delivery.fail(new MessagingException("failed to send a mail. host: " + delivery.host
+                                + ", port: " + delivery.port, e));
+                    } catch (RuntimeException e) {
+                        // 想定外の応答などによる例外でI/Oスレッドを停止させず、このSMTPセッションのみを失敗とする。
+                        delivery.fail(new MessagingException("failed to send a mail. host: " + delivery.host
+                                + ", port: " + delivery.port, e));
+                    }
+                }
+                final long now = System.currentTimeMillis();
+                for (SelectionKey key : selector.keys()) {
+                    ((Delivery) key.attachment()).checkTimeout(now);
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                ((Delivery) key.attachment()).fail(new MessagingException("mail transport was disposed."));
+            }
+            abortPending();
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+                // 停止時の例外は無視する。
+            }
+        }
+
+        /**
+         * 登録待ちのSMTPセッションの接続を開始する。
+         */
+        private void openPending() {
+            Delivery delivery;
+            while ((delivery = pending.poll()) != null) {
+                try {
+                    delivery.open(selector);
+                } catch (IOException e) {
+                    delivery.fail(new MessagingException("could not connect to SMTP host: " + delivery.host
+                            + ", port: " + delivery.port, e));
+                } catch (RuntimeException e) {
+                    delivery.fail(new MessagingException("could not connect to SMTP host: " + delivery.host
+                            + ", port: " + delivery.port, e));
+                }
+            }
+        }
+
+        /**
+         * 登録待ちのSMTPセッションを失敗として通知する。
+         */
+        private void abortPending() {
+            Delivery delivery;
+            while ((delivery = pending.poll()) != null) {
+                delivery.fail(new MessagingException("mail transport was disposed."));
+            }
+        }
+    }
+
+    /**
+     * EHLOコマンドの応答が指定された拡張機能を含むか否か。
+     *
+     * @param ehloResponse EHLOコマンドの応答
+     * @param extension 拡張機能のキーワード
+     * @return 含む場合は{@code true}
+     */
+    private static boolean advertises(String ehloResponse, String extension) {
+        final String[] lines = ehloResponse.split("\r\n");
+        for (int i = 1; i < lines.length; i++) {
+            if (lines[i].length() > 4) {
+                final String keyword = lines[i].substring(4).split(" ")[0];
+                if (keyword.toUpperCase(Locale.ENGLISH).equals(extension)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * RCPT TOコマンドを組み立てる。
+     *
+     * @param address 宛先
+     * @return RCPT TOコマンド
+     * @throws IOException 文字コードの変換に失敗した場合
+     */
+    private static byte[] rcptTo(Address address) throws IOException {
+        return ("RCPT TO:<" + ((InternetAddress) address).getAddress() + ">\r\n").getBytes("US-ASCII");
+    }
+
+    /**
+     * 応答コードを取得する。
+     *
+     * @param line 応答の最終行
+     * @return 応答コード(応答が不正な場合は-1)
+     */
+    private static int parseCode(String line) {
+        try {
+            return Integer.parseInt(line.substring(0, Math.min(3, line.length())));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 整数のセッションプロパティを取得する。
+     *
+     * @param session メールセッション
+     * @param name プロパティ名
+     * @param defaultValue デフォルト値
+     * @return プロパティの値
+     * @throws MessagingException プロパティの値が整数でない場合
+     */
+    private static int getInt(Session session, String name, int defaultValue) throws MessagingException {
+        final String value = session.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new MessagingException("invalid value of " + name + ": " + value, e);
+        }
+    }
+
+    /**
+     * EHLOコマンドで通知するホスト名を取得する。
+     *
+     * @param session メールセッション
+     * @return ホスト名
+     */
+    private static String getLocalHost(Session session) {
+        final String localHost = session.getProperty("mail.smtp.localhost");
+        if (localHost != null) {
+            return localHost;
+        }
+        try {
+            return InetAddress.getLocalHost().getCanonicalHostName();
+        } catch (UnknownHostException e) {
+            return "localhost";
+        }
+    }
+
+    /**
+     * アドレスのリストを配列に変換する。
+     *
+     * @param addresses アドレスのリスト
+     * @return アドレスの配列(リストが空の場合は{@code null})
+     */
+    private static Address[] toArray(List<Address> addresses) {
+        return addresses.isEmpty() ? null : addresses.toArray(new Address[addresses.size()]);
+    }
+}
@@ -0,0 +1,312 @@
+package nablarch.common.mail;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
+import nablarch.core.repository.disposal.Disposable;
+import nablarch.core.repository.initialization.Initializable;
+import nablarch.core.util.annotation.Published;
+
+/**
+ * メールの送信と送信結果の記録を、それぞれ独立したステージで処理する{@link MailTransport}の実装クラス。
+ * <p/>
+ * {@link MailSender}を処理するスレッド(メール送信要求の読み込み及びメッセージの作成)、
+ * 送信ステージ(SMTPでの送信)及び記録ステージ(送信結果の通知と送信ステータスの更新)を、
+ * 上限付きのキューで接続したパイプラインとして動作させる。
+ * 各ステージのスレッド数とキューの容量は個別に設定できるため、SMTPサーバの応答が遅い場合でも、
+ * 送信ステージのキューが満杯になるまではメール送信要求の読み込みとメッセージの作成を先行して行うことができる。
+ * <p/>
+ * キューが満杯の場合は、前段のステージを待機させる(バックプレッシャー)。
+ * 各ステージのキューに滞留している件数は{@link #getTransmitQueueDepth()}及び{@link #getRecordQueueDepth()}で取得できる。
+ * <p/>
+ * 本クラスは初期化時に各ステージのスレッドを起動するため、初期化対象のリストに登録する必要がある。
+ */
+@Published(tag = "architect")
+public class PipelinedMailTransport implements MailTransport, Initializable, Disposable {
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(PipelinedMailTransport.class);
+
+    /** 送信ステージのスレッド数 */
+    private int transmitThreadCount = 4;
+
+    /** 送信ステージのキューの容量 */
+    private int transmitQueueCapacity = 100;
+
+    /** 記録ステージのスレッド数 */
+    private int recordThreadCount = 1;
+
+    /** 記録ステージのキューの容量 */
+    private int recordQueueCapacity = 1000;
+
+    /** 送信ステージ */
+    private Stage transmitStage;
+
+    /** 記録ステージ */
+    private Stage recordStage;
+
+    /** パイプライン内で処理中の件数 */
+    private int inFlightCount;
+
+    /**
+     * 送信ステージのスレッド数を設定する。
+     * <p/>
+     * デフォルトは4。
+     *
+     * @param transmitThreadCount 送信ステージのスレッド数
+     */
+    public void setTransmitThreadCount(int transmitThreadCount) {
+        this.transmitThreadCount = transmitThreadCount;
+    }
+
+    /**
+     * 送信ステージのキューの容量を設定する。
+     * <p/>
+     * デフォルトは100。
+     *
+     * @param transmitQueueCapacity 送信ステージのキューの容量
+     */
+    public void setTransmitQueueCapacity(int transmitQueueCapacity) {
+        this.transmitQueueCapacity = transmitQueueCapacity;
+    }
+
+    /**
+     * 記録ステージのスレッド数を設定する。
+     * <p/>
+     * デフォルトは1。
+     *
+     * @param recordThreadCount 記録ステージのスレッド数
+     */
+    public void setRecordThreadCount(int recordThreadCount) {
+        this.recordThreadCount = recordThreadCount;
+    }
+
+    /**
+     * 記録ステージのキューの容量を設定する。
+     * <p/>
+     * デフォルトは1000。
+     *
+     * @param recordQueueCapacity 記録ステージのキューの容量
+     */
+    public void setRecordQueueCapacity(int recordQueueCapacity) {
+        this.recordQueueCapacity = recordQueueCapacity;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * 各ステージのスレッドを起動する。
+     */
+    @Override
+    public void initialize() {
+        transmitStage = new Stage("transmit", transmitThreadCount, transmitQueueCapacity);
+        recordStage = new Stage("record", recordThreadCount, recordQueueCapacity);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * 各ステージのスレッドを停止する。キューに残っているメールは送信されない。
+     */
+    @Override
+    public void dispose() {
+        if (transmitStage != null) {
+            transmitStage.stop();
+            recordStage.stop();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * 送信ステージのキューにメールを追加して復帰する。キューが満杯の場合は、空きができるまで待機する。
+     */
+    @Override
+    public void send(final Session session, final MimeMessage message, final MailTransportCallback callback) {
+        incrementInFlight();
+        try {
+            transmitStage.put(new Runnable() {
+                @Override
+                public void run() {
+                    transmit(message, callback);
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            decrementInFlight();
+            callback.onFailure(new MessagingException("interrupted while waiting for the transmit queue.", e));
+        }
+    }
+
+    /**
+     * メールを送信し、送信結果を記録ステージのキューに追加する。
+     *
+     * @param message メッセージ
+     * @param callback 送信結果の通知先
+     */
+    private void transmit(MimeMessage message, final MailTransportCallback callback) {
+        MessagingException failure = null;
+        try {
+            Transport.send(message);
+        } catch (MessagingException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            failure = new MessagingException("failed to send a mail.", e);
+        }
+
+        final MessagingException result = failure;
+        final Runnable record = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (result == null) {
+                        callback.onSuccess();
+                    } else {
+                        callback.onFailure(result);
+                    }
+                } finally {
+                    decrementInFlight();
+                }
+            }
+        };
+        try {
+            recordStage.put(record);
+        } catch (InterruptedException e) {
+            // 停止中のため、送信結果の通知は送信ステージのスレッドで行う。
+            Thread.currentThread().interrupt();
+            record.run();
+        }
+    }
+
+    @Override
+    public synchronized void waitForCompletion() throws InterruptedException {
+        while (inFlightCount > 0) {
+            wait();
+        }
+    }
+
+    /**
+     * パイプライン内で処理中の件数を加算する。
+     */
+    private synchronized void incrementInFlight() {
+        inFlightCount++;
+    }
+
+    /**
+     * パイプライン内で処理中の件数を減算する。
+     */
+    private synchronized void decrementInFlight() {
+        inFlightCount--;
+        notifyAll();
+    }
+
+    /**
+     * パイプライン内で処理中の件数を取得する。
+     *
+     * @return パイプライン内で処理中の件数
+     */
+    public synchronized int getInFlightCount() {
+        return inFlightCount;
+    }
+
+    /**
+     * 送信ステージのキューに滞留している件数を取得する。
+     *
+     * @return 送信ステージのキューに滞留している件数
+     */
+    public int getTransmitQueueDepth() {
+        return transmitStage.queue.size();
+    }
+
+    /**
+     * 記録ステージのキューに滞留している件数を取得する。
+     *
+     * @return 記録ステージのキューに滞留している件数
+     */
+    public int getRecordQueueDepth() {
+        return recordStage.queue.size();
+    }
+
+    /**
+     * 上限付きのキューと、キューからタスクを取り出して実行するスレッドで構成されるステージ。
+     */
+    private static final class Stage {
+
+        /** キュー */
+        private final BlockingQueue<Runnable> queue;
+
+        /** スレッド */
+        private final Thread[] threads;
+
+        /** 動作中か否か */
+        private volatile boolean running = true;
+
+        /**
+         * コンストラクタ。スレッドを起動する。
+         *
+         * @param name ステージ名
+         * @param threadCount スレッド数
+         * @param capacity キューの容量
+         */
+        private Stage(String name, int threadCount, int capacity) {
+            queue = new ArrayBlockingQueue<Runnable>(capacity);
+            threads = new Thread[threadCount];
+            for (int i = 0; i < threadCount; i++) {
+                threads[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        process();
+                    }
+                }, "PipelinedMailTransport-" + name + '-' + i);
+                threads[i].setDaemon(true);
+                threads[i].start();
+            }
+        }
+
+        /**
+         * タスクをキューに追加する。キューが満杯の場合は、空きができるまで待機する。
+         *
+         * @param task タスク
+         * @throws InterruptedException 待機中に割り込まれた場合
+         */
+        private void put(Runnable task) throws InterruptedException {
+            queue.put(task);
+        }
+
+        /**
+         * キューからタスクを取り出して実行する。
+         */
+        private void process() {
+            while (running) {
+                final Runnable task;
+                try {
+                    task = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOGGER.logWarn("failed to notify the result of sending a mail.", e);
+                }
+            }
+        }
+
+        /**
+         * スレッドを停止する。
+         */
+        private void stop() {
+            running = false;
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package nablarch.common.mail;
+
+import java.util.Map;
+
+import nablarch.core.util.annotation.Published;
+
+/**
+ * PostgreSQL用の{@link MailRequestClaimDialect}の実装クラス。
+ * <p/>
+ * UPDATE ... RETURNINGを使用し、取得したレコードをメールリクエストIDの順に返す。
+ * 他のプロセスが取得中のレコードはFOR UPDATE SKIP LOCKEDにより読み飛ばすため、PostgreSQL 9.5以降が必要となる。
+ */
+@Published(tag = "architect")
+public class PostgresMailRequestClaimDialect implements MailRequestClaimDialect {
+
+    @Override
+    public String createClaimAndFetchSql(String tableName, String mailRequestIdColumnName,
+            String sendProcessIdColumnName, String condition, Map<String, String> columns, int limit) {
+        final StringBuilder returning = new StringBuilder();
+        for (Map.Entry<String, String> column : columns.entrySet()) {
+            if (returning.length() > 0) {
+                returning.append(", ");
+            }
+            returning.append(column.getValue()).append(' ').append(column.getKey());
+        }
+        return "WITH CLAIMED AS ("
+                + "UPDATE " + tableName
+                + " SET " + sendProcessIdColumnName + " = ?"
+                + " WHERE " + mailRequestIdColumnName + " IN ("
+                + "SELECT " + mailRequestIdColumnName
+                + " FROM " + tableName
+                + " WHERE " + condition
+                + " AND " + sendProcessIdColumnName + " IS NULL"
+                + " ORDER BY " + mailRequestIdColumnName
+                + " LIMIT " + limit
+                + " FOR UPDATE SKIP LOCKED)"
+                + " RETURNING " + returning
+                + ") SELECT * FROM CLAIMED ORDER BY " + MailRequestTable.MAIL_REQUEST_ID_ALIAS;
+    }
+}
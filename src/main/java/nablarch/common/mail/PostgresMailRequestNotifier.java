@@ -0,0 +1,212 @@
+package nablarch.common.mail;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import nablarch.core.db.connection.AppDbConnection;
+import nablarch.core.db.connection.DbConnectionContext;
+import nablarch.core.db.statement.SqlPStatement;
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
+import nablarch.core.repository.disposal.Disposable;
+import nablarch.core.util.annotation.Published;
+
+/**
+ * PostgreSQLのLISTEN/NOTIFYを使用する{@link MailRequestNotifier}の実装クラス。
+ * <p/>
+ * メール送信要求を登録したトランザクションでpg_notifyを実行するため、通知はコミットされた場合にのみ配信される。
+ * そのため、{@link MailRequester}と{@link MailSender}が別のプロセスで動作する場合でも使用できる。
+ * <p/>
+ * 通知の受信には、{@link #setDataSource(DataSource)}で設定したデータソースから取得した専用の接続を使用する。
+ * 受信にはPostgreSQLのJDBCドライバ(org.postgresql.PGConnection#getNotifications(int))を使用するため、
+ * 同ドライバのバージョン42.2.0以降が必要となる。
+ * 受信に失敗した場合は、接続を破棄して通知を受けた場合と同様に復帰する(次回の待機時に接続し直す)。
+ * <p/>
+ * 本クラスは受信用の接続を保持するため、破棄対象のリストに登録する必要がある。
+ */
+@Published(tag = "architect")
+public class PostgresMailRequestNotifier implements MailRequestNotifier, Disposable {
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(PostgresMailRequestNotifier.class);
+
+    /** 受信に失敗した場合に、次に受信するまでの間隔(ミリ秒) */
+    private static final long RETRY_INTERVAL_MILLIS = 1000L;
+
+    /** 通知を発行するSQL */
+    private static final String NOTIFY_SQL = "SELECT pg_notify(?, '')";
+
+    /** 通知のチャネル名 */
+    private String channel = "mail_request";
+
+    /** 通知の受信に使用するデータソース */
+    private DataSource dataSource;
+
+    /** 通知を待つ最大の時間(ミリ秒) */
+    private int maxWaitMillis = 60000;
+
+    /** 通知の受信に使用する接続 */
+    private Connection listenConnection;
+
+    /** 通知を受信するドライバの接続 */
+    private Object pgConnection;
+
+    /** 通知を受信するメソッド */
+    private Method getNotifications;
+
+    /** 直前の読み込み時の未送信のメール送信要求の件数(読み込んでいない場合は-1) */
+    private volatile int lastTargetCount = -1;
+
+    /**
+     * 通知のチャネル名を設定する。
+     * <p/>
+     * 英小文字、数字及びアンダースコアのみ使用できる。デフォルトは"mail_request"。
+     *
+     * @param channel 通知のチャネル名
+     */
+    public void setChannel(String channel) {
+        if (!channel.matches("[a-z_][a-z0-9_]*")) {
+            throw new IllegalArgumentException("invalid channel name. channel=[" + channel + ']');
+        }
+        this.channel = channel;
+    }
+
+    /**
+     * 通知の受信に使用するデータソースを設定する。
+     *
+     * @param dataSource 通知の受信に使用するデータソース
+     */
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * 通知を待つ最大の時間(ミリ秒)を設定する。
+     * <p/>
+     * デフォルトは60秒。
+     *
+     * @param maxWaitMillis 通知を待つ最大の時間(ミリ秒)
+     */
+    public void setMaxWaitMillis(int maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    @Override
+    public void notifyRequested(String transactionName) {
+        final AppDbConnection connection = transactionName == null
+                ? DbConnectionContext.getConnection()
+                : DbConnectionContext.getConnection(transactionName);
+        final SqlPStatement statement = connection.prepareStatement(NOTIFY_SQL);
+        statement.setString(1, channel);
+        statement.retrieve();
+    }
+
+    @Override
+    public void recordPoll(int targetCount) {
+        lastTargetCount = targetCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * 前回の復帰以降に配信された通知がある場合は、直ちに復帰する。
+     */
+    @Override
+    public synchronized boolean awaitRequest() throws InterruptedException {
+        if (lastTargetCount != 0) {
+            return false;
+        }
+        try {
+            listen();
+            final Object notifications = getNotifications.invoke(pgConnection, maxWaitMillis);
+            return notifications != null && ((Object[]) notifications).length > 0;
+        } catch (SQLException e) {
+            onFailure(e);
+        } catch (InvocationTargetException e) {
+            onFailure(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+        // 受信に失敗した場合は、間隔をあけてから通知を受けた場合と同様に復帰する。
+        TimeUnit.MILLISECONDS.sleep(Math.min(maxWaitMillis, RETRY_INTERVAL_MILLIS));
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * 通知の受信に使用する接続を閉じる。
+     */
+    @Override
+    public synchronized void dispose() {
+        if (listenConnection != null) {
+            close(listenConnection);
+        }
+        listenConnection = null;
+        pgConnection = null;
+        getNotifications = null;
+    }
+
+    /**
+     * 通知の受信を開始する。受信中の場合は何もしない。
+     *
+     * @throws SQLException 接続またはLISTENの実行に失敗した場合
+     */
+    private void listen() throws SQLException {
+        if (listenConnection != null) {
+            return;
+        }
+        final Connection connection = dataSource.getConnection();
+        try {
+            connection.setAutoCommit(true);
+            final Statement statement = connection.createStatement();
+            try {
+                statement.execute("LISTEN " + channel);
+            } finally {
+                statement.close();
+            }
+            final Class<?> pgConnectionClass = Class.forName("org.postgresql.PGConnection");
+            pgConnection = connection.unwrap(pgConnectionClass);
+            getNotifications = pgConnectionClass.getMethod("getNotifications", int.class);
+        } catch (ClassNotFoundException e) {
+            close(connection);
+            throw new IllegalStateException("PostgreSQL JDBC driver is required.", e);
+        } catch (NoSuchMethodException e) {
+            close(connection);
+            throw new IllegalStateException("PostgreSQL JDBC driver 42.2.0 or later is required.", e);
+        } catch (SQLException e) {
+            close(connection);
+            throw e;
+        }
+        listenConnection = connection;
+    }
+
+    /**
+     * 受信に失敗した場合に、接続を破棄する。
+     *
+     * @param cause 失敗の原因
+     */
+    private void onFailure(Throwable cause) {
+        LOGGER.logWarn("failed to receive mail request notifications. channel=[" + channel + ']', cause);
+        dispose();
+    }
+
+    /**
+     * 接続を閉じる。閉じる際の例外は無視する。
+     *
+     * @param connection 接続
+     */
+    private static void close(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+            // 破棄する接続のため、例外は無視する。
+        }
+    }
+}
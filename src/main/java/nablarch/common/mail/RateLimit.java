@@ -0,0 +1,131 @@
+package nablarch.common.mail;
+
+import nablarch.core.util.annotation.Published;
+
+/**
+ * 送信レートの上限を保持するデータオブジェクト。
+ * <p/>
+ * 期間あたりに送信できる件数と、一度に送信できる件数(バースト)を設定する。
+ * 例えば、1秒あたり10件かつ1時間あたり10000件に制限する場合は、
+ * 対象が同じで期間が異なる2つの上限を設定する。
+ */
+@Published(tag = "architect")
+public class RateLimit {
+
+    /** 制限の対象(SMTPサーバのホスト名またはメール送信パターンID) */
+    private String target;
+
+    /** 期間あたりに送信できる件数 */
+    private long permits;
+
+    /** 期間(ミリ秒) */
+    private long periodMillis = 1000L;
+
+    /** 一度に送信できる件数(0以下の場合は期間あたりに送信できる件数) */
+    private long burst;
+
+    /** 複数のメール送信バッチで共有する上限か否か */
+    private boolean clusterWide;
+
+    /**
+     * 制限の対象を取得する。
+     *
+     * @return 制限の対象
+     */
+    public String getTarget() {
+        return target;
+    }
+
+    /**
+     * 制限の対象を設定する。
+     * <p/>
+     * SMTPサーバごとの上限の場合はSMTPサーバのホスト名、
+     * メール送信パターンごとの上限の場合はメール送信パターンIDを設定する。
+     *
+     * @param target 制限の対象
+     */
+    public void setTarget(String target) {
+        this.target = target;
+    }
+
+    /**
+     * 期間あたりに送信できる件数を取得する。
+     *
+     * @return 期間あたりに送信できる件数
+     */
+    public long getPermits() {
+        return permits;
+    }
+
+    /**
+     * 期間あたりに送信できる件数を設定する。
+     *
+     * @param permits 期間あたりに送信できる件数
+     */
+    public void setPermits(long permits) {
+        this.permits = permits;
+    }
+
+    /**
+     * 期間(ミリ秒)を取得する。
+     *
+     * @return 期間(ミリ秒)
+     */
+    public long getPeriodMillis() {
+        return periodMillis;
+    }
+
+    /**
+     * 期間(ミリ秒)を設定する。
+     * <p/>
+     * デフォルトは1秒。
+     *
+     * @param periodMillis 期間(ミリ秒)
+     */
+    public void setPeriodMillis(long periodMillis) {
+        this.periodMillis = periodMillis;
+    }
+
+    /**
+     * 一度に送信できる件数を取得する。
+     *
+     * @return 一度に送信できる件数
+     */
+    public long getBurst() {
+        return burst > 0 ? burst : permits;
+    }
+
+    /**
+     * 一度に送信できる件数(バースト)を設定する。
+     * <p/>
+     * 設定しない場合は、期間あたりに送信できる件数となる。
+     *
+     * @param burst 一度に送信できる件数
+     */
+    public void setBurst(long burst) {
+        this.burst = burst;
+    }
+
+    /**
+     * 複数のメール送信バッチで共有する上限か否かを取得する。
+     *
+     * @return 共有する上限の場合は{@code true}
+     */
+    public boolean isClusterWide() {
+        return clusterWide;
+    }
+
+    /**
+     * 複数のメール送信バッチで共有する上限か否かを設定する。
+     * <p/>
+     * {@code true}を設定した場合は、{@link MailRateLimitTable}で全てのメール送信バッチの送信件数を管理する。
+     * この場合、期間ごとに期間あたりの件数を払い出すため、バーストの設定は使用しない。
+     * <p/>
+     * デフォルトは{@code false}。
+     *
+     * @param clusterWide 共有する上限の場合は{@code true}
+     */
+    public void setClusterWide(boolean clusterWide) {
+        this.clusterWide = clusterWide;
+    }
+}
@@ -0,0 +1,241 @@
+package nablarch.common.mail;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.mail.Address;
+import javax.mail.internet.InternetAddress;
+
+import nablarch.core.util.annotation.Published;
+
+/**
+ * 宛先のドメインごとに、同時に送信する件数と送信レートを制限するクラス。
+ * <p/>
+ * ステータスを更新する前に、送信先管理テーブルに登録された全ての宛先のドメインについて上限に達していないかを判定する。
+ * いずれかのドメインが上限に達している場合、{@link MailSender}はそのメールを待機せずに未送信のまま残し、
+ * 次のメール送信要求の処理に進む。そのため、特定のドメインへの送信が集中した場合でも、
+ * 他のドメインへの送信が待たされることはない。未送信のまま残したメールは、後続の読み込みで再び処理対象となる。
+ * <p/>
+ * 上限は{@link #setDomainLimits(List)}でドメインごとに設定する。
+ * 個別に設定していないドメインには、{@link #setDefaultLimit(DomainLimit)}で設定した上限をドメインごとに適用する。
+ */
+@Published(tag = "architect")
+public class RecipientDomainLimiter {
+
+    /** ドメインごとの上限 */
+    private List<DomainLimit> domainLimits = Collections.emptyList();
+
+    /** 個別に設定していないドメインの上限 */
+    private DomainLimit defaultLimit;
+
+    /** ドメインごとの状態 */
+    private final Map<String, DomainState> domainStates = new HashMap<String, DomainState>();
+
+    /** ドメインごとの上限(キーは小文字のドメイン) */
+    private Map<String, DomainLimit> domainLimitMap;
+
+    /** 上限に達したために送信を見送った件数 */
+    private long deferredCount;
+
+    /**
+     * ドメインごとの上限を設定する。
+     *
+     * @param domainLimits ドメインごとの上限
+     */
+    public void setDomainLimits(List<DomainLimit> domainLimits) {
+        this.domainLimits = domainLimits;
+    }
+
+    /**
+     * 個別に設定していないドメインの上限を設定する。
+     * <p/>
+     * {@link DomainLimit#setDomain(String)}の設定は使用しない。
+     * 設定しない場合は、個別に設定していないドメインへの送信は制限しない。
+     *
+     * @param defaultLimit 個別に設定していないドメインの上限
+     */
+    public void setDefaultLimit(DomainLimit defaultLimit) {
+        this.defaultLimit = defaultLimit;
+    }
+
+    /**
+     * 全ての宛先のドメインについて送信を開始する。
+     * <p/>
+     * いずれかのドメインが上限に達している場合は、いずれのドメインについても送信を開始せずに{@code false}を返す。
+     * 送信を開始した場合は、送信の終了時に{@link #release(Address[])}を呼び出す必要がある。
+     *
+     * @param recipients 宛先
+     * @return 送信を開始した場合は{@code true}
+     */
+    public synchronized boolean tryAcquire(Address[] recipients) {
+        final Set<String> domains = getDomains(recipients);
+        final long now = currentTimeNanos();
+        for (String domain : domains) {
+            final DomainState state = getDomainState(domain, now);
+            if (state == null) {
+                continue;
+            }
+            if ((state.maxConcurrency > 0 && state.inFlightCount >= state.maxConcurrency)
+                    || (state.bucket != null && !state.bucket.hasToken(now))) {
+                deferredCount++;
+                return false;
+            }
+        }
+        for (String domain : domains) {
+            final DomainState state = getDomainState(domain, now);
+            if (state == null) {
+                continue;
+            }
+            state.inFlightCount++;
+            if (state.bucket != null) {
+                state.bucket.reserve(now);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 全ての宛先のドメインについて送信を終了する。
+     *
+     * @param recipients 宛先({@link #tryAcquire(Address[])}に指定したもの)
+     */
+    public synchronized void release(Address[] recipients) {
+        for (String domain : getDomains(recipients)) {
+            final DomainState state = domainStates.get(domain);
+            if (state != null && state.inFlightCount > 0) {
+                state.inFlightCount--;
+            }
+        }
+    }
+
+    /**
+     * ドメインへ送信中の件数を取得する。
+     *
+     * @param domain ドメイン
+     * @return 送信中の件数
+     */
+    public synchronized int getInFlightCount(String domain) {
+        final DomainState state = domainStates.get(domain.toLowerCase(Locale.ENGLISH));
+        return state == null ? 0 : state.inFlightCount;
+    }
+
+    /**
+     * 上限に達したために送信を見送った件数を取得する。
+     *
+     * @return 送信を見送った件数
+     */
+    public synchronized long getDeferredCount() {
+        return deferredCount;
+    }
+
+    /**
+     * 宛先のドメインを取得する。
+     *
+     * @param recipients 宛先
+     * @return 宛先のドメイン(小文字)
+     */
+    private static Set<String> getDomains(Address[] recipients) {
+        final Set<String> domains = new TreeSet<String>();
+        if (recipients == null) {
+            return domains;
+        }
+        for (Address recipient : recipients) {
+            if (recipient instanceof InternetAddress) {
+                final String address = ((InternetAddress) recipient).getAddress();
+                final int at = address.lastIndexOf('@');
+                if (at >= 0) {
+                    domains.add(address.substring(at + 1).toLowerCase(Locale.ENGLISH));
+                }
+            }
+        }
+        return domains;
+    }
+
+    /**
+     * ドメインの状態を取得する。存在しない場合は、ドメインの上限から生成する。
+     *
+     * @param domain ドメイン
+     * @param now 現在時刻(ナノ秒)
+     * @return ドメインの状態(ドメインに上限が設定されていない場合は{@code null})
+     */
+    private DomainState getDomainState(String domain, long now) {
+        DomainState state = domainStates.get(domain);
+        if (state == null) {
+            DomainLimit limit = getDomainLimitMap().get(domain);
+            if (limit == null) {
+                limit = defaultLimit;
+            }
+            if (limit == null) {
+                return null;
+            }
+            state = new DomainState(domain, limit, now);
+            domainStates.put(domain, state);
+        }
+        return state;
+    }
+
+    /**
+     * ドメインごとの上限を取得する。
+     *
+     * @return ドメインごとの上限(キーは小文字のドメイン)
+     */
+    private Map<String, DomainLimit> getDomainLimitMap() {
+        if (domainLimitMap == null) {
+            domainLimitMap = new HashMap<String, DomainLimit>();
+            for (DomainLimit limit : domainLimits) {
+                domainLimitMap.put(limit.getDomain().toLowerCase(Locale.ENGLISH), limit);
+            }
+        }
+        return domainLimitMap;
+    }
+
+    /**
+     * 現在時刻(ナノ秒)を取得する。
+     *
+     * @return 現在時刻(ナノ秒)
+     */
+    protected long currentTimeNanos() {
+        return System.nanoTime();
+    }
+
+    /**
+     * ドメインごとの状態。
+     */
+    private static final class DomainState {
+
+        /** 同時に送信する件数の上限(0以下の場合は制限しない) */
+        private final int maxConcurrency;
+
+        /** 送信レートを制限するトークンバケット(制限しない場合は{@code null}) */
+        private final TokenBucket bucket;
+
+        /** 送信中の件数 */
+        private int inFlightCount;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param domain ドメイン
+         * @param limit ドメインの上限
+         * @param now 現在時刻(ナノ秒)
+         */
+        private DomainState(String domain, DomainLimit limit, long now) {
+            maxConcurrency = limit.getMaxConcurrency();
+            if (limit.getPermits() > 0) {
+                final RateLimit rateLimit = new RateLimit();
+                rateLimit.setTarget(domain);
+                rateLimit.setPermits(limit.getPermits());
+                rateLimit.setPeriodMillis(limit.getPeriodMillis());
+                rateLimit.setBurst(limit.getBurst());
+                bucket = new TokenBucket(rateLimit, now);
+            } else {
+                bucket = null;
+            }
+        }
+    }
+}
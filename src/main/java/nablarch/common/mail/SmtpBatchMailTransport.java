@@ -0,0 +1,70 @@
+package nablarch.common.mail;
+
+import java.util.List;
+
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+
+import nablarch.core.util.annotation.Published;
+
+/**
+ * まとめたメールを1つのSMTP接続で連続して送信する{@link MailTransport}の実装クラス。
+ * <p/>
+ * SMTPサーバ、ポート番号及び差し戻し先メールアドレスが等しいメールをまとめ、
+ * 1回の接続でメールごとにSMTPのトランザクションを繰り返して送信する。
+ * メールごとに接続及び切断を行う場合と比べて、接続の確立(TLS及び認証を含む)にかかる時間を削減できる。
+ * <p/>
+ * 接続にはメールセッションのプロパティ及びプロバイダの設定を使用する。
+ * 宛先の拒否({@link SendFailedException})は該当するメールのみの送信失敗として通知し、後続のメールの送信を続ける。
+ * それ以外の理由で接続が切断された場合は、後続のメールを送信失敗として通知する。
+ */
+@Published(tag = "architect")
+public class SmtpBatchMailTransport extends BatchingMailTransport {
+
+    @Override
+    protected void deliver(List<BatchEntry> batch) {
+        final Transport transport;
+        try {
+            transport = batch.get(0).getSession().getTransport("smtp");
+            transport.connect();
+        } catch (MessagingException e) {
+            failRemaining(batch, e);
+            return;
+        }
+        try {
+            for (BatchEntry entry : batch) {
+                final MimeMessage message = entry.getMessage();
+                try {
+                    transport.sendMessage(message, message.getAllRecipients());
+                    entry.succeeded();
+                } catch (MessagingException e) {
+                    entry.failed(e);
+                    if (!transport.isConnected()) {
+                        failRemaining(batch, new MessagingException("connection to SMTP server was closed.", e));
+                        return;
+                    }
+                }
+            }
+        } finally {
+            try {
+                transport.close();
+            } catch (MessagingException ignored) {
+                // 送信結果は通知済みのため、切断時の例外は無視する。
+            }
+        }
+    }
+
+    /**
+     * 送信結果を通知していないメールを送信失敗として通知する。
+     *
+     * @param batch まとめたメール
+     * @param e 送信失敗の原因
+     */
+    private static void failRemaining(List<BatchEntry> batch, MessagingException e) {
+        for (BatchEntry entry : batch) {
+            entry.failed(e);
+        }
+    }
+}
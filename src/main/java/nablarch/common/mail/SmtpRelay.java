@@ -0,0 +1,91 @@
+package nablarch.common.mail;
+
+import nablarch.core.util.annotation.Published;
+
+/**
+ * メールの送信に使用するSMTPサーバ(リレー)の設定を保持するデータオブジェクト。
+ */
+@Published(tag = "architect")
+public class SmtpRelay {
+
+    /** SMTPサーバのホスト名 */
+    private String host;
+
+    /** SMTPサーバのポート番号 */
+    private String port = "25";
+
+    /** 重み */
+    private int weight = 1;
+
+    /**
+     * SMTPサーバのホスト名を取得する。
+     *
+     * @return SMTPサーバのホスト名
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * SMTPサーバのホスト名を設定する。
+     *
+     * @param host SMTPサーバのホスト名
+     */
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    /**
+     * SMTPサーバのポート番号を取得する。
+     *
+     * @return SMTPサーバのポート番号
+     */
+    public String getPort() {
+        return port;
+    }
+
+    /**
+     * SMTPサーバのポート番号を設定する。
+     * <p/>
+     * デフォルトは25。
+     *
+     * @param port SMTPサーバのポート番号
+     */
+    public void setPort(String port) {
+        this.port = port;
+    }
+
+    /**
+     * 重みを取得する。
+     *
+     * @return 重み
+     */
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * 重みを設定する。
+     * <p/>
+     * 重みに比例してメールを振り分ける。デフォルトは1。
+     *
+     * @param weight 重み
+     */
+    public void setWeight(int weight) {
+        this.weight = weight;
+    }
+
+    /**
+     * SMTPサーバを識別する名前(ホスト名:ポート番号)を取得する。
+     *
+     * @return SMTPサーバを識別する名前
+     */
+    public String getName() {
+        return host + ':' + port;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
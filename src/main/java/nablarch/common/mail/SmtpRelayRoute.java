@@ -0,0 +1,128 @@
+package nablarch.common.mail;
+
+import nablarch.core.util.annotation.Published;
+
+/**
+ * メールの送信経路を選択するルールを保持するデータオブジェクト。
+ * <p/>
+ * メール送信パターンID、送信者アドレスのドメイン及びルーティングキーのうち、
+ * 設定した条件の全てに一致するメールを、本ルールのSMTPサーバ及び{@link MailTransport}で送信する。
+ * 条件を1つも設定しないルールは全てのメールに一致する。
+ */
+@Published(tag = "architect")
+public class SmtpRelayRoute {
+
+    /** 条件とするメール送信パターンID */
+    private String mailSendPatternId;
+
+    /** 条件とする送信者アドレスのドメイン */
+    private String fromDomain;
+
+    /** 条件とするルーティングキー */
+    private String routingKey;
+
+    /** 送信に使用するSMTPサーバ */
+    private SmtpRelaySelector relaySelector;
+
+    /** 送信に使用する{@link MailTransport} */
+    private MailTransport mailTransport;
+
+    /**
+     * 条件とするメール送信パターンIDを取得する。
+     *
+     * @return 条件とするメール送信パターンID
+     */
+    public String getMailSendPatternId() {
+        return mailSendPatternId;
+    }
+
+    /**
+     * 条件とするメール送信パターンIDを設定する。
+     *
+     * @param mailSendPatternId 条件とするメール送信パターンID
+     */
+    public void setMailSendPatternId(String mailSendPatternId) {
+        this.mailSendPatternId = mailSendPatternId;
+    }
+
+    /**
+     * 条件とする送信者アドレスのドメインを取得する。
+     *
+     * @return 条件とする送信者アドレスのドメイン
+     */
+    public String getFromDomain() {
+        return fromDomain;
+    }
+
+    /**
+     * 条件とする送信者アドレスのドメインを設定する。
+     * <p/>
+     * 大文字と小文字は区別しない。
+     *
+     * @param fromDomain 条件とする送信者アドレスのドメイン
+     */
+    public void setFromDomain(String fromDomain) {
+        this.fromDomain = fromDomain;
+    }
+
+    /**
+     * 条件とするルーティングキーを取得する。
+     *
+     * @return 条件とするルーティングキー
+     */
+    public String getRoutingKey() {
+        return routingKey;
+    }
+
+    /**
+     * 条件とするルーティングキーを設定する。
+     * <p/>
+     * メール送信要求の登録時に{@link MailContext#setRoutingKey(String)}で指定した値と比較する。
+     *
+     * @param routingKey 条件とするルーティングキー
+     */
+    public void setRoutingKey(String routingKey) {
+        this.routingKey = routingKey;
+    }
+
+    /**
+     * 送信に使用するSMTPサーバを取得する。
+     *
+     * @return 送信に使用するSMTPサーバ
+     */
+    public SmtpRelaySelector getRelaySelector() {
+        return relaySelector;
+    }
+
+    /**
+     * 送信に使用するSMTPサーバを設定する。
+     * <p/>
+     * 設定しない場合は、システムリポジトリに登録されたSMTPサーバの設定を使用する。
+     *
+     * @param relaySelector 送信に使用するSMTPサーバ
+     */
+    public void setRelaySelector(SmtpRelaySelector relaySelector) {
+        this.relaySelector = relaySelector;
+    }
+
+    /**
+     * 送信に使用する{@link MailTransport}を取得する。
+     *
+     * @return 送信に使用する{@link MailTransport}
+     */
+    public MailTransport getMailTransport() {
+        return mailTransport;
+    }
+
+    /**
+     * 送信に使用する{@link MailTransport}を設定する。
+     * <p/>
+     * ルールごとに設定することで、同時に処理するSMTPセッション数などの上限を送信経路ごとに分離できる。
+     * 設定しない場合は、システムリポジトリに登録された{@link MailTransport}を使用する。
+     *
+     * @param mailTransport 送信に使用する{@link MailTransport}
+     */
+    public void setMailTransport(MailTransport mailTransport) {
+        this.mailTransport = mailTransport;
+    }
+}
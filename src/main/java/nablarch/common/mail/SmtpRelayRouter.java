@@ -0,0 +1,98 @@
+package nablarch.common.mail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import nablarch.core.util.annotation.Published;
+
+/**
+ * メール送信要求ごとに、送信に使用するSMTPサーバ及び{@link MailTransport}を選択するクラス。
+ * <p/>
+ * {@link #setRoutes(List)}で設定したルールを先頭から順に評価し、最初に一致したルールを使用する。
+ * いずれのルールにも一致しない場合は、システムリポジトリに登録されたSMTPサーバの設定及び{@link MailTransport}を使用する。
+ * <p/>
+ * 送信経路ごとにSMTPサーバ及び{@link MailTransport}を分けることで、例えば通知メールと広告メールのように
+ * 性質の異なるメールを1つのメール送信バッチで送信する場合でも、互いの送信に影響を与えないようにできる。
+ */
+@Published(tag = "architect")
+public class SmtpRelayRouter {
+
+    /** ルール */
+    private List<SmtpRelayRoute> routes = Collections.emptyList();
+
+    /**
+     * ルールを設定する。
+     *
+     * @param routes ルール
+     */
+    public void setRoutes(List<SmtpRelayRoute> routes) {
+        this.routes = routes;
+    }
+
+    /**
+     * メール送信要求に一致するルールを取得する。
+     *
+     * @param mailRequest メール送信要求
+     * @param mailSendPatternId メール送信パターンID(メール送信パターンを使用しない場合は{@code null})
+     * @return 一致したルール(いずれのルールにも一致しない場合は{@code null})
+     */
+    public SmtpRelayRoute route(MailRequestTable.MailRequest mailRequest, String mailSendPatternId) {
+        final String fromDomain = getDomain(mailRequest.getFrom());
+        for (SmtpRelayRoute route : routes) {
+            if (matches(route.getMailSendPatternId(), mailSendPatternId)
+                    && (route.getFromDomain() == null
+                            || route.getFromDomain().toLowerCase(Locale.ENGLISH).equals(fromDomain))
+                    && matches(route.getRoutingKey(), mailRequest.getRoutingKey())) {
+                return route;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 全てのルールに設定された{@link MailTransport}を取得する。
+     *
+     * @return 全てのルールに設定された{@link MailTransport}
+     */
+    public List<MailTransport> getMailTransports() {
+        final List<MailTransport> mailTransports = new ArrayList<MailTransport>();
+        for (SmtpRelayRoute route : routes) {
+            if (route.getMailTransport() != null && !mailTransports.contains(route.getMailTransport())) {
+                mailTransports.add(route.getMailTransport());
+            }
+        }
+        return mailTransports;
+    }
+
+    /**
+     * 条件に一致するかを判定する。
+     *
+     * @param condition 条件(条件を設定しない場合は{@code null})
+     * @param value 値
+     * @return 条件を設定していない場合、または値が条件と等しい場合は{@code true}
+     */
+    private static boolean matches(String condition, String value) {
+        return condition == null || condition.equals(value);
+    }
+
+    /**
+     * メールアドレスのドメインを取得する。
+     *
+     * @param address メールアドレス
+     * @return ドメイン(小文字)。取得できない場合は{@code null}
+     */
+    private static String getDomain(String address) {
+        if (address == null) {
+            return null;
+        }
+        String mailAddress = address.trim();
+        final int end = mailAddress.lastIndexOf('>');
+        if (end >= 0) {
+            mailAddress = mailAddress.substring(0, end);
+        }
+        final int at = mailAddress.lastIndexOf('@');
+        return at < 0 ? null : mailAddress.substring(at + 1).toLowerCase(Locale.ENGLISH);
+    }
+}
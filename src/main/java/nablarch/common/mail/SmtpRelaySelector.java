@@ -0,0 +1,250 @@
+package nablarch.common.mail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+
+import nablarch.core.util.annotation.Published;
+
+/**
+ * 複数のSMTPサーバ(リレー)から、メールの送信に使用するSMTPサーバを選択するクラス。
+ * <p/>
+ * 選択方法は以下のいずれかを{@link #setStrategy(String)}で設定する。
+ * <ul>
+ * <li>{@value #ROUND_ROBIN}: 重みに比例した順番で選択する(デフォルト)</li>
+ * <li>{@value #LEAST_IN_FLIGHT}: 送信中の件数を重みで割った値が最も小さいSMTPサーバを選択する</li>
+ * </ul>
+ * <p/>
+ * 各SMTPサーバの状態は送信結果から{@link MailCircuitBreaker}で管理し、
+ * 送信の失敗が続いているSMTPサーバは選択対象から除外する(フェイルオーバー)。
+ * 除外したSMTPサーバは、試行間隔の経過後に1件だけ送信を試行し、成功した場合は選択対象に戻す。
+ * 全てのSMTPサーバが除外されている場合は、SMTPサーバを選択しない。
+ */
+@Published(tag = "architect")
+public class SmtpRelaySelector {
+
+    /** 重みに比例した順番で選択する方法 */
+    public static final String ROUND_ROBIN = "roundRobin";
+
+    /** 送信中の件数が最も少ないSMTPサーバを選択する方法 */
+    public static final String LEAST_IN_FLIGHT = "leastInFlight";
+
+    /** SMTPサーバ */
+    private List<SmtpRelay> relays = Collections.emptyList();
+
+    /** 選択方法 */
+    private String strategy = ROUND_ROBIN;
+
+    /** SMTPサーバの状態を管理するサーキットブレーカー */
+    private final MailCircuitBreaker circuitBreaker = new MailCircuitBreaker();
+
+    /** SMTPサーバごとの状態 */
+    private List<RelayState> relayStates;
+
+    /**
+     * SMTPサーバを設定する。
+     *
+     * @param relays SMTPサーバ
+     */
+    public void setRelays(List<SmtpRelay> relays) {
+        this.relays = relays;
+    }
+
+    /**
+     * 選択方法を設定する。
+     * <p/>
+     * {@value #ROUND_ROBIN}または{@value #LEAST_IN_FLIGHT}を設定する。デフォルトは{@value #ROUND_ROBIN}。
+     *
+     * @param strategy 選択方法
+     */
+    public void setStrategy(String strategy) {
+        if (!ROUND_ROBIN.equals(strategy) && !LEAST_IN_FLIGHT.equals(strategy)) {
+            throw new IllegalArgumentException("unsupported strategy. strategy=[" + strategy + ']');
+        }
+        this.strategy = strategy;
+    }
+
+    /**
+     * 選択対象から除外する連続失敗回数を設定する。
+     * <p/>
+     * デフォルトは5回。
+     *
+     * @param failureThreshold 選択対象から除外する連続失敗回数
+     */
+    public void setFailureThreshold(int failureThreshold) {
+        circuitBreaker.setFailureThreshold(failureThreshold);
+    }
+
+    /**
+     * 除外したSMTPサーバへの送信を試行するまでの間隔(ミリ秒)を設定する。
+     * <p/>
+     * デフォルトは30秒。
+     *
+     * @param retryIntervalMillis 送信を試行するまでの間隔(ミリ秒)
+     */
+    public void setRetryIntervalMillis(long retryIntervalMillis) {
+        circuitBreaker.setRetryIntervalMillis(retryIntervalMillis);
+    }
+
+    /**
+     * メールの送信に使用するSMTPサーバを選択する。
+     *
+     * @return SMTPサーバ(全てのSMTPサーバが選択対象から除外されている場合は{@code null})
+     */
+    public synchronized SmtpRelay select() {
+        final List<RelayState> candidates = new ArrayList<RelayState>(getRelayStates());
+        while (!candidates.isEmpty()) {
+            final RelayState chosen = LEAST_IN_FLIGHT.equals(strategy)
+                    ? chooseLeastInFlight(candidates) : chooseRoundRobin(candidates);
+            if (circuitBreaker.allowRequest(chosen.relay.getName())) {
+                return chosen.relay;
+            }
+            candidates.remove(chosen);
+        }
+        return null;
+    }
+
+    /**
+     * SMTPサーバへの送信を開始したことを記録する。
+     *
+     * @param relay SMTPサーバ
+     */
+    public synchronized void begin(SmtpRelay relay) {
+        getRelayState(relay).inFlightCount++;
+    }
+
+    /**
+     * SMTPサーバへの送信結果を記録する。
+     * <p/>
+     * 宛先の拒否({@link SendFailedException})はSMTPサーバが応答しているため、送信成功として記録する。
+     *
+     * @param relay SMTPサーバ
+     * @param e 送信時の例外(送信に成功した場合は{@code null})
+     */
+    public synchronized void recordResult(SmtpRelay relay, MessagingException e) {
+        final RelayState state = getRelayState(relay);
+        if (state.inFlightCount > 0) {
+            state.inFlightCount--;
+        }
+        if (e == null || e instanceof SendFailedException) {
+            circuitBreaker.recordSuccess(relay.getName());
+        } else {
+            circuitBreaker.recordFailure(relay.getName());
+        }
+    }
+
+    /**
+     * SMTPサーバへ送信中の件数を取得する。
+     *
+     * @param relay SMTPサーバ
+     * @return 送信中の件数
+     */
+    public synchronized int getInFlightCount(SmtpRelay relay) {
+        return getRelayState(relay).inFlightCount;
+    }
+
+    /**
+     * SMTPサーバの状態を取得する。
+     *
+     * @param relay SMTPサーバ
+     * @return SMTPサーバの状態
+     */
+    public MailCircuitBreaker.State getState(SmtpRelay relay) {
+        return circuitBreaker.getState(relay.getName());
+    }
+
+    /**
+     * 重みに比例した順番でSMTPサーバを選択する(smooth weighted round-robin)。
+     *
+     * @param candidates 選択対象のSMTPサーバ
+     * @return 選択したSMTPサーバ
+     */
+    private static RelayState chooseRoundRobin(List<RelayState> candidates) {
+        int totalWeight = 0;
+        RelayState chosen = null;
+        for (RelayState state : candidates) {
+            state.currentWeight += state.relay.getWeight();
+            totalWeight += state.relay.getWeight();
+            if (chosen == null || state.currentWeight > chosen.currentWeight) {
+                chosen = state;
+            }
+        }
+        chosen.currentWeight -= totalWeight;
+        return chosen;
+    }
+
+    /**
+     * 送信中の件数を重みで割った値が最も小さいSMTPサーバを選択する。
+     *
+     * @param candidates 選択対象のSMTPサーバ
+     * @return 選択したSMTPサーバ
+     */
+    private static RelayState chooseLeastInFlight(List<RelayState> candidates) {
+        RelayState chosen = null;
+        for (RelayState state : candidates) {
+            if (chosen == null
+                    || (long) state.inFlightCount * chosen.relay.getWeight()
+                    < (long) chosen.inFlightCount * state.relay.getWeight()) {
+                chosen = state;
+            }
+        }
+        return chosen;
+    }
+
+    /**
+     * SMTPサーバの状態を取得する。
+     *
+     * @param relay SMTPサーバ
+     * @return SMTPサーバの状態
+     */
+    private RelayState getRelayState(SmtpRelay relay) {
+        for (RelayState state : getRelayStates()) {
+            if (state.relay == relay) {
+                return state;
+            }
+        }
+        throw new IllegalArgumentException("relay is not managed by this selector. relay=[" + relay + ']');
+    }
+
+    /**
+     * 全てのSMTPサーバの状態を取得する。
+     *
+     * @return 全てのSMTPサーバの状態
+     */
+    private List<RelayState> getRelayStates() {
+        if (relayStates == null) {
+            relayStates = new ArrayList<RelayState>();
+            for (SmtpRelay relay : relays) {
+                relayStates.add(new RelayState(relay));
+            }
+        }
+        return relayStates;
+    }
+
+    /**
+     * SMTPサーバごとの状態。
+     */
+    private static final class RelayState {
+
+        /** SMTPサーバ */
+        private final SmtpRelay relay;
+
+        /** 重み付きラウンドロビンの現在の重み */
+        private int currentWeight;
+
+        /** 送信中の件数 */
+        private int inFlightCount;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param relay SMTPサーバ
+         */
+        private RelayState(SmtpRelay relay) {
+            this.relay = relay;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package nablarch.common.mail;
+
+import java.util.Map;
+
+import nablarch.core.util.annotation.Published;
+
+/**
+ * SQL Server用の{@link MailRequestClaimDialect}の実装クラス。
+ * <p/>
+ * UPDATE ... OUTPUTを使用し、メールリクエストIDの小さいものから順に取得する。
+ * 他のプロセスが取得中のレコードはREADPASTヒントにより読み飛ばす。
+ * <p/>
+ * OUTPUT句は返すレコードの順序を指定できないため、取得したレコードはメールリクエストIDの順に返るとは限らない。
+ */
+@Published(tag = "architect")
+public class SqlServerMailRequestClaimDialect implements MailRequestClaimDialect {
+
+    @Override
+    public String createClaimAndFetchSql(String tableName, String mailRequestIdColumnName,
+            String sendProcessIdColumnName, String condition, Map<String, String> columns, int limit) {
+        final StringBuilder output = new StringBuilder();
+        for (Map.Entry<String, String> column : columns.entrySet()) {
+            if (output.length() > 0) {
+                output.append(", ");
+            }
+            output.append("INSERTED.").append(column.getValue()).append(' ').append(column.getKey());
+        }
+        return "UPDATE " + tableName
+                + " SET " + sendProcessIdColumnName + " = ?"
+                + " OUTPUT " + output
+                + " WHERE " + mailRequestIdColumnName + " IN ("
+                + "SELECT TOP (" + limit + ") " + mailRequestIdColumnName
+                + " FROM " + tableName + " WITH (ROWLOCK, UPDLOCK, READPAST)"
+                + " WHERE " + condition
+                + " AND " + sendProcessIdColumnName + " IS NULL"
+                + " ORDER BY " + mailRequestIdColumnName + ")";
+    }
+}
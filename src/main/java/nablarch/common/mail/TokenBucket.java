@@ -0,0 +1,76 @@
+package nablarch.common.mail;
+
+/**
+ * トークンバケットによる送信レートの制限。
+ * <p/>
+ * トークンは期間あたりの件数に応じて補充され、バーストの件数まで蓄積される。
+ * トークンが不足している場合も予約は受け付け、トークンが補充されるまでの待機時間を返す。
+ * そのため、呼び出し元はトークンを待ち合わせるためにポーリングする必要がない。
+ */
+final class TokenBucket {
+
+    /** トークン1つが補充されるまでの時間(ナノ秒) */
+    private final double nanosPerToken;
+
+    /** 蓄積できるトークンの最大数 */
+    private final double capacity;
+
+    /** 現在のトークンの数(予約により負になる場合がある) */
+    private double tokens;
+
+    /** 最後にトークンを補充した時刻(ナノ秒) */
+    private long lastRefillTime;
+
+    /**
+     * コンストラクタ。トークンが満たされた状態で生成する。
+     *
+     * @param rateLimit 送信レートの上限
+     * @param now 現在時刻(ナノ秒)
+     */
+    TokenBucket(RateLimit rateLimit, long now) {
+        if (rateLimit.getPermits() <= 0 || rateLimit.getPeriodMillis() <= 0) {
+            throw new IllegalArgumentException(String.format(
+                    "permits and periodMillis must be positive. target=[%s] permits=[%d] periodMillis=[%d]",
+                    rateLimit.getTarget(), rateLimit.getPermits(), rateLimit.getPeriodMillis()));
+        }
+        nanosPerToken = rateLimit.getPeriodMillis() * 1000000.0 / rateLimit.getPermits();
+        capacity = rateLimit.getBurst();
+        tokens = capacity;
+        lastRefillTime = now;
+    }
+
+    /**
+     * トークンを1つ予約する。
+     *
+     * @param now 現在時刻(ナノ秒)
+     * @return 予約したトークンが使用可能になるまでの待機時間(ナノ秒)
+     */
+    synchronized long reserve(long now) {
+        refill(now);
+        tokens -= 1;
+        return tokens >= 0 ? 0L : (long) Math.ceil(-tokens * nanosPerToken);
+    }
+
+    /**
+     * 待機せずに使用できるトークンがあるか否かを判定する。トークンは消費しない。
+     *
+     * @param now 現在時刻(ナノ秒)
+     * @return トークンがある場合は{@code true}
+     */
+    synchronized boolean hasToken(long now) {
+        refill(now);
+        return tokens >= 1;
+    }
+
+    /**
+     * 経過時間に応じてトークンを補充する。
+     *
+     * @param now 現在時刻(ナノ秒)
+     */
+    private void refill(long now) {
+        if (now > lastRefillTime) {
+            tokens = Math.min(capacity, tokens + (now - lastRefillTime) / nanosPerToken);
+            lastRefillTime = now;
+        }
+    }
+}
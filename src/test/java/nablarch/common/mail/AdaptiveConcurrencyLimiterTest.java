@@ -0,0 +1,117 @@
+package nablarch.common.mail;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.internet.InternetAddress;
+
+import org.junit.Test;
+
+/**
+ * {@link AdaptiveConcurrencyLimiter}のテストクラス。
+ */
+public class AdaptiveConcurrencyLimiterTest {
+
+    private final AdaptiveConcurrencyLimiter sut = new AdaptiveConcurrencyLimiter();
+
+    /**
+     * 応答時間と一時エラーの発生率が閾値以内の場合は、ウィンドウごとに上限が1加算されること。
+     */
+    @Test
+    public void testIncrease() throws Exception {
+        sut.setInitialLimit(2);
+        sut.setMaxLimit(3);
+        sut.setWindowSize(4);
+
+        sendAll(4, 10L, null);
+        assertThat(sut.getLimit(), is(3));
+
+        sendAll(4, 10L, null);
+        assertThat("最大値を超えないこと", sut.getLimit(), is(3));
+        assertThat(sut.getInFlightCount(), is(0));
+    }
+
+    /**
+     * 平均応答時間が閾値を超えた場合は、上限が減少率に応じて減ること。
+     */
+    @Test
+    public void testDecrease_latency() throws Exception {
+        sut.setInitialLimit(8);
+        sut.setWindowSize(4);
+        sut.setLatencyThresholdMillis(100L);
+
+        sendAll(4, 200L, null);
+        assertThat(sut.getLimit(), is(4));
+    }
+
+    /**
+     * 一時エラーが発生した場合は、ウィンドウの終了を待たずに上限が減ること。
+     */
+    @Test
+    public void testDecrease_throttled() throws Exception {
+        sut.setInitialLimit(8);
+        sut.setMinLimit(3);
+        sut.setWindowSize(10);
+
+        sendAll(1, 10L, new MessagingException("421 4.7.0 too many connections"));
+        assertThat(sut.getLimit(), is(4));
+
+        InternetAddress address = new InternetAddress("to@example.com");
+        sendAll(1, 10L, new SendFailedException("Invalid Addresses", null, null,
+                new InternetAddress[] {address}, null));
+        assertThat("最小値を下回らないこと", sut.getLimit(), is(3));
+    }
+
+    /**
+     * 宛先の拒否(5xx)や接続の失敗は一時エラーとして扱わないこと。
+     */
+    @Test
+    public void testNotThrottled() throws Exception {
+        sut.setInitialLimit(8);
+        sut.setWindowSize(10);
+
+        InternetAddress address = new InternetAddress("to@example.com");
+        sendAll(1, 10L, new SendFailedException("Invalid Addresses", null, null, null,
+                new InternetAddress[] {address}));
+        sendAll(1, 10L, new MessagingException("could not connect to SMTP host: localhost, port: 25"));
+        sendAll(1, 10L, new MessagingException("550 5.1.1 no such user"));
+        assertThat(sut.getLimit(), is(8));
+    }
+
+    /**
+     * 送信中の件数が上限に達している場合は、空きができるまで待機すること。
+     */
+    @Test
+    public void testAcquire_wait() throws Exception {
+        sut.setInitialLimit(1);
+        sut.acquire();
+
+        Thread waiting = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sut.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        waiting.start();
+        waiting.join(300);
+        assertThat(waiting.isAlive(), is(true));
+
+        sut.release(10L, null);
+        waiting.join(5000);
+        assertThat(waiting.isAlive(), is(false));
+        assertThat(sut.getInFlightCount(), is(1));
+    }
+
+    private void sendAll(int count, long latencyMillis, MessagingException e) throws InterruptedException {
+        for (int i = 0; i < count; i++) {
+            sut.acquire();
+            sut.release(latencyMillis, e);
+        }
+    }
+}
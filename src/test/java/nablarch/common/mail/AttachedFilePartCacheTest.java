@@ -0,0 +1,185 @@
+package nablarch.common.mail;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.mail.Session;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+
+import nablarch.core.db.statement.SqlRow;
+
+import org.junit.Test;
+
+/**
+ * {@link AttachedFilePartCache}のテストクラス。
+ */
+public class AttachedFilePartCacheTest {
+
+    /** 添付ファイルのデータ */
+    private static final byte[] FILE_DATA = createBinaryData(3000);
+
+    /** データの取得回数を記録するメールデータ共有テーブル */
+    private final CountingMailBlobTable mailBlobTable = new CountingMailBlobTable();
+
+    private final AttachedFilePartCache sut = new AttachedFilePartCache();
+
+    /**
+     * 同一のハッシュ値を持つ添付ファイルは、2回目以降はデータを取得せずにキャッシュが使用されること。
+     */
+    @Test
+    public void testCreateBodyPart_cached() throws Exception {
+        MimeBodyPart first = sut.createBodyPart(createAttachedFile("hash1", "a.pdf", "application/pdf"));
+        MimeBodyPart second = sut.createBodyPart(createAttachedFile("hash1", "a.pdf", "application/pdf"));
+
+        assertThat(mailBlobTable.findCount, is(1));
+        assertThat(second.getFileName(), is("a.pdf"));
+        assertThat(first.getEncoding(), is("base64"));
+        assertTrue(Arrays.equals(decode(second), FILE_DATA));
+    }
+
+    /**
+     * ファイル名が異なる場合は、別のキャッシュとして扱われること。
+     */
+    @Test
+    public void testCreateBodyPart_differentFileName() throws Exception {
+        sut.createBodyPart(createAttachedFile("hash1", "a.pdf", "application/pdf"));
+        MimeBodyPart part = sut.createBodyPart(createAttachedFile("hash1", "b.pdf", "application/pdf"));
+
+        assertThat(mailBlobTable.findCount, is(2));
+        assertThat(part.getFileName(), is("b.pdf"));
+    }
+
+    /**
+     * 最大件数を超えた場合は、最も長く参照されていないキャッシュが破棄されること。
+     */
+    @Test
+    public void testCreateBodyPart_evicted() throws Exception {
+        sut.setMaxEntries(1);
+        sut.createBodyPart(createAttachedFile("hash1", "a.pdf", "application/pdf"));
+        sut.createBodyPart(createAttachedFile("hash2", "a.pdf", "application/pdf"));
+        sut.createBodyPart(createAttachedFile("hash1", "a.pdf", "application/pdf"));
+
+        assertThat(mailBlobTable.findCount, is(3));
+    }
+
+    /**
+     * エンコード済みデータの合計サイズが上限を超えた場合は、最も長く参照されていないキャッシュが破棄されること。
+     */
+    @Test
+    public void testCreateBodyPart_evictedBySize() throws Exception {
+        sut.createBodyPart(createAttachedFile("hash1", "a.pdf", "application/pdf"));
+        long size = sut.getTotalSize();
+        sut.setMaxTotalSize(size * 2 - 1);
+        sut.createBodyPart(createAttachedFile("hash2", "a.pdf", "application/pdf"));
+
+        assertThat(sut.getEntryCount(), is(1));
+        assertThat(sut.getTotalSize(), is(size));
+
+        sut.createBodyPart(createAttachedFile("hash2", "a.pdf", "application/pdf"));
+        assertThat(mailBlobTable.findCount, is(2));
+    }
+
+    /**
+     * 上限を超えるサイズの添付ファイルはキャッシュされないこと。
+     */
+    @Test
+    public void testCreateBodyPart_tooLarge() throws Exception {
+        sut.setMaxTotalSize(100);
+        MimeBodyPart part = sut.createBodyPart(createAttachedFile("hash1", "a.pdf", "application/pdf"));
+
+        assertThat(sut.getEntryCount(), is(0));
+        assertTrue(Arrays.equals(decode(part), FILE_DATA));
+    }
+
+    /**
+     * メールデータ共有テーブルを使用しない場合は、データのチェックサムをキーとしてキャッシュが使用されること。
+     */
+    @Test
+    public void testCreateBodyPart_withoutHash() throws Exception {
+        sut.createBodyPart(createAttachedFile(FILE_DATA, "a.pdf"));
+        sut.createBodyPart(createAttachedFile(FILE_DATA.clone(), "a.pdf"));
+        assertThat(sut.getEntryCount(), is(1));
+
+        byte[] other = FILE_DATA.clone();
+        other[0] = 100;
+        MimeBodyPart part = sut.createBodyPart(createAttachedFile(other, "a.pdf"));
+        assertThat(sut.getEntryCount(), is(2));
+        assertTrue(Arrays.equals(decode(part), other));
+    }
+
+    private MailAttachedFileTable.MailAttachedFile createAttachedFile(byte[] data, String fileName) {
+        Map<String, Object> row = new HashMap<String, Object>();
+        row.put("SERIAL_NUMBER", 1);
+        row.put("FILE_NAME", fileName);
+        row.put("CONTENT_TYPE", "application/pdf");
+        row.put("FILE_DATA", data);
+        Map<String, Integer> colType = new HashMap<String, Integer>();
+        colType.put("FILE_DATA", Types.VARBINARY);
+        return new MailAttachedFileTable.MailAttachedFile(new SqlRow(row, colType));
+    }
+
+    private MailAttachedFileTable.MailAttachedFile createAttachedFile(String hash, String fileName,
+            String contentType) {
+        Map<String, Object> row = new HashMap<String, Object>();
+        row.put("SERIAL_NUMBER", 1);
+        row.put("FILE_NAME", fileName);
+        row.put("CONTENT_TYPE", contentType);
+        row.put("FILE_HASH", hash);
+        return new MailAttachedFileTable.MailAttachedFile(
+                new SqlRow(row, new HashMap<String, Integer>()), mailBlobTable);
+    }
+
+    /**
+     * ボディパートをメッセージとして書き出し、再度読み込んだ添付ファイルのデータを取得する。
+     */
+    private static byte[] decode(MimeBodyPart part) throws Exception {
+        MimeMultipart multipart = new MimeMultipart();
+        multipart.addBodyPart(part);
+        MimeMessage message = new MimeMessage((Session) null);
+        message.setContent(multipart);
+        message.saveChanges();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        message.writeTo(out);
+
+        MimeMessage parsed = new MimeMessage(null, new ByteArrayInputStream(out.toByteArray()));
+        InputStream in = ((MimeMultipart) parsed.getContent()).getBodyPart(0).getInputStream();
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            decoded.write(b);
+        }
+        return decoded.toByteArray();
+    }
+
+    private static byte[] createBinaryData(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) i;
+        }
+        return data;
+    }
+
+    /**
+     * データの取得回数を記録するメールデータ共有テーブル。
+     */
+    private static class CountingMailBlobTable extends MailBlobTable {
+
+        private int findCount;
+
+        @Override
+        public byte[] find(String hash) {
+            findCount++;
+            return FILE_DATA;
+        }
+    }
+}
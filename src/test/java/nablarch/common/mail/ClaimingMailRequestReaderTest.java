@@ -0,0 +1,180 @@
+package nablarch.common.mail;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import nablarch.core.db.statement.SqlResultSet;
+import nablarch.core.db.statement.SqlRow;
+
+import org.junit.Test;
+
+/**
+ * {@link ClaimingMailRequestReader}のテスト。
+ */
+public class ClaimingMailRequestReaderTest {
+
+    /**
+     * 取得するレコードを返すメール送信要求管理テーブル。
+     */
+    private static class StubMailRequestTable extends MailRequestTable {
+
+        /** 取得するレコードの件数(取得ごと) */
+        private final List<Integer> claimSizes = new ArrayList<Integer>();
+
+        /** 取得した回数 */
+        private int claimCount;
+
+        /** 取得時のプロセスID */
+        private String sendProcessId;
+
+        /** 取得時に指定された前回取得した最大のメールリクエストID(取得ごと) */
+        private final List<String> lastMailRequestIds = new ArrayList<String>();
+
+        /** 次のメールリクエストID */
+        private int nextId = 1;
+
+        @Override
+        public SqlResultSet claimAndFetch(String mailSendPatternId, String sendProcessId, String lastMailRequestId) {
+            this.sendProcessId = sendProcessId;
+            lastMailRequestIds.add(lastMailRequestId);
+            final SqlResultSet rs = new SqlResultSet(10) {
+            };
+            final int size = claimCount < claimSizes.size() ? claimSizes.get(claimCount) : 0;
+            claimCount++;
+            for (int i = 0; i < size; i++) {
+                final Map<String, Object> row = new HashMap<String, Object>();
+                row.put("MAIL_REQUEST_ID", String.valueOf(nextId++));
+                rs.add(new SqlRow(row, new HashMap<String, Integer>()));
+            }
+            return rs;
+        }
+    }
+
+    /**
+     * メール送信要求管理テーブルの状態を保持し、プロセスIDが設定されていないレコードを取得するメール送信要求管理テーブル。
+     */
+    private static class InMemoryMailRequestTable extends MailRequestTable {
+
+        /** メールリクエストIDとプロセスID(未取得の場合は{@code null}) */
+        private final TreeMap<String, String> rows = new TreeMap<String, String>();
+
+        /** 取得した回数 */
+        private int claimCount;
+
+        @Override
+        public SqlResultSet claimAndFetch(String mailSendPatternId, String sendProcessId, String lastMailRequestId) {
+            claimCount++;
+            final SqlResultSet rs = new SqlResultSet(10) {
+            };
+            final Map<String, String> candidates = lastMailRequestId == null
+                    ? rows : rows.tailMap(lastMailRequestId, false);
+            for (Map.Entry<String, String> entry : candidates.entrySet()) {
+                if (rs.size() >= getClaimBatchSize()) {
+                    break;
+                }
+                if (entry.getValue() == null) {
+                    entry.setValue(sendProcessId);
+                    final Map<String, Object> row = new HashMap<String, Object>();
+                    row.put("MAIL_REQUEST_ID", entry.getKey());
+                    rs.add(new SqlRow(row, new HashMap<String, Integer>()));
+                }
+            }
+            return rs;
+        }
+
+        @Override
+        public void releaseSendProcessId(String mailRequestId) {
+            rows.put(mailRequestId, null);
+        }
+    }
+
+    /**
+     * 最大件数に満たない件数を取得するまで、繰り返し取得して読み込むこと。
+     */
+    @Test
+    public void testReadUntilExhausted() {
+        final StubMailRequestTable table = new StubMailRequestTable();
+        table.setClaimBatchSize(2);
+        table.claimSizes.add(2);
+        table.claimSizes.add(2);
+        table.claimSizes.add(1);
+        table.claimSizes.add(2);
+
+        final ClaimingMailRequestReader sut = new ClaimingMailRequestReader(table, "01", "process");
+        final List<String> ids = new ArrayList<String>();
+        while (sut.hasNext(null)) {
+            ids.add(sut.read(null).getString("MAIL_REQUEST_ID"));
+        }
+        assertThat(ids.toString(), is("[1, 2, 3, 4, 5]"));
+        assertThat(table.claimCount, is(3));
+        assertThat(table.lastMailRequestIds.toString(), is("[null, 2, 4]"));
+        assertThat(table.sendProcessId, is("process"));
+        assertThat(sut.read(null), is(nullValue()));
+    }
+
+    /**
+     * 最大件数ちょうどで取得が終わった場合は、空の取得により終了を判定すること。
+     */
+    @Test
+    public void testExactBatch() {
+        final StubMailRequestTable table = new StubMailRequestTable();
+        table.setClaimBatchSize(2);
+        table.claimSizes.add(2);
+
+        final ClaimingMailRequestReader sut = new ClaimingMailRequestReader(table, null, "process");
+        int count = 0;
+        while (sut.read(null) != null) {
+            count++;
+        }
+        assertThat(count, is(2));
+        assertThat(table.claimCount, is(2));
+        assertThat(sut.hasNext(null), is(false));
+        assertThat(table.claimCount, is(2));
+    }
+
+    /**
+     * 読み込んだレコードのプロセスIDが解除されても、同じレコードを再度取得せずに終了すること。
+     */
+    @Test
+    public void testReleasedRecordsAreNotClaimedAgain() {
+        final InMemoryMailRequestTable table = new InMemoryMailRequestTable();
+        table.setClaimBatchSize(2);
+        for (String id : new String[] {"0001", "0002", "0003", "0004"}) {
+            table.rows.put(id, null);
+        }
+
+        final ClaimingMailRequestReader sut = new ClaimingMailRequestReader(table, null, "process");
+        final List<String> ids = new ArrayList<String>();
+        while (sut.hasNext(null)) {
+            final String id = sut.read(null).getString("MAIL_REQUEST_ID");
+            ids.add(id);
+            // 送信を見送ったレコードのプロセスIDを解除する
+            table.releaseSendProcessId(id);
+        }
+        assertThat(ids.toString(), is("[0001, 0002, 0003, 0004]"));
+        assertThat(table.claimCount, is(3));
+    }
+
+    /**
+     * 閉じた後は取得しないこと。
+     */
+    @Test
+    public void testClose() {
+        final StubMailRequestTable table = new StubMailRequestTable();
+        table.setClaimBatchSize(2);
+        table.claimSizes.add(2);
+
+        final ClaimingMailRequestReader sut = new ClaimingMailRequestReader(table, null, "process");
+        assertThat(sut.hasNext(null), is(true));
+        sut.close(null);
+        assertThat(sut.hasNext(null), is(false));
+        assertThat(table.claimCount, is(1));
+    }
+}
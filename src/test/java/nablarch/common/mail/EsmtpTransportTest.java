@@ -0,0 +1,614 @@
+package nablarch.common.mail;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import javax.activation.DataHandler;
+import javax.mail.Address;
+import javax.mail.AuthenticationFailedException;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import javax.mail.internet.MimePart;
+import javax.mail.internet.PreencodedMimeBodyPart;
+import javax.mail.util.ByteArrayDataSource;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * {@link EsmtpTransport}のテストクラス。
+ */
+public class EsmtpTransportTest {
+
+    /** 本文 */
+    private static final String TEXT = "本文です。\r\n.ピリオドで始まる行\r\n";
+
+    /** 添付ファイルのデータ */
+    private static final byte[] FILE_DATA = createBinaryData(5000);
+
+    private SmtpServerStub server;
+
+    @After
+    public void tearDown() throws Exception {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    /**
+     * 拡張機能を広告しないサーバには、従来どおりのエンコードでDATAコマンドにより送信されること。
+     */
+    @Test
+    public void testSendMessage_noExtension() throws Exception {
+        Session session = createSession(new SmtpServerStub(), "mail.smtp.allow8bitmime", "true",
+                "mail.smtp.allowbinarymime", "true");
+        send(session, createMessage(session));
+
+        List<String> commands = server.getCommands();
+        assertThat(commands.get(1), is("MAIL FROM:<from@example.com>"));
+        assertThat(commands.contains("DATA"), is(true));
+
+        MimeMessage received = received(0);
+        MimeMultipart multipart = (MimeMultipart) received.getContent();
+        assertThat(((MimePart) multipart.getBodyPart(0)).getEncoding(), is("base64"));
+        assertThat(((MimePart) multipart.getBodyPart(1)).getEncoding(), is("base64"));
+        assertThat((String) multipart.getBodyPart(0).getContent(), is(TEXT));
+        assertTrue(Arrays.equals(read(multipart.getBodyPart(1).getInputStream()), FILE_DATA));
+    }
+
+    /**
+     * 8BITMIMEを広告するサーバには、テキストのパートを8bitのまま送信すること。
+     */
+    @Test
+    public void testSendMessage_8bitmime() throws Exception {
+        Session session = createSession(new SmtpServerStub("8BITMIME"), "mail.smtp.allow8bitmime", "true");
+        send(session, createMessage(session));
+
+        assertThat(server.getCommands().get(1), is("MAIL FROM:<from@example.com> BODY=8BITMIME"));
+
+        MimeMessage received = received(0);
+        MimeMultipart multipart = (MimeMultipart) received.getContent();
+        assertThat(((MimePart) multipart.getBodyPart(0)).getEncoding(), is("8bit"));
+        assertThat(((MimePart) multipart.getBodyPart(1)).getEncoding(), is("base64"));
+        assertThat((String) multipart.getBodyPart(0).getContent(), is(TEXT));
+        assertTrue(Arrays.equals(read(multipart.getBodyPart(1).getInputStream()), FILE_DATA));
+    }
+
+    /**
+     * 8BITMIMEの使用が許可されていない場合は、従来どおりのエンコードで送信すること。
+     */
+    @Test
+    public void testSendMessage_8bitmimeNotAllowed() throws Exception {
+        Session session = createSession(new SmtpServerStub("8BITMIME"));
+        send(session, createMessage(session));
+
+        assertThat(server.getCommands().get(1), is("MAIL FROM:<from@example.com>"));
+        MimeMultipart multipart = (MimeMultipart) received(0).getContent();
+        assertThat(((MimePart) multipart.getBodyPart(0)).getEncoding(), is("base64"));
+    }
+
+    /**
+     * 1行が998バイトを超えるテキストは8bitに変換しないこと。
+     */
+    @Test
+    public void testSendMessage_longLine() throws Exception {
+        Session session = createSession(new SmtpServerStub("8BITMIME"), "mail.smtp.allow8bitmime", "true");
+        MimeMessage message = createMessage(session);
+        char[] longLine = new char[1000];
+        Arrays.fill(longLine, 'あ');
+        message.setText(new String(longLine), "UTF-8");
+        message.saveChanges();
+        send(session, message);
+
+        assertThat(server.getCommands().get(1), is("MAIL FROM:<from@example.com>"));
+        assertThat(received(0).getEncoding(), is("base64"));
+    }
+
+    /**
+     * BINARYMIMEとCHUNKINGを広告するサーバには、添付ファイルをバイナリのままBDATコマンドで分割して送信すること。
+     */
+    @Test
+    public void testSendMessage_binarymime() throws Exception {
+        Session session = createSession(new SmtpServerStub("8BITMIME", "BINARYMIME", "CHUNKING"),
+                "mail.smtp.allowbinarymime", "true", "mail.smtp.chunksize", "1000");
+        send(session, createMessage(session));
+
+        List<String> commands = server.getCommands();
+        assertThat(commands.get(1), is("MAIL FROM:<from@example.com> BODY=BINARYMIME"));
+        assertThat(commands.contains("DATA"), is(false));
+        assertThat(server.getChunkCount() > 1, is(true));
+
+        MimeMultipart multipart = (MimeMultipart) received(0).getContent();
+        assertThat(((MimePart) multipart.getBodyPart(0)).getEncoding(), is("8bit"));
+        assertThat(((MimePart) multipart.getBodyPart(1)).getEncoding(), is("binary"));
+        assertThat((String) multipart.getBodyPart(0).getContent(), is(TEXT));
+        assertTrue(Arrays.equals(read(multipart.getBodyPart(1).getInputStream()), FILE_DATA));
+    }
+
+    /**
+     * CHUNKINGを広告しないサーバには、BINARYMIMEを使用せずに8BITMIMEで送信すること。
+     */
+    @Test
+    public void testSendMessage_binarymimeWithoutChunking() throws Exception {
+        Session session = createSession(new SmtpServerStub("8BITMIME", "BINARYMIME"),
+                "mail.smtp.allow8bitmime", "true", "mail.smtp.allowbinarymime", "true");
+        send(session, createMessage(session));
+
+        assertThat(server.getCommands().get(1), is("MAIL FROM:<from@example.com> BODY=8BITMIME"));
+        MimeMultipart multipart = (MimeMultipart) received(0).getContent();
+        assertThat(((MimePart) multipart.getBodyPart(1)).getEncoding(), is("base64"));
+    }
+
+    /**
+     * エンコード済みのパートは、BINARYMIMEで送信する場合もエンコードを変更しないこと。
+     */
+    @Test
+    public void testSendMessage_preencoded() throws Exception {
+        Session session = createSession(new SmtpServerStub("BINARYMIME", "CHUNKING"),
+                "mail.smtp.allowbinarymime", "true");
+        MimeMessage message = createMessage(session);
+        MimeBodyPart preencoded = new PreencodedMimeBodyPart("base64");
+        preencoded.setDataHandler(new DataHandler(new ByteArrayDataSource("QUJD\r\n".getBytes("US-ASCII"),
+                "application/octet-stream")));
+        ((MimeMultipart) message.getContent()).addBodyPart(preencoded);
+        message.saveChanges();
+        send(session, message);
+
+        MimeMultipart multipart = (MimeMultipart) received(0).getContent();
+        assertThat(((MimePart) multipart.getBodyPart(1)).getEncoding(), is("binary"));
+        assertThat(((MimePart) multipart.getBodyPart(2)).getEncoding(), is("base64"));
+        assertThat(new String(read(multipart.getBodyPart(2).getInputStream()), "US-ASCII"), is("ABC"));
+    }
+
+    /**
+     * 無効な宛先が含まれる場合は、メッセージを送信せずに宛先ごとの結果を持つ例外を送出すること。
+     */
+    @Test
+    public void testSendMessage_invalidAddress() throws Exception {
+        SmtpServerStub stub = new SmtpServerStub();
+        stub.rejectRecipient("invalid@example.com", "550 no such user");
+        stub.rejectRecipient("busy@example.com", "451 try again later");
+        Session session = createSession(stub);
+        MimeMessage message = createMessage(session);
+        message.setRecipients(Message.RecipientType.TO, "to@example.com, invalid@example.com, busy@example.com");
+        message.saveChanges();
+        try {
+            send(session, message);
+            fail("SendFailedException must be thrown.");
+        } catch (SendFailedException e) {
+            assertThat(e.getValidSentAddresses(), is(nullValue()));
+            assertThat(toStrings(e.getValidUnsentAddresses()), is("[to@example.com, busy@example.com]"));
+            assertThat(toStrings(e.getInvalidAddresses()), is("[invalid@example.com]"));
+        }
+        assertThat(server.getCommands().contains("DATA"), is(false));
+        assertThat(server.getCommands().contains("RSET"), is(true));
+    }
+
+    /**
+     * 部分送信が許可されている場合は、有効な宛先にのみ送信し、宛先ごとの結果を持つ例外を送出すること。
+     */
+    @Test
+    public void testSendMessage_sendPartial() throws Exception {
+        SmtpServerStub stub = new SmtpServerStub();
+        stub.rejectRecipient("invalid@example.com", "550 no such user");
+        Session session = createSession(stub, "mail.smtp.sendpartial", "true");
+        MimeMessage message = createMessage(session);
+        message.setRecipients(Message.RecipientType.TO, "to@example.com, invalid@example.com");
+        message.saveChanges();
+        try {
+            send(session, message);
+            fail("SendFailedException must be thrown.");
+        } catch (SendFailedException e) {
+            assertThat(toStrings(e.getValidSentAddresses()), is("[to@example.com]"));
+            assertThat(e.getValidUnsentAddresses(), is(nullValue()));
+            assertThat(toStrings(e.getInvalidAddresses()), is("[invalid@example.com]"));
+        }
+        assertThat(server.getMessages().size(), is(1));
+    }
+
+    /**
+     * PIPELININGを広告するサーバには、MAIL FROMコマンドとRCPT TOコマンドをまとめて送信し、
+     * 宛先ごとの結果を持つ例外を送出すること。
+     */
+    @Test
+    public void testSendMessage_pipelining() throws Exception {
+        SmtpServerStub stub = new SmtpServerStub("PIPELINING");
+        stub.rejectRecipient("invalid@example.com", "550 no such user");
+        Session session = createSession(stub, "mail.smtp.sendpartial", "true");
+        MimeMessage message = createMessage(session);
+        message.setRecipients(Message.RecipientType.TO, "to1@example.com, invalid@example.com, to2@example.com");
+        message.saveChanges();
+        try {
+            send(session, message);
+            fail("SendFailedException must be thrown.");
+        } catch (SendFailedException e) {
+            assertThat(toStrings(e.getValidSentAddresses()), is("[to1@example.com, to2@example.com]"));
+            assertThat(e.getValidUnsentAddresses(), is(nullValue()));
+            assertThat(toStrings(e.getInvalidAddresses()), is("[invalid@example.com]"));
+        }
+        assertThat(server.getPipelinedCommands(), is(Arrays.asList(
+                "MAIL FROM:<from@example.com>", "RCPT TO:<to1@example.com>", "RCPT TO:<invalid@example.com>")));
+        assertThat(server.getMessages().size(), is(1));
+    }
+
+    /**
+     * PIPELININGで送信者が拒否された場合は、全ての宛先を未送信として例外を送出すること。
+     */
+    @Test
+    public void testSendMessage_pipeliningSenderRejected() throws Exception {
+        SmtpServerStub stub = new SmtpServerStub("PIPELINING");
+        stub.rejectSender("553 sender rejected");
+        Session session = createSession(stub);
+        MimeMessage message = createMessage(session);
+        message.setRecipients(Message.RecipientType.TO, "to1@example.com, to2@example.com");
+        message.saveChanges();
+        try {
+            send(session, message);
+            fail("SendFailedException must be thrown.");
+        } catch (SendFailedException e) {
+            assertThat(e.getMessage(), is("553 sender rejected"));
+            assertThat(e.getValidSentAddresses(), is(nullValue()));
+            assertThat(toStrings(e.getValidUnsentAddresses()), is("[to1@example.com, to2@example.com]"));
+            assertThat(e.getInvalidAddresses(), is(nullValue()));
+        }
+        assertThat(server.getCommands().contains("DATA"), is(false));
+    }
+
+    /**
+     * PIPELININGの使用が無効化されている場合は、コマンドごとに応答を待つこと。
+     */
+    @Test
+    public void testSendMessage_pipeliningDisabled() throws Exception {
+        Session session = createSession(new SmtpServerStub("PIPELINING"), "mail.smtp.pipelining", "false");
+        MimeMessage message = createMessage(session);
+        message.setRecipients(Message.RecipientType.TO, "to1@example.com, to2@example.com");
+        message.saveChanges();
+        send(session, message);
+
+        assertThat(server.getPipelinedCommands().isEmpty(), is(true));
+        assertThat(server.getMessages().size(), is(1));
+    }
+
+    /**
+     * STARTTLSが必須の場合に、サーバがSTARTTLSを広告しなければ送信せずに接続に失敗すること。
+     */
+    @Test
+    public void testConnect_startTlsRequiredButNotSupported() throws Exception {
+        Session session = createSession(new SmtpServerStub(), "mail.smtp.starttls.required", "true");
+        try {
+            send(session, createMessage(session));
+            fail("MessagingException must be thrown.");
+        } catch (MessagingException e) {
+            assertThat(e.getMessage(), e.getMessage().contains("STARTTLS is required"), is(true));
+        }
+        assertThat(server.getCommands().contains("STARTTLS"), is(false));
+        assertThat(server.getMessages().isEmpty(), is(true));
+    }
+
+    /**
+     * SSLが有効な場合は、接続時からTLSで通信するため、平文のサーバには接続できないこと。
+     */
+    @Test
+    public void testConnect_sslEnabled() throws Exception {
+        Session session = createSession(new SmtpServerStub(), "mail.smtp.ssl.enable", "true");
+        try {
+            send(session, createMessage(session));
+            fail("MessagingException must be thrown.");
+        } catch (MessagingException e) {
+            assertThat(e.getMessage(), e.getMessage().contains("could not connect to SMTP host"), is(true));
+        }
+        assertThat(server.getMessages().isEmpty(), is(true));
+    }
+
+    /**
+     * TLSのソケットには、設定されたプロトコルと暗号スイートが有効にされること。
+     */
+    @Test
+    public void testConfigureSslSocket() throws Exception {
+        SSLSocket socket = (SSLSocket) SSLSocketFactory.getDefault().createSocket();
+        String cipherSuite = socket.getSupportedCipherSuites()[0];
+        Session session = createSession(new SmtpServerStub(), "mail.smtp.ssl.protocols", " TLSv1.2 ",
+                "mail.smtp.ssl.ciphersuites", cipherSuite);
+        EsmtpTransport transport = (EsmtpTransport) session.getTransport("smtp");
+        try {
+            transport.configureSslSocket(socket);
+            assertThat(Arrays.asList(socket.getEnabledProtocols()), is(Arrays.asList("TLSv1.2")));
+            assertThat(Arrays.asList(socket.getEnabledCipherSuites()), is(Arrays.asList(cipherSuite)));
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * サーバ証明書のDNS名の別名と比較し、CNとは比較しないこと。
+     */
+    @Test
+    public void testMatchesHostName_dnsName() throws Exception {
+        X509Certificate certificate = loadCertificate("serverCertificateWithSan.pem");
+        assertThat(EsmtpTransport.matchesHostName(certificate, "mail.example.com"), is(true));
+        assertThat(EsmtpTransport.matchesHostName(certificate, "MAIL.Example.COM"), is(true));
+        assertThat(EsmtpTransport.matchesHostName(certificate, "smtp.example.com"), is(false));
+        assertThat("DNS名の別名がある場合はCNと比較しない",
+                EsmtpTransport.matchesHostName(certificate, "cn.example.com"), is(false));
+    }
+
+    /**
+     * ワイルドカードは左端の1つのラベルにのみ一致すること。
+     */
+    @Test
+    public void testMatchesHostName_wildcard() throws Exception {
+        X509Certificate certificate = loadCertificate("serverCertificateWithSan.pem");
+        assertThat(EsmtpTransport.matchesHostName(certificate, "smtp.example.org"), is(true));
+        assertThat(EsmtpTransport.matchesHostName(certificate, "example.org"), is(false));
+        assertThat(EsmtpTransport.matchesHostName(certificate, "a.smtp.example.org"), is(false));
+    }
+
+    /**
+     * IPアドレスはIPアドレスの別名とのみ比較すること。
+     */
+    @Test
+    public void testMatchesHostName_ipAddress() throws Exception {
+        X509Certificate certificate = loadCertificate("serverCertificateWithSan.pem");
+        assertThat(EsmtpTransport.matchesHostName(certificate, "192.0.2.10"), is(true));
+        assertThat(EsmtpTransport.matchesHostName(certificate, "192.0.2.11"), is(false));
+    }
+
+    /**
+     * 別名がないサーバ証明書は、サブジェクトのCNと比較すること。
+     */
+    @Test
+    public void testMatchesHostName_commonName() throws Exception {
+        X509Certificate certificate = loadCertificate("serverCertificateWithCn.pem");
+        assertThat(EsmtpTransport.matchesHostName(certificate, "smtp.example.com"), is(true));
+        assertThat(EsmtpTransport.matchesHostName(certificate, "mail.example.com"), is(false));
+    }
+
+    /**
+     * サーバが広告したメカニズムのうち、優先するLOGINで認証すること。
+     */
+    @Test
+    public void testConnect_authLogin() throws Exception {
+        Session session = createSession(new SmtpServerStub("AUTH PLAIN LOGIN"), "mail.smtp.auth", "true");
+        sendWithAuth(session, createMessage(session));
+
+        List<String> commands = server.getCommands();
+        assertThat(commands.subList(1, 4), is(Arrays.asList("AUTH LOGIN", "dXNlcg==", "c2VjcmV0")));
+        assertThat(server.getMessages().size(), is(1));
+    }
+
+    /**
+     * サーバがPLAINのみを広告している場合は、PLAINで認証すること。
+     */
+    @Test
+    public void testConnect_authPlain() throws Exception {
+        Session session = createSession(new SmtpServerStub("AUTH PLAIN"), "mail.smtp.auth", "true");
+        sendWithAuth(session, createMessage(session));
+
+        assertThat(server.getCommands().get(1), is("AUTH PLAIN AHVzZXIAc2VjcmV0"));
+        assertThat(server.getMessages().size(), is(1));
+    }
+
+    /**
+     * 設定されたメカニズムの順に優先し、無効化されたメカニズムは使用しないこと。
+     */
+    @Test
+    public void testConnect_authMechanisms() throws Exception {
+        Session session = createSession(new SmtpServerStub("AUTH LOGIN PLAIN"), "mail.smtp.auth", "true",
+                "mail.smtp.auth.mechanisms", "PLAIN LOGIN");
+        sendWithAuth(session, createMessage(session));
+        assertThat(server.getCommands().get(1), is("AUTH PLAIN AHVzZXIAc2VjcmV0"));
+        server.stop();
+
+        session = createSession(new SmtpServerStub("AUTH LOGIN PLAIN"), "mail.smtp.auth", "true",
+                "mail.smtp.auth.mechanisms", "PLAIN LOGIN", "mail.smtp.auth.plain.disable", "true");
+        sendWithAuth(session, createMessage(session));
+        assertThat(server.getCommands().get(1), is("AUTH LOGIN"));
+    }
+
+    /**
+     * サーバと共通のメカニズムがない場合は、AUTHコマンドを送信せずに接続に失敗すること。
+     */
+    @Test
+    public void testConnect_authMechanismNotSupported() throws Exception {
+        Session session = createSession(new SmtpServerStub("AUTH CRAM-MD5"), "mail.smtp.auth", "true");
+        try {
+            sendWithAuth(session, createMessage(session));
+            fail("MessagingException must be thrown.");
+        } catch (MessagingException e) {
+            assertThat(e.getMessage(), e.getMessage().contains("no authentication mechanism"), is(true));
+            assertThat(e.getMessage(), e.getMessage().contains("CRAM-MD5"), is(true));
+        }
+        for (String command : server.getCommands()) {
+            assertThat(command, command.startsWith("AUTH"), is(false));
+        }
+        assertThat(server.getMessages().isEmpty(), is(true));
+    }
+
+    /**
+     * 認証が拒否された場合は、接続に失敗すること。
+     */
+    @Test
+    public void testConnect_authFailed() throws Exception {
+        SmtpServerStub stub = new SmtpServerStub("AUTH LOGIN");
+        stub.rejectAuthentication("535 authentication failed");
+        Session session = createSession(stub, "mail.smtp.auth", "true");
+        try {
+            sendWithAuth(session, createMessage(session));
+            fail("AuthenticationFailedException must be thrown.");
+        } catch (AuthenticationFailedException e) {
+            assertThat(e.getMessage(), is("535 authentication failed"));
+        }
+        assertThat(server.getMessages().isEmpty(), is(true));
+    }
+
+    /**
+     * 対応していないセッションプロパティが設定されている場合は、接続せずに失敗すること。
+     */
+    @Test
+    public void testConnect_unsupportedProperties() throws Exception {
+        String[] names = {"mail.smtp.ssl.trust", "mail.smtp.ssl.socketFactory.class",
+                "mail.smtp.socketFactory.class", "mail.smtp.socketFactory.fallback", "mail.smtp.socketFactory.port"};
+        for (String name : names) {
+            Session session = createSession(new SmtpServerStub(), name, "*");
+            try {
+                send(session, createMessage(session));
+                fail("MessagingException must be thrown.");
+            } catch (MessagingException e) {
+                assertThat(e.getMessage(), e.getMessage().startsWith(name + " is not supported"), is(true));
+            }
+            assertThat(server.getClientPorts().isEmpty(), is(true));
+            server.stop();
+        }
+
+        Session session = createSession(new SmtpServerStub());
+        session.getProperties().put("mail.smtp.socketFactory", SSLSocketFactory.getDefault());
+        try {
+            send(session, createMessage(session));
+            fail("MessagingException must be thrown.");
+        } catch (MessagingException e) {
+            assertThat(e.getMessage(), e.getMessage().startsWith("mail.smtp.socketFactory is not supported"),
+                    is(true));
+        }
+    }
+
+    /**
+     * ローカルアドレスとローカルポートが設定されている場合は、そのアドレスとポートから接続すること。
+     */
+    @Test
+    public void testConnect_localAddress() throws Exception {
+        ServerSocket free = new ServerSocket(0);
+        int localPort = free.getLocalPort();
+        free.close();
+        Session session = createSession(new SmtpServerStub(), "mail.smtp.localaddress", "127.0.0.1",
+                "mail.smtp.localport", String.valueOf(localPort));
+        send(session, createMessage(session));
+
+        assertThat(server.getClientPorts(), is(Arrays.asList(localPort)));
+        assertThat(server.getMessages().size(), is(1));
+    }
+
+    /**
+     * バインドできないローカルアドレスが設定されている場合は、接続に失敗すること。
+     */
+    @Test
+    public void testConnect_invalidLocalAddress() throws Exception {
+        Session session = createSession(new SmtpServerStub(), "mail.smtp.localaddress", "192.0.2.1");
+        try {
+            send(session, createMessage(session));
+            fail("MessagingException must be thrown.");
+        } catch (MessagingException e) {
+            assertThat(e.getMessage(), e.getMessage().contains("could not connect to SMTP host"), is(true));
+        }
+        assertThat(server.getClientPorts().isEmpty(), is(true));
+    }
+
+    private Session createSession(SmtpServerStub stub, String... options) throws Exception {
+        server = stub;
+        int port = server.start();
+        Properties properties = new Properties();
+        properties.setProperty("mail.smtp.host", "127.0.0.1");
+        properties.setProperty("mail.smtp.port", String.valueOf(port));
+        properties.setProperty("mail.smtp.localhost", "client.example.com");
+        properties.setProperty("mail.smtp.timeout", "5000");
+        for (int i = 0; i < options.length; i += 2) {
+            properties.setProperty(options[i], options[i + 1]);
+        }
+        Session session = Session.getInstance(properties);
+        session.setProvider(new javax.mail.Provider(javax.mail.Provider.Type.TRANSPORT, "smtp",
+                EsmtpTransport.class.getName(), "Nablarch", null));
+        return session;
+    }
+
+    private static MimeMessage createMessage(Session session) throws Exception {
+        MimeMessage message = new MimeMessage(session);
+        message.setFrom(new InternetAddress("from@example.com"));
+        message.setRecipient(Message.RecipientType.TO, new InternetAddress("to@example.com"));
+        message.setSubject("件名", "UTF-8");
+
+        MimeBodyPart text = new MimeBodyPart();
+        text.setText(TEXT, "UTF-8");
+        MimeBodyPart file = new MimeBodyPart();
+        file.setDataHandler(new DataHandler(new ByteArrayDataSource(FILE_DATA, "application/octet-stream")));
+        file.setFileName("data.bin");
+        MimeMultipart multipart = new MimeMultipart();
+        multipart.addBodyPart(text);
+        multipart.addBodyPart(file);
+        message.setContent(multipart);
+        message.saveChanges();
+        return message;
+    }
+
+    private static void send(Session session, MimeMessage message) throws Exception {
+        Transport transport = session.getTransport("smtp");
+        assertThat(transport, is(instanceOf(EsmtpTransport.class)));
+        transport.connect();
+        try {
+            transport.sendMessage(message, message.getAllRecipients());
+        } finally {
+            transport.close();
+        }
+    }
+
+    private static void sendWithAuth(Session session, MimeMessage message) throws Exception {
+        Transport transport = session.getTransport("smtp");
+        transport.connect("user", "secret");
+        try {
+            transport.sendMessage(message, message.getAllRecipients());
+        } finally {
+            transport.close();
+        }
+    }
+
+    private static X509Certificate loadCertificate(String name) throws Exception {
+        InputStream in = EsmtpTransportTest.class.getResourceAsStream(name);
+        try {
+            return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private MimeMessage received(int index) throws Exception {
+        return new MimeMessage(null, new ByteArrayInputStream(server.getMessages().get(index)));
+    }
+
+    private static String toStrings(Address[] addresses) {
+        return Arrays.toString(addresses);
+    }
+
+    private static byte[] read(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            out.write(b);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] createBinaryData(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) i;
+        }
+        return data;
+    }
+}
@@ -0,0 +1,201 @@
+package nablarch.common.mail;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * {@link ExecutorMailTransport}のテストクラス。
+ */
+public class ExecutorMailTransportTest {
+
+    private SmtpServerStub server;
+
+    private final ExecutorMailTransport sut = new ExecutorMailTransport();
+
+    @After
+    public void tearDown() throws Exception {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    /**
+     * {@link Executor}を設定しない場合は、メールごとに生成したスレッドで全て送信できること。
+     */
+    @Test
+    public void testSend_threadPerMessage() throws Exception {
+        server = new SmtpServerStub();
+        Session session = createSession(server.start());
+        sut.setMaxConcurrency(5);
+
+        RecordingCallback callback = new RecordingCallback();
+        for (int i = 0; i < 20; i++) {
+            sut.send(session, createMessage(session, "to" + i + "@example.com"), callback);
+        }
+        sut.waitForCompletion();
+
+        assertThat(callback.successCount.get(), is(20));
+        assertThat(callback.failures.isEmpty(), is(true));
+        assertThat(server.getMessages().size(), is(20));
+        assertThat(sut.getActiveCount(), is(0));
+    }
+
+    /**
+     * 同時に実行するタスク数が上限に達した場合は、タスクが完了するまで呼び出し元が待機すること。
+     */
+    @Test
+    public void testSend_maxConcurrency() throws Exception {
+        server = new SmtpServerStub();
+        final Session session = createSession(server.start());
+        final QueueingExecutor executor = new QueueingExecutor();
+        sut.setExecutor(executor);
+        sut.setMaxConcurrency(2);
+
+        final RecordingCallback callback = new RecordingCallback();
+        sut.send(session, createMessage(session, "to1@example.com"), callback);
+        sut.send(session, createMessage(session, "to2@example.com"), callback);
+        assertThat(sut.getActiveCount(), is(2));
+
+        Thread third = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sut.send(session, createMessage(session, "to3@example.com"), callback);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        third.start();
+        third.join(300);
+        assertThat("上限に達しているため待機していること", third.isAlive(), is(true));
+        assertThat(executor.tasks.size(), is(2));
+
+        executor.runNext();
+        third.join(5000);
+        assertThat(third.isAlive(), is(false));
+
+        executor.runNext();
+        executor.runNext();
+        sut.waitForCompletion();
+        assertThat(callback.successCount.get(), is(3));
+    }
+
+    /**
+     * 宛先が拒否された場合は、{@link SendFailedException}が通知されること。
+     */
+    @Test
+    public void testSend_sendFailed() throws Exception {
+        server = new SmtpServerStub();
+        server.rejectRecipient("invalid@example.com", "550 no such user");
+        Session session = createSession(server.start());
+
+        RecordingCallback callback = new RecordingCallback();
+        sut.send(session, createMessage(session, "invalid@example.com"), callback);
+        sut.waitForCompletion();
+
+        assertThat(callback.failures.size(), is(1));
+        SendFailedException e = (SendFailedException) callback.failures.get(0);
+        assertThat(Arrays.toString(e.getInvalidAddresses()), is("[invalid@example.com]"));
+    }
+
+    /**
+     * {@link Executor}がタスクを拒否した場合は、送信失敗が通知され、上限の枠が解放されること。
+     */
+    @Test
+    public void testSend_rejected() throws Exception {
+        Session session = createSession(25);
+        sut.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException("shutdown");
+            }
+        });
+
+        RecordingCallback callback = new RecordingCallback();
+        sut.send(session, createMessage(session, "to@example.com"), callback);
+
+        assertThat(callback.failures.size(), is(1));
+        assertThat(callback.failures.get(0).getMessage(), is("send task was rejected."));
+        assertThat(sut.getActiveCount(), is(0));
+    }
+
+    private static Session createSession(int port) throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("mail.smtp.host", "127.0.0.1");
+        properties.setProperty("mail.smtp.port", String.valueOf(port));
+        properties.setProperty("mail.smtp.localhost", "client.example.com");
+        properties.setProperty("mail.smtp.timeout", "5000");
+        Session session = Session.getInstance(properties);
+        session.setProvider(new javax.mail.Provider(javax.mail.Provider.Type.TRANSPORT, "smtp",
+                EsmtpTransport.class.getName(), "Nablarch", null));
+        return session;
+    }
+
+    private static MimeMessage createMessage(Session session, String to) throws Exception {
+        MimeMessage message = new MimeMessage(session);
+        message.setFrom(new InternetAddress("from@example.com"));
+        message.setRecipients(Message.RecipientType.TO, to);
+        message.setSubject("件名", "UTF-8");
+        message.setText("本文", "UTF-8");
+        message.saveChanges();
+        return message;
+    }
+
+    /**
+     * タスクを溜めておき、テストから1件ずつ実行する{@link Executor}。
+     */
+    private static class QueueingExecutor implements Executor {
+
+        private final List<Runnable> tasks = Collections.synchronizedList(new ArrayList<Runnable>());
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runNext() {
+            tasks.remove(0).run();
+        }
+    }
+
+    /**
+     * 送信結果を記録するコールバック。
+     */
+    private static class RecordingCallback implements MailTransportCallback {
+
+        private final AtomicInteger successCount = new AtomicInteger();
+
+        private final List<MessagingException> failures =
+                Collections.synchronizedList(new ArrayList<MessagingException>());
+
+        @Override
+        public void onSuccess() {
+            successCount.incrementAndGet();
+        }
+
+        @Override
+        public void onFailure(MessagingException e) {
+            failures.add(e);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package nablarch.common.mail;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeUtility;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * {@link HttpBatchMailTransport}のテストクラス。
+ */
+public class HttpBatchMailTransportTest {
+
+    private HttpServer server;
+
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+
+    private final List<String> authorizations = Collections.synchronizedList(new ArrayList<String>());
+
+    private volatile int responseStatus = 202;
+
+    private final HttpBatchMailTransport sut = new HttpBatchMailTransport();
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/send", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) {
+                try {
+                    requests.add(read(exchange.getRequestBody()));
+                    authorizations.add(exchange.getRequestHeaders().getFirst("Authorization"));
+                    final byte[] body = "{\"result\":\"accepted\"}".getBytes("UTF-8");
+                    exchange.sendResponseHeaders(responseStatus, body.length);
+                    final OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                    out.close();
+                } catch (Exception ignored) {
+                    // テスト用のため、例外は無視する。
+                }
+            }
+        });
+        server.start();
+        sut.setEndpointUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/send");
+        sut.setRequestHeaders(Collections.singletonMap("Authorization", "Bearer token"));
+    }
+
+    @After
+    public void tearDown() {
+        sut.dispose();
+        server.stop(0);
+    }
+
+    /**
+     * まとめる件数ごとに1回のリクエストで送信され、メッセージ全体がBase64で送信されること。
+     */
+    @Test
+    public void testSend_batched() throws Exception {
+        sut.setBatchSize(4);
+        sut.setMaxDelayMillis(60000L);
+        sut.initialize();
+
+        Session session = createSession("return@example.com");
+        Session otherSession = createSession("other-return@example.com");
+        RecordingCallback callback = new RecordingCallback();
+        for (int i = 0; i < 6; i++) {
+            sut.send(i % 2 == 0 ? session : otherSession,
+                    createMessage(session, "本文" + i, "to" + i + "@example.com"), callback);
+        }
+        sut.waitForCompletion();
+
+        assertThat(callback.successCount.get(), is(6));
+        assertThat(requests.size(), is(2));
+        assertThat(authorizations.get(0), is("Bearer token"));
+
+        // 2回のリクエストは並行して送信されるため、到着順は問わない。
+        String first = count(requests.get(0), "\"raw\"") == 4 ? requests.get(0) : requests.get(1);
+        String second = first == requests.get(0) ? requests.get(1) : requests.get(0);
+        assertThat(count(first, "\"raw\""), is(4));
+        assertThat(count(second, "\"raw\""), is(2));
+        assertTrue(first.startsWith("{\"messages\":[{\"returnPath\":\"return@example.com\","
+                + "\"recipients\":[\"to0@example.com\"],\"raw\":\""));
+        assertTrue(first.contains("{\"returnPath\":\"other-return@example.com\",\"recipients\":[\"to1@example.com\"]"));
+
+        Matcher raw = Pattern.compile("\"raw\":\"([^\"]*)\"").matcher(first);
+        assertTrue(raw.find());
+        MimeMessage decoded = new MimeMessage(null,
+                MimeUtility.decode(new ByteArrayInputStream(raw.group(1).getBytes("US-ASCII")), "base64"));
+        assertThat((String) decoded.getContent(), is("本文0"));
+        assertThat(decoded.getSubject(), is("件名"));
+    }
+
+    /**
+     * エラーのステータスコードが返された場合は、まとめた全てのメールの送信失敗が通知されること。
+     */
+    @Test
+    public void testSend_errorStatus() throws Exception {
+        responseStatus = 503;
+        sut.initialize();
+
+        Session session = createSession("return@example.com");
+        RecordingCallback callback = new RecordingCallback();
+        sut.send(session, createMessage(session, "本文", "to1@example.com"), callback);
+        sut.send(session, createMessage(session, "本文", "to2@example.com"), callback);
+        sut.waitForCompletion();
+
+        assertThat(callback.successCount.get(), is(0));
+        assertThat(callback.failures.size(), is(2));
+        assertTrue(callback.failures.get(0).getMessage().contains("status=[503]"));
+    }
+
+    /**
+     * 接続できない場合は、送信失敗が通知されること。
+     */
+    @Test
+    public void testSend_connectionRefused() throws Exception {
+        server.stop(0);
+        sut.setConnectTimeoutMillis(1000);
+        sut.initialize();
+
+        Session session = createSession("return@example.com");
+        RecordingCallback callback = new RecordingCallback();
+        sut.send(session, createMessage(session, "本文", "to@example.com"), callback);
+        sut.waitForCompletion();
+
+        assertThat(callback.failures.size(), is(1));
+        assertTrue(callback.failures.get(0).getMessage().startsWith("failed to call mail delivery API."));
+    }
+
+    private static int count(String text, String target) {
+        int count = 0;
+        int index = 0;
+        while ((index = text.indexOf(target, index)) >= 0) {
+            count++;
+            index += target.length();
+        }
+        return count;
+    }
+
+    private static String read(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toString("UTF-8");
+    }
+
+    private static Session createSession(String returnPath) {
+        Properties properties = new Properties();
+        properties.setProperty("mail.smtp.from", returnPath);
+        return Session.getInstance(properties);
+    }
+
+    private static MimeMessage createMessage(Session session, String text, String to) throws Exception {
+        MimeMessage message = new MimeMessage(session);
+        message.setFrom(new InternetAddress("from@example.com"));
+        message.setRecipients(Message.RecipientType.TO, to);
+        message.setSubject("件名", "UTF-8");
+        message.setText(text, "UTF-8");
+        message.saveChanges();
+        return message;
+    }
+
+    /**
+     * 送信結果を記録するコールバック。
+     */
+    private static class RecordingCallback implements MailTransportCallback {
+
+        private final AtomicInteger successCount = new AtomicInteger();
+
+        private final List<MessagingException> failures =
+                Collections.synchronizedList(new ArrayList<MessagingException>());
+
+        @Override
+        public void onSuccess() {
+            successCount.incrementAndGet();
+        }
+
+        @Override
+        public void onFailure(MessagingException e) {
+            failures.add(e);
+        }
+    }
+}
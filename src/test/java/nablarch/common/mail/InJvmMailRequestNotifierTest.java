@@ -0,0 +1,131 @@
+package nablarch.common.mail;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link InJvmMailRequestNotifier}のテストクラス。
+ */
+public class InJvmMailRequestNotifierTest {
+
+    private final InJvmMailRequestNotifier sut = new InJvmMailRequestNotifier();
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+        sut.setMaxWaitMillis(5000L);
+        sut.setCommitWaitMillis(0L);
+        sut.recordPoll(0);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 待機中に通知を受けた場合は、直ちに復帰すること。
+     */
+    @Test
+    public void testAwaitRequest_notified() throws Exception {
+        assertThat("初回は待機せずに復帰すること", sut.awaitRequest(), is(false));
+
+        final long start = System.nanoTime();
+        final Future<Boolean> result = executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                assertThat(sut.awaitRequest(), is(false));
+                return sut.awaitRequest();
+            }
+        });
+        Thread.sleep(100L);
+        assertThat(result.isDone(), is(false));
+
+        sut.notifyRequested(null);
+        assertThat(result.get(1, TimeUnit.SECONDS), is(true));
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000L, is(true));
+    }
+
+    /**
+     * 前回の復帰以降に通知を受けていた場合は、待機せずに復帰すること。
+     */
+    @Test
+    public void testAwaitRequest_notifiedBefore() throws Exception {
+        sut.awaitRequest();
+        sut.notifyRequested("tran");
+        sut.notifyRequested("tran");
+
+        final long start = System.nanoTime();
+        assertThat(sut.awaitRequest(), is(true));
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 100L, is(true));
+    }
+
+    /**
+     * 直前の読み込みで未送信のメール送信要求があった場合は、通知がなくても待機せずに復帰すること。
+     */
+    @Test
+    public void testAwaitRequest_lastPollHadTargets() throws Exception {
+        sut.awaitRequest();
+        sut.recordPoll(3);
+
+        final long start = System.nanoTime();
+        assertThat(sut.awaitRequest(), is(false));
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 100L, is(true));
+    }
+
+    /**
+     * 読み込み結果を記録していない場合は、待機せずに復帰すること。
+     */
+    @Test
+    public void testAwaitRequest_notPolled() throws Exception {
+        final InJvmMailRequestNotifier notifier = new InJvmMailRequestNotifier();
+        notifier.setMaxWaitMillis(5000L);
+        notifier.awaitRequest();
+
+        final long start = System.nanoTime();
+        assertThat(notifier.awaitRequest(), is(false));
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 100L, is(true));
+    }
+
+    /**
+     * 通知がない場合は、最大の待ち時間の経過後に復帰すること。
+     */
+    @Test
+    public void testAwaitRequest_timeout() throws Exception {
+        sut.setMaxWaitMillis(100L);
+        sut.awaitRequest();
+
+        final long start = System.nanoTime();
+        assertThat(sut.awaitRequest(), is(false));
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 90L, is(true));
+    }
+
+    /**
+     * 通知を受けてからコミットを待つ間は、再読み込みの間隔で復帰すること。
+     */
+    @Test
+    public void testAwaitRequest_recheckUntilCommit() throws Exception {
+        sut.setCommitWaitMillis(500L);
+        sut.setRecheckIntervalMillis(50L);
+        sut.awaitRequest();
+        sut.notifyRequested(null);
+        assertThat(sut.awaitRequest(), is(true));
+
+        final long start = System.nanoTime();
+        assertThat(sut.awaitRequest(), is(true));
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertThat(elapsed >= 40L && elapsed < 400L, is(true));
+    }
+}
@@ -0,0 +1,114 @@
+package nablarch.common.mail;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import nablarch.core.db.statement.SqlResultSet;
+import nablarch.core.db.statement.SqlRow;
+
+import org.junit.Test;
+
+/**
+ * {@link KeysetMailRequestReader}のテスト。
+ */
+public class KeysetMailRequestReaderTest {
+
+    /**
+     * 未送信のメール送信要求をメモリ上に保持するメール送信要求管理テーブル。
+     */
+    private static class StubMailRequestTable extends MailRequestTable {
+
+        /** 未送信のメールリクエストID */
+        private final TreeSet<String> unsent = new TreeSet<String>();
+
+        /** 読み込み時に指定された前回の最後のメールリクエストID */
+        private final List<String> lastKeys = new ArrayList<String>();
+
+        /** プロセスIDの設定時に指定された前回の最後のメールリクエストID */
+        private final List<String> claimedAfterKeys = new ArrayList<String>();
+
+        @Override
+        public void updateSendProcessId(String mailSendPatternId, String sendProcessId, String lastMailRequestId) {
+            claimedAfterKeys.add(lastMailRequestId);
+        }
+
+        @Override
+        public SqlResultSet findUnsentPage(String mailSendPatternId, String sendProcessId, String lastMailRequestId) {
+            lastKeys.add(lastMailRequestId);
+            final SqlResultSet rs = new SqlResultSet(10) {
+            };
+            final Iterable<String> candidates = lastMailRequestId == null
+                    ? unsent : unsent.tailSet(lastMailRequestId, false);
+            for (String id : candidates) {
+                if (rs.size() == getReaderPageSize()) {
+                    break;
+                }
+                final Map<String, Object> row = new HashMap<String, Object>();
+                row.put("MAIL_REQUEST_ID", id);
+                rs.add(new SqlRow(row, new HashMap<String, Integer>()));
+            }
+            return rs;
+        }
+    }
+
+    /**
+     * 前回の最後のメールリクエストIDより後のデータを、1回の件数ずつ読み込むこと。
+     */
+    @Test
+    public void testReadByPage() {
+        final StubMailRequestTable table = new StubMailRequestTable();
+        table.setReaderPageSize(2);
+        table.unsent.add("01");
+        table.unsent.add("02");
+        table.unsent.add("03");
+
+        final KeysetMailRequestReader sut = new KeysetMailRequestReader(table, null, "process");
+        final List<String> ids = new ArrayList<String>();
+        while (sut.hasNext(null)) {
+            ids.add(sut.read(null).getString("MAIL_REQUEST_ID"));
+        }
+        assertThat(ids.toString(), is("[01, 02, 03]"));
+        assertThat(table.lastKeys.toString(), is("[null, 02]"));
+        assertThat("読み込み済みのメールリクエストIDより後にのみプロセスIDを設定する",
+                table.claimedAfterKeys.toString(), is("[null, 02]"));
+    }
+
+    /**
+     * 読み込み開始後に登録されたメール送信要求も読み込むこと。
+     */
+    @Test
+    public void testReadInsertedAfterStart() {
+        final StubMailRequestTable table = new StubMailRequestTable();
+        table.setReaderPageSize(2);
+        table.unsent.add("01");
+        table.unsent.add("02");
+
+        final KeysetMailRequestReader sut = new KeysetMailRequestReader(table, null, "process");
+        assertThat(sut.read(null).getString("MAIL_REQUEST_ID"), is("01"));
+        table.unsent.add("03");
+        table.unsent.add("04");
+        table.unsent.add("05");
+
+        final List<String> ids = new ArrayList<String>();
+        SqlRow row;
+        while ((row = sut.read(null)) != null) {
+            ids.add(row.getString("MAIL_REQUEST_ID"));
+        }
+        assertThat(ids.toString(), is("[02, 03, 04, 05]"));
+        assertThat(table.lastKeys.toString(), is("[null, 02, 04]"));
+    }
+
+    /**
+     * 1回の件数を負の値に設定できないこと。
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPageSize() {
+        new MailRequestTable().setReaderPageSize(-1);
+    }
+}
@@ -0,0 +1,224 @@
+package nablarch.common.mail;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import nablarch.core.date.BasicSystemTimeProvider;
+import nablarch.core.db.statement.SqlResultSet;
+import nablarch.core.db.statement.SqlRow;
+import nablarch.core.repository.ObjectLoader;
+import nablarch.core.repository.SystemRepository;
+import nablarch.fw.DataReader;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * {@link MailArchiver}のテスト。
+ */
+public class MailArchiverTest {
+
+    @After
+    public void tearDown() {
+        SystemRepository.clear();
+    }
+
+    /**
+     * メール送信要求をメモリ上に保持する履歴テーブル。
+     */
+    private static class StubMailHistoryTable extends MailHistoryTable {
+
+        /** 移動対象のメールリクエストID */
+        private final TreeSet<String> completed = new TreeSet<String>();
+
+        /** 保持期間を経過したメールリクエストID */
+        private final TreeSet<String> expired = new TreeSet<String>();
+
+        /** 移動または削除した範囲 */
+        private final List<String> handled = new ArrayList<String>();
+
+        /** 削除時に指定された要求日時の基準 */
+        private Timestamp threshold;
+
+        @Override
+        public SqlResultSet findCompletedChunk(MailConfig mailConfig, String lastMailRequestId) {
+            return find(completed, lastMailRequestId);
+        }
+
+        @Override
+        public SqlResultSet findExpiredChunk(Timestamp threshold, String lastMailRequestId) {
+            this.threshold = threshold;
+            return find(expired, lastMailRequestId);
+        }
+
+        @Override
+        public int archive(MailConfig mailConfig, String firstMailRequestId, String lastMailRequestId) {
+            handled.add("archive:" + firstMailRequestId + '-' + lastMailRequestId);
+            return completed.subSet(firstMailRequestId, true, lastMailRequestId, true).size();
+        }
+
+        @Override
+        public int purge(Timestamp threshold, String firstMailRequestId, String lastMailRequestId) {
+            handled.add("purge:" + firstMailRequestId + '-' + lastMailRequestId);
+            return expired.subSet(firstMailRequestId, true, lastMailRequestId, true).size();
+        }
+
+        private SqlResultSet find(TreeSet<String> ids, String lastMailRequestId) {
+            final SqlResultSet rs = new SqlResultSet(10) {
+            };
+            for (String id : lastMailRequestId == null ? ids : ids.tailSet(lastMailRequestId, false)) {
+                if (rs.size() == getChunkSize()) {
+                    break;
+                }
+                final Map<String, Object> row = new HashMap<String, Object>();
+                row.put("MAIL_REQUEST_ID", id);
+                rs.add(new SqlRow(row, new HashMap<String, Integer>()));
+            }
+            return rs;
+        }
+    }
+
+    /**
+     * テスト対象の履歴テーブルを、送信中のステータスを設定したメール送信設定とともにシステムリポジトリに登録する。
+     *
+     * @param table 履歴テーブル({@code null}の場合は登録しない)
+     */
+    private static void load(final MailHistoryTable table) {
+        load(table, "9");
+    }
+
+    /**
+     * テスト対象の履歴テーブルをシステムリポジトリに登録する。
+     *
+     * @param table 履歴テーブル({@code null}の場合は登録しない)
+     * @param statusSending 送信中のステータス
+     */
+    private static void load(final MailHistoryTable table, final String statusSending) {
+        SystemRepository.load(new ObjectLoader() {
+            @Override
+            public Map<String, Object> load() {
+                final Map<String, Object> components = new HashMap<String, Object>();
+                final MailConfig mailConfig = new MailConfig();
+                mailConfig.setStatusSending(statusSending);
+                components.put("systemTimeProvider", new BasicSystemTimeProvider());
+                components.put("mailConfig", mailConfig);
+                if (table != null) {
+                    components.put("mailHistoryTable", table);
+                }
+                return components;
+            }
+        });
+    }
+
+    /**
+     * 移動する範囲を一定件数ずつ読み込んだ後、削除する範囲を一定件数ずつ読み込むこと。
+     */
+    @Test
+    public void testArchiveThenPurge() {
+        final StubMailHistoryTable table = new StubMailHistoryTable();
+        table.setChunkSize(2);
+        table.setRetentionDays(30);
+        table.completed.add("05");
+        table.completed.add("07");
+        table.completed.add("08");
+        table.expired.add("01");
+        table.expired.add("02");
+        load(table);
+
+        final MailArchiver sut = new MailArchiver();
+        final DataReader<MailArchiver.Chunk> reader = sut.createReader(null);
+        int count = 0;
+        MailArchiver.Chunk chunk;
+        while ((chunk = reader.read(null)) != null) {
+            sut.handle(chunk, null);
+            count++;
+        }
+        assertThat(count, is(3));
+        assertThat(table.handled.toString(), is("[archive:05-07, archive:08-08, purge:01-02]"));
+
+        final long elapsed = System.currentTimeMillis() - table.threshold.getTime();
+        assertThat(elapsed >= 30L * 24L * 60L * 60L * 1000L, is(true));
+        assertThat(elapsed < 31L * 24L * 60L * 60L * 1000L, is(true));
+    }
+
+    /**
+     * 保持期間を設定しない場合は、履歴テーブルから削除しないこと。
+     */
+    @Test
+    public void testArchiveOnly() {
+        final StubMailHistoryTable table = new StubMailHistoryTable();
+        table.setChunkSize(2);
+        table.completed.add("01");
+        table.completed.add("02");
+        table.expired.add("00");
+        load(table);
+
+        final MailArchiver sut = new MailArchiver();
+        final DataReader<MailArchiver.Chunk> reader = sut.createReader(null);
+        while (reader.hasNext(null)) {
+            final MailArchiver.Chunk chunk = reader.read(null);
+            assertThat(chunk.isPurge(), is(false));
+            sut.handle(chunk, null);
+        }
+        assertThat(table.handled.toString(), is("[archive:01-02]"));
+        assertThat(table.threshold == null, is(true));
+    }
+
+    /**
+     * メール送信バッチと同時に移動する設定で送信中のステータスを使用しない場合は、
+     * 送信前に送信済みとなったメール送信要求を移動しないように、例外を送出すること。
+     */
+    @Test
+    public void testConcurrentWithoutSendingStatus() {
+        final StubMailHistoryTable table = new StubMailHistoryTable();
+        table.completed.add("01");
+        load(table, null);
+        try {
+            new MailArchiver().createReader(null);
+            fail();
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage().startsWith("statusSending of mailConfig must be set"), is(true));
+        }
+        assertThat(table.handled.isEmpty(), is(true));
+    }
+
+    /**
+     * メール送信バッチと同時に移動しない設定であれば、送信中のステータスを使用しなくても移動すること。
+     */
+    @Test
+    public void testNotConcurrentWithoutSendingStatus() {
+        final StubMailHistoryTable table = new StubMailHistoryTable();
+        table.setConcurrentWithMailSender(false);
+        table.completed.add("01");
+        load(table, null);
+
+        final MailArchiver sut = new MailArchiver();
+        final DataReader<MailArchiver.Chunk> reader = sut.createReader(null);
+        while (reader.hasNext(null)) {
+            sut.handle(reader.read(null), null);
+        }
+        assertThat(table.handled.toString(), is("[archive:01-01]"));
+    }
+
+    /**
+     * 履歴テーブルがシステムリポジトリに登録されていない場合は例外を送出すること。
+     */
+    @Test
+    public void testNoHistoryTable() {
+        load(null);
+        try {
+            new MailArchiver().createReader(null);
+            fail();
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("component was not found in the system repository. name=[mailHistoryTable]"));
+        }
+    }
+}
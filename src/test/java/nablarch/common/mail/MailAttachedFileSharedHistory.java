@@ -0,0 +1,43 @@
+package nablarch.common.mail;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * メールデータ共有テーブルを使用するメール添付ファイルの履歴
+ */
+@Entity
+@Table(name = "MAIL_ATTACHED_FILE_SHARED_HISTORY")
+public class MailAttachedFileSharedHistory {
+
+    public MailAttachedFileSharedHistory() {
+    }
+
+    public MailAttachedFileSharedHistory(String mailRequestId, Long serialNumber, String fileName,
+            String contentType, String fileHash) {
+        this.mailRequestId = mailRequestId;
+        this.serialNumber = serialNumber;
+        this.fileName = fileName;
+        this.contentType = contentType;
+        this.fileHash = fileHash;
+    }
+
+    @Id
+    @Column(name = "MAIL_REQUEST_ID", length = 20, nullable = false)
+    public String mailRequestId;
+
+    @Id
+    @Column(name = "SERIAL_NUMBER", length = 10, nullable = false)
+    public Long serialNumber;
+
+    @Column(name = "FILE_NAME", length = 150, nullable = false)
+    public String fileName;
+
+    @Column(name = "CONTENT_TYPE", length = 50, nullable = false)
+    public String contentType;
+
+    @Column(name = "FILE_HASH", length = 64, nullable = false)
+    public String fileHash;
+}
@@ -0,0 +1,35 @@
+package nablarch.common.mail;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+
+/**
+ * メールデータ共有
+ */
+@Entity
+@Table(name = "MAIL_BLOB")
+public class MailBlob {
+
+    public MailBlob() {
+    }
+
+    public MailBlob(String hash, byte[] data, Long referenceCount) {
+        this.hash = hash;
+        this.data = data;
+        this.referenceCount = referenceCount;
+    }
+
+    @Id
+    @Column(name = "HASH", length = 64, nullable = false)
+    public String hash;
+
+    @Lob
+    @Column(name = "DATA")
+    public byte[] data;
+
+    @Column(name = "REFERENCE_COUNT", length = 10, nullable = false)
+    public Long referenceCount;
+}
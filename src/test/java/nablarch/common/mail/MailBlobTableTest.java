@@ -0,0 +1,374 @@
+package nablarch.common.mail;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Timestamp;
+import java.util.List;
+
+import nablarch.core.date.SystemTimeUtil;
+import nablarch.core.db.connection.AppDbConnection;
+import nablarch.core.db.transaction.SimpleDbTransactionManager;
+import nablarch.core.util.FileUtil;
+import nablarch.test.support.SystemRepositoryResource;
+import nablarch.test.support.db.helper.DatabaseTestRunner;
+import nablarch.test.support.db.helper.VariousDbTestHelper;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import mockit.Invocation;
+import mockit.Mock;
+import mockit.MockUp;
+
+/**
+ * {@link MailBlobTable}及びメールデータ共有テーブルを使用したメール送信要求の登録、移動及び削除のテストクラス。
+ */
+@RunWith(DatabaseTestRunner.class)
+public class MailBlobTableTest {
+
+    @Rule
+    public SystemRepositoryResource repositoryResource = new SystemRepositoryResource(
+            "nablarch/common/mail/MailBlobTableTest.xml");
+
+    /** 本文 */
+    private static final String MAIL_BODY = "共有する本文";
+
+    /** トランザクションマネージャー */
+    private SimpleDbTransactionManager db;
+
+    /** 出力ライブラリ(メール送信)のコード値を保持するデータオブジェクト */
+    private MailConfig mailConfig;
+
+    /** メールデータ共有テーブルのスキーマ情報 */
+    private MailBlobTable mailBlobTable;
+
+    /** 添付ファイル */
+    private static File file;
+
+    static {
+        try {
+            file = new File(FileUtil.getClasspathResourceURL("nablarch/common/mail/mailAttachedFile.txt").toURI());
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    @BeforeClass
+    public static void beforeClass() {
+        VariousDbTestHelper.createTable(MailBlob.class);
+        VariousDbTestHelper.createTable(MailRequestShared.class);
+        VariousDbTestHelper.createTable(MailRequestSharedHistory.class);
+        VariousDbTestHelper.createTable(MailRecipient.class);
+        VariousDbTestHelper.createTable(MailRecipientHistory.class);
+        VariousDbTestHelper.createTable(MailAttachedFileShared.class);
+        VariousDbTestHelper.createTable(MailAttachedFileSharedHistory.class);
+        VariousDbTestHelper.createTable(MailSbnTable.class);
+    }
+
+    @Before
+    public void before() {
+        VariousDbTestHelper.delete(MailBlob.class);
+        VariousDbTestHelper.delete(MailRequestShared.class);
+        VariousDbTestHelper.delete(MailRequestSharedHistory.class);
+        VariousDbTestHelper.delete(MailRecipient.class);
+        VariousDbTestHelper.delete(MailRecipientHistory.class);
+        VariousDbTestHelper.delete(MailAttachedFileShared.class);
+        VariousDbTestHelper.delete(MailAttachedFileSharedHistory.class);
+        VariousDbTestHelper.setUpTable(new MailSbnTable("99", 0L));
+
+        db = repositoryResource.getComponent("dbManager-default");
+        mailConfig = repositoryResource.getComponent("mailConfig");
+        mailBlobTable = repositoryResource.getComponent("mailBlobTable");
+    }
+
+    /**
+     * 未登録のデータは、参照数1で登録されること。
+     */
+    @Test
+    public void testRegisterNewData() throws Exception {
+        final byte[] data = "データ".getBytes("UTF-8");
+
+        db.beginTransaction();
+        final String hash;
+        try {
+            hash = mailBlobTable.register(data);
+            db.commitTransaction();
+        } finally {
+            db.endTransaction();
+        }
+
+        assertThat(hash, is(MailBlobTable.computeHash(data)));
+        final List<MailBlob> blobs = VariousDbTestHelper.findAll(MailBlob.class);
+        assertThat(blobs.size(), is(1));
+        assertThat(blobs.get(0).hash, is(hash));
+        assertArrayEquals(data, blobs.get(0).data);
+        assertThat(blobs.get(0).referenceCount, is(1L));
+    }
+
+    /**
+     * 登録済みのデータは、参照数のみ加算されること。
+     */
+    @Test
+    public void testRegisterSameData() throws Exception {
+        final byte[] data = "データ".getBytes("UTF-8");
+
+        for (int i = 0; i < 2; i++) {
+            db.beginTransaction();
+            try {
+                mailBlobTable.register(data);
+                db.commitTransaction();
+            } finally {
+                db.endTransaction();
+            }
+        }
+
+        final List<MailBlob> blobs = VariousDbTestHelper.findAll(MailBlob.class);
+        assertThat(blobs.size(), is(1));
+        assertThat(blobs.get(0).referenceCount, is(2L));
+    }
+
+    /**
+     * 呼び出し元のトランザクションがロールバックされた場合、データは参照数0で残り、
+     * 同一データの次の登録で使用されること。
+     */
+    @Test
+    public void testRegisterRolledBack() throws Exception {
+        final byte[] data = "データ".getBytes("UTF-8");
+
+        db.beginTransaction();
+        try {
+            mailBlobTable.register(data);
+            db.rollbackTransaction();
+        } finally {
+            db.endTransaction();
+        }
+
+        List<MailBlob> blobs = VariousDbTestHelper.findAll(MailBlob.class);
+        assertThat(blobs.size(), is(1));
+        assertThat(blobs.get(0).referenceCount, is(0L));
+
+        db.beginTransaction();
+        try {
+            mailBlobTable.register(data);
+            db.commitTransaction();
+        } finally {
+            db.endTransaction();
+        }
+
+        blobs = VariousDbTestHelper.findAll(MailBlob.class);
+        assertThat(blobs.size(), is(1));
+        assertThat(blobs.get(0).referenceCount, is(1L));
+    }
+
+    /**
+     * 参照数の加算と登録の間に他のトランザクションが同一データを登録した場合でも、
+     * 呼び出し元のトランザクションで登録を続けられること。
+     */
+    @Test
+    public void testRegisterConcurrently() throws Exception {
+        final byte[] data = "データ".getBytes("UTF-8");
+        final byte[] other = "別のデータ".getBytes("UTF-8");
+        final String hash = MailBlobTable.computeHash(data);
+
+        new MockUp<MailBlobTable>() {
+            private boolean raced;
+
+            @Mock
+            boolean increment(Invocation invocation, String target, AppDbConnection connection) {
+                if (!raced && target.equals(hash)) {
+                    // 加算の対象がない状態で、他のトランザクションが同一データを登録したことにする。
+                    raced = true;
+                    VariousDbTestHelper.insert(new MailBlob(hash, data, 1L));
+                    return false;
+                }
+                return invocation.proceed();
+            }
+        };
+
+        db.beginTransaction();
+        try {
+            assertThat(mailBlobTable.register(data), is(hash));
+            // 一意制約違反の後も、呼び出し元のトランザクションでSQLを実行できること。
+            mailBlobTable.register(other);
+            db.commitTransaction();
+        } finally {
+            db.endTransaction();
+        }
+
+        final List<MailBlob> blobs = VariousDbTestHelper.findAll(MailBlob.class, "hash");
+        assertThat(blobs.size(), is(2));
+        assertThat(VariousDbTestHelper.findById(MailBlob.class, hash).referenceCount, is(2L));
+        assertThat(VariousDbTestHelper.findById(MailBlob.class, MailBlobTable.computeHash(other)).referenceCount, is(1L));
+    }
+
+    /**
+     * 参照を解放すると参照数が減算され、どこからも参照されなくなったデータは削除されること。
+     */
+    @Test
+    public void testRelease() throws Exception {
+        final String hash = MailBlobTable.computeHash("データ".getBytes("UTF-8"));
+        VariousDbTestHelper.setUpTable(new MailBlob(hash, "データ".getBytes("UTF-8"), 2L));
+
+        db.beginTransaction();
+        try {
+            mailBlobTable.release(hash);
+            db.commitTransaction();
+        } finally {
+            db.endTransaction();
+        }
+        assertThat(VariousDbTestHelper.findById(MailBlob.class, hash).referenceCount, is(1L));
+
+        db.beginTransaction();
+        try {
+            mailBlobTable.release(hash);
+            db.commitTransaction();
+        } finally {
+            db.endTransaction();
+        }
+        assertThat(VariousDbTestHelper.findAll(MailBlob.class).size(), is(0));
+    }
+
+    /**
+     * メール送信要求の本文及び添付ファイルのデータが、メールデータ共有テーブルに1レコードずつ登録されること。
+     */
+    @Test
+    public void testRequestToSendWithSharedData() throws Exception {
+        final MailRequester requester = MailUtil.getMailRequester();
+
+        db.beginTransaction();
+        final String first;
+        final String second;
+        try {
+            first = requester.requestToSend(createContext());
+            second = requester.requestToSend(createContext());
+            db.commitTransaction();
+        } finally {
+            db.endTransaction();
+        }
+
+        final String bodyHash = MailBlobTable.computeHash(MAIL_BODY.getBytes("UTF-8"));
+        final byte[] fileData = Files.readAllBytes(file.toPath());
+        final String fileHash = MailBlobTable.computeHash(fileData);
+
+        assertThat(VariousDbTestHelper.findById(MailRequestShared.class, first).mailBodyHash, is(bodyHash));
+        assertThat(VariousDbTestHelper.findById(MailRequestShared.class, second).mailBodyHash, is(bodyHash));
+        final List<MailAttachedFileShared> files = VariousDbTestHelper.findAll(
+                MailAttachedFileShared.class, "mailRequestId");
+        assertThat(files.size(), is(2));
+        assertThat(files.get(0).fileHash, is(fileHash));
+        assertThat(files.get(1).fileHash, is(fileHash));
+
+        final List<MailBlob> blobs = VariousDbTestHelper.findAll(MailBlob.class);
+        assertThat(blobs.size(), is(2));
+        assertThat(VariousDbTestHelper.findById(MailBlob.class, bodyHash).referenceCount, is(2L));
+        assertThat(VariousDbTestHelper.findById(MailBlob.class, fileHash).referenceCount, is(2L));
+
+        // 登録したデータを、添付ファイル管理テーブルから取得できること。
+        final MailAttachedFileTable mailAttachedFileTable = repositoryResource.getComponent("mailAttachedFileTable");
+        db.beginTransaction();
+        try {
+            final List<MailAttachedFileTable.MailAttachedFile> attachedFiles = mailAttachedFileTable.find(first);
+            assertThat(attachedFiles.size(), is(1));
+            assertArrayEquals(fileData, attachedFiles.get(0).getFile());
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * 履歴テーブルへの移動では参照数は変わらず、履歴テーブルから削除した場合に参照が解放されること。
+     */
+    @Test
+    public void testArchiveAndPurgeReleasesSharedData() throws Exception {
+        final String bodyHash = MailBlobTable.computeHash(MAIL_BODY.getBytes("UTF-8"));
+        final String fileHash = MailBlobTable.computeHash("file".getBytes("UTF-8"));
+        final Timestamp old = Timestamp.valueOf("2017-01-01 00:00:00");
+        VariousDbTestHelper.setUpTable(
+                new MailBlob(bodyHash, MAIL_BODY.getBytes("UTF-8"), 3L),
+                new MailBlob(fileHash, "file".getBytes("UTF-8"), 2L));
+        VariousDbTestHelper.setUpTable(
+                new MailRequestShared("1", "件名", "from@localhost", "reply@localhost", "return@localhost", "UTF-8",
+                        mailConfig.getStatusSent(), old, old, bodyHash),
+                new MailRequestShared("2", "件名", "from@localhost", "reply@localhost", "return@localhost", "UTF-8",
+                        mailConfig.getStatusFailure(), old, null, bodyHash),
+                new MailRequestShared("3", "件名", "from@localhost", "reply@localhost", "return@localhost", "UTF-8",
+                        mailConfig.getStatusUnsent(), old, null, bodyHash));
+        VariousDbTestHelper.setUpTable(
+                new MailRecipient("1", 1L, mailConfig.getRecipientTypeTO(), "to1@localhost"),
+                new MailRecipient("2", 1L, mailConfig.getRecipientTypeTO(), "to1@localhost"),
+                new MailRecipient("3", 1L, mailConfig.getRecipientTypeTO(), "to1@localhost"));
+        VariousDbTestHelper.setUpTable(
+                new MailAttachedFileShared("1", 1L, "file.txt", "text/plain", fileHash),
+                new MailAttachedFileShared("3", 1L, "file.txt", "text/plain", fileHash));
+
+        final MailHistoryTable mailHistoryTable = repositoryResource.getComponent("mailHistoryTable");
+        db.beginTransaction();
+        try {
+            assertThat(mailHistoryTable.archive(mailConfig, "1", "3"), is(2));
+            db.commitTransaction();
+        } finally {
+            db.endTransaction();
+        }
+
+        // 未送信のメール送信要求のみ残ること。
+        final List<MailRequestShared> live = VariousDbTestHelper.findAll(MailRequestShared.class);
+        assertThat(live.size(), is(1));
+        assertThat(live.get(0).mailRequestId, is("3"));
+        assertThat(VariousDbTestHelper.findAll(MailRecipient.class).size(), is(1));
+        assertThat(VariousDbTestHelper.findAll(MailAttachedFileShared.class).size(), is(1));
+        final List<MailRequestSharedHistory> history = VariousDbTestHelper.findAll(
+                MailRequestSharedHistory.class, "mailRequestId");
+        assertThat(history.size(), is(2));
+        assertThat(history.get(0).mailRequestId, is("1"));
+        assertThat(history.get(0).mailBodyHash, is(bodyHash));
+        assertThat(history.get(1).mailRequestId, is("2"));
+        assertThat(VariousDbTestHelper.findAll(MailRecipientHistory.class).size(), is(2));
+        assertThat(VariousDbTestHelper.findAll(MailAttachedFileSharedHistory.class).size(), is(1));
+        assertThat(VariousDbTestHelper.findById(MailBlob.class, bodyHash).referenceCount, is(3L));
+        assertThat(VariousDbTestHelper.findById(MailBlob.class, fileHash).referenceCount, is(2L));
+
+        db.beginTransaction();
+        try {
+            final Timestamp threshold = SystemTimeUtil.getTimestamp();
+            assertThat(mailHistoryTable.purge(threshold, "1", "2"), is(2));
+            db.commitTransaction();
+        } finally {
+            db.endTransaction();
+        }
+
+        assertThat(VariousDbTestHelper.findAll(MailRequestSharedHistory.class).size(), is(0));
+        assertThat(VariousDbTestHelper.findAll(MailRecipientHistory.class).size(), is(0));
+        assertThat(VariousDbTestHelper.findAll(MailAttachedFileSharedHistory.class).size(), is(0));
+        // 未送信のメール送信要求が参照するデータは残ること。
+        final MailBlob body = VariousDbTestHelper.findById(MailBlob.class, bodyHash);
+        assertThat(body, is(notNullValue()));
+        assertThat(body.referenceCount, is(1L));
+        final MailBlob attached = VariousDbTestHelper.findById(MailBlob.class, fileHash);
+        assertThat(attached, is(notNullValue()));
+        assertThat(attached.referenceCount, is(1L));
+    }
+
+    /**
+     * テスト用のメール送信要求を生成する。
+     *
+     * @return メール送信要求
+     */
+    private static FreeTextMailContext createContext() {
+        final FreeTextMailContext ctx = new FreeTextMailContext();
+        ctx.setFrom("from@localhost");
+        ctx.addTo("to1@localhost");
+        ctx.setSubject("件名");
+        ctx.setMailBody(MAIL_BODY);
+        ctx.setCharset("UTF-8");
+        ctx.addAttachedFile(new AttachedFile("text/plain", file));
+        return ctx;
+    }
+}
@@ -0,0 +1,112 @@
+package nablarch.common.mail;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * {@link MailCircuitBreaker}のテストクラス。
+ */
+public class MailCircuitBreakerTest {
+
+    private long now = 1000L;
+
+    private final MailCircuitBreaker sut = new MailCircuitBreaker() {
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+    };
+
+    /**
+     * 連続失敗回数が閾値に達した場合はオープン状態になり、送信が停止されること。
+     */
+    @Test
+    public void testOpen() {
+        sut.setFailureThreshold(3);
+
+        sut.recordFailure("smtp1");
+        sut.recordFailure("smtp1");
+        assertThat(sut.getState("smtp1"), is(MailCircuitBreaker.State.CLOSED));
+        assertThat(sut.allowRequest("smtp1"), is(true));
+
+        sut.recordFailure("smtp1");
+        assertThat(sut.getState("smtp1"), is(MailCircuitBreaker.State.OPEN));
+        assertThat(sut.allowRequest("smtp1"), is(false));
+
+        assertThat("別のSMTPサーバは影響を受けないこと", sut.allowRequest("smtp2"), is(true));
+    }
+
+    /**
+     * 送信が成功した場合は、連続失敗回数がリセットされること。
+     */
+    @Test
+    public void testResetOnSuccess() {
+        sut.setFailureThreshold(2);
+
+        sut.recordFailure("smtp");
+        sut.recordSuccess("smtp");
+        sut.recordFailure("smtp");
+        assertThat(sut.getState("smtp"), is(MailCircuitBreaker.State.CLOSED));
+    }
+
+    /**
+     * 試行間隔が経過した場合は1件だけ試行し、成功した場合は送信が再開されること。
+     */
+    @Test
+    public void testHalfOpen_success() {
+        sut.setFailureThreshold(1);
+        sut.setRetryIntervalMillis(5000L);
+        sut.recordFailure("smtp");
+
+        now += 4999L;
+        assertThat(sut.allowRequest("smtp"), is(false));
+
+        now += 1L;
+        assertThat(sut.allowRequest("smtp"), is(true));
+        assertThat(sut.getState("smtp"), is(MailCircuitBreaker.State.HALF_OPEN));
+        assertThat("試行中は後続を送信しないこと", sut.allowRequest("smtp"), is(false));
+
+        sut.recordSuccess("smtp");
+        assertThat(sut.getState("smtp"), is(MailCircuitBreaker.State.CLOSED));
+        assertThat(sut.allowRequest("smtp"), is(true));
+    }
+
+    /**
+     * 試行が失敗した場合は、再びオープン状態になること。
+     */
+    @Test
+    public void testHalfOpen_failure() {
+        sut.setFailureThreshold(1);
+        sut.setRetryIntervalMillis(5000L);
+        sut.recordFailure("smtp");
+
+        now += 5000L;
+        assertThat(sut.allowRequest("smtp"), is(true));
+        sut.recordFailure("smtp");
+        assertThat(sut.getState("smtp"), is(MailCircuitBreaker.State.OPEN));
+
+        now += 4999L;
+        assertThat(sut.allowRequest("smtp"), is(false));
+        now += 1L;
+        assertThat(sut.allowRequest("smtp"), is(true));
+    }
+
+    /**
+     * 試行の結果が記録されないまま試行間隔が経過した場合は、再度試行すること。
+     */
+    @Test
+    public void testHalfOpen_resultNotRecorded() {
+        sut.setFailureThreshold(1);
+        sut.setRetryIntervalMillis(5000L);
+        sut.recordFailure("smtp");
+
+        now += 5000L;
+        assertThat(sut.allowRequest("smtp"), is(true));
+        now += 4999L;
+        assertThat(sut.allowRequest("smtp"), is(false));
+        now += 1L;
+        assertThat(sut.allowRequest("smtp"), is(true));
+    }
+}
@@ -0,0 +1,109 @@
+package nablarch.common.mail;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import nablarch.core.db.statement.SqlRow;
+
+import org.junit.Test;
+
+/**
+ * {@link MailFetchSizeTuner}のテスト。
+ */
+public class MailFetchSizeTunerTest {
+
+    /**
+     * 時刻を指定できる{@link MailFetchSizeTuner}。
+     */
+    private static class TestTuner extends MailFetchSizeTuner {
+
+        /** 現在時刻 */
+        private long now;
+
+        @Override
+        long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    /**
+     * 指定した長さの本文を持つレコードを生成する。
+     *
+     * @param bodyLength 本文の長さ
+     * @return レコード
+     */
+    private static SqlRow row(int bodyLength) {
+        final StringBuilder body = new StringBuilder();
+        for (int i = 0; i < bodyLength; i++) {
+            body.append('a');
+        }
+        final Map<String, Object> row = new HashMap<String, Object>();
+        row.put("MAIL_BODY", body.toString());
+        return new SqlRow(row, new HashMap<String, Integer>());
+    }
+
+    /**
+     * 記録がない場合は初期値となること。
+     */
+    @Test
+    public void testInitial() {
+        final MailFetchSizeTuner sut = new MailFetchSizeTuner();
+        sut.setInitialFetchSize(50);
+        assertThat(sut.getEffectiveFetchSize(), is(0));
+        assertThat(sut.nextFetchSize(), is(50));
+        assertThat(sut.getEffectiveFetchSize(), is(50));
+    }
+
+    /**
+     * レコードの大きさに応じてフェッチサイズが決まること。
+     */
+    @Test
+    public void testRowSize() {
+        final TestTuner sut = new TestTuner();
+        sut.setTargetFetchBytes(100000L);
+
+        // 1レコード500バイト(250文字)
+        sut.recordRow(row(250));
+        assertThat(sut.nextFetchSize(), is(200));
+
+        // 1レコード100000バイトのレコードが続くと最小値まで小さくなる
+        for (int i = 0; i < 100; i++) {
+            sut.recordRow(row(50000));
+        }
+        assertThat(sut.nextFetchSize(), is(10));
+    }
+
+    /**
+     * 小さなレコードの場合は最大値までとなること。
+     */
+    @Test
+    public void testMaxFetchSize() {
+        final TestTuner sut = new TestTuner();
+        sut.setMaxFetchSize(500);
+        sut.recordRow(row(1));
+        assertThat(sut.nextFetchSize(), is(500));
+    }
+
+    /**
+     * 処理が遅い場合は、時間の上限内に処理できる件数までとなること。
+     */
+    @Test
+    public void testConsumptionRate() {
+        final TestTuner sut = new TestTuner();
+        sut.setMaxBufferMillis(1000L);
+        sut.setMinFetchSize(1);
+        for (int i = 0; i < 10; i++) {
+            sut.recordRow(row(1));
+            sut.now += 100L;
+        }
+        assertThat(sut.nextFetchSize(), is(10));
+
+        // 時間の上限を超える間隔は算出に含めない
+        sut.now += 60000L;
+        sut.recordRow(row(1));
+        assertThat(sut.nextFetchSize(), is(10));
+    }
+}
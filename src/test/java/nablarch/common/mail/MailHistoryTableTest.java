@@ -0,0 +1,136 @@
+package nablarch.common.mail;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * {@link MailHistoryTable}のテスト。
+ */
+public class MailHistoryTableTest {
+
+    /**
+     * テスト対象を生成する。
+     *
+     * @param shared メールデータ共有テーブルを使用する場合は{@code true}
+     * @return テスト対象
+     */
+    private static MailHistoryTable createTable(boolean shared) {
+        final MailBlobTable mailBlobTable = new MailBlobTable();
+
+        final MailRequestTable mailRequestTable = new MailRequestTable();
+        mailRequestTable.setTableName("MAIL_REQUEST");
+        mailRequestTable.setMailRequestIdColumnName("MAIL_REQUEST_ID");
+        mailRequestTable.setSubjectColumnName("SUBJECT");
+        mailRequestTable.setStatusColumnName("STATUS");
+        mailRequestTable.setRequestDateTimeColumnName("REQUEST_DATETIME");
+        mailRequestTable.setMailBodyHashColumnName("MAIL_BODY_HASH");
+
+        final MailRecipientTable mailRecipientTable = new MailRecipientTable();
+        mailRecipientTable.setTableName("MAIL_RECIPIENT");
+        mailRecipientTable.setMailRequestIdColumnName("RECIPIENT_REQUEST_ID");
+        mailRecipientTable.setSerialNumberColumnName("SERIAL_NUMBER");
+        mailRecipientTable.setRecipientTypeColumnName("RECIPIENT_TYPE");
+        mailRecipientTable.setMailAddressColumnName("MAIL_ADDRESS");
+
+        final MailAttachedFileTable mailAttachedFileTable = new MailAttachedFileTable();
+        mailAttachedFileTable.setTableName("MAIL_ATTACHED_FILE");
+        mailAttachedFileTable.setMailRequestIdColumnName("FILE_REQUEST_ID");
+        mailAttachedFileTable.setSerialNumberColumnName("SERIAL_NUMBER");
+        mailAttachedFileTable.setFileHashColumnName("FILE_HASH");
+
+        if (shared) {
+            mailRequestTable.setMailBlobTable(mailBlobTable);
+            mailAttachedFileTable.setMailBlobTable(mailBlobTable);
+        }
+
+        final MailHistoryTable sut = new MailHistoryTable();
+        sut.setMailRequestTable(mailRequestTable);
+        sut.setMailRecipientTable(mailRecipientTable);
+        sut.setMailAttachedFileTable(mailAttachedFileTable);
+        sut.setRequestTableName("MAIL_REQUEST_HISTORY");
+        sut.setRecipientTableName("MAIL_RECIPIENT_HISTORY");
+        sut.setAttachedFileTableName("MAIL_ATTACHED_FILE_HISTORY");
+        sut.initialize();
+        return sut;
+    }
+
+    /**
+     * 移動は、メール送信要求を複写した後、複写したメール送信要求の送信先及び添付ファイルを複写し、
+     * 子のテーブルから順に削除すること。
+     * 複写するカラムは、スキーマ情報に設定したカラムのみであること。
+     */
+    @Test
+    public void testArchiveSqls() {
+        final MailHistoryTable sut = createTable(false);
+        final String archived = "SELECT MAIL_REQUEST_ID FROM MAIL_REQUEST_HISTORY"
+                + " WHERE MAIL_REQUEST_ID >= ? AND MAIL_REQUEST_ID <= ?";
+        assertThat(sut.getArchiveSqls(), is(Arrays.asList(
+                "INSERT INTO MAIL_REQUEST_HISTORY (MAIL_REQUEST_ID, SUBJECT, STATUS, REQUEST_DATETIME, MAIL_BODY_HASH)"
+                        + " SELECT MAIL_REQUEST_ID, SUBJECT, STATUS, REQUEST_DATETIME, MAIL_BODY_HASH FROM MAIL_REQUEST"
+                        + " WHERE MAIL_REQUEST_ID >= ? AND MAIL_REQUEST_ID <= ? AND STATUS IN (?, ?, ?)",
+                "INSERT INTO MAIL_RECIPIENT_HISTORY"
+                        + " (RECIPIENT_REQUEST_ID, SERIAL_NUMBER, RECIPIENT_TYPE, MAIL_ADDRESS)"
+                        + " SELECT RECIPIENT_REQUEST_ID, SERIAL_NUMBER, RECIPIENT_TYPE, MAIL_ADDRESS FROM MAIL_RECIPIENT"
+                        + " WHERE RECIPIENT_REQUEST_ID IN (" + archived + ')',
+                "INSERT INTO MAIL_ATTACHED_FILE_HISTORY (FILE_REQUEST_ID, SERIAL_NUMBER, FILE_HASH)"
+                        + " SELECT FILE_REQUEST_ID, SERIAL_NUMBER, FILE_HASH FROM MAIL_ATTACHED_FILE"
+                        + " WHERE FILE_REQUEST_ID IN (" + archived + ')',
+                "DELETE FROM MAIL_ATTACHED_FILE WHERE FILE_REQUEST_ID IN (" + archived + ')',
+                "DELETE FROM MAIL_RECIPIENT WHERE RECIPIENT_REQUEST_ID IN (" + archived + ')',
+                "DELETE FROM MAIL_REQUEST WHERE MAIL_REQUEST_ID IN (" + archived + ')')));
+    }
+
+    /**
+     * 削除は、保持期間を経過したメール送信要求の子のテーブルから順に行うこと。
+     */
+    @Test
+    public void testPurgeSqls() {
+        final MailHistoryTable sut = createTable(true);
+        final String purged = "SELECT MAIL_REQUEST_ID FROM MAIL_REQUEST_HISTORY"
+                + " WHERE MAIL_REQUEST_ID >= ? AND MAIL_REQUEST_ID <= ? AND REQUEST_DATETIME < ?";
+        assertThat(sut.getPurgeSqls(), is(Arrays.asList(
+                "DELETE FROM MAIL_ATTACHED_FILE_HISTORY WHERE FILE_REQUEST_ID IN (" + purged + ')',
+                "DELETE FROM MAIL_RECIPIENT_HISTORY WHERE RECIPIENT_REQUEST_ID IN (" + purged + ')',
+                "DELETE FROM MAIL_REQUEST_HISTORY"
+                        + " WHERE MAIL_REQUEST_ID >= ? AND MAIL_REQUEST_ID <= ? AND REQUEST_DATETIME < ?")));
+    }
+
+    /**
+     * 1回の件数に1未満は設定できないこと。
+     */
+    @Test
+    public void testInvalidChunkSize() {
+        final MailHistoryTable sut = new MailHistoryTable();
+        assertThat(sut.getChunkSize(), is(100));
+        sut.setChunkSize(1);
+        assertThat(sut.getChunkSize(), is(1));
+        try {
+            sut.setChunkSize(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("chunkSize must be greater than 0. chunkSize=[0]"));
+        }
+    }
+
+    /**
+     * 保持期間に-1未満は設定できないこと。
+     */
+    @Test
+    public void testInvalidRetentionDays() {
+        final MailHistoryTable sut = new MailHistoryTable();
+        assertThat(sut.getRetentionDays(), is(-1));
+        sut.setRetentionDays(0);
+        assertThat(sut.getRetentionDays(), is(0));
+        try {
+            sut.setRetentionDays(-2);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("retentionDays must be -1 or greater. retentionDays=[-2]"));
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package nablarch.common.mail;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * {@link MailPollingScheduler}のテスト。
+ */
+public class MailPollingSchedulerTest {
+
+    /**
+     * 最初の読み込みの前は待機しないこと。
+     */
+    @Test
+    public void testFirstPoll() throws Exception {
+        final MailPollingScheduler sut = new MailPollingScheduler();
+        sut.setMinIntervalMillis(1000L);
+        assertThat(sut.getIntervalMillis(), is(0L));
+
+        final long start = System.currentTimeMillis();
+        sut.awaitNextPoll();
+        assertTrue(System.currentTimeMillis() - start < 500L);
+    }
+
+    /**
+     * 未送信のメール送信要求がない間は、間隔が最大値まで指数的に広がること。
+     */
+    @Test
+    public void testBackoff() {
+        final MailPollingScheduler sut = new MailPollingScheduler();
+        sut.setMinIntervalMillis(100L);
+        sut.setMaxIntervalMillis(1000L);
+        sut.setBackoffMultiplier(3.0);
+
+        sut.recordPoll(0);
+        assertThat(sut.getIntervalMillis(), is(100L));
+        sut.recordPoll(0);
+        assertThat(sut.getIntervalMillis(), is(300L));
+        sut.recordPoll(0);
+        assertThat(sut.getIntervalMillis(), is(900L));
+        sut.recordPoll(0);
+        assertThat(sut.getIntervalMillis(), is(1000L));
+        sut.recordPoll(0);
+        assertThat(sut.getIntervalMillis(), is(1000L));
+    }
+
+    /**
+     * 未送信のメール送信要求があった場合は、間隔が最小値に戻ること。
+     */
+    @Test
+    public void testFoundWork() {
+        final MailPollingScheduler sut = new MailPollingScheduler();
+        sut.setMinIntervalMillis(50L);
+        sut.setMaxIntervalMillis(10000L);
+
+        sut.recordPoll(0);
+        sut.recordPoll(0);
+        sut.recordPoll(0);
+        assertThat(sut.getIntervalMillis(), is(200L));
+
+        sut.recordPoll(3);
+        assertThat(sut.getIntervalMillis(), is(50L));
+        sut.recordPoll(0);
+        assertThat(sut.getIntervalMillis(), is(100L));
+    }
+
+    /**
+     * 最小値が0の場合でも間隔が広がること。
+     */
+    @Test
+    public void testZeroMinInterval() {
+        final MailPollingScheduler sut = new MailPollingScheduler();
+        sut.setMinIntervalMillis(0L);
+        sut.setMaxIntervalMillis(10L);
+
+        sut.recordPoll(1);
+        assertThat(sut.getIntervalMillis(), is(0L));
+        sut.recordPoll(0);
+        assertThat(sut.getIntervalMillis(), is(2L));
+        sut.recordPoll(0);
+        assertThat(sut.getIntervalMillis(), is(4L));
+    }
+
+    /**
+     * 決定した間隔だけ待機すること。
+     */
+    @Test
+    public void testAwaitNextPoll() throws Exception {
+        final MailPollingScheduler sut = new MailPollingScheduler();
+        sut.setMinIntervalMillis(200L);
+        sut.recordPoll(1);
+
+        final long start = System.currentTimeMillis();
+        sut.awaitNextPoll();
+        assertTrue(System.currentTimeMillis() - start >= 190L);
+    }
+
+    /**
+     * 1以下の値を乗じる値に設定できないこと。
+     */
+    @Test
+    public void testInvalidBackoffMultiplier() {
+        try {
+            new MailPollingScheduler().setBackoffMultiplier(1.0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("backoffMultiplier must be greater than 1. backoffMultiplier=[1.0]"));
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package nablarch.common.mail;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * {@link MailRateLimiter}のテストクラス。
+ */
+public class MailRateLimiterTest {
+
+    private final MailRateLimiter sut = new MailRateLimiter();
+
+    /**
+     * バーストの件数までは待機せずに送信でき、それ以降はレートに応じて待機すること。
+     */
+    @Test
+    public void testHostRateLimit() throws Exception {
+        sut.setHostRateLimits(Collections.singletonList(createRateLimit("smtp", 10, 1000L, 3)));
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(sut.acquire("smtp", null), is(0L));
+        }
+        long start = System.nanoTime();
+        long waited = sut.acquire("smtp", null);
+        long elapsedMillis = (System.nanoTime() - start) / 1000000L;
+
+        assertThat("トークンの補充(100ms)を待機すること", waited >= 70L && waited <= 100L, is(true));
+        assertThat(elapsedMillis >= 70L, is(true));
+        assertThat(sut.getThrottledMillis() >= 70L, is(true));
+
+        assertThat("上限が設定されていないSMTPサーバは待機しないこと", sut.acquire("other", null), is(0L));
+    }
+
+    /**
+     * メール送信パターンごとの上限が、SMTPサーバごとの上限とあわせて適用されること。
+     */
+    @Test
+    public void testMailSendPatternRateLimit() throws Exception {
+        sut.setMailSendPatternRateLimits(Arrays.asList(
+                createRateLimit("01", 100, 1000L, 1),
+                createRateLimit("01", 5, 1000L, 0)));
+
+        assertThat(sut.acquire("smtp", "01"), is(0L));
+        long waited = sut.acquire("smtp", "01");
+        assertThat("期間あたり100件の上限で10ms待機すること", waited > 0L && waited <= 10L, is(true));
+        assertThat(sut.acquire("smtp", "02"), is(0L));
+        assertThat(sut.acquire("smtp", null), is(0L));
+    }
+
+    /**
+     * 同一の対象に複数の上限を設定した場合は、最も厳しい上限で待機すること。
+     */
+    @Test
+    public void testMultipleLimits() throws Exception {
+        sut.setHostRateLimits(Arrays.asList(
+                createRateLimit("smtp", 1000, 1000L, 10),
+                createRateLimit("smtp", 2, 100L, 2)));
+
+        assertThat(sut.acquire("smtp", null), is(0L));
+        assertThat(sut.acquire("smtp", null), is(0L));
+        long waited = sut.acquire("smtp", null);
+        assertThat("100msあたり2件の上限で50ms待機すること", waited >= 30L && waited <= 50L, is(true));
+    }
+
+    /**
+     * 期間あたりの件数が不正な場合は例外が送出されること。
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRateLimit() throws Exception {
+        sut.setHostRateLimits(Collections.singletonList(createRateLimit("smtp", 0, 1000L, 1)));
+        sut.acquire("smtp", null);
+    }
+
+    /**
+     * 複数のメール送信バッチで共有する上限は、送信レート管理テーブルからリースの件数ごとに払い出されること。
+     * 期間内の送信枠を使い切った場合は、次の期間まで待機すること。
+     */
+    @Test
+    public void testClusterWideRateLimit() throws Exception {
+        InMemoryMailRateLimitTable table = new InMemoryMailRateLimitTable();
+        RateLimit rateLimit = createRateLimit("smtp", 5, 200L, 0);
+        rateLimit.setClusterWide(true);
+        sut.setHostRateLimits(Collections.singletonList(rateLimit));
+        sut.setMailRateLimitTable(table);
+        sut.setLeaseSize(3);
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(sut.acquire("smtp", null), is(0L));
+        }
+        assertThat("3件と2件の2回で払い出されること", table.leaseCount, is(2));
+        assertThat(table.lastLimitKey, is("host:smtp:200"));
+
+        long waited = sut.acquire("smtp", null);
+        assertThat("次の期間まで待機すること", waited > 0L && waited <= 200L, is(true));
+        assertThat(table.leaseCount, is(4));
+        assertThat(sut.getThrottledMillis(), is(waited));
+    }
+
+    /**
+     * 送信レート管理テーブルを設定せずに共有する上限を設定した場合は例外が送出されること。
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testClusterWideRateLimit_withoutTable() throws Exception {
+        RateLimit rateLimit = createRateLimit("smtp", 5, 200L, 0);
+        rateLimit.setClusterWide(true);
+        sut.setHostRateLimits(Collections.singletonList(rateLimit));
+        sut.acquire("smtp", null);
+    }
+
+    private static RateLimit createRateLimit(String target, long permits, long periodMillis, long burst) {
+        RateLimit rateLimit = new RateLimit();
+        rateLimit.setTarget(target);
+        rateLimit.setPermits(permits);
+        rateLimit.setPeriodMillis(periodMillis);
+        rateLimit.setBurst(burst);
+        return rateLimit;
+    }
+
+    /**
+     * 送信レート管理テーブルの払い出しをメモリ上で行うクラス。
+     */
+    private static class InMemoryMailRateLimitTable extends MailRateLimitTable {
+
+        private long windowStart = -1L;
+
+        private long usedCount;
+
+        private int leaseCount;
+
+        private String lastLimitKey;
+
+        @Override
+        public synchronized Lease lease(String limitKey, long permits, long periodMillis, int requestCount, long now) {
+            leaseCount++;
+            lastLimitKey = limitKey;
+            if (windowStart < 0 || now >= windowStart + periodMillis) {
+                windowStart = now;
+                usedCount = 0;
+            }
+            int granted = (int) Math.min(requestCount, permits - usedCount);
+            usedCount += granted;
+            return new Lease(granted, windowStart + periodMillis);
+        }
+    }
+}
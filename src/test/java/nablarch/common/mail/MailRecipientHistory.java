@@ -0,0 +1,40 @@
+package nablarch.common.mail;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * メールレシピエントの履歴
+ */
+@Entity
+@Table(name = "MAIL_RECIPIENT_HISTORY")
+public class MailRecipientHistory {
+
+    public MailRecipientHistory() {
+    }
+
+    public MailRecipientHistory(String mailRequestId, Long serialNumber, String recipientType,
+            String mailAddress) {
+        this.mailRequestId = mailRequestId;
+        this.serialNumber = serialNumber;
+        this.recipientType = recipientType;
+        this.mailAddress = mailAddress;
+    }
+
+    @Id
+    @Column(name = "MAIL_REQUEST_ID", length = 20, nullable = false)
+    public String mailRequestId;
+
+    @Id
+    @Column(name = "SERIAL_NUMBER", length = 10, nullable = false)
+    public Long serialNumber;
+
+    @Column(name = "RECIPIENT_TYPE", length = 1, nullable = false)
+    public String recipientType;
+
+    @Column(name = "MAIL_ADDRESS", length = 100, nullable = false)
+    public String mailAddress;
+
+}
\ No newline at end of file
@@ -0,0 +1,58 @@
+package nablarch.common.mail;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * {@link MailRequestClaimDialect}の実装クラスのテスト。
+ */
+public class MailRequestClaimDialectTest {
+
+    /**
+     * 読み込むカラムを生成する。
+     *
+     * @return 読み込むカラム
+     */
+    private static Map<String, String> columns() {
+        final Map<String, String> columns = new LinkedHashMap<String, String>();
+        columns.put("MAIL_REQUEST_ID", "MAIL_REQ_ID");
+        columns.put("SUBJECT", "TITLE");
+        return columns;
+    }
+
+    /**
+     * PostgreSQL用のSQLが生成されること。
+     */
+    @Test
+    public void testPostgres() {
+        final String sql = new PostgresMailRequestClaimDialect().createClaimAndFetchSql(
+                "MAIL_REQ", "MAIL_REQ_ID", "PROC_ID", "STATUS = ? AND PATTERN_ID = ? ", columns(), 50);
+        assertThat(sql, is("WITH CLAIMED AS ("
+                + "UPDATE MAIL_REQ SET PROC_ID = ?"
+                + " WHERE MAIL_REQ_ID IN ("
+                + "SELECT MAIL_REQ_ID FROM MAIL_REQ WHERE STATUS = ? AND PATTERN_ID = ?  AND PROC_ID IS NULL"
+                + " ORDER BY MAIL_REQ_ID LIMIT 50 FOR UPDATE SKIP LOCKED)"
+                + " RETURNING MAIL_REQ_ID MAIL_REQUEST_ID, TITLE SUBJECT"
+                + ") SELECT * FROM CLAIMED ORDER BY MAIL_REQUEST_ID"));
+    }
+
+    /**
+     * SQL Server用のSQLが生成されること。
+     */
+    @Test
+    public void testSqlServer() {
+        final String sql = new SqlServerMailRequestClaimDialect().createClaimAndFetchSql(
+                "MAIL_REQ", "MAIL_REQ_ID", "PROC_ID", "STATUS = ? ", columns(), 20);
+        assertThat(sql, is("UPDATE MAIL_REQ"
+                + " SET PROC_ID = ?"
+                + " OUTPUT INSERTED.MAIL_REQ_ID MAIL_REQUEST_ID, INSERTED.TITLE SUBJECT"
+                + " WHERE MAIL_REQ_ID IN (SELECT TOP (20) MAIL_REQ_ID"
+                + " FROM MAIL_REQ WITH (ROWLOCK, UPDLOCK, READPAST)"
+                + " WHERE STATUS = ?  AND PROC_ID IS NULL ORDER BY MAIL_REQ_ID)"));
+    }
+}
@@ -0,0 +1,177 @@
+package nablarch.common.mail;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import nablarch.core.db.connection.DbConnectionContext;
+import nablarch.core.db.statement.SqlPStatement;
+import nablarch.core.db.statement.SqlResultSet;
+import nablarch.core.db.statement.SqlRow;
+import nablarch.core.db.transaction.SimpleDbTransactionManager;
+import nablarch.test.support.SystemRepositoryResource;
+import nablarch.test.support.db.helper.DatabaseTestRunner;
+import nablarch.test.support.db.helper.TargetDb;
+import nablarch.test.support.db.helper.VariousDbTestHelper;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * {@link MailRequestTable#claimAndFetch(String, String, String)}と{@link MailRequestClaimDialect}の実装クラスが
+ * 生成するSQLを、データベースに対して実行するテストクラス。
+ */
+@RunWith(DatabaseTestRunner.class)
+public class MailRequestClaimTest {
+
+    @Rule
+    public SystemRepositoryResource repositoryResource = new SystemRepositoryResource(
+            "nablarch/common/mail/MailRequestClaimTest.xml");
+
+    /** 要求日時 */
+    private static final Timestamp REQUEST_DATETIME = Timestamp.valueOf("2017-01-23 12:00:00");
+
+    @BeforeClass
+    public static void beforeClass() {
+        VariousDbTestHelper.createTable(MailRequestMultiProcess.class);
+    }
+
+    @Before
+    public void before() {
+        VariousDbTestHelper.setUpTable(
+                createRequest("0001", "0", null),
+                createRequest("0002", "1", null),
+                createRequest("0003", "0", "other"),
+                createRequest("0004", "0", null),
+                createRequest("0005", "0", null));
+    }
+
+    /**
+     * PostgreSQL用のSQLで、未送信かつ未取得のメール送信要求がメールリクエストIDの順に取得されること。
+     */
+    @Test
+    @TargetDb(include = TargetDb.Db.POSTGRE_SQL)
+    public void testClaimAndFetch_postgres() {
+        assertClaimAndFetch(repositoryResource.<MailRequestTable>getComponent("postgresMailRequestTable"));
+    }
+
+    /**
+     * SQL Server用のSQLで、未送信かつ未取得のメール送信要求がメールリクエストIDの順に取得されること。
+     */
+    @Test
+    @TargetDb(include = TargetDb.Db.SQL_SERVER)
+    public void testClaimAndFetch_sqlServer() {
+        assertClaimAndFetch(repositoryResource.<MailRequestTable>getComponent("sqlServerMailRequestTable"));
+    }
+
+    /**
+     * PostgreSQL用のSQLで、他のトランザクションがロックしているメール送信要求は待たずに読み飛ばされること。
+     */
+    @Test
+    @TargetDb(include = TargetDb.Db.POSTGRE_SQL)
+    public void testClaimAndFetchSkipsLockedRows_postgres() {
+        assertSkipLockedRows(repositoryResource.<MailRequestTable>getComponent("postgresMailRequestTable"));
+    }
+
+    /**
+     * SQL Server用のSQLで、他のトランザクションがロックしているメール送信要求は待たずに読み飛ばされること。
+     */
+    @Test
+    @TargetDb(include = TargetDb.Db.SQL_SERVER)
+    public void testClaimAndFetchSkipsLockedRows_sqlServer() {
+        assertSkipLockedRows(repositoryResource.<MailRequestTable>getComponent("sqlServerMailRequestTable"));
+    }
+
+    /**
+     * 1回に取得する最大件数ずつ、前回取得した最大のメールリクエストIDより後が取得されることを検証する。
+     *
+     * @param sut テスト対象のメール送信要求管理テーブル
+     */
+    private static void assertClaimAndFetch(MailRequestTable sut) {
+        final SqlResultSet first = sut.claimAndFetch(null, "process", null);
+        assertThat(ids(first).toString(), is("[0001, 0004]"));
+        final SqlRow row = first.get(0);
+        assertThat(row.getString("SUBJECT"), is("件名0001"));
+        assertThat(row.getString("FROM_ADDRESS"), is("from@localhost"));
+        assertThat(row.getString("REPLY_ADDRESS"), is("reply@localhost"));
+        assertThat(row.getString("RETURN_PATH"), is("return@localhost"));
+        assertThat(row.getString("CHARSET"), is("UTF-8"));
+        assertThat(row.getString("MAIL_BODY"), is("本文0001"));
+
+        // 取得したメール送信要求の送信を見送っても、前回取得した最大のメールリクエストIDより前は取得しない。
+        sut.releaseSendProcessId("0001");
+        assertThat(ids(sut.claimAndFetch(null, "process", "0004")).toString(), is("[0005]"));
+        assertThat(ids(sut.claimAndFetch(null, "process", "0005")).isEmpty(), is(true));
+
+        final List<MailRequestMultiProcess> requests =
+                VariousDbTestHelper.findAll(MailRequestMultiProcess.class, "mailRequestId");
+        assertThat(requests.get(0).processId, is(nullValue()));
+        assertThat(requests.get(1).processId, is(nullValue()));
+        assertThat(requests.get(2).processId, is("other"));
+        assertThat(requests.get(3).processId, is("process"));
+        assertThat(requests.get(4).processId, is("process"));
+    }
+
+    /**
+     * 他のトランザクションがロックしているメール送信要求を読み飛ばして取得することを検証する。
+     *
+     * @param sut テスト対象のメール送信要求管理テーブル
+     */
+    private void assertSkipLockedRows(MailRequestTable sut) {
+        final SimpleDbTransactionManager db = repositoryResource.getComponent("dbManager-default");
+        db.beginTransaction();
+        try {
+            final SqlPStatement lock = DbConnectionContext.getConnection().prepareStatement(
+                    "UPDATE MAIL_REQUEST_MULTI_PROCESS SET SUBJECT = SUBJECT WHERE MAIL_REQUEST_ID = ?");
+            lock.setString(1, "0001");
+            lock.executeUpdate();
+
+            assertThat(ids(sut.claimAndFetch(null, "process", null)).toString(), is("[0004, 0005]"));
+            db.rollbackTransaction();
+        } finally {
+            db.endTransaction();
+        }
+
+        final MailRequestMultiProcess locked = VariousDbTestHelper.findById(MailRequestMultiProcess.class, "0001");
+        assertThat(locked.processId, is(nullValue()));
+        assertThat(ids(sut.claimAndFetch(null, "process", null)).toString(), is("[0001]"));
+    }
+
+    /**
+     * 取得したレコードのメールリクエストIDを昇順に並べて返す。
+     * <p/>
+     * SQL Server用のSQLは取得したレコードをメールリクエストIDの順に返すとは限らないため、並べ替えて検証する。
+     *
+     * @param rs 取得したレコード
+     * @return メールリクエストID
+     */
+    private static List<String> ids(SqlResultSet rs) {
+        final List<String> ids = new ArrayList<String>();
+        for (SqlRow row : rs) {
+            ids.add(row.getString("MAIL_REQUEST_ID"));
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    /**
+     * メール送信要求を生成する。
+     *
+     * @param mailRequestId メールリクエストID
+     * @param status ステータス
+     * @param processId プロセスID
+     * @return メール送信要求
+     */
+    private static MailRequestMultiProcess createRequest(String mailRequestId, String status, String processId) {
+        return new MailRequestMultiProcess(mailRequestId, "件名" + mailRequestId, "from@localhost", "reply@localhost",
+                "return@localhost", "UTF-8", status, REQUEST_DATETIME, null, "本文" + mailRequestId, processId);
+    }
+}
@@ -0,0 +1,233 @@
+package nablarch.common.mail;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+import javax.mail.Authenticator;
+import javax.mail.Folder;
+import javax.mail.Message;
+import javax.mail.PasswordAuthentication;
+import javax.mail.Session;
+import javax.mail.Store;
+
+import nablarch.core.date.SystemTimeUtil;
+import nablarch.core.db.transaction.SimpleDbTransactionManager;
+import nablarch.fw.launcher.CommandLine;
+import nablarch.fw.launcher.Main;
+import nablarch.test.support.SystemRepositoryResource;
+import nablarch.test.support.db.helper.DatabaseTestRunner;
+import nablarch.test.support.db.helper.VariousDbTestHelper;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import mockit.Mock;
+import mockit.MockUp;
+
+/**
+ * {@link MailSender}のテストクラス。
+ * <p/>
+ * 本クラスでは、メール送信要求管理テーブルに有効期限のカラムが設定されているときのテストを行う。
+ * 現在日時は2017/01/23 12:34:56に固定する。
+ */
+@RunWith(DatabaseTestRunner.class)
+public class MailSenderExpireTest extends MailTestSupport {
+
+    @Rule
+    public SystemRepositoryResource repositoryResource = new SystemRepositoryResource(
+            "nablarch/common/mail/MailSenderTestExpire.xml");
+
+    /** 有効期限を過ぎた日時 */
+    private static final Timestamp EXPIRED = Timestamp.valueOf("2017-01-23 12:00:00");
+
+    /** 有効期限内の日時 */
+    private static final Timestamp NOT_EXPIRED = Timestamp.valueOf("2017-01-23 13:00:00");
+
+    /** 出力ライブラリ(メール送信)のコード値を保持するデータオブジェクト */
+    private static MailConfig mailConfig;
+
+    @BeforeClass
+    public static void createExpireTable() {
+        VariousDbTestHelper.createTable(MailRequestExpire.class);
+    }
+
+    @Override
+    @Before
+    public void before() throws Exception {
+        super.before();
+        VariousDbTestHelper.delete(MailRequestExpire.class);
+        mailConfig = repositoryResource.getComponent("mailConfig");
+
+        VariousDbTestHelper.setUpTable(
+                new MailTestMessage("SEND_FAIL0", "ja", "メール送信に失敗しました。 mailRequestId=[{0}]"),
+                new MailTestMessage("SEND_FAIL0", "en", "send mail failed. mailRequestId=[{0}]"),
+                new MailTestMessage("SEND_OK000", "ja", "メールを送信しました。 mailRequestId=[{0}]"),
+                new MailTestMessage("SEND_OK000", "en", "send mail. mailRequestId=[{0}]"),
+                new MailTestMessage("REQ_COUNT0", "ja", "メール送信要求が {0} 件あります。"),
+                new MailTestMessage("REQ_COUNT0", "en", "{0} records of mail request selected."));
+
+        VariousDbTestHelper.setUpTable(new MailBatchRequest("SENDMAIL00", "メール送信バッチ", "0", "0", "1"));
+    }
+
+    /**
+     * 有効期限を過ぎたメール送信要求は、有効期限切れに更新され送信されないこと。
+     * 有効期限が設定されていないメール送信要求と、有効期限内のメール送信要求は送信されること。
+     */
+    @Test
+    public void testExpiredRequestIsNotSent() throws Exception {
+        setUpRequests();
+
+        int execute = executeBatch();
+        assertThat("正常終了なので戻り値は0となる。", execute, is(0));
+
+        // ログ出力確認
+        assertLog("mail requests expired and were not sent. count=[1]");
+        assertLog("メール送信要求が 2 件あります。");
+        assertLog("メールを送信しました。 mailRequestId=[2]");
+        assertLog("メールを送信しました。 mailRequestId=[3]");
+        assertLogWithCount("writer.memory", createMessagePattern("メールを送信しました。 mailRequestId=[1]"), 0);
+
+        // DBの検証（ステータスと送信日時）
+        List<MailRequestExpire> mailRequestList = VariousDbTestHelper.findAll(MailRequestExpire.class, "mailRequestId");
+        assertThat("ステータスが「有効期限切れ」", mailRequestList.get(0).status, is(mailConfig.getStatusExpired()));
+        assertThat("送信日時が登録されていないはず", mailRequestList.get(0).sendDatetime, is(nullValue()));
+        assertThat("有効期限なしは送信される", mailRequestList.get(1).status, is(mailConfig.getStatusSent()));
+        assertThat("送信日時が登録されているはず", mailRequestList.get(1).sendDatetime, is(notNullValue()));
+        assertThat("有効期限内は送信される", mailRequestList.get(2).status, is(mailConfig.getStatusSent()));
+        assertThat("送信日時が登録されているはず", mailRequestList.get(2).sendDatetime, is(notNullValue()));
+
+        assertReceived("to2", "有効期限なし");
+        assertReceived("to3", "有効期限内");
+    }
+
+    /**
+     * 有効期限切れへの更新が行われなくても、有効期限を過ぎたメール送信要求は件数の取得及び読み込みの対象外となること。
+     */
+    @Test
+    public void testExpiredRequestIsNotCountedOrRead() throws Exception {
+        new MockUp<MailRequestTable>() {
+            @Mock
+            int updateExpiredStatus(String mailSendPatternId) {
+                return 0;
+            }
+        };
+        setUpRequests();
+
+        int execute = executeBatch();
+        assertThat("正常終了なので戻り値は0となる。", execute, is(0));
+
+        // ログ出力確認
+        assertLog("メール送信要求が 2 件あります。");
+        assertLogWithCount("writer.memory", createMessagePattern("メールを送信しました。 mailRequestId=[1]"), 0);
+        assertLogWithCount("writer.memory", createMessagePattern("mail request expired and was not sent.",
+                " mailRequestId=[1]"), 0);
+
+        // DBの検証（ステータスと送信日時）
+        List<MailRequestExpire> mailRequestList = VariousDbTestHelper.findAll(MailRequestExpire.class, "mailRequestId");
+        assertThat("読み込まれないので未送信のまま", mailRequestList.get(0).status, is(mailConfig.getStatusUnsent()));
+        assertThat("送信日時が登録されていないはず", mailRequestList.get(0).sendDatetime, is(nullValue()));
+        assertThat("有効期限なしは送信される", mailRequestList.get(1).status, is(mailConfig.getStatusSent()));
+        assertThat("有効期限内は送信される", mailRequestList.get(2).status, is(mailConfig.getStatusSent()));
+    }
+
+    /**
+     * {@link MailContext#setExpireDateTime(java.util.Date)}で設定した有効期限が、メール送信要求管理テーブルに登録されること。
+     */
+    @Test
+    public void testRequestToSendWithExpireDateTime() throws Exception {
+        final MailRequester requester = repositoryResource.getComponent("mailRequester");
+        final SimpleDbTransactionManager db = repositoryResource.getComponent("dbManager-default");
+
+        final String expiring;
+        final String notExpiring;
+        db.beginTransaction();
+        try {
+            final FreeTextMailContext ctx = new FreeTextMailContext();
+            ctx.setFrom(from);
+            ctx.addTo(to1);
+            ctx.setSubject(subject);
+            ctx.setMailBody(mailBody);
+            ctx.setExpireDateTime(NOT_EXPIRED);
+            expiring = requester.requestToSend(ctx);
+
+            ctx.setExpireDateTime(null);
+            notExpiring = requester.requestToSend(ctx);
+            db.commitTransaction();
+        } finally {
+            db.endTransaction();
+        }
+
+        MailRequestExpire mailRequest = VariousDbTestHelper.findById(MailRequestExpire.class, expiring);
+        assertThat(mailRequest.status, is(mailConfig.getStatusUnsent()));
+        assertThat(mailRequest.expireDatetime, is(NOT_EXPIRED));
+
+        mailRequest = VariousDbTestHelper.findById(MailRequestExpire.class, notExpiring);
+        assertThat(mailRequest.status, is(mailConfig.getStatusUnsent()));
+        assertThat(mailRequest.expireDatetime, is(nullValue()));
+    }
+
+    /**
+     * 有効期限を過ぎたもの、有効期限なし、有効期限内のメール送信要求を準備する。
+     */
+    private void setUpRequests() {
+        VariousDbTestHelper.setUpTable(
+                new MailRequestExpire("1", "有効期限切れ", from, replyTo, returnPath, charset,
+                        mailConfig.getStatusUnsent(), SystemTimeUtil.getTimestamp(), null, mailBody, EXPIRED),
+                new MailRequestExpire("2", "有効期限なし", from, replyTo, returnPath, charset,
+                        mailConfig.getStatusUnsent(), SystemTimeUtil.getTimestamp(), null, mailBody, null),
+                new MailRequestExpire("3", "有効期限内", from, replyTo, returnPath, charset,
+                        mailConfig.getStatusUnsent(), SystemTimeUtil.getTimestamp(), null, mailBody, NOT_EXPIRED));
+        VariousDbTestHelper.setUpTable(
+                new MailRecipient("1", 1L, mailConfig.getRecipientTypeTO(), to1),
+                new MailRecipient("2", 1L, mailConfig.getRecipientTypeTO(), to2),
+                new MailRecipient("3", 1L, mailConfig.getRecipientTypeTO(), to3));
+    }
+
+    /**
+     * メール送信バッチを実行する。
+     *
+     * @return 終了コード
+     */
+    private static int executeBatch() {
+        CommandLine commandLine = new CommandLine("-diConfig",
+                "nablarch/common/mail/MailSenderTestExpire.xml", "-requestPath",
+                "nablarch.common.mail.MailSender/SENDMAIL00", "-userId", "hoge");
+        return Main.execute(commandLine);
+    }
+
+    /**
+     * 指定したアカウントで、件名が一致するメールを受信したことを検証する。
+     *
+     * @param account アカウント
+     * @param expectedSubject 件名
+     * @throws Exception 受信に失敗した場合
+     */
+    private void assertReceived(final String account, String expectedSubject) throws Exception {
+        Session session = Session.getInstance(sessionProperties, new Authenticator() {
+            protected PasswordAuthentication getPasswordAuthentication() {
+                return new PasswordAuthentication(account, "default");
+            }
+        });
+        Store store = session.getStore("pop3");
+        store.connect();
+        Folder folder = openFolder(store, expectedSubject);
+        Message message = null;
+        for (Message mail : folder.getMessages()) {
+            if (expectedSubject.equals(mail.getSubject())) {
+                message = mail;
+                break;
+            }
+        }
+        assertThat("件名[" + expectedSubject + "]が一致するメールが届いていない", message, notNullValue());
+        assertThat("本文", (String) message.getContent(), is(mailBody));
+        folder.close(true);
+        store.close();
+    }
+}
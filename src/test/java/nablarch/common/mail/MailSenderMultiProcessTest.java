@@ -6,6 +6,7 @@ import nablarch.fw.launcher.Main;
 import nablarch.test.support.SystemRepositoryResource;
 import nablarch.test.support.db.helper.DatabaseTestRunner;
 import nablarch.test.support.db.helper.VariousDbTestHelper;
+import nablarch.test.support.log.app.OnMemoryLogWriter;
 import org.hamcrest.CoreMatchers;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -448,6 +449,72 @@ public class MailSenderMultiProcessTest extends MailTestSupport {
         assertThat("送信日時が登録されているはず", mailRequestList.get(0).sendDatetime, notNullValue());
     }
 
+    /**
+     * {@link Main#execute(CommandLine)}のテスト。
+     * <p/>
+     * マルチプロセス用の設定で、未送信のメール送信要求を1件ずつ読み込む場合のテスト<br/>
+     * 送信を見送ってプロセスIDを解除したメール送信要求は、同じ読み込みの中で再びプロセスIDが設定されず、
+     * 後続のメール送信バッチで送信される。
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testExecuteKeysetReleasedRequestIsSentByNextProcess() throws Exception {
+
+        // データ準備
+        VariousDbTestHelper.setUpTable(
+                new MailRequestMultiProcess("1", "分割読み込み1", from, replyTo, returnPath, charset,
+                        mailConfig.getStatusUnsent(), SystemTimeUtil.getTimestamp(), null, mailBody, null),
+                new MailRequestMultiProcess("2", "分割読み込み2", from, replyTo, returnPath, charset,
+                        mailConfig.getStatusUnsent(), SystemTimeUtil.getTimestamp(), null, mailBody, null),
+                new MailRequestMultiProcess("3", "分割読み込み3", from, replyTo, returnPath, charset,
+                        mailConfig.getStatusUnsent(), SystemTimeUtil.getTimestamp(), null, mailBody, null));
+        VariousDbTestHelper.setUpTable(
+                new MailRecipient("1", 1L, mailConfig.getRecipientTypeTO(), to1),
+                new MailRecipient("2", 1L, mailConfig.getRecipientTypeTO(), to2),
+                new MailRecipient("3", 1L, mailConfig.getRecipientTypeTO(), to3));
+
+        // 最初のメール送信要求のみ、送信を見送る。
+        register("mailCircuitBreaker", new MailCircuitBreaker() {
+            private boolean denied;
+
+            @Override
+            public synchronized boolean allowRequest(String host) {
+                if (!denied) {
+                    denied = true;
+                    return false;
+                }
+                return super.allowRequest(host);
+            }
+        });
+
+        // バッチ実行
+        CommandLine commandLine = new CommandLine("-diConfig",
+                "nablarch/common/mail/MailSenderTestKeysetMultiProcess.xml", "-requestPath",
+                "nablarch.common.mail.MailSender/SENDMAIL00", "-userId", "hoge");
+        assertThat("正常終了なので戻り値は0となる。", Main.execute(commandLine), is(0));
+
+        assertLogWithCount("writer.memory", createMessagePattern("メールを送信しました。 mailRequestId=[1]"), 0);
+        assertLog("メールを送信しました。 mailRequestId=[2]");
+        assertLog("メールを送信しました。 mailRequestId=[3]");
+        List<MailRequestMultiProcess> mailRequestList =
+                VariousDbTestHelper.findAll(MailRequestMultiProcess.class, "mailRequestId");
+        assertThat("送信を見送ったので未送信のまま", mailRequestList.get(0).status, is(mailConfig.getStatusUnsent()));
+        assertThat("プロセスIDが解除されたままのはず", mailRequestList.get(0).processId, nullValue());
+        assertThat(mailRequestList.get(1).status, is(mailConfig.getStatusSent()));
+        assertThat(mailRequestList.get(2).status, is(mailConfig.getStatusSent()));
+
+        // 後続のメール送信バッチ
+        OnMemoryLogWriter.clear();
+        assertThat("正常終了なので戻り値は0となる。", Main.execute(commandLine), is(0));
+
+        assertLog("メールを送信しました。 mailRequestId=[1]");
+        mailRequestList = VariousDbTestHelper.findAll(MailRequestMultiProcess.class, "mailRequestId");
+        assertThat("後続のメール送信バッチで送信されているはず", mailRequestList.get(0).status, is(mailConfig.getStatusSent()));
+        assertThat("後続のメール送信バッチのプロセスIDが登録されているはず", mailRequestList.get(0).processId,
+                is(not(mailRequestList.get(1).processId)));
+    }
+
     /**
      * {@link Main#execute(CommandLine)}のテスト。
      * <p/>
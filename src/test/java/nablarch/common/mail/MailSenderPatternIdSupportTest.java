@@ -26,6 +26,7 @@ import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage.RecipientType;
 
 import nablarch.core.date.SystemTimeUtil;
+import nablarch.core.db.transaction.SimpleDbTransactionManager;
 import nablarch.core.util.FileUtil;
 import nablarch.fw.launcher.CommandLine;
 import nablarch.fw.launcher.Main;
@@ -649,4 +650,45 @@ public class MailSenderPatternIdSupportTest extends MailTestSupport {
         assertThat("ステータスが「送信失敗」になっているはず", mailRequestPatternList.get(1).status, is(mailConfig.getStatusFailure()));
         assertThat("送信日時が登録されていないはず", mailRequestPatternList.get(1).sendDatetime, is(nullValue()));
     }
+
+    /**
+     * {@link MailRequestTable#hasTarget(String)}のテスト。
+     * <p/>
+     * {@link MailRequestTable#getTargetCount(String)}と同じ条件で判定し、
+     * 処理対象のメール送信パターンIDの未送信のメール送信要求が存在する場合のみ{@code true}を返すこと。
+     */
+    @Test
+    public void testHasTargetMatchesTargetCount() throws Exception {
+        VariousDbTestHelper.setUpTable(
+                new MailRequestPattern("1", "未送信", from, replyTo, returnPath, charset,
+                        mailConfig.getStatusUnsent(), SystemTimeUtil.getTimestamp(), null, mailBody, "01"),
+                new MailRequestPattern("2", "未送信", from, replyTo, returnPath, charset,
+                        mailConfig.getStatusUnsent(), SystemTimeUtil.getTimestamp(), null, mailBody, "01"),
+                new MailRequestPattern("3", "送信済み", from, replyTo, returnPath, charset,
+                        mailConfig.getStatusSent(), SystemTimeUtil.getTimestamp(), SystemTimeUtil.getTimestamp(),
+                        mailBody, "02"),
+                new MailRequestPattern("4", "送信失敗", from, replyTo, returnPath, charset,
+                        mailConfig.getStatusFailure(), SystemTimeUtil.getTimestamp(), null, mailBody, "02"),
+                new MailRequestPattern("5", "未送信", from, replyTo, returnPath, charset,
+                        mailConfig.getStatusUnsent(), SystemTimeUtil.getTimestamp(), null, mailBody, "03"));
+
+        final MailRequestTable mailRequestTable = repositoryResource.getComponent("mailRequestTable");
+        final SimpleDbTransactionManager db = repositoryResource.getComponent("dbManager-default");
+        db.beginTransaction();
+        try {
+            assertThat(mailRequestTable.getTargetCount("01"), is(2));
+            assertThat(mailRequestTable.hasTarget("01"), is(true));
+
+            assertThat("送信済みと送信失敗は対象外", mailRequestTable.getTargetCount("02"), is(0));
+            assertThat("送信済みと送信失敗は対象外", mailRequestTable.hasTarget("02"), is(false));
+
+            assertThat(mailRequestTable.getTargetCount("03"), is(1));
+            assertThat(mailRequestTable.hasTarget("03"), is(true));
+
+            assertThat("メール送信パターンIDが一致しない", mailRequestTable.getTargetCount("04"), is(0));
+            assertThat("メール送信パターンIDが一致しない", mailRequestTable.hasTarget("04"), is(false));
+        } finally {
+            db.endTransaction();
+        }
+    }
 }
@@ -8,10 +8,22 @@ import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.mail.Address;
 import javax.mail.Authenticator;
@@ -28,10 +40,19 @@ import javax.mail.Transport;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage.RecipientType;
 
+import nablarch.core.ThreadContext;
 import nablarch.core.date.BasicSystemTimeProvider;
 import nablarch.core.date.SystemTimeUtil;
 import nablarch.core.db.DbAccessException;
+import nablarch.core.db.connection.AppDbConnection;
+import nablarch.core.db.connection.ConnectionFactory;
+import nablarch.core.db.statement.SqlPStatement;
+import nablarch.core.db.statement.SqlRow;
+import nablarch.core.db.transaction.SimpleDbTransactionExecutor;
+import nablarch.core.db.transaction.SimpleDbTransactionManager;
+import nablarch.core.transaction.TransactionFactory;
 import nablarch.core.util.FileUtil;
+import nablarch.fw.DataReader;
 import nablarch.fw.ExecutionContext;
 import nablarch.fw.Handler;
 import nablarch.fw.launcher.CommandLine;
@@ -48,6 +69,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import mockit.Invocation;
 import mockit.Mock;
 import mockit.MockUp;
 
@@ -1896,6 +1918,718 @@ public class MailSenderTest extends MailTestSupport {
         assertThat("送信日時が登録されていないはず", mailRequestList.get(1).sendDatetime, nullValue());
     }
 
+    /**
+     * メール本文を送信時に取得する場合のテスト。
+     * <p/>
+     * メール本文は読み込み時には取得されず、メッセージの構築時にメール送信要求ごとに1回だけ取得されること。
+     * 送信されるメールの内容は読み込み時に取得する場合と変わらないこと。
+     */
+    @Test
+    public void testLazyMailBodyLoading() throws Exception {
+        final List<String> loadedMailRequestIds = Collections.synchronizedList(new ArrayList<String>());
+        new MockUp<MailRequestTable>() {
+            @Mock
+            String findMailBody(Invocation invocation, String mailRequestId) {
+                loadedMailRequestIds.add(mailRequestId);
+                return invocation.proceed();
+            }
+
+            @Mock
+            MailRequestTable.MailRequest getMailRequest(Invocation invocation, SqlRow data) {
+                assertThat("読み込んだレコードにメール本文は含まれない", data.containsKey("MAIL_BODY"), is(false));
+                final MailRequestTable.MailRequest mailRequest = invocation.proceed();
+                assertThat("メッセージの構築前はメール本文を取得しない", loadedMailRequestIds.contains(
+                        mailRequest.getMailRequestId()), is(false));
+                return mailRequest;
+            }
+        };
+
+        // データ準備
+        String subject1 = "本文の遅延取得1";
+        String subject2 = "本文の遅延取得2";
+        VariousDbTestHelper.setUpTable(
+                new MailRequest("1", subject1, from, replyTo, returnPath, charset,
+                        mailConfig.getStatusUnsent(), SystemTimeUtil.getTimestamp(), null, mailBody),
+                new MailRequest("2", subject2, from, replyTo, returnPath, charset,
+                        mailConfig.getStatusUnsent(), SystemTimeUtil.getTimestamp(), null, mailBody));
+        VariousDbTestHelper.setUpTable(
+                new MailRecipient("1", 1L, mailConfig.getRecipientTypeTO(), to1),
+                new MailRecipient("2", 1L, mailConfig.getRecipientTypeTO(), to2));
+
+        // バッチ実行
+        CommandLine commandLine = new CommandLine("-diConfig",
+                "nablarch/common/mail/MailSenderTestLazyMailBody.xml", "-requestPath",
+                "nablarch.common.mail.MailSender/SENDMAIL00", "-userId", "hoge");
+        int execute = Main.execute(commandLine);
+        assertThat("正常終了なので戻り値は0となる。", execute, is(0));
+
+        Collections.sort(loadedMailRequestIds);
+        assertThat("メール送信要求ごとに1回だけ取得する", loadedMailRequestIds.toString(), is("[1, 2]"));
+
+        assertRecivingPlainMail("to1", from, replyTo, subject1, new String[] {to1}, new String[0]);
+        assertRecivingPlainMail("to2", from, replyTo, subject2, new String[] {to2}, new String[0]);
+
+        List<MailRequest> mailRequestList = VariousDbTestHelper.findAll(MailRequest.class, "mailRequestId");
+        assertThat("ステータスが「送信済み」", mailRequestList.get(0).status, is(mailConfig.getStatusSent()));
+        assertThat("ステータスが「送信済み」", mailRequestList.get(1).status, is(mailConfig.getStatusSent()));
+    }
+
+    /**
+     * 送信時に取得したメール本文は、2回目以降の取得では再び取得されないこと。
+     */
+    @Test
+    public void testLazyMailBodyIsCached() throws Exception {
+        final List<String> loadedMailRequestIds = new ArrayList<String>();
+        new MockUp<MailRequestTable>() {
+            @Mock
+            String findMailBody(String mailRequestId) {
+                loadedMailRequestIds.add(mailRequestId);
+                return "本文" + mailRequestId;
+            }
+        };
+
+        final Map<String, Object> record = new HashMap<String, Object>();
+        record.put("MAIL_REQUEST_ID", "1");
+        final MailRequestTable.MailRequest sut = new MailRequestTable.MailRequest(
+                new SqlRow(record, new HashMap<String, Integer>()), null, new MailRequestTable());
+
+        assertThat(loadedMailRequestIds.isEmpty(), is(true));
+        assertThat(sut.getMailBody(), is("本文1"));
+        assertThat(sut.getMailBody(), is("本文1"));
+        assertThat(loadedMailRequestIds.toString(), is("[1]"));
+    }
+
+    /**
+     * 読み込み前に未送信件数を取得する場合のテスト。
+     * <p/>
+     * 未送信件数が読み込み前に1回だけ出力され、未送信のメール送信要求の存在確認は行われないこと。
+     */
+    @Test
+    public void testCountUnsentRequests() throws Exception {
+        final List<String> hasTargetCalls = Collections.synchronizedList(new ArrayList<String>());
+        new MockUp<MailRequestTable>() {
+            @Mock
+            boolean hasTarget(Invocation invocation, String mailRequestPatternId) {
+                hasTargetCalls.add(String.valueOf(mailRequestPatternId));
+                return invocation.proceed();
+            }
+        };
+        setUpUnsentRequests();
+
+        // バッチ実行
+        CommandLine commandLine = new CommandLine("-diConfig",
+                "nablarch/common/mail/MailSenderTest.xml", "-requestPath",
+                "nablarch.common.mail.MailSender/SENDMAIL00", "-userId", "hoge");
+        int execute = Main.execute(commandLine);
+        assertThat("正常終了なので戻り値は0となる。", execute, is(0));
+
+        // ログ出力確認
+        assertLogWithCount("writer.memory", createMessagePattern("メール送信要求が 2 件あります。"), 1);
+        assertLog("メールを送信しました。 mailRequestId=[1]");
+        assertLog("メールを送信しました。 mailRequestId=[2]");
+        assertThat("存在確認は行わない", hasTargetCalls.isEmpty(), is(true));
+
+        assertUnsentRequestsSent();
+    }
+
+    /**
+     * 読み込み前に未送信件数を取得しない場合のテスト。
+     * <p/>
+     * 未送信件数は取得せず、読み込みの終了時に読み込んだ件数が1回だけ出力されること。
+     */
+    @Test
+    public void testNotCountUnsentRequests() throws Exception {
+        final List<String> getTargetCountCalls = Collections.synchronizedList(new ArrayList<String>());
+        new MockUp<MailRequestTable>() {
+            @Mock
+            int getTargetCount(Invocation invocation, String mailRequestPatternId) {
+                getTargetCountCalls.add(String.valueOf(mailRequestPatternId));
+                return invocation.proceed();
+            }
+        };
+        setUpUnsentRequests();
+
+        // バッチ実行
+        CommandLine commandLine = new CommandLine("-diConfig",
+                "nablarch/common/mail/MailSenderTestNotCountUnsentRequests.xml", "-requestPath",
+                "nablarch.common.mail.MailSender/SENDMAIL00", "-userId", "hoge");
+        int execute = Main.execute(commandLine);
+        assertThat("正常終了なので戻り値は0となる。", execute, is(0));
+
+        // ログ出力確認
+        assertLogWithCount("writer.memory", createMessagePattern("メール送信要求が 2 件あります。"), 1);
+        assertLogWithCount("writer.memory", createMessagePattern("メール送信要求が"), 1);
+        assertLog("メールを送信しました。 mailRequestId=[1]");
+        assertLog("メールを送信しました。 mailRequestId=[2]");
+        assertThat("未送信件数は取得しない", getTargetCountCalls.isEmpty(), is(true));
+
+        assertUnsentRequestsSent();
+    }
+
+    /**
+     * 読み込み前に未送信件数を取得せず、未送信のメール送信要求が存在しない場合のテスト。
+     * <p/>
+     * 読み込みは行われずに処理が終了し、件数も出力されないこと。
+     */
+    @Test
+    public void testNotCountUnsentRequestsWithoutTarget() throws Exception {
+        final List<String> readerStatementCalls = Collections.synchronizedList(new ArrayList<String>());
+        new MockUp<MailRequestTable>() {
+            @Mock
+            SqlPStatement createReaderStatement(Invocation invocation, String mailSendPatternId, String sendProcessId) {
+                readerStatementCalls.add(String.valueOf(mailSendPatternId));
+                return invocation.proceed();
+            }
+        };
+        VariousDbTestHelper.setUpTable(
+                new MailRequest("1", "送信済み", from, replyTo, returnPath, charset,
+                        mailConfig.getStatusSent(), SystemTimeUtil.getTimestamp(), SystemTimeUtil.getTimestamp(),
+                        mailBody),
+                new MailRequest("2", "送信失敗", from, replyTo, returnPath, charset,
+                        mailConfig.getStatusFailure(), SystemTimeUtil.getTimestamp(), null, mailBody));
+
+        // バッチ実行
+        CommandLine commandLine = new CommandLine("-diConfig",
+                "nablarch/common/mail/MailSenderTestNotCountUnsentRequests.xml", "-requestPath",
+                "nablarch.common.mail.MailSender/SENDMAIL00", "-userId", "hoge");
+        int execute = Main.execute(commandLine);
+        assertThat("正常終了なので戻り値は0となる。", execute, is(0));
+
+        // ログ出力確認
+        assertLogWithCount("writer.memory", createMessagePattern("メール送信要求が"), 0);
+        assertLogWithCount("writer.memory", createMessagePattern("メールを送信しました。"), 0);
+        assertThat("読み込みは行わない", readerStatementCalls.isEmpty(), is(true));
+
+        // DBの検証（ステータスが更新されていないこと）
+        List<MailRequest> mailRequestList = VariousDbTestHelper.findAll(MailRequest.class, "mailRequestId");
+        assertThat(mailRequestList.get(0).status, is(mailConfig.getStatusSent()));
+        assertThat(mailRequestList.get(1).status, is(mailConfig.getStatusFailure()));
+    }
+
+    /**
+     * 未送信のメール送信要求2件と、送信済みのメール送信要求1件を準備する。
+     */
+    private void setUpUnsentRequests() {
+        VariousDbTestHelper.setUpTable(
+                new MailRequest("1", "未送信件数1", from, replyTo, returnPath, charset,
+                        mailConfig.getStatusUnsent(), SystemTimeUtil.getTimestamp(), null, mailBody),
+                new MailRequest("2", "未送信件数2", from, replyTo, returnPath, charset,
+                        mailConfig.getStatusUnsent(), SystemTimeUtil.getTimestamp(), null, mailBody),
+                new MailRequest("3", "未送信件数3", from, replyTo, returnPath, charset,
+                        mailConfig.getStatusSent(), SystemTimeUtil.getTimestamp(), SystemTimeUtil.getTimestamp(),
+                        mailBody));
+        VariousDbTestHelper.setUpTable(
+                new MailRecipient("1", 1L, mailConfig.getRecipientTypeTO(), to1),
+                new MailRecipient("2", 1L, mailConfig.getRecipientTypeTO(), to2),
+                new MailRecipient("3", 1L, mailConfig.getRecipientTypeTO(), to3));
+    }
+
+    /**
+     * {@link #setUpUnsentRequests()}で準備した未送信のメール送信要求のみが送信されたことを検証する。
+     */
+    private void assertUnsentRequestsSent() throws Exception {
+        assertLogWithCount("writer.memory", createMessagePattern("メールを送信しました。 mailRequestId=[3]"), 0);
+        assertRecivingPlainMail("to1", from, replyTo, "未送信件数1", new String[] {to1}, new String[0]);
+        assertRecivingPlainMail("to2", from, replyTo, "未送信件数2", new String[] {to2}, new String[0]);
+
+        List<MailRequest> mailRequestList = VariousDbTestHelper.findAll(MailRequest.class, "mailRequestId");
+        assertThat("ステータスが「送信済み」", mailRequestList.get(0).status, is(mailConfig.getStatusSent()));
+        assertThat("ステータスが「送信済み」", mailRequestList.get(1).status, is(mailConfig.getStatusSent()));
+    }
+
+    /**
+     * {@link MailCircuitBreaker}を登録した場合のテスト。
+     * <p/>
+     * SMTPサーバへの送信が停止されている間は、ステータスを更新せずに未送信のまま残し、プロセスIDを解除すること。
+     * 未送信のまま残したメール送信要求は、送信を再開した後の読み込みで送信すること。
+     */
+    @Test
+    public void testExecuteDeferredByCircuitBreaker() throws Exception {
+        final MailCircuitBreaker circuitBreaker = new MailCircuitBreaker();
+        circuitBreaker.setFailureThreshold(1);
+        circuitBreaker.setRetryIntervalMillis(3600000L);
+        register("mailCircuitBreaker", circuitBreaker);
+        setUpMultiProcessRequests();
+
+        // SMTPサーバへの送信を停止した状態にする。
+        circuitBreaker.recordFailure("localhost");
+        assertThat("正常終了なので戻り値は0となる。", executeMultiProcess(), is(0));
+        assertDeferred("1", "2");
+
+        // 送信を再開した後の読み込みで送信する。
+        circuitBreaker.recordSuccess("localhost");
+        OnMemoryLogWriter.clear();
+        assertThat("正常終了なので戻り値は0となる。", executeMultiProcess(), is(0));
+        assertSent("1", "2");
+        assertThat(circuitBreaker.getState("localhost"), is(MailCircuitBreaker.State.CLOSED));
+    }
+
+    /**
+     * {@link AdaptiveConcurrencyLimiter}を登録した場合のテスト。
+     * <p/>
+     * 送信ごとに送信の開始と終了を記録し、全てのメール送信要求を送信すること。
+     */
+    @Test
+    public void testExecuteWithConcurrencyLimiter() throws Exception {
+        final List<Integer> inFlightCounts = Collections.synchronizedList(new ArrayList<Integer>());
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter() {
+            @Override
+            public synchronized void release(long latencyMillis, MessagingException e) {
+                inFlightCounts.add(getInFlightCount());
+                super.release(latencyMillis, e);
+            }
+        };
+        limiter.setInitialLimit(1);
+        limiter.setMaxLimit(1);
+        register("mailConcurrencyLimiter", limiter);
+        setUpMultiProcessRequests();
+
+        assertThat("正常終了なので戻り値は0となる。", executeMultiProcess(), is(0));
+
+        assertSent("1", "2");
+        assertThat("送信ごとに上限の範囲内で送信を開始し、終了している", inFlightCounts, is(Arrays.asList(1, 1)));
+        assertThat("送信中の件数は残らない", limiter.getInFlightCount(), is(0));
+    }
+
+    /**
+     * {@link MailRateLimiter}を登録した場合のテスト。
+     * <p/>
+     * 送信レートが上限を超えない時刻まで待機し、待機した後に全てのメール送信要求を送信すること。
+     */
+    @Test
+    public void testExecuteWithRateLimiter() throws Exception {
+        final RateLimit rateLimit = new RateLimit();
+        rateLimit.setTarget("localhost");
+        rateLimit.setPermits(1L);
+        rateLimit.setPeriodMillis(500L);
+        final MailRateLimiter rateLimiter = new MailRateLimiter();
+        rateLimiter.setHostRateLimits(Collections.singletonList(rateLimit));
+        register("mailRateLimiter", rateLimiter);
+        setUpMultiProcessRequests();
+
+        assertThat("正常終了なので戻り値は0となる。", executeMultiProcess(), is(0));
+
+        assertSent("1", "2");
+        assertThat("2件目は送信レートの上限により待機している", rateLimiter.getThrottledMillis() > 0L, is(true));
+    }
+
+    /**
+     * {@link RecipientDomainLimiter}を登録した場合のテスト。
+     * <p/>
+     * 宛先のドメインが上限に達しているメール送信要求は、ステータスを更新せずに未送信のまま残し、
+     * 上限に達していないメール送信要求は送信すること。
+     * 未送信のまま残したメール送信要求は、ドメインへの送信が終了した後の読み込みで送信すること。
+     */
+    @Test
+    public void testExecuteDeferredByRecipientDomainLimit() throws Exception {
+        final DomainLimit limit = new DomainLimit();
+        limit.setDomain("localhost");
+        limit.setMaxConcurrency(1);
+        final RecipientDomainLimiter domainLimiter = new RecipientDomainLimiter();
+        domainLimiter.setDomainLimits(Collections.singletonList(limit));
+        register("recipientDomainLimiter", domainLimiter);
+        setUpUnsentRequests();
+
+        // 他の送信で宛先のドメインが上限に達している状態にする。
+        final Address[] inFlight = {new InternetAddress(to3)};
+        assertThat(domainLimiter.tryAcquire(inFlight), is(true));
+
+        CommandLine commandLine = new CommandLine("-diConfig",
+                "nablarch/common/mail/MailSenderTest.xml", "-requestPath",
+                "nablarch.common.mail.MailSender/SENDMAIL00", "-userId", "hoge");
+        assertThat("正常終了なので戻り値は0となる。", Main.execute(commandLine), is(0));
+
+        assertLogWithCount("writer.memory", createMessagePattern("メールを送信しました。"), 0);
+        List<MailRequest> mailRequestList = VariousDbTestHelper.findAll(MailRequest.class, "mailRequestId");
+        assertThat("ステータスは「未送信」のまま", mailRequestList.get(0).status, is(mailConfig.getStatusUnsent()));
+        assertThat("送信日時は更新されない", mailRequestList.get(0).sendDatetime, is(nullValue()));
+        assertThat("ステータスは「未送信」のまま", mailRequestList.get(1).status, is(mailConfig.getStatusUnsent()));
+        assertThat("送信日時は更新されない", mailRequestList.get(1).sendDatetime, is(nullValue()));
+        assertThat("待機せずに次のメール送信要求に進む", domainLimiter.getDeferredCount(), is(2L));
+        assertThat("送信していないメール送信要求の分は解放されている", domainLimiter.getInFlightCount("localhost"), is(1));
+
+        // ドメインへの送信が終了した後の読み込みで送信する。
+        domainLimiter.release(inFlight);
+        assertThat("正常終了なので戻り値は0となる。", Main.execute(commandLine), is(0));
+
+        assertLog("メールを送信しました。 mailRequestId=[1]");
+        assertLog("メールを送信しました。 mailRequestId=[2]");
+        assertUnsentRequestsSent();
+        assertThat("送信が終了したドメインは解放されている", domainLimiter.getInFlightCount("localhost"), is(0));
+    }
+
+    /**
+     * {@link SmtpRelaySelector}を登録した場合のテスト。
+     * <p/>
+     * 全てのSMTPサーバが選択対象から除外されている間は、ステータスを更新せずに未送信のまま残し、プロセスIDを解除すること。
+     * 未送信のまま残したメール送信要求は、SMTPサーバが選択対象に戻った後の読み込みで、選択したSMTPサーバから送信すること。
+     */
+    @Test
+    public void testExecuteDeferredByRelaySelector() throws Exception {
+        final MailSessionConfig mailSessionConfig = repositoryResource.getComponent("mailSessionConfig");
+        final SmtpRelay relay = new SmtpRelay();
+        relay.setHost(mailSessionConfig.getMailSmtpHost());
+        relay.setPort(mailSessionConfig.getMailSmtpPort());
+        final SmtpRelaySelector relaySelector = new SmtpRelaySelector();
+        relaySelector.setRelays(Collections.singletonList(relay));
+        relaySelector.setFailureThreshold(1);
+        relaySelector.setRetryIntervalMillis(3600000L);
+        register("smtpRelaySelector", relaySelector);
+        setUpMultiProcessRequests();
+
+        // 全てのSMTPサーバを選択対象から除外した状態にする。
+        relaySelector.recordResult(relay, new MessagingException("connection refused."));
+        assertThat("正常終了なので戻り値は0となる。", executeMultiProcess(), is(0));
+        assertDeferred("1", "2");
+
+        // SMTPサーバが選択対象に戻った後の読み込みで送信する。
+        relaySelector.recordResult(relay, null);
+        OnMemoryLogWriter.clear();
+        assertThat("正常終了なので戻り値は0となる。", executeMultiProcess(), is(0));
+        assertSent("1", "2");
+        assertRecivingPlainMail("to1", from, replyTo, "マルチプロセス1", new String[] {to1}, new String[0]);
+        assertThat("送信結果が記録されている", relaySelector.getInFlightCount(relay), is(0));
+        assertThat(relaySelector.getState(relay), is(MailCircuitBreaker.State.CLOSED));
+    }
+
+    /**
+     * {@link SmtpRelayRouter}を登録した場合のテスト。
+     * <p/>
+     * 送信者のドメインに一致するルールのSMTPサーバを使用し、そのSMTPサーバが全て除外されている間は、
+     * 他のルールのSMTPサーバを使用せずに未送信のまま残し、プロセスIDを解除すること。
+     * 未送信のまま残したメール送信要求は、SMTPサーバが選択対象に戻った後の読み込みで送信すること。
+     */
+    @Test
+    public void testExecuteDeferredByRelayRouter() throws Exception {
+        final MailSessionConfig mailSessionConfig = repositoryResource.getComponent("mailSessionConfig");
+        final SmtpRelay otherRelay = new SmtpRelay();
+        otherRelay.setHost(mailSessionConfig.getMailSmtpHost());
+        otherRelay.setPort(mailSessionConfig.getMailSmtpPort());
+        final SmtpRelaySelector otherSelector = new SmtpRelaySelector();
+        otherSelector.setRelays(Collections.singletonList(otherRelay));
+        final SmtpRelayRoute otherRoute = new SmtpRelayRoute();
+        otherRoute.setFromDomain("example.com");
+        otherRoute.setRelaySelector(otherSelector);
+
+        final SmtpRelay relay = new SmtpRelay();
+        relay.setHost(mailSessionConfig.getMailSmtpHost());
+        relay.setPort(mailSessionConfig.getMailSmtpPort());
+        final SmtpRelaySelector relaySelector = new SmtpRelaySelector();
+        relaySelector.setRelays(Collections.singletonList(relay));
+        relaySelector.setFailureThreshold(1);
+        relaySelector.setRetryIntervalMillis(3600000L);
+        final SmtpRelayRoute route = new SmtpRelayRoute();
+        route.setFromDomain("LOCALHOST");
+        route.setRelaySelector(relaySelector);
+
+        final SmtpRelayRouter router = new SmtpRelayRouter();
+        router.setRoutes(Arrays.asList(otherRoute, route));
+        register("smtpRelayRouter", router);
+        setUpMultiProcessRequests();
+
+        // 送信者のドメインに一致するルールのSMTPサーバを全て除外した状態にする。
+        relaySelector.recordResult(relay, new MessagingException("connection refused."));
+        assertThat("正常終了なので戻り値は0となる。", executeMultiProcess(), is(0));
+        assertDeferred("1", "2");
+
+        // SMTPサーバが選択対象に戻った後の読み込みで送信する。
+        relaySelector.recordResult(relay, null);
+        OnMemoryLogWriter.clear();
+        assertThat("正常終了なので戻り値は0となる。", executeMultiProcess(), is(0));
+        assertSent("1", "2");
+        assertThat(relaySelector.getState(relay), is(MailCircuitBreaker.State.CLOSED));
+    }
+
+    /**
+     * {@link MailTransport}を登録した場合のテスト。
+     * <p/>
+     * 登録した{@link MailTransport}でメールをまとめて送信し、送信結果の通知を受けてステータスを更新すること。
+     * メール送信バッチは、全ての送信結果が通知されるまで終了しないこと。
+     */
+    @Test
+    public void testExecuteWithMailTransport() throws Exception {
+        final SmtpBatchMailTransport mailTransport = new SmtpBatchMailTransport();
+        mailTransport.setBatchSize(2);
+        mailTransport.setMaxDelayMillis(100L);
+        mailTransport.initialize();
+        try {
+            register("mailTransport", mailTransport);
+            setUpMultiProcessRequests();
+
+            assertThat("正常終了なので戻り値は0となる。", executeMultiProcess(), is(0));
+
+            assertThat("全ての送信結果が通知されている", mailTransport.getPendingCount(), is(0));
+            assertSent("1", "2");
+            assertRecivingPlainMail("to1", from, replyTo, "マルチプロセス1", new String[] {to1}, new String[0]);
+            assertRecivingPlainMail("to2", from, replyTo, "マルチプロセス2", new String[] {to2}, new String[0]);
+        } finally {
+            mailTransport.dispose();
+        }
+    }
+
+    /**
+     * {@link MailPollingScheduler}を登録した場合のテスト。
+     * <p/>
+     * 未送信のメール送信要求があった場合は次の読み込みまでの間隔を最小値にし、なかった場合は間隔を広げること。
+     * 未送信のメール送信要求がない読み込みでは、送信済みのメール送信要求のステータス及びプロセスIDを更新しないこと。
+     */
+    @Test
+    public void testExecuteWithPollingScheduler() throws Exception {
+        final MailPollingScheduler pollingScheduler = new MailPollingScheduler();
+        pollingScheduler.setMinIntervalMillis(100L);
+        pollingScheduler.setMaxIntervalMillis(400L);
+        register("mailPollingScheduler", pollingScheduler);
+        setUpMultiProcessRequests();
+
+        assertThat("正常終了なので戻り値は0となる。", executeMultiProcess(), is(0));
+        assertSent("1", "2");
+        assertThat("未送信のメール送信要求があったので最小値", pollingScheduler.getIntervalMillis(), is(100L));
+        final String processId = findMultiProcessRequest("1").processId;
+
+        // 未送信のメール送信要求がない読み込み
+        OnMemoryLogWriter.clear();
+        assertThat("正常終了なので戻り値は0となる。", executeMultiProcess(), is(0));
+        assertLogWithCount("writer.memory", createMessagePattern("メールを送信しました。"), 0);
+        assertThat("未送信のメール送信要求がなかったので広げる", pollingScheduler.getIntervalMillis(), is(200L));
+        assertThat("ステータスは更新されない", findMultiProcessRequest("1").status, is(mailConfig.getStatusSent()));
+        assertThat("プロセスIDは更新されない", findMultiProcessRequest("1").processId, is(processId));
+
+        // 未送信のメール送信要求が登録された後の読み込み
+        VariousDbTestHelper.insert(
+                new MailRequestMultiProcess("3", "マルチプロセス3", from, replyTo, returnPath, charset,
+                        mailConfig.getStatusUnsent(), SystemTimeUtil.getTimestamp(), null, mailBody, null));
+        VariousDbTestHelper.insert(new MailRecipient("3", 1L, mailConfig.getRecipientTypeTO(), to3));
+        OnMemoryLogWriter.clear();
+        assertThat("正常終了なので戻り値は0となる。", executeMultiProcess(), is(0));
+        assertSent("3");
+        assertThat("後続の読み込みのプロセスIDが登録される", findMultiProcessRequest("3").processId, is(not(processId)));
+        assertThat("未送信のメール送信要求があったので最小値に戻る", pollingScheduler.getIntervalMillis(), is(100L));
+    }
+
+    /**
+     * {@link MailFetchSizeTuner}を登録した場合のテスト。
+     * <p/>
+     * 記録がない最初の読み込みでは初期値のフェッチサイズを使用し、処理したレコードを記録すること。
+     * 後続の読み込みでは、記録したレコードの大きさに応じたフェッチサイズを使用すること。
+     */
+    @Test
+    public void testExecuteWithFetchSizeTuner() throws Exception {
+        final List<String> recordedIds = Collections.synchronizedList(new ArrayList<String>());
+        final MailFetchSizeTuner fetchSizeTuner = new MailFetchSizeTuner() {
+            @Override
+            public synchronized void recordRow(SqlRow row) {
+                recordedIds.add(row.getString("MAIL_REQUEST_ID"));
+                super.recordRow(row);
+            }
+        };
+        fetchSizeTuner.setInitialFetchSize(50);
+        fetchSizeTuner.setMinFetchSize(1);
+        fetchSizeTuner.setTargetFetchBytes(1L);
+        register("mailFetchSizeTuner", fetchSizeTuner);
+        setUpMultiProcessRequests();
+
+        assertThat("正常終了なので戻り値は0となる。", executeMultiProcess(), is(0));
+        assertSent("1", "2");
+        assertThat("記録がないので初期値", fetchSizeTuner.getEffectiveFetchSize(), is(50));
+        assertThat("処理したレコードを記録する", recordedIds, is(Arrays.asList("1", "2")));
+
+        // 記録したレコードの大きさに応じたフェッチサイズで読み込む。
+        VariousDbTestHelper.insert(
+                new MailRequestMultiProcess("3", "マルチプロセス3", from, replyTo, returnPath, charset,
+                        mailConfig.getStatusUnsent(), SystemTimeUtil.getTimestamp(), null, mailBody, null));
+        VariousDbTestHelper.insert(new MailRecipient("3", 1L, mailConfig.getRecipientTypeTO(), to3));
+        OnMemoryLogWriter.clear();
+        assertThat("正常終了なので戻り値は0となる。", executeMultiProcess(), is(0));
+        assertSent("3");
+        assertThat("目標のデータ量に収まる件数(最小値)", fetchSizeTuner.getEffectiveFetchSize(), is(1));
+        assertLog("mail request fetch size changed. fetchSize=[1]");
+    }
+
+    /**
+     * 送信中のステータスと{@link MailSendingRecovery}を使用する場合のテスト。
+     * <p/>
+     * 停止したプロセスが送信中のまま残したメール送信要求は、読み込みの前に未送信に戻してプロセスIDを解除し、
+     * 後続のメール送信バッチで送信すること。
+     * 送信に成功したメール送信要求は、設定した件数ごとにまとめて送信済みに更新し、
+     * 残りは読み込みの終了時に送信済みに更新すること。
+     */
+    @Test
+    public void testExecuteWithSendingStatusAndRecovery() throws Exception {
+        final List<List<String>> sentStatusUpdates = Collections.synchronizedList(new ArrayList<List<String>>());
+        new MockUp<MailRequestTable>() {
+            @Mock
+            void updateSentStatus(Invocation invocation, List<String> mailRequestIds) {
+                sentStatusUpdates.add(new ArrayList<String>(mailRequestIds));
+                invocation.proceed();
+            }
+        };
+        final MailSendingRecovery sendingRecovery = new MailSendingRecovery();
+        sendingRecovery.setPolicy(MailSendingRecovery.RESEND);
+        register("mailSendingRecovery", sendingRecovery);
+        setUpMultiProcessRequests();
+
+        // 停止したプロセスが送信中のまま残したメール送信要求
+        VariousDbTestHelper.insert(
+                new MailRequestMultiProcess("3", "マルチプロセス3", from, replyTo, returnPath, charset,
+                        "3", SystemTimeUtil.getTimestamp(), Timestamp.valueOf("2017-01-23 12:00:00"), mailBody,
+                        "stoppedProcess"));
+        VariousDbTestHelper.insert(new MailRecipient("3", 1L, mailConfig.getRecipientTypeTO(), to3));
+
+        CommandLine commandLine = new CommandLine("-diConfig",
+                "nablarch/common/mail/MailSenderTestSendingStatusMultiProcess.xml", "-requestPath",
+                "nablarch.common.mail.MailSender/SENDMAIL00", "-userId", "hoge");
+        assertThat("正常終了なので戻り値は0となる。", Main.execute(commandLine), is(0));
+
+        assertLog("recovered mail requests left in sending status. policy=[resend] count=[1]");
+        assertSent("1", "2", "3");
+        final String processId = findMultiProcessRequest("1").processId;
+        assertThat("後続のメール送信バッチのプロセスIDが登録される", processId, is(not("stoppedProcess")));
+        assertThat(findMultiProcessRequest("2").processId, is(processId));
+        assertThat(findMultiProcessRequest("3").processId, is(processId));
+        assertThat("2件ずつまとめて更新し、残りは読み込みの終了時に更新する", sentStatusUpdates,
+                is(Arrays.asList(Arrays.asList("1", "2"), Arrays.asList("3"))));
+    }
+
+    /**
+     * マルチプロセス用の設定で、未送信のメール送信要求2件を準備する。
+     */
+    private void setUpMultiProcessRequests() {
+        VariousDbTestHelper.setUpTable(
+                new MailRequestMultiProcess("1", "マルチプロセス1", from, replyTo, returnPath, charset,
+                        mailConfig.getStatusUnsent(), SystemTimeUtil.getTimestamp(), null, mailBody, null),
+                new MailRequestMultiProcess("2", "マルチプロセス2", from, replyTo, returnPath, charset,
+                        mailConfig.getStatusUnsent(), SystemTimeUtil.getTimestamp(), null, mailBody, null));
+        VariousDbTestHelper.setUpTable(
+                new MailRecipient("1", 1L, mailConfig.getRecipientTypeTO(), to1),
+                new MailRecipient("2", 1L, mailConfig.getRecipientTypeTO(), to2));
+    }
+
+    /**
+     * マルチプロセス用の設定でメール送信バッチを実行する。
+     *
+     * @return 終了コード
+     */
+    private static int executeMultiProcess() {
+        return Main.execute(new CommandLine("-diConfig",
+                "nablarch/common/mail/MailSenderTestMultiProcess.xml", "-requestPath",
+                "nablarch.common.mail.MailSender/SENDMAIL00", "-userId", "hoge"));
+    }
+
+    /**
+     * 送信を見送ったメール送信要求が、未送信のままプロセスIDを解除されていることを検証する。
+     *
+     * @param mailRequestIds メールリクエストID
+     */
+    private void assertDeferred(String... mailRequestIds) {
+        for (String mailRequestId : mailRequestIds) {
+            assertLogWithCount("writer.memory",
+                    createMessagePattern("メールを送信しました。 mailRequestId=[" + mailRequestId + "]"), 0);
+            final MailRequestMultiProcess mailRequest = findMultiProcessRequest(mailRequestId);
+            assertThat("ステータスは「未送信」のまま", mailRequest.status, is(mailConfig.getStatusUnsent()));
+            assertThat("送信日時は更新されない", mailRequest.sendDatetime, is(nullValue()));
+            assertThat("プロセスIDは解除される", mailRequest.processId, is(nullValue()));
+        }
+    }
+
+    /**
+     * メール送信要求が送信され、送信したメール送信バッチのプロセスIDが登録されていることを検証する。
+     *
+     * @param mailRequestIds メールリクエストID
+     */
+    private void assertSent(String... mailRequestIds) {
+        for (String mailRequestId : mailRequestIds) {
+            assertLog("メールを送信しました。 mailRequestId=[" + mailRequestId + "]");
+            final MailRequestMultiProcess mailRequest = findMultiProcessRequest(mailRequestId);
+            assertThat("ステータスが「送信済み」", mailRequest.status, is(mailConfig.getStatusSent()));
+            assertThat("送信日時が更新される", mailRequest.sendDatetime, is(notNullValue()));
+            assertThat("プロセスIDが登録される", mailRequest.processId, is(notNullValue()));
+        }
+    }
+
+    /**
+     * マルチプロセス用のメール送信要求を取得する。
+     *
+     * @param mailRequestId メールリクエストID
+     * @return メール送信要求
+     */
+    private static MailRequestMultiProcess findMultiProcessRequest(String mailRequestId) {
+        for (MailRequestMultiProcess mailRequest
+                : VariousDbTestHelper.findAll(MailRequestMultiProcess.class, "mailRequestId")) {
+            if (mailRequest.mailRequestId.equals(mailRequestId)) {
+                return mailRequest;
+            }
+        }
+        throw new AssertionError("mail request not found. mailRequestId=[" + mailRequestId + "]");
+    }
+
+    /**
+     * 常駐起動時のテスト。
+     * <p/>
+     * {@link MailRequestNotifier}を登録した場合、読み込みごとに生成された{@link MailSender}であっても、
+     * 直前の読み込みで未送信のメール送信要求がなかったときは、通知を受けるまで読み込みを待機すること。
+     */
+    @Test
+    public void testCreateReaderAwaitsNotification() throws Exception {
+        final InJvmMailRequestNotifier notifier = new InJvmMailRequestNotifier();
+        notifier.setMaxWaitMillis(10000L);
+        register("mailRequestNotifier", notifier);
+        final SimpleDbTransactionManager db = new SimpleDbTransactionManager();
+        db.setConnectionFactory(repositoryResource.<ConnectionFactory>getComponent("connectionFactory"));
+        db.setTransactionFactory(repositoryResource.<TransactionFactory>getComponent("jdbcTransactionFactory"));
+
+        // 常駐起動と同様に、同じスレッドで読み込みごとに新しいMailSenderを生成して読み込む。
+        final Callable<Integer> poll = new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                ThreadContext.setLanguage(Locale.JAPANESE);
+                return readAll(db, new MailSender());
+            }
+        };
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertThat("未送信のメール送信要求はない", executor.submit(poll).get(10L, TimeUnit.SECONDS), is(0));
+
+            final Future<Integer> second = executor.submit(poll);
+            Thread.sleep(500L);
+            assertThat("通知を受けるまで読み込まない", second.isDone(), is(false));
+
+            VariousDbTestHelper.setUpTable(
+                    new MailRequest("1", subject, from, replyTo, returnPath, charset,
+                            mailConfig.getStatusUnsent(), SystemTimeUtil.getTimestamp(), null, mailBody));
+            notifier.notifyRequested(null);
+            assertThat("通知を受けて登録されたメール送信要求を読み込む", second.get(5L, TimeUnit.SECONDS), is(1));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * メール送信バッチが読み込む未送信のメール送信要求を全て読み込む。
+     *
+     * @param db 読み込みに使用するトランザクション
+     * @param sender メール送信バッチ
+     * @return 読み込んだ件数
+     */
+    private static int readAll(SimpleDbTransactionManager db, final MailSender sender) {
+        return new SimpleDbTransactionExecutor<Integer>(db) {
+            @Override
+            public Integer execute(AppDbConnection connection) {
+                final ExecutionContext ctx = new ExecutionContext();
+                final DataReader<SqlRow> reader = sender.createReader(ctx);
+                int count = 0;
+                try {
+                    while (reader.hasNext(ctx)) {
+                        reader.read(ctx);
+                        count++;
+                    }
+                } finally {
+                    reader.close(ctx);
+                }
+                return count;
+            }
+        }.doTransaction();
+    }
+
     private void assertRecivingPlainMail(final String account, final String fromAddress, final String replyToAddress, final String mailSubject, final String to[],
             final String cc[]) throws Exception {
         // accountでメールを受信
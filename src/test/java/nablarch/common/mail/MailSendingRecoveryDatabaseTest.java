@@ -0,0 +1,164 @@
+package nablarch.common.mail;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+import nablarch.test.support.SystemRepositoryResource;
+import nablarch.test.support.db.helper.DatabaseTestRunner;
+import nablarch.test.support.db.helper.VariousDbTestHelper;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * {@link MailSendingRecovery}による回復を、データベースのメール送信要求に対して行うテストクラス。
+ * <p/>
+ * 現在日時は2017/01/23 12:34:56に固定する。
+ */
+@RunWith(DatabaseTestRunner.class)
+public class MailSendingRecoveryDatabaseTest {
+
+    @Rule
+    public SystemRepositoryResource repositoryResource = new SystemRepositoryResource(
+            "nablarch/common/mail/MailSendingRecoveryDatabaseTest.xml");
+
+    /** 送信中のステータス */
+    private static final String STATUS_SENDING = "3";
+
+    /** 回復の対象となる送信開始日時(10分以上前) */
+    private static final Timestamp STALE_DATETIME = Timestamp.valueOf("2017-01-23 12:00:00");
+
+    /** 回復の対象とならない送信開始日時(10分未満) */
+    private static final Timestamp RECENT_DATETIME = Timestamp.valueOf("2017-01-23 12:30:00");
+
+    /** 送信済みのメール送信要求の送信日時 */
+    private static final Timestamp SENT_DATETIME = Timestamp.valueOf("2017-01-23 11:00:00");
+
+    /** 出力ライブラリ(メール送信)のコード値を保持するデータオブジェクト */
+    private MailConfig mailConfig;
+
+    /** メール送信要求管理テーブルのスキーマ情報 */
+    private MailRequestTable mailRequestTable;
+
+    @BeforeClass
+    public static void beforeClass() {
+        VariousDbTestHelper.createTable(MailRequestMultiProcess.class);
+    }
+
+    @Before
+    public void before() {
+        mailConfig = repositoryResource.getComponent("mailConfig");
+        mailConfig.setStatusSending(STATUS_SENDING);
+        mailRequestTable = repositoryResource.getComponent("mailRequestTable");
+
+        VariousDbTestHelper.setUpTable(
+                createRequest("1", STATUS_SENDING, STALE_DATETIME, "process1"),
+                createRequest("2", STATUS_SENDING, RECENT_DATETIME, "process2"),
+                createRequest("3", mailConfig.getStatusSent(), SENT_DATETIME, "process1"),
+                createRequest("4", mailConfig.getStatusUnsent(), null, null));
+    }
+
+    /**
+     * 未送信に戻す場合、送信日時とメール送信バッチのプロセスIDが解除されること。
+     */
+    @Test
+    public void testResend() {
+        assertThat(recover(MailSendingRecovery.RESEND), is(1));
+
+        final List<MailRequestMultiProcess> requests = findAll();
+        assertThat(requests.get(0).status, is(mailConfig.getStatusUnsent()));
+        assertThat(requests.get(0).sendDatetime, is(nullValue()));
+        assertThat(requests.get(0).processId, is(nullValue()));
+        assertNotRecovered(requests);
+    }
+
+    /**
+     * 送信失敗とする場合、送信日時のみが解除されること。
+     */
+    @Test
+    public void testFail() {
+        assertThat(recover(MailSendingRecovery.FAIL), is(1));
+
+        final List<MailRequestMultiProcess> requests = findAll();
+        assertThat(requests.get(0).status, is(mailConfig.getStatusFailure()));
+        assertThat(requests.get(0).sendDatetime, is(nullValue()));
+        assertThat(requests.get(0).processId, is("process1"));
+        assertNotRecovered(requests);
+    }
+
+    /**
+     * 送信済みとする場合、送信日時とメール送信バッチのプロセスIDが維持されること。
+     */
+    @Test
+    public void testAssumeSent() {
+        assertThat(recover(MailSendingRecovery.ASSUME_SENT), is(1));
+
+        final List<MailRequestMultiProcess> requests = findAll();
+        assertThat(requests.get(0).status, is(mailConfig.getStatusSent()));
+        assertThat(requests.get(0).sendDatetime, is(STALE_DATETIME));
+        assertThat(requests.get(0).processId, is("process1"));
+        assertNotRecovered(requests);
+    }
+
+    /**
+     * 指定した回復方法で回復する。
+     *
+     * @param policy 回復方法
+     * @return 回復した件数
+     */
+    private int recover(String policy) {
+        final MailSendingRecovery sut = new MailSendingRecovery();
+        sut.setPolicy(policy);
+        return sut.recover(mailRequestTable, mailConfig);
+    }
+
+    /**
+     * 送信を開始してから回復の対象とする時間が経過していないメール送信要求と、
+     * 送信中でないメール送信要求が更新されていないことを検証する。
+     *
+     * @param requests メールリクエストIDの順のメール送信要求
+     */
+    private void assertNotRecovered(List<MailRequestMultiProcess> requests) {
+        assertThat(requests.get(1).status, is(STATUS_SENDING));
+        assertThat(requests.get(1).sendDatetime, is(RECENT_DATETIME));
+        assertThat(requests.get(1).processId, is("process2"));
+        assertThat(requests.get(2).status, is(mailConfig.getStatusSent()));
+        assertThat(requests.get(2).sendDatetime, is(SENT_DATETIME));
+        assertThat(requests.get(2).processId, is("process1"));
+        assertThat(requests.get(3).status, is(mailConfig.getStatusUnsent()));
+        assertThat(requests.get(3).sendDatetime, is(nullValue()));
+        assertThat(requests.get(3).processId, is(nullValue()));
+    }
+
+    /**
+     * メール送信要求をメールリクエストIDの順に取得する。
+     *
+     * @return メール送信要求
+     */
+    private static List<MailRequestMultiProcess> findAll() {
+        return VariousDbTestHelper.findAll(MailRequestMultiProcess.class, "mailRequestId");
+    }
+
+    /**
+     * メール送信要求を生成する。
+     *
+     * @param mailRequestId メールリクエストID
+     * @param status ステータス
+     * @param sendDatetime 送信日時
+     * @param processId プロセスID
+     * @return メール送信要求
+     */
+    private static MailRequestMultiProcess createRequest(String mailRequestId, String status,
+            Timestamp sendDatetime, String processId) {
+        return new MailRequestMultiProcess(mailRequestId, "件名", "from@localhost", "reply@localhost",
+                "return@localhost", "UTF-8", status, Timestamp.valueOf("2017-01-23 11:00:00"), sendDatetime,
+                "本文", processId);
+    }
+}
@@ -0,0 +1,149 @@
+package nablarch.common.mail;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nablarch.core.date.BasicSystemTimeProvider;
+import nablarch.core.repository.ObjectLoader;
+import nablarch.core.repository.SystemRepository;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link MailSendingRecovery}のテスト。
+ */
+public class MailSendingRecoveryTest {
+
+    @Before
+    public void setUp() {
+        SystemRepository.load(new ObjectLoader() {
+            @Override
+            public Map<String, Object> load() {
+                final Map<String, Object> components = new HashMap<String, Object>();
+                components.put("systemTimeProvider", new BasicSystemTimeProvider());
+                return components;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        SystemRepository.clear();
+    }
+
+    /**
+     * 更新内容を記録するメール送信要求管理テーブル。
+     */
+    private static class StubMailRequestTable extends MailRequestTable {
+
+        /** 更新後のステータス */
+        private final List<String> statuses = new ArrayList<String>();
+
+        /** 送信を開始した日時の上限 */
+        private Timestamp startedBefore;
+
+        @Override
+        public int updateStaleSendingStatus(String status, Timestamp startedBefore) {
+            statuses.add(status);
+            this.startedBefore = startedBefore;
+            return 1;
+        }
+    }
+
+    /**
+     * 送信中のステータスを使用するメール設定を生成する。
+     *
+     * @return メール設定
+     */
+    private static MailConfig sendingConfig() {
+        final MailConfig config = new MailConfig();
+        config.setStatusSending("3");
+        return config;
+    }
+
+    /**
+     * 回復方法に応じたステータスに更新すること。
+     */
+    @Test
+    public void testPolicy() {
+        final String[][] cases = {
+                {null, "2"},
+                {MailSendingRecovery.FAIL, "2"},
+                {MailSendingRecovery.RESEND, "0"},
+                {MailSendingRecovery.ASSUME_SENT, "1"}
+        };
+        for (String[] c : cases) {
+            final StubMailRequestTable table = new StubMailRequestTable();
+            final MailSendingRecovery sut = new MailSendingRecovery();
+            if (c[0] != null) {
+                sut.setPolicy(c[0]);
+            }
+            assertThat(sut.recover(table, sendingConfig()), is(1));
+            assertThat(table.statuses.toString(), is("[" + c[1] + "]"));
+        }
+    }
+
+    /**
+     * 経過時間を超えた送信中のメール送信要求を対象とすること。
+     */
+    @Test
+    public void testStaleMillis() {
+        final StubMailRequestTable table = new StubMailRequestTable();
+        final MailSendingRecovery sut = new MailSendingRecovery();
+        sut.setStaleMillis(60000L);
+        final long before = System.currentTimeMillis();
+        sut.recover(table, sendingConfig());
+        final long after = System.currentTimeMillis();
+        assertThat(table.startedBefore.getTime() >= before - 60000L, is(true));
+        assertThat(table.startedBefore.getTime() <= after - 60000L, is(true));
+    }
+
+    /**
+     * 回復を行う間隔が経過するまでは回復しないこと。
+     */
+    @Test
+    public void testInterval() {
+        final StubMailRequestTable table = new StubMailRequestTable();
+        final MailSendingRecovery sut = new MailSendingRecovery();
+        sut.setIntervalMillis(60000L);
+        assertThat(sut.recover(table, sendingConfig()), is(1));
+        assertThat(sut.recover(table, sendingConfig()), is(0));
+        assertThat(table.statuses.size(), is(1));
+
+        sut.setIntervalMillis(0L);
+        assertThat(sut.recover(table, sendingConfig()), is(1));
+        assertThat(table.statuses.size(), is(2));
+    }
+
+    /**
+     * 送信中のステータスを使用しない場合は回復しないこと。
+     */
+    @Test
+    public void testStatusSendingNotUsed() {
+        final StubMailRequestTable table = new StubMailRequestTable();
+        assertThat(new MailSendingRecovery().recover(table, new MailConfig()), is(0));
+        assertThat(table.statuses.isEmpty(), is(true));
+    }
+
+    /**
+     * 不正な回復方法を設定できないこと。
+     */
+    @Test
+    public void testInvalidPolicy() {
+        try {
+            new MailSendingRecovery().setPolicy("retry");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("invalid policy. policy=[retry]"));
+        }
+    }
+}
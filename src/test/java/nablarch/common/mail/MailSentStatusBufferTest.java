@@ -0,0 +1,86 @@
+package nablarch.common.mail;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * {@link MailSentStatusBuffer}のテスト。
+ */
+public class MailSentStatusBufferTest {
+
+    /**
+     * 更新内容を記録するメール送信要求管理テーブル。
+     */
+    private static class StubMailRequestTable extends MailRequestTable {
+
+        /** 更新したメールリクエストID(更新ごと) */
+        private final List<List<String>> batches = new ArrayList<List<String>>();
+
+        /** 更新に失敗させるか否か */
+        private boolean fail;
+
+        @Override
+        public void updateSentStatus(List<String> mailRequestIds) {
+            if (fail) {
+                throw new IllegalStateException("update failed.");
+            }
+            batches.add(mailRequestIds);
+        }
+    }
+
+    /**
+     * まとめて更新する件数ごとに更新すること。
+     */
+    @Test
+    public void testBatch() {
+        final StubMailRequestTable table = new StubMailRequestTable();
+        table.setSentStatusBatchSize(2);
+        final MailSentStatusBuffer sut = new MailSentStatusBuffer();
+
+        sut.add(table, "1");
+        assertThat(table.batches.size(), is(0));
+        sut.add(table, "2");
+        sut.add(table, "3");
+        assertThat(table.batches.toString(), is("[[1, 2]]"));
+
+        sut.flush(table);
+        assertThat(table.batches.toString(), is("[[1, 2], [3]]"));
+
+        sut.flush(table);
+        assertThat(table.batches.size(), is(2));
+    }
+
+    /**
+     * デフォルトでは送信ごとに更新すること。
+     */
+    @Test
+    public void testDefault() {
+        final StubMailRequestTable table = new StubMailRequestTable();
+        final MailSentStatusBuffer sut = new MailSentStatusBuffer();
+        sut.add(table, "1");
+        sut.add(table, "2");
+        assertThat(table.batches.toString(), is("[[1], [2]]"));
+    }
+
+    /**
+     * 更新に失敗しても例外を送出せず、失敗したメール送信要求は保持しないこと。
+     */
+    @Test
+    public void testUpdateFailed() {
+        final StubMailRequestTable table = new StubMailRequestTable();
+        table.setSentStatusBatchSize(2);
+        final MailSentStatusBuffer sut = new MailSentStatusBuffer();
+        table.fail = true;
+        sut.add(table, "1");
+        sut.add(table, "2");
+
+        table.fail = false;
+        sut.flush(table);
+        assertThat(table.batches.isEmpty(), is(true));
+    }
+}
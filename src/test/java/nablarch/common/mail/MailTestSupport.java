@@ -10,7 +10,9 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -26,8 +28,12 @@ import javax.mail.Session;
 import javax.mail.Store;
 
 import nablarch.test.support.log.app.OnMemoryLogWriter;
+import nablarch.core.repository.ObjectLoader;
+import nablarch.core.repository.SystemRepository;
 import nablarch.fw.ExecutionContext;
 import nablarch.fw.Handler;
+import nablarch.fw.launcher.CommandLine;
+import nablarch.fw.launcher.Main;
 import nablarch.fw.results.TransactionAbnormalEnd;
 import nablarch.test.support.db.helper.VariousDbTestHelper;
 
@@ -266,5 +272,23 @@ public class MailTestSupport {
         folder.close(true);
         store.close();
     }
-}
 
+    /**
+     * コンポーネントをシステムリポジトリに登録する。
+     * <p/>
+     * 登録したコンポーネントは、{@link Main#execute(CommandLine)}で設定ファイルを読み込んだ後も同じインスタンスが使用される。
+     *
+     * @param name コンポーネント名
+     * @param component コンポーネント
+     */
+    protected static void register(final String name, final Object component) {
+        SystemRepository.load(new ObjectLoader() {
+            @Override
+            public Map<String, Object> load() {
+                final Map<String, Object> components = new HashMap<String, Object>();
+                components.put(name, component);
+                return components;
+            }
+        });
+    }
+}
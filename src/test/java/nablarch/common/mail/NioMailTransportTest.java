@@ -0,0 +1,283 @@
+package nablarch.common.mail;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * {@link NioMailTransport}のテストクラス。
+ */
+public class NioMailTransportTest {
+
+    private SmtpServerStub server;
+
+    private final NioMailTransport sut = new NioMailTransport();
+
+    @After
+    public void tearDown() throws Exception {
+        sut.dispose();
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    /**
+     * 同時セッション数の上限を超える数のメールを、少数のI/Oスレッドで全て送信できること。
+     */
+    @Test
+    public void testSend_multiplexed() throws Exception {
+        server = new SmtpServerStub("PIPELINING");
+        Session session = createSession(server.start());
+        sut.setIoThreadCount(2);
+        sut.setMaxConcurrentSessions(10);
+        sut.initialize();
+
+        RecordingCallback callback = new RecordingCallback();
+        for (int i = 0; i < 50; i++) {
+            sut.send(session, createMessage(session, "本文" + i + "\r\n.ピリオドで始まる行", "to" + i + "@example.com"),
+                    callback);
+        }
+        sut.waitForCompletion();
+
+        assertThat(callback.successCount.get(), is(50));
+        assertThat(callback.failures.isEmpty(), is(true));
+        assertThat(sut.getActiveSessionCount(), is(0));
+
+        List<String> bodies = new ArrayList<String>();
+        for (byte[] data : server.getMessages()) {
+            bodies.add(((String) new MimeMessage(null, new ByteArrayInputStream(data)).getContent()).trim());
+        }
+        assertThat(bodies.size(), is(50));
+        assertThat(bodies.contains("本文49\r\n.ピリオドで始まる行"), is(true));
+        assertThat(server.getCommands().contains("MAIL FROM:<return@example.com>"), is(true));
+    }
+
+    /**
+     * 宛先が拒否された場合は、宛先ごとの結果を持つ{@link SendFailedException}が通知されること。
+     */
+    @Test
+    public void testSend_invalidAddress() throws Exception {
+        server = new SmtpServerStub();
+        server.rejectRecipient("invalid@example.com", "550 no such user");
+        server.rejectRecipient("busy@example.com", "451 try again later");
+        Session session = createSession(server.start());
+        sut.initialize();
+
+        RecordingCallback callback = new RecordingCallback();
+        sut.send(session, createMessage(session, "本文", "to@example.com, invalid@example.com, busy@example.com"),
+                callback);
+        sut.waitForCompletion();
+
+        assertThat(callback.failures.size(), is(1));
+        SendFailedException e = (SendFailedException) callback.failures.get(0);
+        assertThat(e.getValidSentAddresses(), is(nullValue()));
+        assertThat(Arrays.toString(e.getValidUnsentAddresses()), is("[to@example.com, busy@example.com]"));
+        assertThat(Arrays.toString(e.getInvalidAddresses()), is("[invalid@example.com]"));
+        assertThat(server.getCommands().contains("DATA"), is(false));
+    }
+
+    /**
+     * 部分送信が許可されている場合は、PIPELININGでも有効な宛先にのみ送信し、宛先ごとの結果が通知されること。
+     */
+    @Test
+    public void testSend_sendPartialWithPipelining() throws Exception {
+        server = new SmtpServerStub("PIPELINING");
+        server.rejectRecipient("invalid@example.com", "550 no such user");
+        Session session = createSession(server.start(), "mail.smtp.sendpartial", "true");
+        sut.initialize();
+
+        RecordingCallback callback = new RecordingCallback();
+        sut.send(session, createMessage(session, "本文", "to@example.com, invalid@example.com"), callback);
+        sut.waitForCompletion();
+
+        SendFailedException e = (SendFailedException) callback.failures.get(0);
+        assertThat(Arrays.toString(e.getValidSentAddresses()), is("[to@example.com]"));
+        assertThat(e.getValidUnsentAddresses(), is(nullValue()));
+        assertThat(Arrays.toString(e.getInvalidAddresses()), is("[invalid@example.com]"));
+        assertThat(server.getMessages().size(), is(1));
+        assertThat(server.getPipelinedCommands().contains("MAIL FROM:<return@example.com>"), is(true));
+    }
+
+    /**
+     * 送信者が拒否された場合は、全ての宛先を未送信とする{@link SendFailedException}が通知されること。
+     */
+    @Test
+    public void testSend_senderRejected() throws Exception {
+        server = new SmtpServerStub("PIPELINING");
+        server.rejectSender("553 sender rejected");
+        Session session = createSession(server.start());
+        sut.initialize();
+
+        RecordingCallback callback = new RecordingCallback();
+        sut.send(session, createMessage(session, "本文", "to1@example.com, to2@example.com"), callback);
+        sut.waitForCompletion();
+
+        SendFailedException e = (SendFailedException) callback.failures.get(0);
+        assertThat(e.getMessage(), is("553 sender rejected"));
+        assertThat(Arrays.toString(e.getValidUnsentAddresses()), is("[to1@example.com, to2@example.com]"));
+        assertThat(e.getInvalidAddresses(), is(nullValue()));
+    }
+
+    /**
+     * 接続できない場合は、送信失敗が通知されること。
+     */
+    @Test
+    public void testSend_connectionRefused() throws Exception {
+        ServerSocket closed = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        int port = closed.getLocalPort();
+        closed.close();
+        Session session = createSession(port);
+        sut.initialize();
+
+        RecordingCallback callback = new RecordingCallback();
+        sut.send(session, createMessage(session, "本文", "to@example.com"), callback);
+        sut.waitForCompletion();
+
+        assertThat(callback.failures.size(), is(1));
+        assertThat(callback.failures.get(0), is(not(instanceOf(SendFailedException.class))));
+    }
+
+    /**
+     * 応答がタイムアウトした場合は、送信失敗が通知されること。
+     */
+    @Test
+    public void testSend_timeout() throws Exception {
+        ServerSocket silent = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        try {
+            Session session = createSession(silent.getLocalPort(), "mail.smtp.timeout", "300");
+            sut.initialize();
+
+            RecordingCallback callback = new RecordingCallback();
+            sut.send(session, createMessage(session, "本文", "to@example.com"), callback);
+            Socket accepted = silent.accept();
+            sut.waitForCompletion();
+            accepted.close();
+
+            assertThat(callback.failures.size(), is(1));
+            assertTrue(callback.failures.get(0).getMessage().contains("timed out in state GREETING"));
+        } finally {
+            silent.close();
+        }
+    }
+
+    /**
+     * 接続先のホスト名を解決できない場合は、呼び出し元で送信失敗が通知され、後続のメールは送信できること。
+     */
+    @Test
+    public void testSend_unknownHost() throws Exception {
+        server = new SmtpServerStub();
+        int port = server.start();
+        Session session = createSession(port);
+        Session unknown = createSession(port, "mail.smtp.host", "unknown-host.invalid");
+        sut.setMaxConcurrentSessions(1);
+        sut.initialize();
+
+        RecordingCallback callback = new RecordingCallback();
+        sut.send(unknown, createMessage(unknown, "本文", "to@example.com"), callback);
+
+        assertThat(callback.failures.size(), is(1));
+        assertTrue(callback.failures.get(0).getMessage().contains("unknown SMTP host: unknown-host.invalid"));
+        assertThat(sut.getActiveSessionCount(), is(0));
+
+        sut.send(session, createMessage(session, "本文", "to@example.com"), callback);
+        sut.waitForCompletion();
+        assertThat(callback.successCount.get(), is(1));
+    }
+
+    /**
+     * 応答コードを含まない不正な応答を受け取った場合は、そのメールのみ送信失敗が通知され、後続のメールは送信できること。
+     */
+    @Test
+    public void testSend_garbageReply() throws Exception {
+        final ServerSocket garbage = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        try {
+            server = new SmtpServerStub();
+            Session session = createSession(server.start());
+            Session broken = createSession(garbage.getLocalPort());
+            sut.setMaxConcurrentSessions(1);
+            sut.initialize();
+
+            RecordingCallback callback = new RecordingCallback();
+            sut.send(broken, createMessage(broken, "本文", "to@example.com"), callback);
+            Socket accepted = garbage.accept();
+            accepted.getOutputStream().write("\u0000\u00ff garbage\r\n".getBytes("ISO-8859-1"));
+            accepted.getOutputStream().flush();
+            sut.waitForCompletion();
+            accepted.close();
+
+            assertThat(callback.failures.size(), is(1));
+            assertThat(sut.getActiveSessionCount(), is(0));
+
+            sut.send(session, createMessage(session, "本文", "to@example.com"), callback);
+            sut.waitForCompletion();
+            assertThat(callback.successCount.get(), is(1));
+            assertThat(callback.failures.size(), is(1));
+        } finally {
+            garbage.close();
+        }
+    }
+
+    private static Session createSession(int port, String... options) {
+        Properties properties = new Properties();
+        properties.setProperty("mail.smtp.host", "127.0.0.1");
+        properties.setProperty("mail.smtp.port", String.valueOf(port));
+        properties.setProperty("mail.smtp.from", "return@example.com");
+        properties.setProperty("mail.smtp.localhost", "client.example.com");
+        properties.setProperty("mail.smtp.timeout", "5000");
+        for (int i = 0; i < options.length; i += 2) {
+            properties.setProperty(options[i], options[i + 1]);
+        }
+        return Session.getInstance(properties);
+    }
+
+    private static MimeMessage createMessage(Session session, String text, String to) throws Exception {
+        MimeMessage message = new MimeMessage(session);
+        message.setFrom(new InternetAddress("from@example.com"));
+        message.setRecipients(Message.RecipientType.TO, to);
+        message.setSubject("件名", "UTF-8");
+        message.setText(text, "UTF-8");
+        message.saveChanges();
+        return message;
+    }
+
+    /**
+     * 送信結果を記録するコールバック。
+     */
+    private static class RecordingCallback implements MailTransportCallback {
+
+        private final AtomicInteger successCount = new AtomicInteger();
+
+        private final List<MessagingException> failures =
+                Collections.synchronizedList(new ArrayList<MessagingException>());
+
+        @Override
+        public void onSuccess() {
+            successCount.incrementAndGet();
+        }
+
+        @Override
+        public void onFailure(MessagingException e) {
+            failures.add(e);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package nablarch.common.mail;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * {@link PipelinedMailTransport}のテストクラス。
+ */
+public class PipelinedMailTransportTest {
+
+    private SmtpServerStub server;
+
+    private final PipelinedMailTransport sut = new PipelinedMailTransport();
+
+    @After
+    public void tearDown() throws Exception {
+        sut.dispose();
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    /**
+     * 送信ステージで送信し、記録ステージのスレッドで送信結果が通知されること。
+     */
+    @Test
+    public void testSend() throws Exception {
+        server = new SmtpServerStub();
+        server.rejectRecipient("invalid@example.com", "550 no such user");
+        Session session = createSession(server.start());
+        sut.setTransmitThreadCount(3);
+        sut.initialize();
+
+        final List<String> threadNames = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger successCount = new AtomicInteger();
+        final List<MessagingException> failures = Collections.synchronizedList(new ArrayList<MessagingException>());
+        MailTransportCallback callback = new MailTransportCallback() {
+            @Override
+            public void onSuccess() {
+                threadNames.add(Thread.currentThread().getName());
+                successCount.incrementAndGet();
+            }
+
+            @Override
+            public void onFailure(MessagingException e) {
+                threadNames.add(Thread.currentThread().getName());
+                failures.add(e);
+            }
+        };
+        for (int i = 0; i < 20; i++) {
+            sut.send(session, createMessage(session, "to" + i + "@example.com"), callback);
+        }
+        sut.send(session, createMessage(session, "invalid@example.com"), callback);
+        sut.waitForCompletion();
+
+        assertThat(successCount.get(), is(20));
+        assertThat(failures.size(), is(1));
+        assertThat(server.getMessages().size(), is(20));
+        assertThat(sut.getInFlightCount(), is(0));
+        for (String name : threadNames) {
+            assertThat(name, is("PipelinedMailTransport-record-0"));
+        }
+    }
+
+    /**
+     * 後段のステージが滞留している場合は、キューが満杯になった時点で呼び出し元が待機すること。
+     */
+    @Test
+    public void testSend_backpressure() throws Exception {
+        server = new SmtpServerStub();
+        final Session session = createSession(server.start());
+        sut.setTransmitThreadCount(1);
+        sut.setTransmitQueueCapacity(1);
+        sut.setRecordQueueCapacity(1);
+        sut.initialize();
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final MailTransportCallback blocking = new MailTransportCallback() {
+            @Override
+            public void onSuccess() {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void onFailure(MessagingException e) {
+            }
+        };
+
+        final AtomicInteger submitted = new AtomicInteger();
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 10; i++) {
+                        sut.send(session, createMessage(session, "to" + i + "@example.com"), blocking);
+                        submitted.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        producer.start();
+
+        // 記録ステージで1件、記録キューに1件、送信ステージで1件、送信キューに1件が滞留し、5件目で待機する。
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sut.getTransmitQueueDepth() < 1 || sut.getRecordQueueDepth() < 1) {
+            assertTrue("queues must be filled", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        producer.join(300);
+        assertThat(producer.isAlive(), is(true));
+        assertThat(submitted.get() < 10, is(true));
+        assertThat(sut.getTransmitQueueDepth(), is(1));
+        assertThat(sut.getRecordQueueDepth(), is(1));
+
+        release.countDown();
+        producer.join(10000);
+        sut.waitForCompletion();
+        assertThat(submitted.get(), is(10));
+        assertThat(server.getMessages().size(), is(10));
+    }
+
+    private static Session createSession(int port) throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("mail.smtp.host", "127.0.0.1");
+        properties.setProperty("mail.smtp.port", String.valueOf(port));
+        properties.setProperty("mail.smtp.localhost", "client.example.com");
+        properties.setProperty("mail.smtp.timeout", "5000");
+        Session session = Session.getInstance(properties);
+        session.setProvider(new javax.mail.Provider(javax.mail.Provider.Type.TRANSPORT, "smtp",
+                EsmtpTransport.class.getName(), "Nablarch", null));
+        return session;
+    }
+
+    private static MimeMessage createMessage(Session session, String to) throws Exception {
+        MimeMessage message = new MimeMessage(session);
+        message.setFrom(new InternetAddress("from@example.com"));
+        message.setRecipients(Message.RecipientType.TO, to);
+        message.setSubject("件名", "UTF-8");
+        message.setText("本文", "UTF-8");
+        message.saveChanges();
+        return message;
+    }
+}
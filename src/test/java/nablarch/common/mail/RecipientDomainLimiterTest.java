@@ -0,0 +1,107 @@
+package nablarch.common.mail;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import javax.mail.Address;
+import javax.mail.internet.InternetAddress;
+
+import org.junit.Test;
+
+/**
+ * {@link RecipientDomainLimiter}のテストクラス。
+ */
+public class RecipientDomainLimiterTest {
+
+    private long now = 0L;
+
+    private final RecipientDomainLimiter sut = new RecipientDomainLimiter() {
+        @Override
+        protected long currentTimeNanos() {
+            return now;
+        }
+    };
+
+    /**
+     * 同時に送信する件数が上限に達したドメインへの送信は見送られ、他のドメインへの送信は継続できること。
+     */
+    @Test
+    public void testMaxConcurrency() throws Exception {
+        sut.setDomainLimits(Arrays.asList(createLimit("example.com", 2, 0)));
+
+        assertThat(sut.tryAcquire(addresses("a@example.com")), is(true));
+        assertThat(sut.tryAcquire(addresses("b@EXAMPLE.com")), is(true));
+        assertThat(sut.tryAcquire(addresses("c@example.com")), is(false));
+        assertThat(sut.getInFlightCount("example.com"), is(2));
+        assertThat("上限が設定されていないドメインは制限されないこと",
+                sut.tryAcquire(addresses("a@example.net")), is(true));
+
+        sut.release(addresses("a@example.com"));
+        assertThat(sut.tryAcquire(addresses("c@example.com")), is(true));
+        assertThat(sut.getDeferredCount(), is(1L));
+    }
+
+    /**
+     * 送信レートが上限に達したドメインへの送信は、トークンが補充されるまで見送られること。
+     */
+    @Test
+    public void testRate() throws Exception {
+        sut.setDomainLimits(Arrays.asList(createLimit("example.com", 0, 2)));
+
+        assertThat(sut.tryAcquire(addresses("a@example.com")), is(true));
+        assertThat(sut.tryAcquire(addresses("b@example.com")), is(true));
+        assertThat(sut.tryAcquire(addresses("c@example.com")), is(false));
+
+        now += 500000000L;
+        assertThat(sut.tryAcquire(addresses("c@example.com")), is(true));
+        assertThat(sut.tryAcquire(addresses("d@example.com")), is(false));
+    }
+
+    /**
+     * 複数のドメインを宛先に持つメールは、いずれかのドメインが上限に達している場合は
+     * いずれのドメインについても送信を開始しないこと。
+     */
+    @Test
+    public void testMultipleDomains() throws Exception {
+        sut.setDomainLimits(Arrays.asList(createLimit("example.com", 1, 0), createLimit("example.net", 1, 0)));
+
+        assertThat(sut.tryAcquire(addresses("a@example.net")), is(true));
+        assertThat(sut.tryAcquire(addresses("a@example.com", "b@example.com", "b@example.net")), is(false));
+        assertThat(sut.getInFlightCount("example.com"), is(0));
+
+        sut.release(addresses("a@example.net"));
+        assertThat(sut.tryAcquire(addresses("a@example.com", "b@example.com", "b@example.net")), is(true));
+        assertThat("同一ドメインの宛先は1件として数えること", sut.getInFlightCount("example.com"), is(1));
+        assertThat(sut.getInFlightCount("example.net"), is(1));
+    }
+
+    /**
+     * 個別に設定していないドメインには、デフォルトの上限がドメインごとに適用されること。
+     */
+    @Test
+    public void testDefaultLimit() throws Exception {
+        sut.setDefaultLimit(createLimit(null, 1, 0));
+
+        assertThat(sut.tryAcquire(addresses("a@example.com")), is(true));
+        assertThat(sut.tryAcquire(addresses("b@example.com")), is(false));
+        assertThat(sut.tryAcquire(addresses("a@example.net")), is(true));
+    }
+
+    private static DomainLimit createLimit(String domain, int maxConcurrency, long permits) {
+        DomainLimit limit = new DomainLimit();
+        limit.setDomain(domain);
+        limit.setMaxConcurrency(maxConcurrency);
+        limit.setPermits(permits);
+        return limit;
+    }
+
+    private static Address[] addresses(String... addresses) throws Exception {
+        Address[] result = new Address[addresses.length];
+        for (int i = 0; i < addresses.length; i++) {
+            result[i] = new InternetAddress(addresses[i]);
+        }
+        return result;
+    }
+}
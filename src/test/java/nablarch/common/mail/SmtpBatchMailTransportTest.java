@@ -0,0 +1,187 @@
+package nablarch.common.mail;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * {@link SmtpBatchMailTransport}のテストクラス。
+ */
+public class SmtpBatchMailTransportTest {
+
+    private SmtpServerStub server;
+
+    private final SmtpBatchMailTransport sut = new SmtpBatchMailTransport();
+
+    @After
+    public void tearDown() throws Exception {
+        sut.dispose();
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    /**
+     * まとめる件数ごとに1つの接続で送信されること。
+     */
+    @Test
+    public void testSend_batched() throws Exception {
+        server = new SmtpServerStub();
+        Session session = createSession(server.start());
+        sut.setBatchSize(3);
+        sut.setMaxDelayMillis(60000L);
+        sut.initialize();
+
+        RecordingCallback callback = new RecordingCallback();
+        for (int i = 0; i < 7; i++) {
+            sut.send(session, createMessage(session, "to" + i + "@example.com"), callback);
+        }
+        sut.waitForCompletion();
+
+        assertThat(callback.successCount.get(), is(7));
+        assertThat(callback.failures.isEmpty(), is(true));
+        assertThat(sut.getPendingCount(), is(0));
+        assertThat(server.getMessages().size(), is(7));
+        assertThat("3件、3件、1件の3回の接続で送信されること", count(server.getCommands(), "EHLO"), is(3));
+        assertThat(count(server.getCommands(), "MAIL FROM:<return@example.com>"), is(7));
+    }
+
+    /**
+     * 件数に達しない場合でも、待ち時間の経過後に送信されること。
+     */
+    @Test
+    public void testSend_maxDelay() throws Exception {
+        server = new SmtpServerStub();
+        Session session = createSession(server.start());
+        sut.setBatchSize(100);
+        sut.setMaxDelayMillis(50L);
+        sut.initialize();
+
+        RecordingCallback callback = new RecordingCallback();
+        sut.send(session, createMessage(session, "to@example.com"), callback);
+        for (int i = 0; i < 100 && callback.successCount.get() == 0; i++) {
+            Thread.sleep(20L);
+        }
+        assertThat(callback.successCount.get(), is(1));
+    }
+
+    /**
+     * 宛先が拒否されたメールのみ送信失敗となり、同じ接続で後続のメールが送信されること。
+     */
+    @Test
+    public void testSend_invalidAddress() throws Exception {
+        server = new SmtpServerStub();
+        server.rejectRecipient("invalid@example.com", "550 no such user");
+        Session session = createSession(server.start());
+        sut.setMaxDelayMillis(60000L);
+        sut.initialize();
+
+        RecordingCallback callback = new RecordingCallback();
+        sut.send(session, createMessage(session, "to1@example.com"), callback);
+        sut.send(session, createMessage(session, "invalid@example.com"), callback);
+        sut.send(session, createMessage(session, "to2@example.com"), callback);
+        sut.waitForCompletion();
+
+        assertThat(callback.successCount.get(), is(2));
+        assertThat(callback.failures.size(), is(1));
+        assertThat(callback.failures.get(0), is(instanceOf(SendFailedException.class)));
+        assertThat(server.getMessages().size(), is(2));
+        assertThat(count(server.getCommands(), "EHLO"), is(1));
+    }
+
+    /**
+     * 接続できない場合は、まとめた全てのメールの送信失敗が通知されること。
+     */
+    @Test
+    public void testSend_connectionRefused() throws Exception {
+        ServerSocket closed = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        int port = closed.getLocalPort();
+        closed.close();
+        Session session = createSession(port);
+        sut.initialize();
+
+        RecordingCallback callback = new RecordingCallback();
+        sut.send(session, createMessage(session, "to1@example.com"), callback);
+        sut.send(session, createMessage(session, "to2@example.com"), callback);
+        sut.waitForCompletion();
+
+        assertThat(callback.successCount.get(), is(0));
+        assertThat(callback.failures.size(), is(2));
+        assertThat(callback.failures.get(0), is(not(instanceOf(SendFailedException.class))));
+    }
+
+    private static int count(List<String> commands, String prefix) {
+        int count = 0;
+        for (String command : commands) {
+            if (command.startsWith(prefix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static Session createSession(int port) {
+        Properties properties = new Properties();
+        properties.setProperty("mail.smtp.host", "127.0.0.1");
+        properties.setProperty("mail.smtp.port", String.valueOf(port));
+        properties.setProperty("mail.smtp.from", "return@example.com");
+        properties.setProperty("mail.smtp.localhost", "client.example.com");
+        properties.setProperty("mail.smtp.timeout", "5000");
+        Session session = Session.getInstance(properties);
+        try {
+            session.setProvider(new javax.mail.Provider(javax.mail.Provider.Type.TRANSPORT, "smtp",
+                    EsmtpTransport.class.getName(), "Nablarch", null));
+        } catch (MessagingException e) {
+            throw new IllegalStateException(e);
+        }
+        return session;
+    }
+
+    private static MimeMessage createMessage(Session session, String to) throws Exception {
+        MimeMessage message = new MimeMessage(session);
+        message.setFrom(new InternetAddress("from@example.com"));
+        message.setRecipients(Message.RecipientType.TO, to);
+        message.setSubject("件名", "UTF-8");
+        message.setText("本文", "UTF-8");
+        message.saveChanges();
+        return message;
+    }
+
+    /**
+     * 送信結果を記録するコールバック。
+     */
+    private static class RecordingCallback implements MailTransportCallback {
+
+        private final AtomicInteger successCount = new AtomicInteger();
+
+        private final List<MessagingException> failures =
+                Collections.synchronizedList(new ArrayList<MessagingException>());
+
+        @Override
+        public void onSuccess() {
+            successCount.incrementAndGet();
+        }
+
+        @Override
+        public void onFailure(MessagingException e) {
+            failures.add(e);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package nablarch.common.mail;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+import nablarch.core.db.statement.SqlRow;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link SmtpRelayRouter}のテストクラス。
+ */
+public class SmtpRelayRouterTest {
+
+    private final SmtpRelayRoute transactional = new SmtpRelayRoute();
+
+    private final SmtpRelayRoute marketing = new SmtpRelayRoute();
+
+    private final SmtpRelayRoute vip = new SmtpRelayRoute();
+
+    private final SmtpRelayRouter sut = new SmtpRelayRouter();
+
+    @Before
+    public void setUp() {
+        vip.setMailSendPatternId("01");
+        vip.setRoutingKey("vip");
+        transactional.setMailSendPatternId("01");
+        marketing.setFromDomain("News.Example.COM");
+        sut.setRoutes(Arrays.asList(vip, transactional, marketing));
+    }
+
+    /**
+     * メール送信パターンIDが一致するルールが選択されること。
+     */
+    @Test
+    public void testMailSendPatternId() {
+        assertThat(sut.route(createMailRequest("info@example.com", null), "01"), is(sameInstance(transactional)));
+        assertThat(sut.route(createMailRequest("info@example.com", null), "02"), is(nullValue()));
+        assertThat(sut.route(createMailRequest("info@example.com", null), null), is(nullValue()));
+    }
+
+    /**
+     * 送信者アドレスのドメインが大文字と小文字を区別せずに一致するルールが選択されること。
+     */
+    @Test
+    public void testFromDomain() {
+        assertThat(sut.route(createMailRequest("news@news.example.com", null), "02"), is(sameInstance(marketing)));
+        assertThat(sut.route(createMailRequest("Example News <news@NEWS.example.com>", null), null),
+                is(sameInstance(marketing)));
+        assertThat(sut.route(createMailRequest("news@example.com", null), null), is(nullValue()));
+    }
+
+    /**
+     * 全ての条件に一致するルールのうち、先頭のルールが選択されること。
+     */
+    @Test
+    public void testRoutingKey() {
+        assertThat(sut.route(createMailRequest("news@news.example.com", "vip"), "01"), is(sameInstance(vip)));
+        assertThat(sut.route(createMailRequest("news@news.example.com", "normal"), "01"),
+                is(sameInstance(transactional)));
+        assertThat(sut.route(createMailRequest("news@news.example.com", "vip"), "02"), is(sameInstance(marketing)));
+    }
+
+    /**
+     * 条件を設定しないルールは全てのメールに一致すること。
+     */
+    @Test
+    public void testDefaultRoute() {
+        final SmtpRelayRoute defaultRoute = new SmtpRelayRoute();
+        sut.setRoutes(Arrays.asList(transactional, defaultRoute));
+        assertThat(sut.route(createMailRequest("info@example.com", null), "02"), is(sameInstance(defaultRoute)));
+    }
+
+    /**
+     * ルールに設定された{@link MailTransport}が重複なく取得できること。
+     */
+    @Test
+    public void testGetMailTransports() {
+        final MailTransport transport1 = new NopMailTransport();
+        final MailTransport transport2 = new NopMailTransport();
+        vip.setMailTransport(transport1);
+        transactional.setMailTransport(transport1);
+        marketing.setMailTransport(transport2);
+
+        final List<MailTransport> actual = sut.getMailTransports();
+        assertThat(actual.size(), is(2));
+        assertThat(actual.get(0), is(sameInstance(transport1)));
+        assertThat(actual.get(1), is(sameInstance(transport2)));
+    }
+
+    private static MailRequestTable.MailRequest createMailRequest(String from, String routingKey) {
+        final Map<String, Object> row = new HashMap<String, Object>();
+        row.put("MAIL_REQUEST_ID", "1");
+        row.put("FROM_ADDRESS", from);
+        if (routingKey != null) {
+            row.put("ROUTING_KEY", routingKey);
+        }
+        return new MailRequestTable.MailRequest(new SqlRow(row, new HashMap<String, Integer>()));
+    }
+
+    private static final class NopMailTransport implements MailTransport {
+
+        @Override
+        public void send(Session session, MimeMessage message, MailTransportCallback callback) {
+            callback.onSuccess();
+        }
+
+        @Override
+        public void waitForCompletion() {
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package nablarch.common.mail;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+
+import org.junit.Test;
+
+/**
+ * {@link SmtpRelaySelector}のテストクラス。
+ */
+public class SmtpRelaySelectorTest {
+
+    private final SmtpRelay relay1 = createRelay("smtp1", 3);
+
+    private final SmtpRelay relay2 = createRelay("smtp2", 1);
+
+    private final SmtpRelaySelector sut = new SmtpRelaySelector();
+
+    /**
+     * ラウンドロビンの場合は、重みに比例して偏りなく選択されること。
+     */
+    @Test
+    public void testRoundRobin() {
+        sut.setRelays(Arrays.asList(relay1, relay2));
+
+        final List<SmtpRelay> selected = new ArrayList<SmtpRelay>();
+        for (int i = 0; i < 8; i++) {
+            selected.add(sut.select());
+        }
+        assertThat(selected, is(Arrays.asList(relay1, relay1, relay2, relay1, relay1, relay1, relay2, relay1)));
+    }
+
+    /**
+     * 送信中の件数が最も少ない場合は、送信中の件数を重みで割った値が最も小さいSMTPサーバが選択されること。
+     */
+    @Test
+    public void testLeastInFlight() {
+        sut.setRelays(Arrays.asList(relay1, relay2));
+        sut.setStrategy(SmtpRelaySelector.LEAST_IN_FLIGHT);
+
+        final List<SmtpRelay> selected = new ArrayList<SmtpRelay>();
+        for (int i = 0; i < 5; i++) {
+            final SmtpRelay relay = sut.select();
+            sut.begin(relay);
+            selected.add(relay);
+        }
+        // 0/3=0/1, 1/3<0/1, 1/3<1/1, 2/3<1/1, 3/3=1/1 (同じ値の場合は先に設定されたSMTPサーバ)
+        assertThat(selected, is(Arrays.asList(relay1, relay2, relay1, relay1, relay1)));
+        assertThat(sut.getInFlightCount(relay1), is(4));
+        assertThat(sut.getInFlightCount(relay2), is(1));
+
+        sut.recordResult(relay2, null);
+        assertThat(sut.getInFlightCount(relay2), is(0));
+        assertThat("4/3と0/1のため、smtp2が選択されること", sut.select(), is(sameInstance(relay2)));
+    }
+
+    /**
+     * 送信の失敗が続いたSMTPサーバは選択対象から除外され、他のSMTPサーバが選択されること。
+     * 宛先の拒否は送信成功として扱われること。
+     */
+    @Test
+    public void testFailover() {
+        sut.setRelays(Arrays.asList(relay1, relay2));
+        sut.setFailureThreshold(2);
+        sut.setRetryIntervalMillis(60000L);
+
+        sut.recordResult(relay1, new MessagingException("connection refused"));
+        sut.recordResult(relay1, new SendFailedException("550 user unknown"));
+        sut.recordResult(relay1, new MessagingException("connection refused"));
+        assertThat(sut.getState(relay1), is(MailCircuitBreaker.State.CLOSED));
+
+        sut.recordResult(relay1, new MessagingException("connection refused"));
+        assertThat(sut.getState(relay1), is(MailCircuitBreaker.State.OPEN));
+        for (int i = 0; i < 4; i++) {
+            assertThat(sut.select(), is(sameInstance(relay2)));
+        }
+
+        sut.recordResult(relay2, new MessagingException("connection refused"));
+        sut.recordResult(relay2, new MessagingException("connection refused"));
+        assertThat("全てのSMTPサーバが除外された場合はnullが返されること", sut.select(), is(nullValue()));
+    }
+
+    /**
+     * 除外したSMTPサーバは試行間隔の経過後に試行され、成功した場合は選択対象に戻ること。
+     */
+    @Test
+    public void testRecovery() {
+        sut.setRelays(Arrays.asList(relay1));
+        sut.setFailureThreshold(1);
+        sut.setRetryIntervalMillis(0L);
+
+        sut.recordResult(relay1, new MessagingException("connection refused"));
+        assertThat(sut.getState(relay1), is(MailCircuitBreaker.State.OPEN));
+
+        assertThat(sut.select(), is(sameInstance(relay1)));
+        assertThat(sut.getState(relay1), is(MailCircuitBreaker.State.HALF_OPEN));
+        sut.recordResult(relay1, null);
+        assertThat(sut.getState(relay1), is(MailCircuitBreaker.State.CLOSED));
+    }
+
+    /**
+     * サポートしていない選択方法を設定した場合は例外が送出されること。
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedStrategy() {
+        sut.setStrategy("random");
+    }
+
+    private static SmtpRelay createRelay(String host, int weight) {
+        final SmtpRelay relay = new SmtpRelay();
+        relay.setHost(host);
+        relay.setWeight(weight);
+        return relay;
+    }
+}
@@ -0,0 +1,265 @@
+package nablarch.common.mail;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * テスト用のSMTPサーバ。
+ * <p/>
+ * 受信したコマンドとメッセージを記録する。
+ * 広告する拡張機能と、拒否する宛先を指定できる。
+ * AUTHコマンドはPLAINとLOGINに応答する。
+ */
+public class SmtpServerStub {
+
+    /** EHLOで広告する拡張機能 */
+    private final String[] extensions;
+
+    /** 拒否する宛先と応答 */
+    private final Map<String, String> rejectedRecipients = new HashMap<String, String>();
+
+    /** MAIL FROMコマンドへの応答 */
+    private String mailFromResponse = "250 OK";
+
+    /** 認証の応答 */
+    private String authResponse = "235 authenticated";
+
+    /** 接続元のポート */
+    private final List<Integer> clientPorts = Collections.synchronizedList(new ArrayList<Integer>());
+
+    /** 受信したコマンド */
+    private final List<String> commands = Collections.synchronizedList(new ArrayList<String>());
+
+    /** 受信時に後続のコマンドも受信済みだったコマンド(パイプライン化されたコマンド) */
+    private final List<String> pipelinedCommands = Collections.synchronizedList(new ArrayList<String>());
+
+    /** 受信したメッセージ */
+    private final List<byte[]> messages = Collections.synchronizedList(new ArrayList<byte[]>());
+
+    /** 受信したBDATコマンドのチャンク数 */
+    private int chunkCount;
+
+    private ServerSocket serverSocket;
+
+    private Thread acceptThread;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param extensions EHLOで広告する拡張機能
+     */
+    public SmtpServerStub(String... extensions) {
+        this.extensions = extensions;
+    }
+
+    /**
+     * 宛先を拒否する。
+     *
+     * @param address 拒否する宛先
+     * @param response RCPT TOコマンドへの応答
+     */
+    public void rejectRecipient(String address, String response) {
+        rejectedRecipients.put(address, response);
+    }
+
+    /**
+     * 送信者を拒否する。
+     *
+     * @param response MAIL FROMコマンドへの応答
+     */
+    public void rejectSender(String response) {
+        mailFromResponse = response;
+    }
+
+    /**
+     * 認証を拒否する。
+     *
+     * @param response 認証の応答
+     */
+    public void rejectAuthentication(String response) {
+        authResponse = response;
+    }
+
+    /**
+     * サーバを起動する。
+     *
+     * @return 待ち受けポート
+     */
+    public int start() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        final Thread session = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                handle(socket);
+                            }
+                        });
+                        session.setDaemon(true);
+                        session.start();
+                    } catch (IOException ignored) {
+                        return;
+                    }
+                }
+            }
+        });
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * サーバを停止する。
+     */
+    public void stop() throws Exception {
+        serverSocket.close();
+        acceptThread.join(1000);
+    }
+
+    public List<String> getCommands() {
+        synchronized (commands) {
+            return new ArrayList<String>(commands);
+        }
+    }
+
+    public List<String> getPipelinedCommands() {
+        synchronized (pipelinedCommands) {
+            return new ArrayList<String>(pipelinedCommands);
+        }
+    }
+
+    public List<byte[]> getMessages() {
+        synchronized (messages) {
+            return new ArrayList<byte[]>(messages);
+        }
+    }
+
+    public List<Integer> getClientPorts() {
+        synchronized (clientPorts) {
+            return new ArrayList<Integer>(clientPorts);
+        }
+    }
+
+    public synchronized int getChunkCount() {
+        return chunkCount;
+    }
+
+    private synchronized void countChunk() {
+        chunkCount++;
+    }
+
+    private void handle(Socket socket) {
+        clientPorts.add(socket.getPort());
+        try {
+            final InputStream in = new BufferedInputStream(socket.getInputStream());
+            final OutputStream out = socket.getOutputStream();
+            reply(out, "220 stub ESMTP");
+            ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+            String line;
+            while ((line = readLine(in)) != null) {
+                commands.add(line);
+                if (in.available() > 0) {
+                    pipelinedCommands.add(line);
+                }
+                final String command = line.toUpperCase(Locale.ENGLISH);
+                if (command.startsWith("EHLO")) {
+                    final StringBuilder response = new StringBuilder("250-stub");
+                    for (String extension : extensions) {
+                        response.append("\r\n250-").append(extension);
+                    }
+                    response.append("\r\n250 HELP");
+                    reply(out, response.toString());
+                } else if (command.startsWith("AUTH PLAIN")) {
+                    reply(out, authResponse);
+                } else if (command.equals("AUTH LOGIN")) {
+                    reply(out, "334 VXNlcm5hbWU6");
+                    commands.add(readLine(in));
+                    reply(out, "334 UGFzc3dvcmQ6");
+                    commands.add(readLine(in));
+                    reply(out, authResponse);
+                } else if (command.startsWith("MAIL FROM:")) {
+                    reply(out, mailFromResponse);
+                } else if (command.startsWith("RCPT TO:")) {
+                    final String address = line.substring(line.indexOf('<') + 1, line.indexOf('>'));
+                    final String rejected = rejectedRecipients.get(address);
+                    reply(out, rejected != null ? rejected : "250 OK");
+                } else if (command.equals("DATA")) {
+                    reply(out, "354 go ahead");
+                    messages.add(readData(in));
+                    reply(out, "250 OK queued");
+                } else if (command.startsWith("BDAT")) {
+                    final String[] args = line.split(" ");
+                    final byte[] chunk = new byte[Integer.parseInt(args[1])];
+                    int offset = 0;
+                    while (offset < chunk.length) {
+                        offset += in.read(chunk, offset, chunk.length - offset);
+                    }
+                    chunks.write(chunk);
+                    countChunk();
+                    if (args.length > 2 && args[2].equalsIgnoreCase("LAST")) {
+                        messages.add(chunks.toByteArray());
+                        chunks = new ByteArrayOutputStream();
+                    }
+                    reply(out, "250 OK");
+                } else if (command.equals("QUIT")) {
+                    reply(out, "221 bye");
+                    break;
+                } else {
+                    reply(out, "250 OK");
+                }
+            }
+            socket.close();
+        } catch (IOException ignored) {
+            // テスト用のため、切断時の例外は無視する。
+        }
+    }
+
+    private static byte[] readData(InputStream in) throws IOException {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        String line;
+        while ((line = readLine(in)) != null && !line.equals(".")) {
+            if (line.startsWith(".")) {
+                line = line.substring(1);
+            }
+            data.write(line.getBytes("ISO-8859-1"));
+            data.write('\r');
+            data.write('\n');
+        }
+        return data.toByteArray();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                final byte[] bytes = line.toByteArray();
+                final int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+                return new String(bytes, 0, length, "ISO-8859-1");
+            }
+            line.write(b);
+        }
+        return null;
+    }
+
+    private static void reply(OutputStream out, String response) throws IOException {
+        out.write((response + "\r\n").getBytes("ISO-8859-1"));
+        out.flush();
+    }
+}